@@ -0,0 +1,190 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleConsumer;
+import javafx.scene.media.AudioClip;
+import model.Car;
+import model.Sprites;
+import model.TrackFields;
+import track.Track;
+import track.TrackRegistry;
+
+/**
+ * Loads everything the game needs at startup concurrently on a small pool of worker threads. All
+ * assets are declared in the constructor; the ones the menu needs are marked as required, so the
+ * menu can be shown as soon as they are loaded while the rest keeps loading. The time each asset
+ * took and the time until the required and all assets were ready are logged.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class AssetLoader implements AutoCloseable {
+
+    private final long created = System.nanoTime();
+    private final ExecutorService pool;
+    private final List<Asset<?>> assets = new ArrayList<>();
+    private final AtomicInteger done = new AtomicInteger();
+    private final DoubleConsumer progress;
+    private final boolean log;
+    private final CompletableFuture<Track> track;
+    private final CompletableFuture<TrackFields> trackFields;
+    private final CompletableFuture<AudioClip> engineNoise;
+    private final CompletableFuture<Void> required, all;
+
+    /**
+     * Constructs an AssetLoader and starts loading.
+     *
+     * @param trackName The track to load.
+     * @param progress Called with the fraction of assets loaded so far, from 0 to 1, on a worker
+     *        thread.
+     * @param log true to print how long loading took.
+     */
+    public AssetLoader(String trackName, DoubleConsumer progress, boolean log) {
+        this.progress = progress;
+        this.log = log;
+        // the track with its edges, the car and obstacles and the menu are needed to show the
+        // menu; the assets that wait for the track come after it, so it is already loading when
+        // they start
+        track = declare(trackName, true, () -> TrackRegistry.get(trackName));
+        for (String image : new String[] {"menu.png", "car_intact.png", "obstacle.png"}) {
+            declare(image, true, () -> Sprites.get(image));
+        }
+        declare("background", true,
+                        () -> Sprites.get(track.join().getDescriptor().getBackground()));
+        declare("edge distance", true, () -> track.join().getEdgeField());
+        // the rest is needed once the race has started; the computer drivers wait for the fields
+        trackFields = declare("track fields", false, () -> track.join().getFields());
+        for (String image : new String[] {"car_destroyed.png", "pause.png", "game_over.png",
+                        "round_finished.png"}) {
+            declare(image, false, () -> Sprites.get(image));
+        }
+        engineNoise = declare("engine.wav", false,
+                        () -> new AudioClip(getClass().getResource("/engine.wav").toString()));
+
+        List<CompletableFuture<?>> needed = new ArrayList<>();
+        for (Asset<?> asset : assets) {
+            if (asset.required) {
+                needed.add(asset.future);
+            }
+        }
+        required = CompletableFuture.allOf(needed.toArray(new CompletableFuture<?>[0]))
+                        .thenRun(() -> {
+                            Car.useTrack(track.join());
+                            log("required assets");
+                        });
+        all = CompletableFuture.allOf(required,
+                        CompletableFuture.allOf(assets.stream().map(a -> a.future)
+                                        .toArray(CompletableFuture<?>[]::new)))
+                        .thenRun(() -> log("all assets"));
+        pool = Executors.newFixedThreadPool(
+                        Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+                            Thread thread = new Thread(r, "Asset loader");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        for (Asset<?> asset : assets) {
+            pool.execute(asset::load);
+        }
+        pool.shutdown();
+    }
+
+    private <T> CompletableFuture<T> declare(String name, boolean isRequired,
+                    Callable<T> loader) {
+        Asset<T> asset = new Asset<>(name, isRequired, loader);
+        assets.add(asset);
+        return asset.future;
+    }
+
+    private void log(String what) {
+        if (log) {
+            System.out.printf("Loaded %s after %d ms.%n", what,
+                            (System.nanoTime() - created) / 1_000_000);
+        }
+    }
+
+    /**
+     * Something to load.
+     */
+    private class Asset<T> {
+        final String name;
+        final boolean required;
+        final Callable<T> loader;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Asset(String name, boolean required, Callable<T> loader) {
+            this.name = name;
+            this.required = required;
+            this.loader = loader;
+        }
+
+        void load() {
+            long start = System.nanoTime();
+            T result = null;
+            Throwable error = null;
+            try {
+                result = loader.call();
+            } catch (Exception | Error e) {
+                error = new IllegalStateException("Could not load " + name, e);
+            }
+            if (log) {
+                System.out.printf("Loaded %s in %d ms.%n", name,
+                                (System.nanoTime() - start) / 1_000_000);
+            }
+            // reported in order, so the progress never goes back, and before the asset is
+            // complete, so it has reached 1 when all assets are
+            synchronized (done) {
+                progress.accept((double) done.incrementAndGet() / assets.size());
+            }
+            if (error == null) {
+                future.complete(result);
+            } else {
+                future.completeExceptionally(error);
+            }
+        }
+    }
+
+    /**
+     *
+     * @return Completes when everything that is needed to show the menu has been loaded; the
+     *         track is in use then (see {@link Car#getTrack()}).
+     */
+    public CompletableFuture<Void> required() {
+        return required;
+    }
+
+    /**
+     *
+     * @return Completes when all assets have been loaded.
+     */
+    public CompletableFuture<Void> all() {
+        return all;
+    }
+
+    /**
+     *
+     * @return The fields of the track for the computer drivers, see
+     *         {@link model.AIDriver#AIDriver(double, CompletableFuture)}.
+     */
+    public CompletableFuture<TrackFields> getTrackFields() {
+        return trackFields;
+    }
+
+    /**
+     *
+     * @return The engine noise, see {@link controller.SoundController}.
+     */
+    public CompletableFuture<AudioClip> getEngineNoise() {
+        return engineNoise;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
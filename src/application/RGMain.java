@@ -1,14 +1,44 @@
 package application;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import controller.AssetReloader;
 import controller.GameController;
+import controller.KeyboardDriver;
 import controller.SoundController;
+import diagnostics.Benchmark;
+import diagnostics.Diagnostics;
+import diagnostics.FrameEvent;
+import diagnostics.Metrics;
+import diagnostics.MetricsServer;
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.text.Font;
 import javafx.stage.Stage;
+import jdk.jfr.Recording;
+import model.AIDriver;
 import model.Car;
+import model.Driver;
+import model.LapLog;
+import model.ObstacleLayout;
+import model.TrackFields;
+import network.NetworkConditions;
+import network.RaceClient;
+import network.RaceServer;
+import track.TrackRegistry;
 import view.GameView;
+import view.SplashView;
 
 /**
  * Main class of the racing game. Sets up the GUI and logic elements.
@@ -18,9 +48,30 @@ import view.GameView;
  */
 public class RGMain extends Application {
 
+    private static final double OPPONENT_SPEED = 12, AUTOPILOT_SPEED = 15;
+
+    /**
+     * The course of a benchmark unless another one is given, and the simulated time per frame,
+     * so every run simulates the same race whatever the frame rate.
+     */
+    private static final long BENCH_COURSE = 0x5eedL;
+    private static final double BENCH_TIME_DELTA = 1 / 60.0;
+
+    /**
+     * The status the application exits with, not 0 if a benchmark has found a regression.
+     */
+    private static volatile int exitStatus;
+
     private long oldTime;
     private GameView gameView;
+    private GameController gameController;
     private SoundController audioController;
+    private RaceServer raceServer;
+    private RaceClient raceClient;
+    private AssetReloader reloader;
+    private Recording recording;
+    private MetricsServer metricsServer;
+    private Benchmark bench;
 
     public GameView getGameView() {
         return this.gameView;
@@ -33,13 +84,86 @@ public class RGMain extends Application {
 
     @Override
     public void start(Stage stage) throws Exception {
-        // Create the instances for the game
-        Car.initTrack();
-        gameView = new GameView(stage);
-        audioController = new SoundController(gameView.getCar());
+        // "--players=2" for two players on one keyboard, "--ai=n" for n computer opponents,
+        // "--autopilot" lets the computer drive the car of the player, "--track=name" chooses
+        // the track
+        Map<String, String> named = getParameters() != null ? getParameters().getNamed()
+                        : Collections.emptyMap();
+        // Load everything on worker threads while a splash shows the progress, then show the
+        // menu as soon as it can be drawn. The rest keeps loading in the background.
+        long started = System.nanoTime();
+        // "--bench" drives a fixed course with the autopilot for "--bench-frames=n" frames after
+        // "--bench-warmup=n" frames and writes a report to bench.json, "--bench=file" to another
+        // file, see finishBenchmark
+        if (getParameters() != null && (getParameters().getRaw().contains("--bench")
+                        || named.containsKey("bench"))) {
+            bench = new Benchmark(Integer.parseInt(named.getOrDefault("bench-warmup", "300")),
+                            Integer.parseInt(named.getOrDefault("bench-frames", "1200")));
+        }
+        // "--metrics" serves statistics for Prometheus on localhost, "--metrics=port" on
+        // another port than MetricsServer.DEFAULT_PORT
+        if (getParameters() != null && (getParameters().getRaw().contains("--metrics")
+                        || named.containsKey("metrics"))) {
+            metricsServer = new MetricsServer(Integer.parseInt(named.getOrDefault("metrics",
+                            Integer.toString(MetricsServer.DEFAULT_PORT))));
+        }
+        // "--jfr=file" records the flight recorder events of the game into the file
+        if (named.containsKey("jfr")) {
+            recording = Diagnostics.record(Paths.get(named.get("jfr")));
+        }
+        SplashView splash = new SplashView(stage);
+        AssetLoader loader = new AssetLoader(named.getOrDefault("track", TrackRegistry.DEFAULT),
+                        p -> Platform.runLater(() -> splash.setProgress(p)), true);
+        loader.required().whenComplete((v, e) -> Platform.runLater(() -> {
+            try {
+                if (e != null) {
+                    throw e;
+                }
+                if (bench != null) {
+                    bench.startupPhase("assets", (System.nanoTime() - started) / 1_000_000);
+                }
+                startGame(stage, named, loader);
+                if (bench != null) {
+                    bench.startupPhase("menu", (System.nanoTime() - started) / 1_000_000);
+                }
+                System.out.printf("Showed the menu after %d ms.%n",
+                                (System.nanoTime() - started) / 1_000_000);
+            } catch (Throwable t) {
+                t.printStackTrace();
+                Platform.exit();
+            }
+        }));
+    }
+
+    /**
+     * Create the instances for the game and start the game loop, once the assets they need have
+     * been loaded.
+     */
+    private void startGame(Stage stage, Map<String, String> named, AssetLoader loader)
+                    throws IOException {
+        int players = Integer.parseInt(named.getOrDefault("players", "1")) > 1 ? 2 : 1;
+        int opponents = Math.max(Integer.parseInt(named.getOrDefault("ai", "0")), 0);
+        // "--course=seed" races the obstacles another player has raced, the seed is shown in the
+        // title of the window
+        long course = named.containsKey("course") ? ObstacleLayout.parseSeed(named.get("course"))
+                        : bench != null ? BENCH_COURSE : new SplittableRandom().nextLong();
+        gameView = new GameView(stage, players + opponents, course);
+        audioController = new SoundController(gameView.getCar(), loader.getEngineNoise());
         new Thread(audioController).start();
+        SoundController audio = audioController;
+        Metrics.gauge("rennspiel_audio_running", "1 while the engine noise can be played",
+                        () -> audio.isEngineRunning() ? 1 : 0);
+        Metrics.gauge("rennspiel_audio_playing", "1 while the engine noise is played",
+                        () -> audio.isPlaying() ? 1 : 0);
+        Car player = gameView.getCar();
+        Metrics.gauge("rennspiel_car_speed_mps", "Speed of the car of the first player",
+                        () -> Math.abs(player.getState().getVel()));
         stage.setOnCloseRequest(e -> audioController.cancel());
-        GameController gameController = new GameController(gameView, audioController);
+        gameController = new GameController(gameView, audioController);
+        boolean autopilot = bench != null || getParameters() != null
+                        && getParameters().getRaw().contains("--autopilot");
+        gameController.setDrivers(createDrivers(players, gameView.getCars().size(), autopilot,
+                        loader.getTrackFields()), players);
         GraphicsContext gc = gameView.getGraphicsContext();
 
         gameView.setController(gameController);
@@ -48,6 +172,12 @@ public class RGMain extends Application {
         gameView.getToDraw();
         // freeze the game and show initial info screen
         gameView.showMenu();
+        if (bench != null) {
+            // the autopilot has to drive from the first frame of the race on, so every run is
+            // the same
+            loader.getTrackFields().whenComplete(
+                            (fields, e) -> Platform.runLater(gameController::restart));
+        }
 
         // For determining the current framerate.
         // Start the application with argument "-fps" for framerate output.
@@ -58,6 +188,7 @@ public class RGMain extends Application {
         // benchmark[1] = how many frames have been rendered since the last fps
         // printing
         // benchmark[2] = value of last fps printing
+        Metrics.gauge("rennspiel_fps", "Frames in the last second", () -> benchmark[2]);
 
         boolean displayFPS;
         if (getParameters() != null) {
@@ -66,6 +197,53 @@ public class RGMain extends Application {
             displayFPS = true;
         }
 
+        // Start the application with argument "--ghost" to race against your best lap.
+        if (getParameters() != null && getParameters().getRaw().contains("--ghost")) {
+            gameController.enableGhost(Paths.get(System.getProperty("user.home"), ".rennspiel",
+                            "ghost_" + Car.getTrack().getName() + ".bin"));
+        }
+
+        // "--telemetry" records every tick of the player's car into a file for the
+        // TelemetryAnalyser, "--telemetry=file" into another file.
+        if (getParameters() != null && (getParameters().getRaw().contains("--telemetry")
+                        || named.containsKey("telemetry"))) {
+            gameController.enableTelemetry(named.containsKey("telemetry")
+                            ? Paths.get(named.get("telemetry"))
+                            : Paths.get(System.getProperty("user.home"), ".rennspiel",
+                                            "telemetry_" + Car.getTrack().getName() + ".bin"));
+        }
+
+        // "--lap-log" appends every lap of the player to a CSV file, "--lap-log=file" to another
+        // file
+        if (getParameters() != null && (getParameters().getRaw().contains("--lap-log")
+                        || named.containsKey("lap-log"))) {
+            new LapLog(named.containsKey("lap-log") ? Paths.get(named.get("lap-log"))
+                            : Paths.get(System.getProperty("user.home"), ".rennspiel",
+                                            "laps_" + Car.getTrack().getName() + ".csv"),
+                            gameView.getCar(), gameView.getEvents());
+        }
+
+        // "--rewind" lets the player rewind the last 10 seconds by holding backspace,
+        // "--rewind=seconds" another time
+        if (getParameters() != null && (getParameters().getRaw().contains("--rewind")
+                        || named.containsKey("rewind"))) {
+            gameController.enableRewind(Double.parseDouble(named.getOrDefault("rewind", "10")));
+        }
+
+        // "--host" starts a race server and joins it, "--connect=host:port" joins a server.
+        // "--lag=ms" and "--loss=percent" simulate a bad network.
+        if (getParameters() != null) {
+            startNetwork(getParameters().getRaw().contains("--host"), named, gameController);
+        }
+
+        // "--dev" reloads tracks and images from the directory "res" when they are changed,
+        // "--dev=dir" from another directory.
+        if (getParameters() != null && (getParameters().getRaw().contains("--dev")
+                        || named.containsKey("dev"))) {
+            reloader = new AssetReloader(Paths.get(named.getOrDefault("dev", "res")));
+            reloader.start();
+        }
+
 
         /*
          * Start the gameloop. It is executed every frame, the long now is the current timestamp
@@ -73,6 +251,16 @@ public class RGMain extends Application {
         AnimationTimer anim = new AnimationTimer() {
             @Override
             public void handle(long now) {
+                // the phases are only timed while the event is recorded or metrics are served
+                FrameEvent frame = new FrameEvent();
+                boolean timed = frame.isEnabled() || Metrics.isEnabled() || bench != null;
+                frame.begin();
+                long phase = timed ? System.nanoTime() : 0;
+
+                // swap in reloaded assets between two frames
+                if (reloader != null) {
+                    reloader.applyPending();
+                }
 
                 /*
                  * timeDelta calculates the time between 2 frames. It compares the last time with
@@ -96,11 +284,20 @@ public class RGMain extends Application {
                 /*
                  * Sets the oldTime to now, so the next loop can take the difference
                  */
+                frame.frameTime = now - oldTime;
+                if (timed && oldTime != 0) {
+                    Metrics.FRAME_TIME.observeNanos(now - oldTime);
+                }
                 oldTime = now;
 
                 // Update Canvas
                 // First, draw the track image in order to reset the canvas
-                gc.drawImage(GameView.TRACK, 0, 0);
+                gc.drawImage(gameView.getBackground(), 0, 0);
+                if (timed) {
+                    long end = System.nanoTime();
+                    frame.background = end - phase;
+                    phase = end;
+                }
                 // refresh "toDraw" list in case the obstacles were randomized
                 gameView.refreshToDraw();
                 // draw every Drawable
@@ -109,11 +306,30 @@ public class RGMain extends Application {
                     gc.setFont(Font.font("monospace", 20));
                     gc.fillText(benchmark[2] + " fps", 10, 25);
                 }
+                if (timed) {
+                    long end = System.nanoTime();
+                    frame.drawables = end - phase;
+                    phase = end;
+                }
 
                 /*
                  * Use the controller to update all dependencies
                  */
-                gameController.updateContinuously(timeDelta);
+                gameController.updateContinuously(bench != null ? BENCH_TIME_DELTA : timeDelta);
+                if (timed) {
+                    frame.update = System.nanoTime() - phase;
+                }
+                frame.commit();
+
+                // only the frames of the race are measured, then the race starts again
+                if (bench != null && !bench.isDone()) {
+                    if (gameController.isInGame() && bench.frame(frame.frameTime,
+                                    frame.background + frame.drawables, frame.update)) {
+                        finishBenchmark(named);
+                    } else if (gameView.isRaceOver()) {
+                        gameController.restart();
+                    }
+                }
 
             }
         };
@@ -122,12 +338,145 @@ public class RGMain extends Application {
         stage.show();
     }
 
+    /**
+     * Write the report of the benchmark and exit. With "--baseline=file" the report is compared
+     * with an earlier one; if a value has grown by more than "--threshold=percent" (10 by
+     * default, or "--threshold.name=percent" for a single value), the regressions are printed
+     * and the application exits with status 1.
+     */
+    private void finishBenchmark(Map<String, String> named) {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("track", Car.getTrack().getName());
+        info.put("course", ObstacleLayout.toString(gameView.getLayout().getSeed()));
+        info.put("cars", gameView.getCars().size());
+        info.put("java", System.getProperty("java.version"));
+        Map<String, Object> report = bench.report(info);
+        try {
+            Benchmark.write(Paths.get(named.getOrDefault("bench", "bench.json")), report);
+            System.out.print(Benchmark.toJson(report));
+            if (named.containsKey("baseline")) {
+                Map<String, Double> thresholds = new HashMap<>();
+                for (Map.Entry<String, String> e : named.entrySet()) {
+                    if (e.getKey().startsWith("threshold.")) {
+                        thresholds.put(e.getKey().substring("threshold.".length()),
+                                        Double.parseDouble(e.getValue()));
+                    }
+                }
+                List<String> regressions = Benchmark.compare(
+                                Benchmark.read(Paths.get(named.get("baseline"))), report,
+                                Double.parseDouble(named.getOrDefault("threshold", "10")),
+                                thresholds);
+                regressions.forEach(regression -> System.out.println("Regression: " + regression));
+                if (!regressions.isEmpty()) {
+                    exitStatus = 1;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            exitStatus = 1;
+        }
+        Platform.exit();
+    }
+
+    /**
+     * Create the drivers of all cars: the players first, then computer opponents.
+     */
+    private static List<Driver> createDrivers(int players, int cars, boolean autopilot,
+                    CompletableFuture<TrackFields> fields) {
+        List<Driver> drivers = new ArrayList<>(cars);
+        if (autopilot) {
+            drivers.add(new AIDriver(AUTOPILOT_SPEED, fields));
+            if (players > 1) {
+                drivers.add(new KeyboardDriver(KeyboardDriver.ARROWS));
+            }
+        } else if (players == 1) {
+            drivers.add(new KeyboardDriver(KeyboardDriver.WASD, KeyboardDriver.ARROWS));
+        } else {
+            drivers.add(new KeyboardDriver(KeyboardDriver.WASD));
+            drivers.add(new KeyboardDriver(KeyboardDriver.ARROWS));
+        }
+        while (drivers.size() < cars) {
+            drivers.add(new AIDriver(OPPONENT_SPEED, fields));
+        }
+        return drivers;
+    }
+
+    /**
+     * Start a race server and/or a client for a multiplayer race, if requested.
+     */
+    private void startNetwork(boolean host, Map<String, String> named,
+                    GameController gameController) throws IOException {
+        String connect = named.get("connect");
+        if (!host && connect == null) {
+            return;
+        }
+        NetworkConditions conditions = NetworkConditions.NONE;
+        if (named.containsKey("lag") || named.containsKey("loss")) {
+            long lag = Long.parseLong(named.getOrDefault("lag", "0"));
+            conditions = new NetworkConditions(lag, lag / 5,
+                            Double.parseDouble(named.getOrDefault("loss", "0")) / 100,
+                            System.nanoTime());
+        }
+        InetSocketAddress address;
+        if (host) {
+            raceServer = new RaceServer(RaceServer.DEFAULT_PORT, conditions);
+            raceServer.start();
+            address = new InetSocketAddress("localhost", raceServer.getPort());
+        } else {
+            String[] hostAndPort = connect.split(":");
+            address = new InetSocketAddress(hostAndPort[0], hostAndPort.length > 1
+                            ? Integer.parseInt(hostAndPort[1]) : RaceServer.DEFAULT_PORT);
+        }
+        raceClient = new RaceClient(address, gameView.getCar(), conditions);
+        if (raceClient.connect(5_000)) {
+            gameController.enableNetwork(raceClient);
+        } else {
+            System.err.println("Could not join the race at " + address);
+            raceClient.close();
+            raceClient = null;
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (gameController != null) {
+            gameController.close();
+        }
+        if (raceClient != null) {
+            raceClient.close();
+        }
+        if (raceServer != null) {
+            raceServer.close();
+        }
+        if (reloader != null) {
+            reloader.close();
+        }
+        if (metricsServer != null) {
+            metricsServer.close();
+        }
+        if (recording != null) {
+            recording.stop();
+            recording.close();
+        }
+    }
+
     /**
      * Launches the Application (calls start overriden start method)
      * 
-     * @param args "--fps" if you want framerate output
+     * @param args "--fps" if you want framerate output, "--ghost" if you want to race against
+     *        your best lap, "--host" or "--connect=host:port" for a multiplayer race,
+     *        "--ai=n" for computer opponents, "--autopilot" to let the computer drive,
+     *        "--dev" to reload changed tracks and images while the game runs, "--jfr=file" to
+     *        record flight recorder events, "--metrics" to serve statistics for Prometheus,
+     *        "--telemetry" to record every tick of the player's car, "--lap-log" to keep a log
+     *        of the player's laps, "--rewind" to rewind the race with backspace,
+     *        "--course=seed" to race the obstacles of a seed, "--bench" to measure the
+     *        game on a fixed course
      */
     public static void main(String[] args) {
         launch(args);
+        if (exitStatus != 0) {
+            System.exit(exitStatus);
+        }
     }
 }
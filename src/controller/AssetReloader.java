@@ -0,0 +1,192 @@
+package controller;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import javafx.scene.image.Image;
+import model.Car;
+import model.Sprites;
+import track.Track;
+import track.TrackRegistry;
+import view.GameView;
+
+/**
+ * Development mode: watches the resource directory and reloads assets when they change, so a
+ * track or a sprite can be worked on without restarting the game. Changed files are decoded on
+ * the watching thread, together with all data derived from them; the results are only swapped in
+ * by {@link #applyPending()}, which the game loop calls between frames.
+ * <ul>
+ * <li>A track descriptor or a mask: the tracks using it are compiled again, with their distance
+ * and progress fields. The current track is swapped in {@link Car}.</li>
+ * <li>The background of the current track: it is swapped in {@link GameView}.</li>
+ * <li>Any other image: it is swapped in {@link Sprites}.</li>
+ * </ul>
+ *
+ * @author Juri Dispan
+ *
+ */
+public class AssetReloader implements Runnable, AutoCloseable {
+
+    /**
+     * Editors often write a file in several steps; changes are collected for this long before
+     * they are reloaded.
+     */
+    private static final long SETTLE_MILLIS = 100;
+
+    private final Path directory;
+    private final WatchService watcher;
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Constructs an AssetReloader.
+     *
+     * @param directory The resource directory, like "res".
+     * @throws IOException If the directory cannot be watched.
+     */
+    public AssetReloader(Path directory) throws IOException {
+        this.directory = directory;
+        watcher = FileSystems.getDefault().newWatchService();
+        directory.register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+        Path tracks = directory.resolve("tracks");
+        if (Files.isDirectory(tracks)) {
+            tracks.register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+        }
+    }
+
+    /**
+     * Start watching on a daemon thread.
+     *
+     * @return The thread.
+     */
+    public Thread start() {
+        Thread thread = new Thread(this, "Asset reloader");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Wait for changes and reload them, until the reloader is closed.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                Set<String> changed = new LinkedHashSet<>();
+                collect(watcher.take(), changed);
+                for (WatchKey key; (key = watcher.poll(SETTLE_MILLIS,
+                                TimeUnit.MILLISECONDS)) != null;) {
+                    collect(key, changed);
+                }
+                for (String file : changed) {
+                    try {
+                        reload(file);
+                    } catch (IOException | RuntimeException e) {
+                        // keep the old asset, the file may be half written
+                        System.err.println("Could not reload " + file + ": " + e);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    private void collect(WatchKey key, Set<String> changed) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.context() instanceof Path) {
+                changed.add(directory.relativize(dir.resolve((Path) event.context())).toString()
+                                .replace('\\', '/'));
+            }
+        }
+        key.reset();
+    }
+
+    /**
+     * Reload a file and everything that depends on it.
+     *
+     * @param file The file, relative to the resource directory.
+     */
+    void reload(String file) throws IOException {
+        if (file.startsWith("tracks/") && file.endsWith(".track")) {
+            String name = file.substring("tracks/".length(), file.length() - ".track".length());
+            reloadTracks(name, null);
+        } else if (file.endsWith(".png")) {
+            boolean mask = false;
+            for (Track track : TrackRegistry.loaded()) {
+                mask |= track.getDescriptor().getMask().equals(file);
+            }
+            if (mask) {
+                reloadTracks(null, file);
+                return;
+            }
+            Image image = new Image(directory.resolve(file).toUri().toString());
+            if (image.isError()) {
+                throw new IOException(image.getException());
+            }
+            Track current = Car.getTrack();
+            if (current != null && current.getDescriptor().getBackground().equals(file)) {
+                pending.add(() -> GameView.TRACK = image);
+            } else {
+                pending.add(() -> Sprites.put(file, image));
+            }
+        }
+    }
+
+    /**
+     * Compile the tracks with the given name or mask again and prepare their fields.
+     */
+    private void reloadTracks(String name, String mask) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (Track track : TrackRegistry.loaded()) {
+            if (track.getName().equals(name) || track.getDescriptor().getMask().equals(mask)) {
+                names.add(track.getName());
+            }
+        }
+        Track current = Car.getTrack();
+        for (String n : names) {
+            Track track = TrackRegistry.reload(n, directory);
+            track.getEdgeField();
+            if (current != null && current.getName().equals(n)) {
+                // only the track that is driven on needs the fields now
+                track.getFields();
+                pending.add(() -> Car.useTrack(track));
+            }
+        }
+    }
+
+    /**
+     * Swap in the assets that have been reloaded since the last call. Must be called on the
+     * thread that draws, between two frames.
+     *
+     * @return true if anything has been swapped.
+     */
+    public boolean applyPending() {
+        boolean any = false;
+        for (Runnable swap; (swap = pending.poll()) != null;) {
+            swap.run();
+            any = true;
+        }
+        return any;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+    }
+}
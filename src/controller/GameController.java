@@ -1,9 +1,25 @@
 package controller;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import diagnostics.GameStateEvent;
+import events.EventBus;
+import events.GameEvent;
 import javafx.application.Platform;
 import javafx.scene.Scene;
 import javafx.scene.input.KeyEvent;
 import model.Car;
+import model.CarCollisions;
+import model.Driver;
+import model.GhostCar;
+import model.LapRecorder;
+import model.Obstacle;
+import model.RewindBuffer;
+import model.TelemetryRecorder;
+import network.RaceClient;
 import view.GameView;
 
 /**
@@ -14,13 +30,40 @@ import view.GameView;
  */
 public class GameController {
 
+    /**
+     * The most frames per second the rewind buffer is sized for.
+     */
+    private static final int MAX_FPS = 240;
+
     private GameView gameView;
     private Scene scene;
     private Car car;
-    private boolean carAcc, carPlsBreak, carTurnLeft, carTurnRight, freeze;
+    private List<Driver> drivers;
+    private int players;
+    private CarCollisions carCollisions;
+    private boolean freeze;
     private boolean hold = false;
     private boolean inGame = false;
     private SoundController audioController;
+    private LapRecorder lapRecorder;
+    private GhostCar ghost;
+    private Path ghostFile;
+    private RaceClient raceClient;
+    private TelemetryRecorder telemetry;
+    private RewindBuffer rewindBuffer;
+    /**
+     * Whether the rewind key is held.
+     */
+    private boolean rewinding;
+    /**
+     * Whether the car of the player has been driven in this frame.
+     */
+    private boolean carDriven;
+    /**
+     * What the game is doing, for diagnostics: "menu", "racing", "rewinding", "paused",
+     * "reset", "finished" or "destroyed".
+     */
+    private String state = "menu";
 
     /**
      * A GameController is responsible for coordinating calculations and handling user input.
@@ -33,8 +76,15 @@ public class GameController {
         this.scene = gameView.getScene();
         this.car = gameView.getCar();
         this.audioController = audioController;
+        drivers = new ArrayList<>();
+        drivers.add(new KeyboardDriver(KeyboardDriver.WASD, KeyboardDriver.ARROWS));
+        players = 1;
+        carCollisions = new CarCollisions();
         freeze = false;
         setUpInputHandler();
+        EventBus events = gameView.getEvents();
+        events.subscribe(GameEvent.Type.LAP_FINISHED, this::lapFinished);
+        events.subscribe(GameEvent.Type.CAR_DESTROYED, this::carDestroyed);
     }
 
     /**
@@ -43,31 +93,254 @@ public class GameController {
      * @param timeDelta the time passed since last frame
      */
     public void updateContinuously(double timeDelta) {
-        if (inGame) {
-            car.stepForward(timeDelta, carAcc, carPlsBreak, carTurnLeft, carTurnRight,
-                            gameView.getObstacles());
+        if (inGame && rewinding && rewindBuffer != null) {
+            rewind(timeDelta);
+        } else if (inGame) {
+            driveCars(timeDelta);
             checkEndConditions(gameView);
+            updateGhost(timeDelta);
+            updateTelemetry(timeDelta);
+            if (rewindBuffer != null) {
+                rewindBuffer.record(gameView.getCars(), gameView.getRoundTimer(),
+                                gameView.getObstacles(), timeDelta);
+            }
         } else {
             gameView.getCountDownTimer().unfreezeOnZero(gameView);
+            pumpNetwork();
         }
 
 
     }
 
+    /**
+     * Let every driver drive its car and let cars that crashed into each other collide. In a
+     * multiplayer race the input for the own car is also sent to the server.
+     */
+    private void driveCars(double timeDelta) {
+        List<Car> cars = gameView.getCars();
+        carDriven = false;
+        for (int i = 0; i < cars.size(); i++) {
+            Car c = cars.get(i);
+            Driver driver = drivers.get(i);
+            if (c.isDestroyed() || c.hasPassedEndLine()) {
+                continue;
+            }
+            carDriven |= c == car;
+            driver.update(c, gameView.getObstacles());
+            if (c == car && raceClient != null) {
+                try {
+                    raceClient.update(timeDelta, driver.accelerate(), driver.brake(),
+                                    driver.turnLeft(), driver.turnRight());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            } else {
+                c.stepForward(timeDelta, driver.accelerate(), driver.brake(), driver.turnLeft(),
+                                driver.turnRight(), gameView.getObstacles());
+            }
+        }
+        if (cars.size() > 1) {
+            carCollisions.resolve(cars);
+        }
+    }
+
+    /**
+     * Keep receiving the other cars while the own car is not driven.
+     */
+    private void pumpNetwork() {
+        if (raceClient == null) {
+            return;
+        }
+        try {
+            raceClient.pump();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Check which cars crossed a gate. The end of the race follows from the events of the cars,
+     * see {@link #lapFinished} and {@link #carDestroyed}. Only the players start the round timer;
+     * the other cars time their laps themselves.
+     */
     public void checkEndConditions(GameView gameView) {
-        // game ends if car is destroyed
-        if (car.isDestroyed()) {
-            gameView.showLostOverlay();
-            gameView.freeze();
+        List<Car> cars = gameView.getCars();
+        for (int i = 0; i < cars.size(); i++) {
+            Car c = cars.get(i);
+            if (!c.isDestroyed()) {
+                c.checkLines(i < players ? gameView.getRoundTimer() : null);
+            }
+        }
+    }
+
+    /**
+     * 
+     * @return true if and only if the car is driven by a player. Computer-controlled cars just
+     *         stop when they are destroyed or finished.
+     */
+    private boolean isPlayer(Car c) {
+        int i = gameView.getCars().indexOf(c);
+        return i >= 0 && i < players;
+    }
+
+    /**
+     * The game ends when a player has finished the lap.
+     */
+    private void lapFinished(GameEvent event) {
+        if (!inGame || !isPlayer(event.getCar())) {
+            return;
+        }
+        gameView.showFinishOverlay();
+        gameView.freeze();
+        setState("finished");
+    }
+
+    /**
+     * The game ends when the cars of all players are destroyed.
+     */
+    private void carDestroyed(GameEvent event) {
+        if (!inGame || !isPlayer(event.getCar())) {
             return;
         }
+        List<Car> cars = gameView.getCars();
+        for (int i = 0; i < players && i < cars.size(); i++) {
+            if (!cars.get(i).isDestroyed()) {
+                return;
+            }
+        }
+        gameView.showLostOverlay();
+        gameView.freeze();
+        setState("destroyed");
+    }
+
+    /**
+     * Set who drives the cars of the race.
+     * 
+     * @param drivers One driver per car of the GameView, in the same order.
+     * @param players How many of the drivers are players; they come first. The race ends when a
+     *        player finishes or all players are destroyed. A player can also be driven by the
+     *        autopilot.
+     */
+    public void setDrivers(List<Driver> drivers, int players) {
+        this.drivers = drivers;
+        this.players = players;
+    }
+
+    /**
+     * Race against the best lap stored in the given file. Every lap that is faster than the stored
+     * one replaces it.
+     * 
+     * @param file The ghost file of the current track.
+     */
+    public void enableGhost(Path file) {
+        ghostFile = file;
+        lapRecorder = new LapRecorder(file);
+        ghost = new GhostCar(car);
+        ghost.load(file);
+        gameView.setGhost(ghost);
+    }
+
+    /**
+     * Race against other players. The obstacles of the race replace the local ones.
+     * 
+     * @param client A client that has joined a race.
+     */
+    public void enableNetwork(RaceClient client) {
+        raceClient = client;
+        // the other players cannot be rewound
+        rewindBuffer = null;
+        gameView.setObstacles(client.getObstacles());
+        gameView.setOpponents(client);
+    }
 
-        // game ends if end line and checkpoint have been passed
-        car.checkLines(gameView.getRoundTimer());
+    /**
+     * Record the current lap and move the ghost car along its lap.
+     * 
+     * @param timeDelta the time passed since last frame
+     */
+    private void updateGhost(double timeDelta) {
+        if (lapRecorder == null) {
+            return;
+        }
+        lapRecorder.record(car, timeDelta);
         if (car.hasPassedEndLine()) {
-            gameView.showFinishOverlay();
-            gameView.freeze();
+            try {
+                lapRecorder.finishLap(ghost);
+            } catch (IOException e) {
+                // the old ghost is still raced against
+                System.err.println("Could not store the lap as the new ghost: " + e);
+            }
+            return;
         }
+        ghost.update(lapRecorder.isRecording() ? lapRecorder.getLapTime() : -1);
+    }
+
+    /**
+     * Record every tick of the car of the player.
+     *
+     * @param file The telemetry file.
+     * @throws IOException If the file cannot be written.
+     */
+    public void enableTelemetry(Path file) throws IOException {
+        telemetry = new TelemetryRecorder(file, Car.getTrack().getName());
+    }
+
+    /**
+     * Record the tick of the car of the player, after the lines have been checked so the end of
+     * the lap is in the last tick.
+     */
+    private void updateTelemetry(double timeDelta) {
+        if (telemetry == null || !carDriven) {
+            return;
+        }
+        Driver driver = drivers.get(0);
+        telemetry.record(car, timeDelta, driver.accelerate(), driver.brake(), driver.turnLeft(),
+                        driver.turnRight());
+    }
+
+    /**
+     * Let the player rewind the race by holding backspace, for practice. The race goes on from
+     * where the key is released. A lap that has been rewound is not recorded as a ghost.
+     *
+     * @param seconds How far the race can be rewound.
+     */
+    public void enableRewind(double seconds) {
+        if (raceClient != null) {
+            throw new IllegalStateException("A race with other players cannot be rewound");
+        }
+        rewindBuffer = new RewindBuffer(gameView.getCars().size(), seconds, MAX_FPS);
+    }
+
+    /**
+     * Go back in the race by the length of a frame.
+     */
+    private void rewind(double timeDelta) {
+        Collection<Obstacle> obstacles =
+                        rewindBuffer.rewind(timeDelta, gameView.getCars(), gameView.getRoundTimer());
+        if (obstacles != null && obstacles != gameView.getObstacles()) {
+            gameView.setObstacles(obstacles);
+        }
+        if (lapRecorder != null && lapRecorder.isRecording()) {
+            lapRecorder.discard();
+            ghost.rewind();
+        }
+        setState("rewinding");
+    }
+
+    /**
+     * Write the telemetry that has not been written yet, and let the asynchronous listeners of
+     * the events finish.
+     */
+    public void close() {
+        if (telemetry != null) {
+            try {
+                telemetry.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            telemetry = null;
+        }
+        gameView.getEvents().close();
     }
 
     /**
@@ -82,23 +355,13 @@ public class GameController {
      * Handle all user input over keyboard.
      */
     private void handleKeyCommands(KeyEvent e, boolean pressed) {
+        for (Driver driver : drivers) {
+            if (driver instanceof KeyboardDriver
+                            && ((KeyboardDriver) driver).handle(e.getCode(), pressed)) {
+                return;
+            }
+        }
         switch (e.getCode()) {
-            case W:
-            case UP:
-                carAcc = pressed;
-                break;
-            case A:
-            case LEFT:
-                carTurnLeft = pressed;
-                break;
-            case S:
-            case DOWN:
-                carPlsBreak = pressed;
-                break;
-            case D:
-            case RIGHT:
-                carTurnRight = pressed;
-                break;
             case P:
                 // hold avoids that the game toggles between paused and not paused
                 // while the key is pressed
@@ -108,6 +371,8 @@ public class GameController {
                     gameView.setFreeze(freeze);
                     if (!freeze) {
                         gameView.getRoundTimer().unfreeze();
+                    } else if (!inGame) {
+                        setState("paused");
                     }
                 }
                 if (!pressed) {
@@ -116,14 +381,19 @@ public class GameController {
                 break;
             case R:
                 if (pressed && !hold) {
-                    gameView.toForegroundAndReset();
-                    freeze = true;
+                    restart();
                     hold = true;
                 }
                 if (!pressed) {
                     hold = false;
                 }
 
+                break;
+            case BACK_SPACE:
+                rewinding = pressed && rewindBuffer != null;
+                if (!pressed && inGame) {
+                    setState("racing");
+                }
                 break;
             case ESCAPE:
                 audioController.cancel();
@@ -134,11 +404,36 @@ public class GameController {
         }
     }
 
+    /**
+     * Start a new race, after the countdown.
+     */
+    public void restart() {
+        gameView.toForegroundAndReset();
+        setState("reset");
+        if (rewindBuffer != null) {
+            rewindBuffer.clear();
+        }
+        if (lapRecorder != null) {
+            lapRecorder.reset();
+            ghost.rewind();
+        }
+        if (raceClient != null) {
+            gameView.setObstacles(raceClient.getObstacles());
+            try {
+                raceClient.requestReset();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        freeze = true;
+    }
+
     /**
      * called when the game is currently being played.
      */
     public void inGame() {
         this.inGame = true;
+        setState("racing");
     }
 
     /**
@@ -151,4 +446,20 @@ public class GameController {
     public boolean isInGame() {
         return inGame;
     }
+
+    /**
+     * Record a change of the state of the game.
+     */
+    private void setState(String next) {
+        if (next.equals(state)) {
+            return;
+        }
+        GameStateEvent event = new GameStateEvent();
+        if (event.shouldCommit()) {
+            event.from = state;
+            event.to = next;
+            event.commit();
+        }
+        state = next;
+    }
 }
@@ -0,0 +1,84 @@
+package controller;
+
+import static javafx.scene.input.KeyCode.*;
+import java.util.Collection;
+import javafx.scene.input.KeyCode;
+import model.Car;
+import model.Driver;
+import model.Obstacle;
+
+/**
+ * A player driving a car with the keyboard.
+ * 
+ * @author Juri Dispan
+ *
+ */
+public class KeyboardDriver implements Driver {
+
+    /**
+     * Key sets in the order accelerate, break, turn left, turn right.
+     */
+    public static final KeyCode[] WASD = {W, S, A, D}, ARROWS = {UP, DOWN, LEFT, RIGHT};
+
+    private final KeyCode[][] keySets;
+    private boolean acc, brk, left, right;
+
+    /**
+     * Constructs a KeyboardDriver.
+     * 
+     * @param keySets The keys the player uses, for example {@link #WASD}.
+     */
+    public KeyboardDriver(KeyCode[]... keySets) {
+        this.keySets = keySets;
+    }
+
+    /**
+     * Handle a key event.
+     * 
+     * @param code The key.
+     * @param pressed true if the key has been pressed, false if it has been released.
+     * @return true if and only if the key belongs to this player.
+     */
+    public boolean handle(KeyCode code, boolean pressed) {
+        for (KeyCode[] keys : keySets) {
+            if (code == keys[0]) {
+                acc = pressed;
+            } else if (code == keys[1]) {
+                brk = pressed;
+            } else if (code == keys[2]) {
+                left = pressed;
+            } else if (code == keys[3]) {
+                right = pressed;
+            } else {
+                continue;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void update(Car car, Collection<Obstacle> obstacles) {
+        // the keys are handled as they are pressed
+    }
+
+    @Override
+    public boolean accelerate() {
+        return acc;
+    }
+
+    @Override
+    public boolean brake() {
+        return brk;
+    }
+
+    @Override
+    public boolean turnLeft() {
+        return left;
+    }
+
+    @Override
+    public boolean turnRight() {
+        return right;
+    }
+}
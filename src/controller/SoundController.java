@@ -1,8 +1,11 @@
 package controller;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 import javafx.concurrent.Task;
 import javafx.scene.media.AudioClip;
 import model.Car;
+import model.CarState;
 
 /**
  * Task responsible for playing engine noises.
@@ -11,37 +14,91 @@ import model.Car;
  *
  */
 public class SoundController extends Task<Void> {
+    /**
+     * How long to wait between two looks at the car, about a frame.
+     */
+    private static final long POLL_MILLIS = 16;
+
     private Car car;
+    private Future<AudioClip> sound;
+    // read by the metrics, see isEngineRunning() and isPlaying()
+    private volatile boolean running, playing;
 
     public SoundController(Car car) {
+        // "Professionally" recorded engine noise of my motorcycle
+        this(car, CompletableFuture.supplyAsync(
+                        () -> new AudioClip(SoundController.class.getResource("/engine.wav")
+                                        .toString())));
+    }
+
+    /**
+     * Constructs a SoundController for an engine noise that is still loading.
+     *
+     * @param car The car whose engine is heard.
+     * @param sound The engine noise.
+     */
+    public SoundController(Car car, Future<AudioClip> sound) {
         this.car = car;
+        this.sound = sound;
     }
 
     @Override
     protected Void call() throws Exception {
         AudioClip engineNoise = null;
         try {
-            // "Professionally" recorded engine noise of my motorcycle
-            engineNoise = new AudioClip(getClass().getResource("/engine.wav").toString());
+            engineNoise = sound.get();
         } catch (Exception e) {
             e.printStackTrace();
             throw e;
         }
 
         // Play sound while application is running and while the car is moving
-        // and not frozen.
-        while (!isCancelled()) {
-            if (engineNoise.isPlaying()) {
-                if (!car.isMoving() || car.isFrozen()) {
-                    engineNoise.stop();
+        // and not frozen. The car is driven on the FX thread, so only its published state is
+        // read here.
+        running = true;
+        try {
+            while (!isCancelled()) {
+                CarState state = car.getState();
+                if (engineNoise.isPlaying()) {
+                    if (!state.isMoving() || state.isFrozen()) {
+                        engineNoise.stop();
+                        playing = false;
+                    }
+                } else {
+                    if (state.isMoving() && !state.isFrozen()) {
+                        engineNoise.play();
+                        playing = true;
+                    }
                 }
-            } else {
-                if (car.isMoving() && !car.isFrozen()) {
-                    engineNoise.play();
+                try {
+                    Thread.sleep(POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    // cancelled
+                    break;
                 }
             }
+        } finally {
+            running = false;
+            playing = false;
         }
         return null;
     }
 
+    /**
+     *
+     * @return true while the engine noise has been loaded and the controller plays it when the
+     *         car moves. Can be called from any thread.
+     */
+    public boolean isEngineRunning() {
+        return running;
+    }
+
+    /**
+     *
+     * @return true while the engine noise is played. Can be called from any thread.
+     */
+    public boolean isPlaying() {
+        return playing;
+    }
+
 }
@@ -0,0 +1,317 @@
+package diagnostics;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the frames of a benchmark run of the game (see "--bench" in application.RGMain) and
+ * writes a report that can be compared with the report of an earlier run. The first frames warm
+ * the JIT up and are not measured. For the measured frames the report has percentiles of the
+ * frame time, the time spent drawing and simulating, how much the game loop allocated, how often
+ * the garbage collector ran, and how long the game took to start.
+ * <p>
+ * A report is a flat JSON object of numbers and strings. All numbers that are compared (see
+ * {@link #COMPARED}) are better when they are lower.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class Benchmark {
+
+    /**
+     * The values of a report that are compared with the baseline.
+     */
+    public static final List<String> COMPARED = Arrays.asList("frame_ms_mean", "frame_ms_p50",
+                    "frame_ms_p90", "frame_ms_p99", "draw_ms_p50", "draw_ms_p99", "sim_ms_mean",
+                    "sim_ms_p99", "alloc_mb_per_s", "gc_count", "gc_ms", "startup_assets_ms",
+                    "startup_menu_ms");
+
+    /**
+     * A value is only a regression if it has also grown by more than this, in its unit (one
+     * millisecond, one collection, one megabyte per second), so tiny values do not fail on
+     * noise.
+     */
+    public static final double ABSOLUTE_SLACK = 1;
+
+    private final int warmup;
+    private final long[] frameNanos, drawNanos, simNanos;
+    private final Map<String, Long> startup = new LinkedHashMap<>();
+    private int frames;
+    private long startNanos, endNanos, startAllocated, endAllocated, startGcCount, endGcCount,
+                    startGcMillis, endGcMillis;
+
+    /**
+     * Constructs a Benchmark.
+     *
+     * @param warmup How many frames are not measured.
+     * @param frames How many frames are measured after the warmup.
+     */
+    public Benchmark(int warmup, int frames) {
+        this.warmup = warmup;
+        frameNanos = new long[frames];
+        drawNanos = new long[frames];
+        simNanos = new long[frames];
+    }
+
+    /**
+     * Note how long a phase of the start took.
+     *
+     * @param name The name of the phase, for example "assets".
+     * @param millis How long it took in milliseconds.
+     */
+    public void startupPhase(String name, long millis) {
+        startup.put(name, millis);
+    }
+
+    /**
+     * Note a frame. It is measured after the warmup, until the benchmark is done. Nothing is
+     * allocated.
+     *
+     * @param frame The time since the last frame in nanoseconds.
+     * @param draw How long drawing took.
+     * @param sim How long the simulation took.
+     * @return true if and only if the benchmark is done.
+     */
+    public boolean frame(long frame, long draw, long sim) {
+        int measured = frames - warmup;
+        if (measured >= frameNanos.length) {
+            return true;
+        }
+        if (measured == 0) {
+            startNanos = System.nanoTime();
+            startAllocated = allocatedBytes();
+            startGcCount = gcCount();
+            startGcMillis = gcMillis();
+        }
+        frames++;
+        if (measured < 0) {
+            return false;
+        }
+        frameNanos[measured] = frame;
+        drawNanos[measured] = draw;
+        simNanos[measured] = sim;
+        if (measured == frameNanos.length - 1) {
+            endNanos = System.nanoTime();
+            endAllocated = allocatedBytes();
+            endGcCount = gcCount();
+            endGcMillis = gcMillis();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     *
+     * @return true if and only if all frames have been measured.
+     */
+    public boolean isDone() {
+        return frames - warmup >= frameNanos.length;
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+                            Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * Make the report of the measured frames.
+     *
+     * @param info Strings and numbers that describe the run, for example the track.
+     * @return The report.
+     * @throws IllegalStateException If the benchmark is not done.
+     */
+    public Map<String, Object> report(Map<String, ?> info) {
+        if (!isDone()) {
+            throw new IllegalStateException("The benchmark is not done");
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("version", 1);
+        report.putAll(info);
+        report.put("warmup", warmup);
+        report.put("frames", frameNanos.length);
+        report.put("frame_ms_mean", mean(frameNanos));
+        report.put("frame_ms_p50", percentile(frameNanos, 50));
+        report.put("frame_ms_p90", percentile(frameNanos, 90));
+        report.put("frame_ms_p99", percentile(frameNanos, 99));
+        report.put("frame_ms_max", percentile(frameNanos, 100));
+        report.put("draw_ms_p50", percentile(drawNanos, 50));
+        report.put("draw_ms_p99", percentile(drawNanos, 99));
+        report.put("sim_ms_mean", mean(simNanos));
+        report.put("sim_ms_p99", percentile(simNanos, 99));
+        report.put("sim_ms_total", Arrays.stream(simNanos).sum() / 1e6);
+        double seconds = (endNanos - startNanos) / 1e9;
+        if (startAllocated >= 0) {
+            double bytes = endAllocated - startAllocated;
+            report.put("alloc_mb_per_s", bytes / 1e6 / seconds);
+            report.put("alloc_kb_per_frame", bytes / 1e3 / frameNanos.length);
+        }
+        report.put("gc_count", endGcCount - startGcCount);
+        report.put("gc_ms", endGcMillis - startGcMillis);
+        for (Map.Entry<String, Long> phase : startup.entrySet()) {
+            report.put("startup_" + phase.getKey() + "_ms", phase.getValue());
+        }
+        return report;
+    }
+
+    private static double mean(long[] nanos) {
+        return Arrays.stream(nanos).average().orElse(0) / 1e6;
+    }
+
+    /**
+     * @return The value below which the given percent of the values are (nearest rank), in
+     *         milliseconds.
+     */
+    private static double percentile(long[] nanos, double percent) {
+        if (nanos.length == 0) {
+            return 0;
+        }
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percent / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)] / 1e6;
+    }
+
+    /**
+     * Compare a report with a baseline.
+     *
+     * @param baseline The report of an earlier run.
+     * @param current The report of this run.
+     * @param percent By how many percent a value may grow, unless it has its own threshold.
+     * @param thresholds By how many percent the values with their own threshold may grow.
+     * @return A description of each value that has grown too much, empty if there is no
+     *         regression. Values that are missing in one of the reports are not compared.
+     */
+    public static List<String> compare(Map<String, ?> baseline, Map<String, ?> current,
+                    double percent, Map<String, Double> thresholds) {
+        List<String> regressions = new ArrayList<>();
+        for (String key : COMPARED) {
+            if (!(baseline.get(key) instanceof Number) || !(current.get(key) instanceof Number)) {
+                continue;
+            }
+            double before = ((Number) baseline.get(key)).doubleValue();
+            double now = ((Number) current.get(key)).doubleValue();
+            double allowed = thresholds.getOrDefault(key, percent);
+            if (now > before * (1 + allowed / 100) && now - before > ABSOLUTE_SLACK) {
+                regressions.add(String.format("%s: %.2f, baseline %.2f (+%.0f%%, %.0f%% allowed)",
+                                key, now, before, before > 0 ? (now / before - 1) * 100
+                                                : Double.POSITIVE_INFINITY,
+                                allowed));
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * Write a report as JSON.
+     *
+     * @param report The report.
+     * @return A JSON object with one line per value.
+     */
+    public static String toJson(Map<String, ?> report) {
+        StringBuilder json = new StringBuilder("{\n");
+        String separator = "";
+        for (Map.Entry<String, ?> e : report.entrySet()) {
+            json.append(separator).append("  ").append(quote(e.getKey())).append(": ");
+            Object value = e.getValue();
+            if (value instanceof Number && Double.isFinite(((Number) value).doubleValue())) {
+                json.append(value);
+            } else if (value instanceof Number) {
+                json.append("null");
+            } else {
+                json.append(quote(String.valueOf(value)));
+            }
+            separator = ",\n";
+        }
+        return json.append("\n}\n").toString();
+    }
+
+    private static String quote(String s) {
+        return '"' + s.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    /**
+     * A member of an object: a string key, then a string, a number or null.
+     */
+    private static final Pattern MEMBER =
+                    Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"\\s*:\\s*"
+                                    + "(\"((?:[^\"\\\\]|\\\\.)*)\"|[-+0-9.eE]+|null)");
+
+    /**
+     * Read a report written by {@link #toJson(Map)}. Only flat objects of strings and numbers
+     * are understood.
+     *
+     * @param json The JSON object.
+     * @return The report; numbers are doubles.
+     */
+    public static Map<String, Object> parseJson(String json) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        Matcher m = MEMBER.matcher(json);
+        while (m.find()) {
+            String key = unquote(m.group(1));
+            if (m.group(3) != null) {
+                report.put(key, unquote(m.group(3)));
+            } else if (!m.group(2).equals("null")) {
+                report.put(key, Double.parseDouble(m.group(2)));
+            }
+        }
+        return report;
+    }
+
+    private static String unquote(String s) {
+        return s.replace("\\\"", "\"").replace("\\\\", "\\");
+    }
+
+    /**
+     * Read a report from a file.
+     *
+     * @param file The file.
+     * @return The report.
+     * @throws IOException If the file cannot be read.
+     */
+    public static Map<String, Object> read(Path file) throws IOException {
+        return parseJson(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write a report to a file.
+     *
+     * @param file The file.
+     * @param report The report.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(Path file, Map<String, ?> report) throws IOException {
+        Files.write(file, toJson(report).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,31 @@
+package diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A check of a car against the world border and the obstacles.
+ *
+ * @author Juri Dispan
+ *
+ */
+@Name("rennspiel.CollisionCheck")
+@Label("Collision Check")
+@Category({"Rennspiel", "Simulation"})
+@Enabled(false)
+@StackTrace(false)
+public class CollisionCheckEvent extends Event {
+
+    @Label("Obstacles Tested")
+    @Description("Obstacles tested before a collision was found or all were tested")
+    public int obstaclesTested;
+
+    @Label("Result")
+    @Description("The severity of the collision")
+    public String result;
+}
@@ -0,0 +1,56 @@
+package diagnostics;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+
+/**
+ * The Java Flight Recorder events of the game. They are disabled by default and then cost
+ * nothing but a check whether they are enabled. They can be enabled by name in any recording, for
+ * example with "-XX:StartFlightRecording:rennspiel.Frame#enabled=true", or all together with
+ * {@link #record(Path)}.
+ *
+ * @author Juri Dispan
+ *
+ */
+public final class Diagnostics {
+
+    /**
+     * All events of the game.
+     */
+    static final Class<?>[] EVENTS = {SimulationTickEvent.class, CollisionCheckEvent.class,
+                    FrameEvent.class, ObstacleGenerationEvent.class, GameStateEvent.class};
+
+    private Diagnostics() {}
+
+    /**
+     * Register the events, so tools list them before the first one has been recorded.
+     */
+    public static void register() {
+        for (Class<?> event : EVENTS) {
+            FlightRecorder.register(event.asSubclass(Event.class));
+        }
+    }
+
+    /**
+     * Start a recording of all events of the game, without stack traces.
+     *
+     * @param file Where the recording is written when it is closed.
+     * @return The recording.
+     * @throws IOException If the file cannot be written.
+     */
+    public static Recording record(Path file) throws IOException {
+        register();
+        Recording recording = new Recording();
+        recording.setName("Rennspiel");
+        for (Class<?> event : EVENTS) {
+            recording.enable(event.asSubclass(Event.class)).withoutStackTrace();
+        }
+        recording.setToDisk(true);
+        recording.setDestination(file);
+        recording.start();
+        return recording;
+    }
+}
@@ -0,0 +1,39 @@
+package diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A frame of the game loop, with the time spent in each of its phases.
+ *
+ * @author Juri Dispan
+ *
+ */
+@Name("rennspiel.Frame")
+@Label("Frame")
+@Category({"Rennspiel", "Rendering"})
+@Enabled(false)
+@StackTrace(false)
+public class FrameEvent extends Event {
+
+    @Label("Frame Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long frameTime;
+
+    @Label("Background")
+    @Timespan(Timespan.NANOSECONDS)
+    public long background;
+
+    @Label("Drawables")
+    @Timespan(Timespan.NANOSECONDS)
+    public long drawables;
+
+    @Label("Update")
+    @Timespan(Timespan.NANOSECONDS)
+    public long update;
+}
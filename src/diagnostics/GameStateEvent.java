@@ -0,0 +1,28 @@
+package diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A change of the state of the game, like starting or pausing the race.
+ *
+ * @author Juri Dispan
+ *
+ */
+@Name("rennspiel.GameState")
+@Label("Game State")
+@Category("Rennspiel")
+@Enabled(false)
+@StackTrace(false)
+public class GameStateEvent extends Event {
+
+    @Label("From")
+    public String from;
+
+    @Label("To")
+    public String to;
+}
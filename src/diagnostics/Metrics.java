@@ -0,0 +1,324 @@
+package diagnostics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Statistics of the running game in the Prometheus text format, served by
+ * {@link MetricsServer}. Counters and histograms are striped adders, so the game loop and the
+ * simulation never wait for each other or for a scrape. Durations are only measured while the
+ * metrics are enabled.
+ *
+ * @author Juri Dispan
+ *
+ */
+public final class Metrics {
+
+    private static volatile boolean enabled;
+    private static final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    /**
+     * Time between two frames.
+     */
+    public static final Histogram FRAME_TIME = register(new Histogram("rennspiel_frame_seconds",
+                    "Time between two frames", 0.004, 0.008, 0.012, 0.017, 0.025, 0.033, 0.05,
+                    0.1, 0.25));
+
+    /**
+     * Time one step of a car takes to compute.
+     */
+    public static final Histogram TICK_TIME = register(new Histogram("rennspiel_tick_seconds",
+                    "Time to compute one step of a car", 1e-6, 2.5e-6, 5e-6, 1e-5, 2.5e-5, 5e-5,
+                    1e-4, 1e-3));
+
+    /**
+     * Checks of a car against the world border and the obstacles.
+     */
+    public static final Counter COLLISION_CHECKS = register(new Counter(
+                    "rennspiel_collision_checks_total", "Collision checks of cars"));
+
+    /**
+     * Obstacles placed at random while generating layouts.
+     */
+    public static final Counter OBSTACLE_ATTEMPTS = register(new Counter(
+                    "rennspiel_obstacle_attempts_total", "Obstacles placed while generating"));
+
+    /**
+     * Obstacles that have been rejected while generating layouts.
+     */
+    public static final Counter OBSTACLE_REJECTIONS = register(new Counter(
+                    "rennspiel_obstacle_rejections_total", "Obstacles rejected while generating"));
+
+    /**
+     * Laps that have been started.
+     */
+    public static final Counter LAPS_STARTED =
+                    register(new Counter("rennspiel_laps_started_total", "Laps started"));
+
+    /**
+     * Laps that have been finished.
+     */
+    public static final Counter LAPS_FINISHED =
+                    register(new Counter("rennspiel_laps_finished_total", "Laps finished"));
+
+    /**
+     * Cars that have been destroyed.
+     */
+    public static final Counter CARS_DESTROYED =
+                    register(new Counter("rennspiel_cars_destroyed_total", "Cars destroyed"));
+
+    static {
+        gauge("rennspiel_heap_used_bytes", "Used heap",
+                        () -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        gauge("rennspiel_heap_committed_bytes", "Committed heap",
+                        () -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+                                        .getCommitted());
+        gauge("rennspiel_heap_max_bytes", "Maximum heap", () -> {
+            MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+            return heap.getMax() < 0 ? Double.NaN : heap.getMax();
+        });
+        register(new Metric() {
+            @Override
+            public void write(StringBuilder out) {
+                header(out, "rennspiel_gc_collections_total", "counter",
+                                "Garbage collections");
+                for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                    sample(out, "rennspiel_gc_collections_total", "gc", gc.getName(),
+                                    gc.getCollectionCount());
+                }
+                header(out, "rennspiel_gc_seconds_total", "counter",
+                                "Time spent in garbage collections");
+                for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                    sample(out, "rennspiel_gc_seconds_total", "gc", gc.getName(),
+                                    gc.getCollectionTime() / 1000.0);
+                }
+            }
+
+            @Override
+            public String name() {
+                return "rennspiel_gc";
+            }
+        });
+    }
+
+    private Metrics() {}
+
+    /**
+     * A metric that can write its samples.
+     */
+    interface Metric {
+        String name();
+
+        void write(StringBuilder out);
+    }
+
+    /**
+     * A value that only goes up.
+     */
+    public static final class Counter implements Metric {
+        private final String name, help;
+        private final LongAdder count = new LongAdder();
+
+        Counter(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        /**
+         * Count one.
+         */
+        public void increment() {
+            count.increment();
+        }
+
+        /**
+         *
+         * @param n How much to count.
+         */
+        public void add(long n) {
+            count.add(n);
+        }
+
+        /**
+         *
+         * @return The count so far.
+         */
+        public long get() {
+            return count.sum();
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public void write(StringBuilder out) {
+            header(out, name, "counter", help);
+            sample(out, name, null, null, count.sum());
+        }
+    }
+
+    /**
+     * Counts of durations in buckets.
+     */
+    public static final class Histogram implements Metric {
+        private final String name, help;
+        private final double[] bounds;
+        /**
+         * One more than bounds, for durations above the largest bound.
+         */
+        private final LongAdder[] buckets;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Histogram(String name, String help, double... bounds) {
+            this.name = name;
+            this.help = help;
+            this.bounds = bounds;
+            buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Count a duration.
+         *
+         * @param seconds The duration.
+         */
+        public void observe(double seconds) {
+            int i = 0;
+            while (i < bounds.length && seconds > bounds[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            sum.add(seconds);
+        }
+
+        /**
+         *
+         * @param nanos A duration in nanoseconds.
+         */
+        public void observeNanos(long nanos) {
+            observe(nanos / 1e9);
+        }
+
+        /**
+         *
+         * @return How many durations have been counted.
+         */
+        public long count() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public void write(StringBuilder out) {
+            header(out, name, "histogram", help);
+            // the buckets of the format are cumulative
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                sample(out, name + "_bucket", "le",
+                                i < bounds.length ? Double.toString(bounds[i]) : "+Inf",
+                                cumulative);
+            }
+            sample(out, name + "_sum", null, null, sum.sum());
+            sample(out, name + "_count", null, null, cumulative);
+        }
+    }
+
+    private static <M extends Metric> M register(M metric) {
+        metrics.put(metric.name(), metric);
+        return metric;
+    }
+
+    /**
+     * Add a value that is read when the metrics are written, or replace the one with the same
+     * name.
+     *
+     * @param name The name of the metric.
+     * @param help What the value is.
+     * @param value Reads the value. It is called on the thread of the scrape, so it should only
+     *        read fields that are safe to read from there.
+     */
+    public static void gauge(String name, String help, DoubleSupplier value) {
+        register(new Metric() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public void write(StringBuilder out) {
+                header(out, name, "gauge", help);
+                sample(out, name, null, null, value.getAsDouble());
+            }
+        });
+    }
+
+    /**
+     * Start measuring durations.
+     */
+    public static void enable() {
+        enabled = true;
+    }
+
+    /**
+     *
+     * @return true if durations are measured.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     *
+     * @return All metrics in the Prometheus text format.
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Metric metric : metrics.values()) {
+            metric.write(out);
+        }
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String label, String labelValue,
+                    double value) {
+        out.append(name);
+        if (label != null) {
+            out.append('{').append(label).append("=\"")
+                            .append(labelValue.replace("\\", "\\\\").replace("\"", "\\\""))
+                            .append("\"}");
+        }
+        out.append(' ');
+        if (value == (long) value) {
+            out.append((long) value);
+        } else if (Double.isNaN(value)) {
+            out.append("NaN");
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+}
@@ -0,0 +1,81 @@
+package diagnostics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the {@link Metrics} at "http://localhost:port/metrics" for Prometheus. Only local
+ * connections are accepted. Requests are handled on a thread of their own, so a scrape never
+ * runs on the JavaFX application thread.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class MetricsServer implements AutoCloseable {
+
+    /**
+     * The port that is used unless another one is chosen.
+     */
+    public static final int DEFAULT_PORT = 9464;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Constructs a MetricsServer and starts it. This enables the {@link Metrics}.
+     *
+     * @param port The port, 0 for any free port.
+     * @throws IOException If the port cannot be bound.
+     */
+    public MetricsServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                        0);
+        server.createContext("/metrics", this::handle);
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "Metrics server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        Metrics.enable();
+        server.start();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     *
+     * @return The port the server listens on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,37 @@
+package diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The generation of an obstacle layout, see {@link model.Obstacle#generateObs}.
+ *
+ * @author Juri Dispan
+ *
+ */
+@Name("rennspiel.ObstacleGeneration")
+@Label("Obstacle Generation")
+@Category({"Rennspiel", "Simulation"})
+@Enabled(false)
+public class ObstacleGenerationEvent extends Event {
+
+    @Label("Obstacles")
+    public int obstacles;
+
+    @Label("Attempts")
+    @Description("Obstacles placed at random")
+    public int attempts;
+
+    @Label("Rejected")
+    @Description("Obstacles off the track, in an exclusion zone, on a place to keep free or "
+                    + "too close to another obstacle")
+    public int rejected;
+
+    @Label("Undrivable")
+    @Description("Obstacles rejected because a lap could not be driven any more")
+    public int undrivable;
+}
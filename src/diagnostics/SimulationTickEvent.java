@@ -0,0 +1,39 @@
+package diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One step of a car, see {@link model.Car#stepForward}.
+ *
+ * @author Juri Dispan
+ *
+ */
+@Name("rennspiel.SimulationTick")
+@Label("Simulation Tick")
+@Category({"Rennspiel", "Simulation"})
+@Enabled(false)
+@StackTrace(false)
+public class SimulationTickEvent extends Event {
+
+    @Label("Time Delta")
+    @Description("Simulated time of the step in seconds")
+    public double timeDelta;
+
+    @Label("Velocity")
+    @Description("Velocity of the car after the step in metres per second")
+    public double velocity;
+
+    @Label("On Track")
+    @Description("How much of the car is on the track, from 0 on dirt to 1 on the track")
+    public double onTrack;
+
+    @Label("Substeps")
+    @Description("How many substeps the step has been split into")
+    public int substeps;
+}
@@ -0,0 +1,174 @@
+package env;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import model.Car;
+
+/**
+ * Makes a {@link VecEnv} available to a trainer in another process through a local TCP socket.
+ * All numbers are little-endian, so they can be read directly into numpy arrays. Requests and
+ * responses:
+ *
+ * <pre>
+ * 'I'                  count (int), observation size (int)
+ * 'R'                  observations (count * size floats)
+ * 'S', count actions   observations (count * size floats), rewards (count floats),
+ *      (bytes)         done (count bytes)
+ * 'Q'                  closes the connection
+ * </pre>
+ *
+ * One trainer is served at a time. The buffers are allocated once.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class EnvServer implements AutoCloseable {
+
+    public static final int DEFAULT_PORT = 4712;
+
+    public static final byte INFO = 'I', RESET = 'R', STEP = 'S', QUIT = 'Q';
+
+    private final VecEnv env;
+    private final ServerSocketChannel server;
+    private final ByteBuffer in, out;
+    private final int[] actions;
+
+    /**
+     * Constructs an EnvServer listening on the loopback interface.
+     *
+     * @param env The environment to serve.
+     * @param port The port, 0 for any free port.
+     * @throws IOException If the port cannot be opened.
+     */
+    public EnvServer(VecEnv env, int port) throws IOException {
+        this.env = env;
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        int count = env.getCount();
+        in = ByteBuffer.allocateDirect(1 + count).order(ByteOrder.LITTLE_ENDIAN);
+        out = ByteBuffer.allocateDirect(4 * count * VecEnv.OBSERVATION_SIZE + 5 * count)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+        actions = new int[count];
+    }
+
+    /**
+     * Serve trainers, one after another, until the server is closed.
+     *
+     * @throws IOException If the server socket fails.
+     */
+    public void serve() throws IOException {
+        while (server.isOpen()) {
+            try (SocketChannel client = server.accept()) {
+                client.socket().setTcpNoDelay(true);
+                handle(client);
+            } catch (EOFException e) {
+                // the trainer has gone
+            }
+        }
+    }
+
+    private void handle(SocketChannel client) throws IOException {
+        int count = env.getCount();
+        while (true) {
+            read(client, 1);
+            byte request = in.get();
+            out.clear();
+            switch (request) {
+                case INFO:
+                    out.putInt(count).putInt(VecEnv.OBSERVATION_SIZE);
+                    break;
+                case RESET:
+                    putObservations(env.reset());
+                    break;
+                case STEP:
+                    read(client, count);
+                    for (int i = 0; i < count; i++) {
+                        actions[i] = in.get();
+                    }
+                    putObservations(env.step(actions));
+                    for (double reward : env.getRewards()) {
+                        out.putFloat((float) reward);
+                    }
+                    for (boolean done : env.getDone()) {
+                        out.put((byte) (done ? 1 : 0));
+                    }
+                    break;
+                case QUIT:
+                    return;
+                default:
+                    throw new IOException("Unknown request " + request);
+            }
+            out.flip();
+            while (out.hasRemaining()) {
+                client.write(out);
+            }
+        }
+    }
+
+    private void putObservations(double[] observations) {
+        for (double value : observations) {
+            out.putFloat((float) value);
+        }
+    }
+
+    private void read(SocketChannel client, int bytes) throws IOException {
+        in.clear().limit(bytes);
+        while (in.hasRemaining()) {
+            if (client.read(in) < 0) {
+                throw new EOFException();
+            }
+        }
+        in.flip();
+    }
+
+    /**
+     *
+     * @return The port the server listens on.
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Start a server.
+     *
+     * @param args "--envs=n" races, "--threads=n", "--ticks=n" ticks per step, "--steps=n" steps
+     *        per episode, "--obstacles=n" obstacles per race, "--port=n".
+     * @throws IOException If the server cannot be started.
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> named = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                named.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+        }
+        Car.initTrack();
+        VecEnv env = new VecEnv(Integer.parseInt(named.getOrDefault("envs", "64")),
+                        Integer.parseInt(named.getOrDefault("threads",
+                                        "" + Runtime.getRuntime().availableProcessors())),
+                        Integer.parseInt(named.getOrDefault("ticks", "4")),
+                        Integer.parseInt(named.getOrDefault("steps", "1500")),
+                        Integer.parseInt(named.getOrDefault("obstacles", "10")));
+        try (EnvServer server = new EnvServer(env,
+                        Integer.parseInt(named.getOrDefault("port", "" + DEFAULT_PORT)))) {
+            System.out.println("Serving " + env.getCount() + " races on port " + server.getPort());
+            server.serve();
+        } finally {
+            env.close();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package env;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import javafx.geometry.Point2D;
+import model.Car;
+import model.Driver;
+import model.Obstacle;
+import model.RaySensor;
+import model.RoundTimer;
+import model.TrackFields;
+import view.GameView;
+
+/**
+ * Several races for training computer drivers, stepped in lock-step like a gym vector
+ * environment. An action is a set of input bits as in {@link Driver}; every step drives each car
+ * for a few ticks with its action and writes its observation, reward and whether its episode has
+ * ended into arrays that are allocated once. An episode ends when the car is destroyed, has
+ * finished the lap or has used up its steps; the race is then reset right away, so the
+ * observation already belongs to the next episode.
+ * <p>
+ * The races are split evenly among worker threads, which wait on a barrier for the next step.
+ * <p>
+ * Observation of a race, {@link #OBSERVATION_SIZE} values:
+ *
+ * <pre>
+ * 0     x position / world width
+ * 1     y position / world height
+ * 2, 3  cosine and sine of the direction the car drives in
+ * 4     velocity / 30 m/s
+ * 5     1 if the centre of the car is on the track, 0 if it is on dirt
+ * 6     distance to the edge of the track / 10 m, negative off the track
+ * 7     progress along the lap, 0 to 1
+ * 8...  distance to the edge or an obstacle along each ray / ray range, see {@link #RAY_ANGLES}
+ *       and {@link RaySensor}
+ * </pre>
+ *
+ * The reward is the progress along the track in metres, minus {@link #CRASH_PENALTY} when the car
+ * is destroyed.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class VecEnv implements AutoCloseable {
+
+    /**
+     * The directions of the rays, relative to the direction the car drives in (in radians).
+     */
+    public static final double[] RAY_ANGLES = {-Math.PI / 2, -Math.PI / 4, -Math.PI / 8, 0,
+                    Math.PI / 8, Math.PI / 4, Math.PI / 2};
+
+    public static final double RAY_RANGE = 30;
+
+    public static final int OBSERVATION_SIZE = 8 + RAY_ANGLES.length;
+
+    public static final double TIME_DELTA = 1 / 60.0;
+
+    public static final double CRASH_PENALTY = 50;
+
+    private static final double MAX_VEL = 30;
+
+    private final int count, ticksPerStep, maxSteps, obstaclesAmount;
+    private final TrackFields fields;
+    private final Car[] cars;
+    private final RoundTimer[] timers;
+    private final RaySensor sensor;
+    private final RaySensor[] layouts;
+    private final int[] steps;
+
+    private final double[] observations;
+    private final double[] rewards;
+    private final boolean[] done;
+    private int[] actions;
+
+    private final Thread[] workers;
+    private final CyclicBarrier start, end;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a VecEnv. {@link Car#initTrack()} has to be called before.
+     *
+     * @param count The number of races.
+     * @param threads The number of threads the races are stepped on; 1 steps them on the calling
+     *        thread.
+     * @param ticksPerStep How many ticks of {@link #TIME_DELTA} an action is held.
+     * @param maxSteps After this many steps an episode ends.
+     * @param obstaclesAmount The number of obstacles of each race.
+     */
+    public VecEnv(int count, int threads, int ticksPerStep, int maxSteps, int obstaclesAmount) {
+        this.count = count;
+        this.ticksPerStep = ticksPerStep;
+        this.maxSteps = maxSteps;
+        this.obstaclesAmount = obstaclesAmount;
+        fields = TrackFields.get();
+        cars = new Car[count];
+        timers = new RoundTimer[count];
+        sensor = new RaySensor(Car.getTrackBitMap(), Collections.emptyList());
+        layouts = new RaySensor[count];
+        steps = new int[count];
+        for (int i = 0; i < count; i++) {
+            cars[i] = new Car();
+            timers[i] = new RoundTimer();
+        }
+        observations = new double[count * OBSERVATION_SIZE];
+        rewards = new double[count];
+        done = new boolean[count];
+
+        threads = Math.max(1, Math.min(threads, count));
+        if (threads > 1) {
+            start = new CyclicBarrier(threads + 1);
+            end = new CyclicBarrier(threads + 1);
+            workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int from = count * t / threads, to = count * (t + 1) / threads;
+                workers[t] = new Thread(() -> work(from, to), "VecEnv worker " + t);
+                workers[t].setDaemon(true);
+                workers[t].start();
+            }
+        } else {
+            start = null;
+            end = null;
+            workers = new Thread[0];
+        }
+    }
+
+    /**
+     * Start new episodes in all races, each with a new obstacle layout.
+     *
+     * @return The observations, {@link #OBSERVATION_SIZE} values per race.
+     */
+    public double[] reset() {
+        List<Point2D> grid = Car.startingGrid(1);
+        for (int i = 0; i < count; i++) {
+            Collection<Obstacle> obstacles = obstaclesAmount > 0 ? Obstacle.generateObs(
+                            obstaclesAmount, cars[i].getWidth(), grid, cars[i].getWidth())
+                            : Collections.emptyList();
+            layouts[i] = sensor.withObstacles(obstacles);
+            resetRace(i);
+            observe(i);
+        }
+        return observations;
+    }
+
+    /**
+     * Drive every race for one step.
+     *
+     * @param actions The input bits for every race.
+     * @return The observations, {@link #OBSERVATION_SIZE} values per race. Rewards and ended
+     *         episodes are in {@link #getRewards()} and {@link #getDone()}.
+     */
+    public double[] step(int[] actions) {
+        this.actions = actions;
+        if (workers.length == 0) {
+            stepRaces(0, count);
+            return observations;
+        }
+        try {
+            start.await();
+            end.await();
+        } catch (InterruptedException | BrokenBarrierException e) {
+            throw new IllegalStateException("VecEnv has been closed", e);
+        }
+        return observations;
+    }
+
+    private void work(int from, int to) {
+        try {
+            while (true) {
+                start.await();
+                if (closed) {
+                    return;
+                }
+                stepRaces(from, to);
+                end.await();
+            }
+        } catch (InterruptedException | BrokenBarrierException e) {
+            // closed
+        }
+    }
+
+    private void stepRaces(int from, int to) {
+        for (int i = from; i < to; i++) {
+            stepRace(i, actions[i]);
+        }
+    }
+
+    private void stepRace(int i, int bits) {
+        Car car = cars[i];
+        double x = car.getPosX(), y = car.getPosY();
+        for (int t = 0; t < ticksPerStep && !car.isDestroyed() && !car.hasPassedEndLine(); t++) {
+            car.stepForward(TIME_DELTA, (bits & Driver.ACCELERATE) != 0,
+                            (bits & Driver.BRAKE) != 0, (bits & Driver.TURN_LEFT) != 0,
+                            (bits & Driver.TURN_RIGHT) != 0, layouts[i].getObstacles());
+            car.checkLines(timers[i]);
+        }
+        double reward = fields.progressBetween(x, y, car.getPosX(), car.getPosY());
+        if (car.isDestroyed()) {
+            reward -= CRASH_PENALTY;
+        }
+        rewards[i] = reward;
+        done[i] = car.isDestroyed() || car.hasPassedEndLine() || ++steps[i] >= maxSteps;
+        if (done[i]) {
+            resetRace(i);
+        }
+        observe(i);
+    }
+
+    private void resetRace(int i) {
+        cars[i].reset();
+        cars[i].unfreeze();
+        steps[i] = 0;
+    }
+
+    private void observe(int i) {
+        Car car = cars[i];
+        double x = car.getPosX(), y = car.getPosY(), rot = car.getRotation();
+        int o = i * OBSERVATION_SIZE;
+        observations[o] = x / GameView.WORLD_WIDTH;
+        observations[o + 1] = y / GameView.WORLD_HEIGHT;
+        // the car drives in direction rot + PI
+        observations[o + 2] = -Math.cos(rot);
+        observations[o + 3] = -Math.sin(rot);
+        observations[o + 4] = car.getVel() / MAX_VEL;
+        double edge = fields.edgeDistance(x, y);
+        observations[o + 5] = edge >= 0 ? 1 : 0;
+        observations[o + 6] = edge / 10;
+        observations[o + 7] = fields.progress(x, y) / fields.getLapLength();
+        layouts[i].cast(car, RAY_ANGLES, RAY_RANGE, observations, null, o + 8);
+        for (int r = o + 8; r < o + OBSERVATION_SIZE; r++) {
+            observations[r] /= RAY_RANGE;
+        }
+    }
+
+    // Getters and Setters after here
+
+    /**
+     *
+     * @return The rewards of the last step, one per race.
+     */
+    public double[] getRewards() {
+        return rewards;
+    }
+
+    /**
+     *
+     * @return For every race, whether its episode ended in the last step.
+     */
+    public boolean[] getDone() {
+        return done;
+    }
+
+    public double[] getObservations() {
+        return observations;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     *
+     * @param i The index of a race.
+     * @return The car of the race.
+     */
+    public Car getCar(int i) {
+        return cars[i];
+    }
+
+    /**
+     * Stop the worker threads.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package events;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import events.GameEvent.Type;
+import model.Car;
+
+/**
+ * Tells listeners about the {@link GameEvent}s of a race, so they do not have to look for changes
+ * every frame. The cars, the timers and the view of a race publish to the bus of the race.
+ * <p>
+ * Listeners subscribe to one type of event, either synchronously or asynchronously. Synchronous
+ * listeners are called right away on the thread that publishes, like the game loop, and must be
+ * quick. Asynchronous listeners, for example for statistics or to write files, are called on the
+ * dispatcher thread of the bus: the event is copied into a ring of events allocated up front, and
+ * if the dispatcher has fallen so far behind that the ring is full, the event is dropped and
+ * counted (see {@link #getDropped()}) instead of holding up the game. Publishing allocates
+ * nothing.
+ * <p>
+ * Events of a bus must be published by one thread, the thread that runs the race.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class EventBus implements AutoCloseable {
+
+    /**
+     * How many events can wait for the dispatcher, a power of two.
+     */
+    public static final int RING_SIZE = 1024;
+
+    /**
+     * How deep listeners may publish events while they are called.
+     */
+    private static final int MAX_DEPTH = 8;
+
+    private static final Listener[] NONE = new Listener[0];
+
+    /**
+     * Something that wants to know about events.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Called for every event of the types subscribed to.
+         *
+         * @param event The event. It is reused once the listener returns.
+         */
+        void onEvent(GameEvent event);
+    }
+
+    private volatile Listener[][] sync = new Listener[Type.values().length][];
+    private volatile Listener[][] async = new Listener[Type.values().length][];
+
+    /**
+     * The events handed to synchronous listeners, one for each level of listeners that publish.
+     */
+    private final GameEvent[] current = new GameEvent[MAX_DEPTH];
+    private int depth;
+    private long sequence;
+
+    private final GameEvent[] ring = new GameEvent[RING_SIZE];
+    /**
+     * The next event the publisher writes and the next event the dispatcher reads.
+     */
+    private final AtomicLong tail = new AtomicLong(), head = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private Thread dispatcher;
+    private volatile boolean waiting, closed;
+
+    /**
+     * Constructs an EventBus without listeners.
+     */
+    public EventBus() {
+        for (int t = 0; t < sync.length; t++) {
+            sync[t] = NONE;
+            async[t] = NONE;
+        }
+        for (int i = 0; i < MAX_DEPTH; i++) {
+            current[i] = new GameEvent();
+        }
+        for (int i = 0; i < RING_SIZE; i++) {
+            ring[i] = new GameEvent();
+        }
+    }
+
+    /**
+     * Call a listener on the publishing thread for every event of a type.
+     *
+     * @param type The type of events.
+     * @param listener The listener.
+     */
+    public synchronized void subscribe(Type type, Listener listener) {
+        sync = add(sync, type, listener);
+    }
+
+    /**
+     * Call a listener on the dispatcher thread for every event of a type. The dispatcher is
+     * started with the first asynchronous listener.
+     *
+     * @param type The type of events.
+     * @param listener The listener.
+     */
+    public synchronized void subscribeAsync(Type type, Listener listener) {
+        async = add(async, type, listener);
+        if (dispatcher == null && !closed) {
+            dispatcher = new Thread(this::dispatch, "Event dispatcher");
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+        }
+    }
+
+    /**
+     * Stop calling a listener.
+     *
+     * @param listener The listener, for all types it has subscribed to.
+     */
+    public synchronized void unsubscribe(Listener listener) {
+        sync = remove(sync, listener);
+        async = remove(async, listener);
+    }
+
+    private static Listener[][] add(Listener[][] listeners, Type type, Listener listener) {
+        Listener[][] copy = listeners.clone();
+        Listener[] old = copy[type.ordinal()];
+        copy[type.ordinal()] = Arrays.copyOf(old, old.length + 1);
+        copy[type.ordinal()][old.length] = listener;
+        return copy;
+    }
+
+    private static Listener[][] remove(Listener[][] listeners, Listener listener) {
+        Listener[][] copy = listeners.clone();
+        for (int t = 0; t < copy.length; t++) {
+            copy[t] = Arrays.stream(copy[t]).filter(l -> l != listener).toArray(Listener[]::new);
+        }
+        return copy;
+    }
+
+    /**
+     * Publish an event about the whole race.
+     *
+     * @param type The type of the event.
+     */
+    public void publish(Type type) {
+        publish(type, null, -1, 0);
+    }
+
+    /**
+     * Publish an event.
+     *
+     * @param type The type of the event.
+     * @param car The car the event is about, or null.
+     * @param gate The gate that has been crossed, or -1.
+     * @param time The lap time of the car.
+     */
+    public void publish(Type type, Car car, int gate, double time) {
+        long seq = sequence++;
+        Listener[] listeners = sync[type.ordinal()];
+        if (listeners.length > 0) {
+            if (depth == MAX_DEPTH) {
+                throw new IllegalStateException("Listeners publish too deep: " + type);
+            }
+            GameEvent event = current[depth++];
+            try {
+                for (Listener listener : listeners) {
+                    // set again for every listener, in case one of them has changed it
+                    event.set(type, car, gate, time, seq);
+                    listener.onEvent(event);
+                }
+            } finally {
+                depth--;
+            }
+        }
+        if (async[type.ordinal()].length > 0) {
+            long t = tail.get();
+            if (t - head.get() >= RING_SIZE) {
+                dropped.incrementAndGet();
+                return;
+            }
+            ring[(int) t & (RING_SIZE - 1)].set(type, car, gate, time, seq);
+            // a full fence, so the dispatcher cannot miss the event while it starts to wait
+            tail.set(t + 1);
+            if (waiting) {
+                LockSupport.unpark(dispatcher);
+            }
+        }
+    }
+
+    private void dispatch() {
+        GameEvent event = new GameEvent();
+        while (true) {
+            long h = head.get();
+            if (h == tail.get()) {
+                if (closed) {
+                    return;
+                }
+                waiting = true;
+                // check again, an event may have been published before waiting was seen
+                if (h == tail.get() && !closed) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+                continue;
+            }
+            event.copy(ring[(int) h & (RING_SIZE - 1)]);
+            head.lazySet(h + 1);
+            for (Listener listener : async[event.getType().ordinal()]) {
+                try {
+                    listener.onEvent(event);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * @return How many events have not been given to asynchronous listeners because the ring was
+     *         full.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Stop the dispatcher once it has handed the events that have been published so far to the
+     * asynchronous listeners.
+     */
+    @Override
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            closed = true;
+            thread = dispatcher;
+        }
+        if (thread == null) {
+            return;
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
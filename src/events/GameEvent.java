@@ -0,0 +1,115 @@
+package events;
+
+import model.Car;
+
+/**
+ * Something that happened in a race, see {@link Type}. Events are not created for every
+ * occurrence: an {@link EventBus} fills in events it has allocated up front, so a listener must
+ * not keep an event after it has returned, but copy what it needs.
+ *
+ * @author Juri Dispan
+ *
+ */
+public final class GameEvent {
+
+    /**
+     * The kinds of events.
+     */
+    public enum Type {
+        /**
+         * A car has crossed the start line and its lap has begun.
+         */
+        LAP_STARTED,
+        /**
+         * A car has crossed a gate between the start and the finish, see {@link #getGate()}.
+         */
+        GATE_PASSED,
+        /**
+         * A car has crossed the finish line, see {@link #getTime()} for its lap time.
+         */
+        LAP_FINISHED,
+        /**
+         * A car has been destroyed in a crash.
+         */
+        CAR_DESTROYED,
+        /**
+         * The countdown has reached zero and the race goes on.
+         */
+        COUNTDOWN_FINISHED,
+        /**
+         * The player paused the race.
+         */
+        PAUSED,
+        /**
+         * The player resumed the race.
+         */
+        RESUMED,
+        /**
+         * The race has been reset.
+         */
+        RACE_RESET
+    }
+
+    private Type type;
+    private Car car;
+    private int gate;
+    private double time;
+    private long sequence;
+
+    GameEvent() {}
+
+    void set(Type type, Car car, int gate, double time, long sequence) {
+        this.type = type;
+        this.car = car;
+        this.gate = gate;
+        this.time = time;
+        this.sequence = sequence;
+    }
+
+    void copy(GameEvent other) {
+        set(other.type, other.car, other.gate, other.time, other.sequence);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     *
+     * @return The car the event is about, or null for events about the whole race.
+     */
+    public Car getCar() {
+        return car;
+    }
+
+    /**
+     *
+     * @return The index of the gate that has been crossed (0 is the start and finish line), or
+     *         -1.
+     */
+    public int getGate() {
+        return gate;
+    }
+
+    /**
+     *
+     * @return The lap time of the car when the event happened, in seconds; 0 for events about the
+     *         whole race.
+     */
+    public double getTime() {
+        return time;
+    }
+
+    /**
+     *
+     * @return How many events the bus has published before this one.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public String toString() {
+        return type + (gate >= 0 ? " gate " + gate : "") + " at " + time + " s";
+    }
+}
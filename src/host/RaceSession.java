@@ -0,0 +1,197 @@
+package host;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import javafx.geometry.Point2D;
+import model.Car;
+import model.CarCollisions;
+import model.Driver;
+import model.Obstacle;
+import model.RoundTimer;
+import track.Track;
+
+/**
+ * A headless race on its own track: the cars, their drivers and the obstacles. Nothing of a
+ * session is shared with other sessions except the track, which is not changed while racing, so
+ * many sessions can be driven at the same time by a {@link SessionHost}. A session is only ever
+ * driven by one thread at a time.
+ * <p>
+ * The race is over when every car has finished the lap or is destroyed, or when the session has
+ * used up its tick budget.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class RaceSession {
+
+    /**
+     * Where a session is in its life.
+     */
+    public enum Status {
+        WAITING, RUNNING, FINISHED, OUT_OF_TICKS, FAILED
+    }
+
+    private final String name;
+    private final Track track;
+    private final List<Car> cars;
+    private final List<Driver> drivers;
+    private final Collection<Obstacle> obstacles;
+    private final double timeDelta;
+    private final int tickBudget;
+    private final CarCollisions collisions;
+    private final RoundTimer timer = new RoundTimer();
+    private int ticks;
+    private volatile Status status = Status.WAITING;
+    private volatile Throwable failure;
+
+    /**
+     * Constructs a RaceSession with new obstacles; the cars start on the starting grid.
+     *
+     * @param name The name of the session, for reports.
+     * @param track The track.
+     * @param drivers One driver for each car.
+     * @param obstacles How many obstacles there are.
+     * @param timeDelta The length of a tick in seconds.
+     * @param tickBudget The most ticks the race may take.
+     * @param contact Whether the cars can crash into each other. Without contact, every car
+     *        drives as if it was alone, like in a time trial.
+     */
+    public RaceSession(String name, Track track, List<Driver> drivers, int obstacles,
+                    double timeDelta, int tickBudget, boolean contact) {
+        this.name = name;
+        collisions = contact ? new CarCollisions() : null;
+        this.track = track;
+        this.drivers = new ArrayList<>(drivers);
+        this.timeDelta = timeDelta;
+        this.tickBudget = tickBudget;
+        // computed once here, so the drivers of all sessions only read them
+        track.getFields();
+        List<Point2D> grid = Car.startingGrid(track, drivers.size());
+        List<Car> carList = new ArrayList<>(grid.size());
+        for (Point2D p : grid) {
+            Car car = new Car(track, p.getX(), p.getY());
+            car.unfreeze();
+            carList.add(car);
+        }
+        cars = Collections.unmodifiableList(carList);
+        if (cars.size() < drivers.size()) {
+            throw new IllegalArgumentException(
+                            "There is only room for " + cars.size() + " cars on " + track.getName());
+        }
+        Car first = cars.get(0);
+        this.obstacles = obstacles > 0 ? Obstacle.generateObs(track, obstacles, first.getWidth(),
+                        grid, first.getWidth()) : Collections.emptyList();
+    }
+
+    /**
+     * Drive the race for some ticks.
+     *
+     * @param maxTicks The most ticks to drive.
+     * @return How many ticks have been driven.
+     */
+    int run(int maxTicks) {
+        status = Status.RUNNING;
+        int driven = 0;
+        while (driven < maxTicks && !isOver()) {
+            tick();
+            driven++;
+        }
+        return driven;
+    }
+
+    private void tick() {
+        boolean racing = false;
+        for (int i = 0; i < cars.size(); i++) {
+            Car car = cars.get(i);
+            if (car.isDestroyed() || car.hasPassedEndLine()) {
+                continue;
+            }
+            Driver driver = drivers.get(i);
+            driver.update(car, obstacles);
+            car.stepForward(timeDelta, driver.accelerate(), driver.brake(), driver.turnLeft(),
+                            driver.turnRight(), obstacles);
+            car.checkLines(timer);
+            racing |= !car.isDestroyed() && !car.hasPassedEndLine();
+        }
+        if (collisions != null && cars.size() > 1) {
+            collisions.resolve(cars);
+        }
+        ticks++;
+        if (!racing) {
+            status = Status.FINISHED;
+        } else if (ticks >= tickBudget) {
+            status = Status.OUT_OF_TICKS;
+        }
+    }
+
+    void fail(Throwable e) {
+        failure = e;
+        status = Status.FAILED;
+    }
+
+    /**
+     *
+     * @return true if and only if the race is over, see {@link RaceSession}.
+     */
+    public boolean isOver() {
+        Status s = status;
+        return s == Status.FINISHED || s == Status.OUT_OF_TICKS || s == Status.FAILED;
+    }
+
+    /**
+     *
+     * @return The lap time of each car, or NaN for cars that have not finished.
+     */
+    public double[] getLapTimes() {
+        double[] times = new double[cars.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = cars.get(i).getState().hasPassedEndLine()
+                            ? cars.get(i).getState().getLapTime()
+                            : Double.NaN;
+        }
+        return times;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Track getTrack() {
+        return track;
+    }
+
+    /**
+     *
+     * @return The cars. Only their state (see {@link Car#getState()}) may be read while the
+     *         session is driven.
+     */
+    public List<Car> getCars() {
+        return cars;
+    }
+
+    public Collection<Obstacle> getObstacles() {
+        return obstacles;
+    }
+
+    /**
+     *
+     * @return How many ticks have been driven.
+     */
+    public int getTicks() {
+        return ticks;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     *
+     * @return Why the session failed, or null.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+}
@@ -0,0 +1,240 @@
+package host;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import model.AIDriver;
+import model.Driver;
+import track.Track;
+import track.TrackRegistry;
+import view.GameView;
+
+/**
+ * Drives many {@link RaceSession}s at the same time on a few threads, for example to validate
+ * races on a server, or for tournaments and leagues of computer drivers. Sessions wait in one
+ * queue; a worker takes the session at the head, drives it for a slice of ticks and puts it back
+ * at the tail unless the race is over. So every session gets the same share of the workers, and
+ * no session waits for a long race to end. There is one worker per core by default, as a slice
+ * never blocks.
+ * <p>
+ * Run it with "--sessions=n", "--cars=n" computer drivers per race, "--tracks=a,b",
+ * "--threads=n", "--slice=ticks" and "--contact" to drive a league and print the results. Without
+ * "--contact" the races are time trials, as the computer drivers do not look out for each other.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class SessionHost implements AutoCloseable {
+
+    /**
+     * How many ticks a session is driven before the next one gets its turn, by default.
+     */
+    public static final int DEFAULT_SLICE = 60;
+
+    private static final Entry STOP = new Entry(null);
+
+    private final int slice;
+    private final BlockingQueue<Entry> ready = new LinkedBlockingQueue<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder ticks = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * A session and who waits for it.
+     */
+    private static final class Entry {
+        final RaceSession session;
+        final CompletableFuture<RaceSession> done = new CompletableFuture<>();
+
+        Entry(RaceSession session) {
+            this.session = session;
+        }
+    }
+
+    /**
+     * Constructs a SessionHost and starts its workers.
+     *
+     * @param threads How many sessions are driven at the same time.
+     * @param slice How many ticks a session is driven before it is the next session's turn.
+     */
+    public SessionHost(int threads, int slice) {
+        this.slice = slice;
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::work, "Session host " + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Drive a session until the race is over.
+     *
+     * @param session The session. It must not be driven by anyone else.
+     * @return Completes with the session when the race is over, or exceptionally if the session
+     *         failed or the host has been closed first.
+     */
+    public CompletableFuture<RaceSession> submit(RaceSession session) {
+        Entry entry = new Entry(session);
+        if (closed) {
+            entry.done.completeExceptionally(new CancellationException("The host is closed"));
+            return entry.done;
+        }
+        active.incrementAndGet();
+        ready.add(entry);
+        return entry.done;
+    }
+
+    private void work() {
+        try {
+            for (Entry entry; (entry = ready.take()) != STOP;) {
+                RaceSession session = entry.session;
+                if (closed) {
+                    finish(entry, new CancellationException("The host is closed"));
+                    continue;
+                }
+                try {
+                    ticks.add(session.run(slice));
+                } catch (RuntimeException e) {
+                    session.fail(e);
+                    finish(entry, e);
+                    continue;
+                }
+                if (session.isOver()) {
+                    finish(entry, null);
+                } else {
+                    ready.add(entry);
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    private void finish(Entry entry, Throwable failure) {
+        active.decrementAndGet();
+        if (failure != null) {
+            entry.done.completeExceptionally(failure);
+        } else {
+            entry.done.complete(entry.session);
+        }
+    }
+
+    /**
+     *
+     * @return How many sessions have been submitted and are not over yet.
+     */
+    public int getActiveSessions() {
+        return active.get();
+    }
+
+    /**
+     *
+     * @return How many ticks have been driven in all sessions.
+     */
+    public long getTicks() {
+        return ticks.sum();
+    }
+
+    /**
+     * Stop the workers after their current slice. Sessions that are not over are cancelled.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (int i = 0; i < workers.size(); i++) {
+            ready.add(STOP);
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Entry entry; (entry = ready.poll()) != null;) {
+            if (entry != STOP) {
+                finish(entry, new CancellationException("The host is closed"));
+            }
+        }
+    }
+
+    /**
+     * Drive a league of computer drivers, see {@link SessionHost}.
+     *
+     * @param args The options.
+     * @throws Exception If a track cannot be loaded.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> named = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                named.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+        }
+        boolean contact = Arrays.asList(args).contains("--contact");
+        int sessions = Integer.parseInt(named.getOrDefault("sessions", "200"));
+        int cars = Integer.parseInt(named.getOrDefault("cars", "4"));
+        List<Track> tracks = new ArrayList<>();
+        for (String name : named.getOrDefault("tracks", TrackRegistry.DEFAULT).split(",")) {
+            tracks.add(TrackRegistry.get(name));
+        }
+        long start = System.nanoTime();
+        List<CompletableFuture<RaceSession>> races = new ArrayList<>();
+        try (SessionHost host = new SessionHost(
+                        Integer.parseInt(named.getOrDefault("threads",
+                                        "" + Runtime.getRuntime().availableProcessors())),
+                        Integer.parseInt(named.getOrDefault("slice", "" + DEFAULT_SLICE)))) {
+            for (int s = 0; s < sessions; s++) {
+                Track track = tracks.get(s % tracks.size());
+                List<Driver> drivers = new ArrayList<>();
+                for (int c = 0; c < cars; c++) {
+                    drivers.add(new AIDriver(12 + 4 * c, track.getFields()));
+                }
+                races.add(host.submit(new RaceSession("race " + s, track, drivers,
+                                GameView.OBSTACLES_AMOUNT, 1 / 60.0, 60 * 180, contact)));
+            }
+            int[] wins = new int[cars];
+            int finished = 0;
+            for (CompletableFuture<RaceSession> race : races) {
+                RaceSession session;
+                try {
+                    session = race.get();
+                } catch (ExecutionException e) {
+                    System.out.println("Failed: " + e.getCause());
+                    continue;
+                }
+                double[] times = session.getLapTimes();
+                int winner = -1;
+                for (int c = 0; c < times.length; c++) {
+                    if (!Double.isNaN(times[c])
+                                    && (winner < 0 || times[c] < times[winner])) {
+                        winner = c;
+                    }
+                }
+                if (winner >= 0) {
+                    wins[winner]++;
+                    finished++;
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%d races, %d finished, %d ticks in %.1f s (%.0f ticks/s)%n",
+                            sessions, finished, host.getTicks(), seconds,
+                            host.getTicks() / seconds);
+            for (int c = 0; c < cars; c++) {
+                System.out.printf("driver %d (%d m/s): %d wins%n", c, 12 + 4 * c, wins[c]);
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package model;
+
+import static java.lang.Math.*;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A computer-controlled driver, used for opponents and as an autopilot. It decides with the
+ * precomputed {@link TrackFields}: a few headings around the current one are looked along, and
+ * the driver steers to the one that makes the most progress along the track while keeping clear
+ * of the edge and the obstacles. The speed is chosen by how much room there is ahead.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class AIDriver implements Driver {
+
+    /**
+     * The headings looked along, relative to the current heading of the car (in radians).
+     */
+    private static final double[] HEADINGS = {-0.6, -0.3, 0, 0.3, 0.6};
+
+    /**
+     * The distance between two samples along a heading, in metres.
+     */
+    private static final double SAMPLE_STEP = 1.0;
+
+    /**
+     * Less clearance than this and the car would touch something, so a heading is only followed
+     * until the clearance gets below it.
+     */
+    private static final double MIN_CLEARANCE = 2.5;
+
+    /**
+     * How much a metre of clearance is worth compared to a metre of progress.
+     */
+    private static final double CLEARANCE_WEIGHT = 0.5;
+
+    /**
+     * The driver does not steer if the car points less than this away from its aim (in radians).
+     */
+    private static final double TOLERANCE = 0.05;
+
+    private static final int BACK_UP_TICKS = 45;
+    private static final double BACK_UP_SPEED = 2.0;
+
+    /**
+     * If the car made less progress than this (in metres) in {@link #STUCK_TICKS} ticks, it is
+     * stuck and backs up.
+     */
+    private static final double STUCK_PROGRESS = 1.0;
+    private static final int STUCK_TICKS = 180;
+
+    private final double maxSpeed;
+    private final CompletableFuture<TrackFields> pendingFields;
+    private TrackFields fields;
+    private boolean acc, brk, left, right;
+    private int backingUp;
+    private int ticks;
+    private double lastVel;
+    private double checkX = Double.NaN, checkY;
+
+    /**
+     * Constructs an AIDriver. The fields are computed when the race is set up, as computing them
+     * takes far longer than a tick.
+     *
+     * @param maxSpeed The highest speed the driver drives at in m/s.
+     * @param fields The fields of the track the car drives on, see
+     *        {@link track.Track#getFields()}.
+     */
+    public AIDriver(double maxSpeed, TrackFields fields) {
+        this(maxSpeed, CompletableFuture.completedFuture(fields));
+    }
+
+    /**
+     * Constructs an AIDriver whose fields are still being computed, for example while the game
+     * is loading (see application.AssetLoader). The driver does not drive until they are ready,
+     * so the game does not have to wait for them.
+     *
+     * @param maxSpeed The highest speed the driver drives at in m/s.
+     * @param fields Completes with the fields of the track the car drives on.
+     */
+    public AIDriver(double maxSpeed, CompletableFuture<TrackFields> fields) {
+        this.maxSpeed = maxSpeed;
+        pendingFields = fields;
+    }
+
+    @Override
+    public void update(Car car, Collection<Obstacle> obstacles) {
+        if (fields == null) {
+            fields = pendingFields.getNow(null);
+            if (fields == null) {
+                acc = brk = left = right = false;
+                return;
+            }
+        }
+        if (Double.isNaN(checkX) || ++ticks >= STUCK_TICKS) {
+            if (ticks > 0 && fields.progressBetween(checkX, checkY, car.getPosX(),
+                            car.getPosY()) < STUCK_PROGRESS) {
+                backingUp = BACK_UP_TICKS;
+            }
+            ticks = 0;
+            checkX = car.getPosX();
+            checkY = car.getPosY();
+        }
+        boolean crashed = acc && lastVel > 0 && !car.isMoving();
+        lastVel = car.getVel();
+        if (crashed) {
+            // wanted to drive on, but crashed
+            backingUp = BACK_UP_TICKS;
+            left = !left;
+            right = !left;
+        }
+        if (backingUp > 0) {
+            // slowly and with the wheels turned, so the car faces a different way afterwards
+            backingUp--;
+            acc = false;
+            brk = car.getVel() > -BACK_UP_SPEED;
+            return;
+        }
+
+        double x = car.getPosX(), y = car.getPosY();
+        double lookahead = max(6, 0.8 * car.getVel());
+        // off the track or close to something, anything that does not get closer is fine
+        double blocked = min(MIN_CLEARANCE, fields.clearance(obstacles, x, y));
+        // the car drives in direction rot + PI
+        double heading = car.getRotation() + PI;
+        double bestScore = Double.NEGATIVE_INFINITY, bestOffset = 0, bestRoom = 0;
+        for (double offset : HEADINGS) {
+            double dx = cos(heading + offset), dy = sin(heading + offset);
+            double room = 0, clearance = Double.POSITIVE_INFINITY;
+            for (double d = SAMPLE_STEP; d <= lookahead; d += SAMPLE_STEP) {
+                double c = fields.clearance(obstacles, x + d * dx, y + d * dy);
+                if (c < blocked) {
+                    break;
+                }
+                room = d;
+                clearance = min(clearance, c);
+            }
+            double score;
+            if (room == 0) {
+                score = -1000 - abs(offset);
+            } else {
+                score = fields.progressBetween(x, y, x + room * dx, y + room * dy)
+                                + CLEARANCE_WEIGHT * min(clearance, 4)
+                                - 0.1 * abs(offset);
+                if (room < lookahead) {
+                    // blocked before the lookahead: only as good as its room
+                    score -= lookahead - room;
+                }
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                bestOffset = offset;
+                bestRoom = room;
+            }
+        }
+
+        right = bestOffset > TOLERANCE;
+        left = bestOffset < -TOLERANCE;
+        // the more room ahead, the faster; a bit faster still on the straight
+        double targetSpeed = min(maxSpeed, max(3, 0.6 * bestRoom + (bestOffset == 0 ? 4 : 0)));
+        acc = car.getVel() < targetSpeed;
+        brk = car.getVel() > targetSpeed * 1.2;
+    }
+
+    @Override
+    public boolean accelerate() {
+        return acc;
+    }
+
+    @Override
+    public boolean brake() {
+        return brk;
+    }
+
+    @Override
+    public boolean turnLeft() {
+        return left;
+    }
+
+    @Override
+    public boolean turnRight() {
+        return right;
+    }
+}
@@ -0,0 +1,299 @@
+package model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ * All assets of the game in one file, written by {@link tools.AssetPacker}. The file starts with
+ * an index of the assets, followed by their contents:
+ *
+ * <pre>
+ * int magic "RGAP", int version, int count
+ * count times: short name length, name (UTF-8), long offset, int length, int crc32,
+ *              byte format, [int width, int height if the format is {@link #BGRA_PRE}]
+ * contents, each starting at a multiple of 8 bytes from the end of the index
+ * </pre>
+ *
+ * All numbers are little endian. The file is mapped into memory once and assets are handed out as
+ * slices of the mapping, so nothing is copied. Images can be stored decoded, as premultiplied
+ * BGRA pixels that JavaFX takes without conversion, so loading them skips inflating the PNG.
+ *
+ * @author Juri Dispan
+ *
+ */
+public final class AssetPack {
+
+    /**
+     * The first bytes of a pack.
+     */
+    public static final int MAGIC = 0x52474150 /* "RGAP" */;
+
+    /**
+     * Version of the format, packs of other versions are not read.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Format of an asset that is stored as it is.
+     */
+    public static final byte RAW = 0;
+
+    /**
+     * Format of an image that is stored as premultiplied BGRA pixels, row by row.
+     */
+    public static final byte BGRA_PRE = 1;
+
+    private static AssetPack pack;
+    private static boolean opened;
+
+    private final ByteBuffer data;
+    private final Map<String, Entry> entries;
+
+    /**
+     * An asset in the index.
+     */
+    private static final class Entry {
+        final long offset;
+        final int length, crc;
+        final byte format;
+        final int width, height;
+
+        Entry(long offset, int length, int crc, byte format, int width, int height) {
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+            this.format = format;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private AssetPack(ByteBuffer data, Map<String, Entry> entries) {
+        this.data = data;
+        this.entries = entries;
+    }
+
+    /**
+     *
+     * @return The pack of the game, or null if the game runs from loose files. It is the file
+     *         "assets.pack" in the working directory, or the one named by the system property
+     *         "rennspiel.pack", opened on the first call.
+     */
+    public static synchronized AssetPack get() {
+        if (!opened) {
+            opened = true;
+            Path file = Paths.get(System.getProperty("rennspiel.pack", "assets.pack"));
+            if (Files.isReadable(file)) {
+                try {
+                    pack = open(file);
+                } catch (IOException e) {
+                    // the loose files still work
+                    e.printStackTrace();
+                }
+            }
+        }
+        return pack;
+    }
+
+    /**
+     * Map a pack into memory.
+     *
+     * @param file The pack.
+     * @return The pack.
+     * @throws IOException If the file cannot be read or is not a pack.
+     */
+    public static AssetPack open(Path file) throws IOException {
+        ByteBuffer map;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (map.getInt() != MAGIC || map.getInt() != VERSION) {
+                throw new IOException(file + " is not an asset pack of this version");
+            }
+            int count = map.getInt();
+            Map<String, Entry> entries = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[map.getShort()];
+                map.get(name);
+                long offset = map.getLong();
+                int length = map.getInt();
+                int crc = map.getInt();
+                byte format = map.get();
+                int width = 0, height = 0;
+                if (format == BGRA_PRE) {
+                    width = map.getInt();
+                    height = map.getInt();
+                }
+                entries.put(new String(name, StandardCharsets.UTF_8),
+                                new Entry(offset, length, crc, format, width, height));
+            }
+            ByteBuffer data = map.slice();
+            for (Entry e : entries.values()) {
+                if (e.offset < 0 || e.offset + e.length > data.capacity()) {
+                    throw new IOException(file + " is truncated");
+                }
+            }
+            return new AssetPack(data, entries);
+        } catch (RuntimeException e) {
+            throw new IOException(file + " is damaged", e);
+        }
+    }
+
+    /**
+     *
+     * @return The names of all assets, like "obstacle.png" or "tracks/track_gravel.track".
+     */
+    public Set<String> names() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     *
+     * @param name The name of an asset; a leading "/" is ignored.
+     * @return true if the pack contains the asset.
+     */
+    public boolean contains(String name) {
+        return entries.containsKey(strip(name));
+    }
+
+    private static String strip(String name) {
+        return name.startsWith("/") ? name.substring(1) : name;
+    }
+
+    private Entry entry(String name) throws IOException {
+        Entry e = entries.get(strip(name));
+        if (e == null) {
+            throw new IOException("No asset " + name);
+        }
+        return e;
+    }
+
+    private ByteBuffer slice(Entry e) {
+        ByteBuffer b = data.duplicate();
+        b.position((int) e.offset).limit((int) (e.offset + e.length));
+        return b.slice();
+    }
+
+    /**
+     *
+     * @param name The name of an asset.
+     * @return The stored bytes of the asset, without a copy.
+     * @throws IOException If there is no such asset.
+     */
+    public ByteBuffer slice(String name) throws IOException {
+        return slice(entry(name)).asReadOnlyBuffer();
+    }
+
+    /**
+     *
+     * @param name The name of an asset that is stored as it is.
+     * @return A stream of the asset.
+     * @throws IOException If there is no such asset or it is stored decoded.
+     */
+    public InputStream open(String name) throws IOException {
+        Entry e = entry(name);
+        if (e.format != RAW) {
+            throw new IOException(name + " is stored decoded");
+        }
+        ByteBuffer b = slice(e);
+        return new InputStream() {
+            @Override
+            public int read() {
+                return b.hasRemaining() ? b.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] buffer, int off, int len) {
+                if (!b.hasRemaining()) {
+                    return len == 0 ? 0 : -1;
+                }
+                int n = Math.min(len, b.remaining());
+                b.get(buffer, off, n);
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return b.remaining();
+            }
+        };
+    }
+
+    /**
+     *
+     * @param name The name of an image.
+     * @return The image, from its pixels if they are stored decoded.
+     * @throws IOException If there is no such asset.
+     */
+    public Image image(String name) throws IOException {
+        Entry e = entry(name);
+        if (e.format != BGRA_PRE) {
+            return new Image(open(name));
+        }
+        WritableImage image = new WritableImage(e.width, e.height);
+        image.getPixelWriter().setPixels(0, 0, e.width, e.height,
+                        PixelFormat.getByteBgraPreInstance(), slice(e), e.width * 4);
+        return image;
+    }
+
+    /**
+     * Check all assets against their checksums.
+     *
+     * @return The names of the damaged assets, empty if the pack is fine.
+     */
+    public Set<String> verify() {
+        Set<String> damaged = new TreeSet<>();
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            crc.reset();
+            ByteBuffer b = slice(e.getValue());
+            while (b.hasRemaining()) {
+                int n = Math.min(buffer.length, b.remaining());
+                b.get(buffer, 0, n);
+                crc.update(buffer, 0, n);
+            }
+            if ((int) crc.getValue() != e.getValue().crc) {
+                damaged.add(e.getKey());
+            }
+        }
+        return damaged;
+    }
+
+    /**
+     * Open a resource of the game, from the pack if there is one and it contains the resource,
+     * otherwise from the class path.
+     *
+     * @param resource The name of the resource, like "/tracks/tracks.list".
+     * @return A stream of the resource, or null if it does not exist.
+     * @throws IOException If the pack cannot be read.
+     */
+    public static InputStream resource(String resource) throws IOException {
+        AssetPack pack = get();
+        if (pack != null && pack.contains(resource) && pack.entry(resource).format == RAW) {
+            return pack.open(resource);
+        }
+        return AssetPack.class.getResourceAsStream(resource.startsWith("/") ? resource
+                        : "/" + resource);
+    }
+}
@@ -1,17 +1,24 @@
 package model;
 
 import static java.lang.Math.*;
-import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import javax.imageio.ImageIO;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import diagnostics.CollisionCheckEvent;
+import diagnostics.Metrics;
+import diagnostics.SimulationTickEvent;
+import events.EventBus;
+import events.GameEvent;
 import javafx.geometry.Point2D;
-import javafx.geometry.Rectangle2D;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.image.Image;
 import javafx.scene.transform.Rotate;
+import track.Track;
+import track.TrackDescriptor;
+import track.TrackRegistry;
 import view.GameView;
 
 /**
@@ -22,7 +29,6 @@ import view.GameView;
  *
  */
 public strictfp class Car implements Drawable, Freezeable {
-    private Image imageNotDestroyed, imageDestroyed;
     private double posX, posY;
     private double vel;
     private double rot;
@@ -30,7 +36,7 @@ public strictfp class Car implements Drawable, Freezeable {
     private boolean destroyed;
     private boolean frozen;
     private boolean passedEndLine;
-    private boolean passedCheckpoint;
+    private boolean startedLap;
 
     /*
      * Car-specific values:
@@ -45,6 +51,11 @@ public strictfp class Car implements Drawable, Freezeable {
      * Types of resistance
      */
     private final double RES_DIRT = 0.05, RES_TRACK = 0.015, RES_AIR = C_W * A * RHO / 2;
+    /*
+     * Width of the band around the edge of the track in which the rolling resistance goes over
+     * from track to dirt (in m).
+     */
+    private final double EDGE_BAND = 0.4;
     /*
      * Even though all physical constants are realistic, without the "magic constant" gameplay feels
      * weird. I don't know why. You can try setting it to 1.0 (for a perfect simulation), but you
@@ -55,13 +66,80 @@ public strictfp class Car implements Drawable, Freezeable {
     /*
      * Starting position of car
      */
-    public final double STARTING_POS_X = GameView.WORLD_WIDTH / 2 + 3.1, STARTING_POS_Y = 10.0;
+    public final double STARTING_POS_X, STARTING_POS_Y;
+    private final double startRot;
+
+    /*
+     * Where this car starts, which is behind the start line for all but the first car of a race.
+     */
+    private double startX, startY;
 
     private static final double ɛ = 0.01; // very small value
+    private static Track track;
+    private static TrackDescriptor defaultDescriptor;
     private static boolean[][] trackBitMap;
+    private static SignedDistanceField edgeField;
+
+    /*
+     * The track of a car that has been given its own track, for example in one of many races
+     * that run at the same time; null for cars on the current track.
+     */
+    private final Track ownTrack;
+    private final boolean[][] ownBitMap;
+    private final SignedDistanceField ownEdgeField;
+
+    /*
+     * The gates of the track as x0, y0, x1, y1, the gate the car has to cross next, where the
+     * car was when the gates were checked last and the simulated time since the last reset.
+     */
+    private final List<double[]> gates;
+    private int nextGate;
+    private double lastX, lastY;
+    private double time, stepStart, lapStart, lapTime;
+
+    /*
+     * The six points where the car is checked for collisions (x and y alternating), the time of
+     * the last step and whether its movement has already been taken back because of a collision.
+     */
+    private final double[] collisionPoints = new double[12];
+    private double lastTimeDelta;
+    private boolean movedBack;
 
-    private Rectangle2D finishLine;
-    private Rectangle2D checkpoint;
+    /*
+     * The longest distance the car moves between two collision checks (in m). Longer steps, e.g.
+     * after the game stalled, are checked along the way, so the car cannot jump over an obstacle.
+     */
+    private static final double MAX_CHECK_DISTANCE = 0.5;
+
+    /*
+     * A step is split into substeps so that no substep is longer than MAX_SUBSTEP (in s), the car
+     * moves at most MAX_SUBSTEP_DISTANCE (in m) and turns at most MAX_SUBSTEP_TURN (in rad) in
+     * a substep. Short steps at normal speed are not split. MAX_SUBSTEPS keeps a step after a
+     * very long stall from taking too long.
+     */
+    private static final double MAX_SUBSTEP = 1 / 30.0, MAX_SUBSTEP_DISTANCE = 2.0,
+                    MAX_SUBSTEP_TURN = 0.05;
+    private static final int MAX_SUBSTEPS = 256;
+
+    /*
+     * Where the car was before the current step.
+     */
+    private double stepX, stepY;
+
+    /*
+     * The values last published for other threads, and how many states have been published
+     * before. They are written under the write lock and copied into a new CarState only when
+     * another thread asks for it, so publishing allocates nothing.
+     */
+    private final StampedLock stateLock = new StampedLock();
+    private double shownX, shownY, shownVel, shownRot, shownLapTime;
+    private boolean shownFrozen, shownDestroyed, shownStartedLap, shownPassedEndLine;
+    private long shownVersion, version;
+
+    /*
+     * Where the car tells about crossed gates and its destruction, or null.
+     */
+    private EventBus events;
 
     /**
      * CollisionType represents the severity of collisions between the car and an obstacle.
@@ -95,14 +173,57 @@ public strictfp class Car implements Drawable, Freezeable {
      * @param gameView
      */
     public Car() {
+        this((Track) null);
+    }
+
+    /**
+     * Construct a car on its own track, which stays the same when the current track changes.
+     * 
+     * @param track The track, or null for the current track.
+     */
+    private Car(Track track) {
+        ownTrack = track;
+        ownBitMap = track != null ? track.getMask() : null;
+        ownEdgeField = track != null ? track.getEdgeField() : null;
+        TrackDescriptor descriptor = track != null ? track.getDescriptor() : descriptor();
+        STARTING_POS_X = descriptor.getStartX();
+        STARTING_POS_Y = descriptor.getStartY();
+        startRot = descriptor.getStartRotation();
         width = 4.2;
         height = 2.0;
         passedEndLine = false;
-        passedCheckpoint = false;
-        finishLine = new Rectangle2D(STARTING_POS_X - (width / 2) - 1, STARTING_POS_Y - 5.0, 1,
-                        10.0);
-        checkpoint = new Rectangle2D(STARTING_POS_X - (width / 2) - 1,
-                        STARTING_POS_Y + GameView.TRACK_HEIGHT - 15.0, 1, 10.0);
+        gates = descriptor.getGates();
+        startX = STARTING_POS_X;
+        startY = STARTING_POS_Y;
+        reset();
+    }
+
+    /**
+     * Construct a car on its own track that starts at the given position. Cars on their own
+     * track do not share any state with other cars, so races on different tracks can be driven at
+     * the same time.
+     * 
+     * @param track The track.
+     * @param startX X position in metres.
+     * @param startY Y position in metres.
+     */
+    public Car(Track track, double startX, double startY) {
+        this(track);
+        this.startX = startX;
+        this.startY = startY;
+        reset();
+    }
+
+    /**
+     * Construct a car that starts at the given position, for example on a starting grid.
+     * 
+     * @param startX X position in metres.
+     * @param startY Y position in metres.
+     */
+    public Car(double startX, double startY) {
+        this();
+        this.startX = startX;
+        this.startY = startY;
         reset();
     }
 
@@ -119,15 +240,19 @@ public strictfp class Car implements Drawable, Freezeable {
     }
 
     /**
-     * Does Car collide with given obstacle?
+     * Does Car collide with given obstacle? The closest point of the car to the centre of the
+     * obstacle is tested, so small obstacles between the collision points are not missed.
      * 
      * @param obs Obstacle which is tested on collision
-     * @param cps Collision Points of the car.
      * @return yes if and only if the model of the car interects the model of the obstacle
      */
-    private boolean collidesWith(Obstacle obs, Collection<Point2D> cps) {
-        return cps.stream().anyMatch(
-                        cpoint -> cpoint.distance(obs.getX(), obs.getY()) <= obs.getRadius());
+    private boolean collidesWith(Obstacle obs) {
+        double dx = obs.getX() - posX, dy = obs.getY() - posY;
+        // in the frame of the car: along its length and across it
+        double along = dx * cos(rot) + dy * sin(rot), across = -dx * sin(rot) + dy * cos(rot);
+        double ex = along - max(-width / 2, min(width / 2, along));
+        double ey = across - max(-height / 2, min(height / 2, across));
+        return ex * ex + ey * ey <= obs.getRadius() * obs.getRadius();
     }
 
     /**
@@ -138,30 +263,85 @@ public strictfp class Car implements Drawable, Freezeable {
      * @return The severity of the collision (or NO_COLLISION if no collision takes place).
      */
     private CollisionType checkCollision(Collection<Obstacle> obstacles) {
-        if (obstacles == null) {
-            obstacles = Collections.emptyList();
+        Metrics.COLLISION_CHECKS.increment();
+        CollisionCheckEvent event = new CollisionCheckEvent();
+        event.begin();
+        updateCollisionPoints();
+        CollisionType result = CollisionType.NO_COLLISION;
+        int tested = 0;
+        for (int i = 0; i < collisionPoints.length; i += 2) {
+            if (outOfBounds(collisionPoints[i], collisionPoints[i + 1])) {
+                result = CollisionType.getCollisionSeverity(vel);
+                break;
+            }
         }
-        Collection<Point2D> cps = getCollisionPoints();
-
-        if (obstacles.stream().anyMatch(currObstacle -> collidesWith(currObstacle, cps))
-                        || cps.stream().anyMatch(hitpoint -> outOfBounds(hitpoint))) {
-            return CollisionType.getCollisionSeverity(vel);
+        if (result == CollisionType.NO_COLLISION && obstacles != null) {
+            for (Obstacle obs : obstacles) {
+                tested++;
+                if (collidesWith(obs)) {
+                    result = CollisionType.getCollisionSeverity(vel);
+                    break;
+                }
+            }
+        }
+        if (event.shouldCommit()) {
+            event.obstaclesTested = tested;
+            event.result = result.name();
+            event.commit();
         }
-        return CollisionType.NO_COLLISION;
+        return result;
     }
 
     /**
      * Is hitpoint outside the level?
      * 
-     * @param hitpoint
+     * @param x X coordinate of the hitpoint.
+     * @param y Y coordinate of the hitpoint.
      * @return true if and only if hitpoint is outsite the visible level.
      */
-    private boolean outOfBounds(Point2D hitpoint) {
-        return (hitpoint.getX() < 0) || (hitpoint.getX() > GameView.WORLD_WIDTH)
-                        || (hitpoint.getY() < 0) || (hitpoint.getY() > GameView.WORLD_HEIGHT);
+    private boolean outOfBounds(double x, double y) {
+        return (x < 0) || (x >= GameView.WORLD_WIDTH) || (y < 0) || (y >= GameView.WORLD_HEIGHT);
 
     }
 
+    /**
+     * Called when this car has crashed into another car, see {@link CarCollisions}. The car is
+     * pushed out of the other car and its velocity changes; it is destroyed, and stops, if the
+     * impact was too fast.
+     * 
+     * @param impactSpeed How fast the cars moved towards each other, in m/s.
+     * @param pushX How far the car is pushed along the x axis, in metres.
+     * @param pushY How far the car is pushed along the y axis, in metres.
+     * @param velChange How much the velocity of the car changes, in m/s.
+     */
+    public void collideWithCar(double impactSpeed, double pushX, double pushY, double velChange) {
+        boolean wasDestroyed = destroyed;
+        if (CollisionType.getCollisionSeverity(impactSpeed) == CollisionType.CRITICAL_DAMAGE) {
+            if (!destroyed) {
+                Metrics.CARS_DESTROYED.increment();
+            }
+            destroyed = true;
+        }
+        posX += pushX;
+        posY += pushY;
+        vel = destroyed ? 0 : vel + velChange;
+        publish();
+        if (destroyed && !wasDestroyed && events != null) {
+            events.publish(GameEvent.Type.CAR_DESTROYED, this, -1, getLapTime());
+        }
+    }
+
+    /**
+     * Take back the movement since the last collision check (only once per step) and stop the car.
+     */
+    private void moveBack() {
+        if (!movedBack) {
+            updatePosition(-lastTimeDelta); // dont glitch in with obstacles
+            movedBack = true;
+        }
+        vel = 0;
+    }
+
     @Override
     public void draw(GraphicsContext gc) {
         gc.save();
@@ -172,22 +352,134 @@ public strictfp class Car implements Drawable, Freezeable {
         gc.restore();
 
         // DEBUG: Show car hitpoints
-        // getCollisionPoints().stream().forEach(p -> gc.fillOval(p.getX() * 10, p.getY() * 10, 3,
-        // 3));
+        // for (int i = 0; i < collisionPoints.length; i += 2) {
+        // gc.fillOval(collisionPoints[i] * 10, collisionPoints[i + 1] * 10, 3, 3);
+        // }
     }
 
     /**
      * Restore the car to its initial state.
      */
     public void reset() {
-        posX = STARTING_POS_X;
-        posY = STARTING_POS_Y;
+        posX = startX;
+        posY = startY;
         vel = 0;
         destroyed = false;
         frozen = true;
-        passedCheckpoint = false;
         passedEndLine = false;
-        rot = 0;
+        startedLap = false;
+        rot = startRot;
+        nextGate = 0;
+        lastX = posX;
+        lastY = posY;
+        stepX = posX;
+        stepY = posY;
+        time = 0;
+        stepStart = 0;
+        lapStart = 0;
+        lapTime = 0;
+        publish();
+    }
+
+    /**
+     * Move the car to the given pose, for example to apply the state received from a race server.
+     * The lap progress of the car is not changed.
+     * 
+     * @param posX X position in metres.
+     * @param posY Y position in metres.
+     * @param vel Velocity in m/s.
+     * @param rot Rotation in radians.
+     * @param destroyed Whether the car is destroyed.
+     */
+    public void setState(double posX, double posY, double vel, double rot, boolean destroyed) {
+        boolean wasDestroyed = this.destroyed;
+        this.posX = posX;
+        this.posY = posY;
+        this.vel = vel;
+        this.rot = rot;
+        this.destroyed = destroyed;
+        lastX = posX;
+        lastY = posY;
+        stepX = posX;
+        stepY = posY;
+        publish();
+        if (destroyed && !wasDestroyed && events != null) {
+            events.publish(GameEvent.Type.CAR_DESTROYED, this, -1, getLapTime());
+        }
+    }
+
+    /**
+     * Set the simulated time of the car without moving it, for example after steps that had
+     * already been simulated have been simulated again from a corrected pose.
+     * 
+     * @param time The simulated time since the last reset in seconds, see {@link #getTime()}.
+     * @param stepStart When the last step started, see {@link #getStepStart()}.
+     */
+    public void setTime(double time, double stepStart) {
+        this.time = time;
+        this.stepStart = stepStart;
+        publish();
+    }
+
+    /**
+     * How many values {@link #saveState(double[], int)} writes.
+     */
+    public static final int STATE_SIZE = 15;
+
+    /**
+     * Write everything that changes while the car races into an array, for example to rewind
+     * the race later. Nothing is allocated.
+     *
+     * @param into The array.
+     * @param offset Where the {@link #STATE_SIZE} values of the car start.
+     */
+    public void saveState(double[] into, int offset) {
+        into[offset] = posX;
+        into[offset + 1] = posY;
+        into[offset + 2] = vel;
+        into[offset + 3] = rot;
+        into[offset + 4] = (destroyed ? 1 : 0) | (startedLap ? 2 : 0) | (passedEndLine ? 4 : 0)
+                        | (movedBack ? 8 : 0);
+        into[offset + 5] = nextGate;
+        into[offset + 6] = lastX;
+        into[offset + 7] = lastY;
+        into[offset + 8] = time;
+        into[offset + 9] = stepStart;
+        into[offset + 10] = lapStart;
+        into[offset + 11] = lapTime;
+        into[offset + 12] = stepX;
+        into[offset + 13] = stepY;
+        into[offset + 14] = lastTimeDelta;
+    }
+
+    /**
+     * Put the car back into a state written by {@link #saveState(double[], int)}. No events are
+     * published, and whether the car is frozen does not change.
+     *
+     * @param from The array.
+     * @param offset Where the {@link #STATE_SIZE} values of the car start.
+     */
+    public void restoreState(double[] from, int offset) {
+        posX = from[offset];
+        posY = from[offset + 1];
+        vel = from[offset + 2];
+        rot = from[offset + 3];
+        int flags = (int) from[offset + 4];
+        destroyed = (flags & 1) != 0;
+        startedLap = (flags & 2) != 0;
+        passedEndLine = (flags & 4) != 0;
+        movedBack = (flags & 8) != 0;
+        nextGate = (int) from[offset + 5];
+        lastX = from[offset + 6];
+        lastY = from[offset + 7];
+        time = from[offset + 8];
+        stepStart = from[offset + 9];
+        lapStart = from[offset + 10];
+        lapTime = from[offset + 11];
+        stepX = from[offset + 12];
+        stepY = from[offset + 13];
+        lastTimeDelta = from[offset + 14];
+        publish();
     }
 
     public void stepForward(double timeDelta, boolean carAcc, boolean carPlsBreak, boolean turnLeft,
@@ -195,9 +487,57 @@ public strictfp class Car implements Drawable, Freezeable {
         if (frozen) {
             return;
         }
-        applyResistance(timeDelta);
-        acceptInput(carAcc, carPlsBreak, turnLeft, turnRight, timeDelta);
-        updatePosAndState(timeDelta, obstacles);
+        long start = Metrics.isEnabled() ? System.nanoTime() : 0;
+        SimulationTickEvent event = new SimulationTickEvent();
+        event.begin();
+        stepStart = time;
+        time += timeDelta;
+        stepX = posX;
+        stepY = posY;
+        boolean wasDestroyed = destroyed;
+        int substeps = substeps(timeDelta, turnLeft != turnRight);
+        double onTrack = 0;
+        for (int i = 0; i < substeps; i++) {
+            onTrack = applyResistance(timeDelta / substeps);
+            acceptInput(carAcc, carPlsBreak, turnLeft, turnRight, timeDelta / substeps);
+            updatePosAndState(timeDelta / substeps, obstacles);
+            if (movedBack) {
+                // the car has crashed and stopped, the rest of the step is lost
+                break;
+            }
+        }
+        publish();
+        if (destroyed && !wasDestroyed && events != null) {
+            events.publish(GameEvent.Type.CAR_DESTROYED, this, -1, getLapTime());
+        }
+        if (event.shouldCommit()) {
+            event.timeDelta = timeDelta;
+            event.velocity = vel;
+            event.onTrack = onTrack;
+            event.substeps = substeps;
+            event.commit();
+        }
+        if (start != 0) {
+            Metrics.TICK_TIME.observeNanos(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * How many substeps a step needs, see {@link #MAX_SUBSTEP}. The speed at the start of the step
+     * is used, and the speed after accelerating for the whole step, as the car may be much faster
+     * at its end.
+     *
+     * @param timeDelta The length of the step.
+     * @param turning Whether the car is turning.
+     * @return The number of substeps, at least 1.
+     */
+    private int substeps(double timeDelta, boolean turning) {
+        double speed = max(abs(vel), sqrt(vel * vel + 2 * enginePower * timeDelta / CAR_MASS));
+        double n = max(timeDelta / MAX_SUBSTEP, speed * timeDelta / MAX_SUBSTEP_DISTANCE);
+        if (turning) {
+            n = max(n, sqrt(sqrt(speed)) * turningPower * timeDelta / MAX_SUBSTEP_TURN);
+        }
+        return (int) min(MAX_SUBSTEPS, max(1, ceil(n)));
     }
 
     /**
@@ -206,15 +546,24 @@ public strictfp class Car implements Drawable, Freezeable {
      * @param timeDelta Time since last update.
      */
     private void updatePosAndState(double timeDelta, Collection<Obstacle> obstacles) {
-        updatePosition(timeDelta);
-        switch (checkCollision(obstacles)) {
-            case CRITICAL_DAMAGE:
-                destroyed = true;
-            case MINIMAL_DAMAGE:
-                updatePosition(-timeDelta); // dont glitch in with obstacles
-                vel = 0;
-            default:
-                break;
+        int checks = max(1, (int) ceil(abs(vel * timeDelta) / MAX_CHECK_DISTANCE));
+        for (int i = 0; i < checks; i++) {
+            updatePosition(timeDelta / checks);
+            lastTimeDelta = timeDelta / checks;
+            movedBack = false;
+            switch (checkCollision(obstacles)) {
+                case CRITICAL_DAMAGE:
+                    if (!destroyed) {
+                        Metrics.CARS_DESTROYED.increment();
+                    }
+                    destroyed = true;
+                case MINIMAL_DAMAGE:
+                    // back to where the car was free
+                    moveBack();
+                    return;
+                default:
+                    break;
+            }
         }
     }
 
@@ -280,40 +629,35 @@ public strictfp class Car implements Drawable, Freezeable {
     }
 
     /**
-     * Apply air resistance and rolling resistance.
+     * Apply air resistance and rolling resistance. The car loses (fAir + fRolling) * v of its
+     * kinetic energy per second, so its speed s falls by (RES_AIR * s / m + resistance * g) per
+     * second (times the magic constant). This is solved exactly instead of taking one step along
+     * it, so the car does not lose too much speed in a long step.
      * 
      * @param timeDelta Time since the last update.
+     * @return How much the car is on the track, from 0 on dirt to 1 on the track.
      */
-    private void applyResistance(double timeDelta) {
+    private double applyResistance(double timeDelta) {
 
         double dir = signum(vel);
-        double eVel = 0.5 * CAR_MASS * vel * vel;
-
-        // air resistance
-        double fAir = RES_AIR * vel * vel;
 
         // rolling resistance
-        // look in bitmap weather the car is on track or on dirt
-        double groundResistance =
-                        trackBitMap[(int) (posX * 10)][(int) (posY * 10)] ? RES_TRACK : RES_DIRT;
-        double fRolling = groundResistance * CAR_MASS * abs(vel) * 9.81;
+        double onTrack = getOnTrack();
+        double groundResistance = RES_DIRT + (RES_TRACK - RES_DIRT) * onTrack;
 
-        if ((fAir + fRolling) * timeDelta * MAGIC_CONSTANT < eVel) {
-            eVel -= (fAir + fRolling) * timeDelta * MAGIC_CONSTANT;
-        } else {
-            eVel = 0;
-        }
-
-        // System.out.println((fAir + fRolling) * timeDelta * MAGIC_CONSTANT);
+        // ds/dt = -a * s - b
+        double a = MAGIC_CONSTANT * RES_AIR / CAR_MASS;
+        double b = MAGIC_CONSTANT * groundResistance * 9.81;
+        double speed = (abs(vel) + b / a) * StrictMath.exp(-a * timeDelta) - b / a;
 
         // avoid infinite rolling with infinitly small velocity
 
-        if (eVel < ɛ) {
+        if (speed <= 0 || 0.5 * CAR_MASS * speed * speed < ɛ) {
             vel = 0;
         } else {
-            vel = sqrt(2 * abs(eVel) / CAR_MASS) * dir;
+            vel = speed * dir;
         }
-
+        return onTrack;
     }
 
     /**
@@ -322,57 +666,173 @@ public strictfp class Car implements Drawable, Freezeable {
 
 
     /**
-     * Check if the racecar passed the start/finish line or the checkpoint. If the car passed the
-     * start/finish line, start the timer if the checkpoint has not been passed yet.
+     * Check if the racecar crossed the next gate of the track since the last check. The path of
+     * the centre of the car is tested against the gate, so a fast car cannot jump over it. The
+     * gates have to be crossed in order and in the driving direction, so only the next one is
+     * tested and a car that drives backwards over it does not pass it: the start/finish line
+     * starts the lap and the timer, all other gates follow, and the start/finish line ends the
+     * lap.
      * 
-     * @return true if the center of the car is on a line.
+     * @param timer The timer that is started with the lap, or null. The lap time of the car is
+     *        kept by the car itself.
+     * @return true if the car crossed a gate.
      */
     public boolean checkLines(RoundTimer timer) {
-        // start/finishline passed once -> game starts
-        // start/finishline passed after checkpoint has been passed -> game ends
-        if (finishLine.contains(posX, posY)) {
-            if (passedCheckpoint) {
-                passedEndLine = true;
-            } else {
+        double[] gate = gates.get(nextGate);
+        double at = crossing(lastX, lastY, posX, posY, gate);
+        lastX = posX;
+        lastY = posY;
+        if (at < 0 || passedEndLine) {
+            return false;
+        }
+        // when in the last step the gate was crossed
+        double crossed = stepStart + at * (time - stepStart);
+        GameEvent.Type type = GameEvent.Type.GATE_PASSED;
+        if (!startedLap) {
+            startedLap = true;
+            lapStart = crossed;
+            if (timer != null) {
                 timer.unfreeze();
             }
-        } else if (checkpoint.contains(posX, posY)) {
-            passedCheckpoint = true;
-        } else {
-            return false;
+            Metrics.LAPS_STARTED.increment();
+            type = GameEvent.Type.LAP_STARTED;
+        } else if (nextGate == 0) {
+            passedEndLine = true;
+            lapTime = crossed - lapStart;
+            Metrics.LAPS_FINISHED.increment();
+            type = GameEvent.Type.LAP_FINISHED;
+        }
+        int crossedGate = nextGate;
+        nextGate = (nextGate + 1) % gates.size();
+        publish();
+        if (events != null) {
+            events.publish(type, this, crossedGate, crossed - lapStart);
         }
         return true;
+    }
 
+    /**
+     * Where a path crosses a gate in the driving direction, see {@link TrackDescriptor}.
+     * 
+     * @param gate The gate, as x0, y0, x1, y1.
+     * @return The fraction of the path from (x0, y0) to (x1, y1) at which it crosses the gate,
+     *         or -1 if it does not cross it or crosses it backwards.
+     */
+    private static double crossing(double x0, double y0, double x1, double y1, double[] gate) {
+        double px = x1 - x0, py = y1 - y0;
+        double gx = gate[2] - gate[0], gy = gate[3] - gate[1];
+        // the negative dot product of the path and the forward normal (-gy, gx) of the gate
+        double denominator = px * gy - py * gx;
+        if (denominator >= 0) {
+            return -1;
+        }
+        double ox = gate[0] - x0, oy = gate[1] - y0;
+        double t = (ox * gy - oy * gx) / denominator;
+        double u = (ox * py - oy * px) / denominator;
+        return t >= 0 && t <= 1 && u >= 0 && u <= 1 ? t : -1;
     }
 
     @Override
     public void freeze() {
         frozen = true;
+        publish();
     }
 
     @Override
     public void unfreeze() {
         frozen = false;
+        publish();
+    }
+
+    /**
+     * Make the current state visible to other threads.
+     */
+    private void publish() {
+        long stamp = stateLock.writeLock();
+        shownX = posX;
+        shownY = posY;
+        shownVel = vel;
+        shownRot = rot;
+        shownLapTime = getLapTime();
+        shownFrozen = frozen;
+        shownDestroyed = destroyed;
+        shownStartedLap = startedLap;
+        shownPassedEndLine = passedEndLine;
+        shownVersion = version++;
+        stateLock.unlockWrite(stamp);
+    }
+
+    private CarState shownState() {
+        return new CarState(shownX, shownY, shownVel, shownRot, shownLapTime, shownFrozen,
+                        shownDestroyed, shownStartedLap, shownPassedEndLine, shownVersion);
     }
 
     /**
-     * Read in bitmap that the car uses to determine on which kind of ground it currently is.
+     * Tell the listeners of a bus when this car crosses a gate or is destroyed.
+     * 
+     * @param events The bus of the race, or null.
+     */
+    public void setEvents(EventBus events) {
+        this.events = events;
+    }
+
+    /**
+     * The state of the car after its last change. Unlike the other getters, this can be called
+     * from any thread: the state is copied as a whole, and the copy never changes.
+     * 
+     * @return The state.
+     */
+    public CarState getState() {
+        long stamp = stateLock.tryOptimisticRead();
+        CarState state = shownState();
+        if (!stateLock.validate(stamp)) {
+            stamp = stateLock.readLock();
+            try {
+                state = shownState();
+            } finally {
+                stateLock.unlockRead(stamp);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Load the default track (see {@link TrackRegistry}): the bitmap that the car uses to
+     * determine on which kind of ground it currently is, and its distance field.
      */
     public static void initTrack() {
-        BufferedImage mask = null;
-        try {
-            mask = ImageIO.read(Car.class.getResourceAsStream("/track_mask.png"));
-        } catch (IOException e) {
-            e.printStackTrace();
+        useTrack(TrackRegistry.get(TrackRegistry.DEFAULT));
+    }
+
+    /**
+     * Drive on another track from now on. Cars constructed before keep the start and the gates of
+     * the previous track.
+     * 
+     * @param newTrack The track.
+     */
+    public static synchronized void useTrack(Track newTrack) {
+        trackBitMap = newTrack.getMask();
+        edgeField = newTrack.getEdgeField();
+        track = newTrack;
+    }
+
+    /**
+     * 
+     * @return The descriptor of the current track, or of the default track if none has been
+     *         loaded yet.
+     */
+    private static synchronized TrackDescriptor descriptor() {
+        if (track != null) {
+            return track.getDescriptor();
         }
-        trackBitMap = new boolean[mask.getWidth()][mask.getHeight()];
-        for (int i = 0; i < mask.getWidth(); i++) {
-            for (int j = 0; j < mask.getHeight(); j++) {
-                if (mask.getRGB(i, j) != -1) {
-                    trackBitMap[i][j] = true;
-                }
+        if (defaultDescriptor == null) {
+            try {
+                defaultDescriptor = TrackDescriptor.load(TrackRegistry.DEFAULT);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
         }
+        return defaultDescriptor;
     }
 
     // Getters and Setters after here
@@ -385,6 +845,14 @@ public strictfp class Car implements Drawable, Freezeable {
         return width;
     }
 
+    /**
+     * 
+     * @return The width of the car.
+     */
+    public double getHeight() {
+        return height;
+    }
+
     public double getPosX() {
         return posX;
     }
@@ -393,6 +861,25 @@ public strictfp class Car implements Drawable, Freezeable {
         return posY;
     }
 
+    public double getStartX() {
+        return startX;
+    }
+
+    public double getStartY() {
+        return startY;
+    }
+
+    /**
+     * 
+     * @return How much the car is on the track, from 0 on dirt to 1 on the track. It is looked up
+     *         in the distance field; close to the edge it is a bit of both.
+     */
+    public double getOnTrack() {
+        SignedDistanceField edges = ownTrack != null ? ownEdgeField : edgeField;
+        double onTrack = edges.distance(posX, posY) / EDGE_BAND + 0.5;
+        return Math.min(Math.max(onTrack, 0), 1);
+    }
+
     public double getVel() {
         return vel;
     }
@@ -401,43 +888,120 @@ public strictfp class Car implements Drawable, Freezeable {
      * @return The image that represents the state of the car
      */
     private Image getImage() {
-        if (imageDestroyed == null || imageNotDestroyed == null) {
-            imageNotDestroyed = new Image("car_intact.png");
-            imageDestroyed = new Image("car_destroyed.png");
-        }
-        return destroyed ? imageDestroyed : imageNotDestroyed;
+        return Sprites.get(destroyed ? "car_destroyed.png" : "car_intact.png");
     }
 
     /**
-     * 
-     * @return A collection containing the points where the car is checked for a collision.
+     * Compute the points where the car is checked for a collision: the four corners and the
+     * middle of the front and the back.
      */
-    private Collection<Point2D> getCollisionPoints() {
-        Collection<Point2D> corners = new ArrayList<>();
+    private void updateCollisionPoints() {
+        double lx = width / 2 * cos(rot), ly = width / 2 * sin(rot);
+        double hx = height / 2 * sin(rot), hy = height / 2 * cos(rot);
+        double[] p = collisionPoints;
 
         // bottom left
-        corners.add(new Point2D(posX - (width / 2 * cos(rot)) - (height / 2 * sin(rot)),
-                        posY - (width / 2 * sin(rot)) + (height / 2 * cos(rot))));
+        p[0] = posX - lx - hx;
+        p[1] = posY - ly + hy;
 
         // top left
-        corners.add(new Point2D(posX - (width / 2 * cos(rot)) + (height / 2 * sin(rot)),
-                        posY - (width / 2 * sin(rot)) - (height / 2 * cos(rot))));
+        p[2] = posX - lx + hx;
+        p[3] = posY - ly - hy;
 
         // middle left
-        corners.add(new Point2D(posX - (width / 2 * cos(rot)), posY - (width / 2 * sin(rot))));
+        p[4] = posX - lx;
+        p[5] = posY - ly;
 
         // bottom right
-        corners.add(new Point2D(posX + (width / 2 * cos(rot)) - (height / 2 * sin(rot)),
-                        posY + (width / 2 * sin(rot)) + (height / 2 * cos(rot))));
+        p[6] = posX + lx - hx;
+        p[7] = posY + ly + hy;
 
         // top right
-        corners.add(new Point2D(posX + (width / 2 * cos(rot)) + (height / 2 * sin(rot)),
-                        posY + (width / 2 * sin(rot)) - (height / 2 * cos(rot))));
+        p[8] = posX + lx + hx;
+        p[9] = posY + ly - hy;
 
         // middle right
+        p[10] = posX + lx;
+        p[11] = posY + ly;
+    }
 
-        corners.add(new Point2D(posX + (width / 2 * cos(rot)), posY + (width / 2 * sin(rot))));
-        return corners;
+    /**
+     * 
+     * @return true if and only if all collision points of the car are on track.
+     */
+    private boolean isOnTrack() {
+        boolean[][] trackBitMap = ownTrack != null ? ownBitMap : Car.trackBitMap;
+        updateCollisionPoints();
+        for (int i = 0; i < collisionPoints.length; i += 2) {
+            double x = collisionPoints[i], y = collisionPoints[i + 1];
+            // just below the edge of the world, x * 10 can round up to the size of the bitmap
+            int ix = (int) (x * 10), iy = (int) (y * 10);
+            if (outOfBounds(x, y) || ix >= trackBitMap.length || iy >= trackBitMap[ix].length
+                            || !trackBitMap[ix][iy]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compute the positions on a starting grid behind the start line, against the start rotation
+     * of the track. Only positions where the whole car is on track are used.
+     * 
+     * @param amount How many positions are needed.
+     * @return The positions, the first one is the normal starting position.
+     */
+    public static List<Point2D> startingGrid(int amount) {
+        return startingGrid(new Car(), amount);
+    }
+
+    /**
+     * Compute the positions on a starting grid of a track like {@link #startingGrid(int)}.
+     * 
+     * @param track The track.
+     * @param amount How many positions are needed.
+     * @return The positions, the first one is the normal starting position.
+     */
+    public static List<Point2D> startingGrid(Track track, int amount) {
+        return startingGrid(new Car(track), amount);
+    }
+
+    private static List<Point2D> startingGrid(Car car, int amount) {
+        List<Point2D> grid = new ArrayList<>(amount);
+        grid.add(new Point2D(car.STARTING_POS_X, car.STARTING_POS_Y));
+        // columns every 6 m behind the start line, up to three lanes per column
+        double backX = cos(car.startRot), backY = sin(car.startRot);
+        for (double back = 0; grid.size() < amount; back += car.getWidth() + 1.8) {
+            double x = car.STARTING_POS_X + back * backX, y = car.STARTING_POS_Y + back * backY;
+            if (car.outOfBounds(x, y)) {
+                break;
+            }
+            for (double side = -3; side <= 3 && grid.size() < amount; side += 3) {
+                if (back == 0 && side == 0) {
+                    continue;
+                }
+                car.posX = x - side * backY;
+                car.posY = y + side * backX;
+                if (car.isOnTrack()) {
+                    grid.add(new Point2D(car.posX, car.posY));
+                }
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * @return The current track, null if none has been loaded yet.
+     */
+    public static Track getTrack() {
+        return track;
+    }
+
+    /**
+     * @return The track this car drives on: its own track, or else the current track.
+     */
+    public Track getDrivenTrack() {
+        return ownTrack != null ? ownTrack : track;
     }
 
     /**
@@ -447,6 +1011,13 @@ public strictfp class Car implements Drawable, Freezeable {
         return trackBitMap;
     }
 
+    /**
+     * @return The signed distance field of the track.
+     */
+    public static SignedDistanceField getEdgeField() {
+        return edgeField;
+    }
+
     public double getRotation() {
         return rot;
     }
@@ -471,4 +1042,41 @@ public strictfp class Car implements Drawable, Freezeable {
         return passedEndLine;
     }
 
+    /**
+     * 
+     * @return true if and only if the car has crossed the start line since the last reset.
+     */
+    public boolean hasStartedLap() {
+        return startedLap;
+    }
+
+    /**
+     * 
+     * @return The simulated time since the car crossed the start line, or the time of the whole
+     *         lap once it has been finished, in seconds. The crossings are interpolated within
+     *         the step they happened in.
+     */
+    public double getLapTime() {
+        if (passedEndLine) {
+            return lapTime;
+        }
+        return startedLap ? time - lapStart : 0;
+    }
+
+    /**
+     * 
+     * @return The simulated time since the last reset in seconds.
+     */
+    public double getTime() {
+        return time;
+    }
+
+    /**
+     * 
+     * @return When the last step started, in simulated time since the last reset.
+     */
+    public double getStepStart() {
+        return stepStart;
+    }
+
 }
@@ -0,0 +1,226 @@
+package model;
+
+import static java.lang.Math.*;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds cars that crash into each other. The bounding boxes of all cars are sorted along the x
+ * axis (sweep and prune), so only cars whose boxes overlap are tested exactly with their oriented
+ * boxes. The order of the cars is kept between ticks; as cars move only a little per tick, the
+ * insertion sort has hardly anything to do and a tick costs about linear time in the number of
+ * cars.
+ * <p>
+ * The separating axis test also gives the contact normal, the axis along which the boxes overlap
+ * least. How hard two cars crash is how fast they move towards each other along this normal, so
+ * cars that brush each other side by side survive, while a parked car that is rammed does not.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class CarCollisions {
+
+    /**
+     * How far apart crashed cars are pushed, in metres, so they do not touch any more.
+     */
+    private static final double GAP = 0.01;
+
+    private int[] order = new int[0];
+    private double[] minX, maxX, minY, maxY;
+
+    /**
+     * Corners of the car boxes, 8 values per car.
+     */
+    private double[] corners;
+
+    /**
+     * The contact of the last pair that overlapped: the unit normal along which the boxes
+     * overlap least, and how deep they overlap along it.
+     */
+    private double normalX, normalY, depth;
+
+    private int pairTests, collisions;
+
+    /**
+     * Constructs CarCollisions.
+     */
+    public CarCollisions() {
+        ensureCapacity(16);
+    }
+
+    /**
+     * Find all cars that overlap and let them crash.
+     *
+     * @param cars All cars in the race.
+     * @return How many pairs of cars crashed.
+     */
+    public int resolve(List<Car> cars) {
+        int n = cars.size();
+        if (n != order.length) {
+            ensureCapacity(n);
+            order = new int[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            updateBox(i, cars.get(i));
+        }
+        sortByMinX();
+
+        pairTests = 0;
+        collisions = 0;
+        for (int a = 0; a < n; a++) {
+            int i = order[a];
+            for (int b = a + 1; b < n && minX[order[b]] <= maxX[i]; b++) {
+                int j = order[b];
+                if (minY[j] > maxY[i] || maxY[j] < minY[i]) {
+                    continue;
+                }
+                pairTests++;
+                if (overlap(i, j)) {
+                    collisions++;
+                    crash(cars.get(i), cars.get(j));
+                }
+            }
+        }
+        return collisions;
+    }
+
+    /**
+     * Let two overlapping cars crash along the contact normal. Both are pushed apart by half the
+     * depth and the gap. If they move towards each other, their velocities along the normal
+     * become the same, like in an inelastic crash of two equal masses, and the speed of the
+     * impact decides for both whether they are destroyed.
+     */
+    private void crash(Car a, Car b) {
+        double nx = normalX, ny = normalY;
+        if ((b.getPosX() - a.getPosX()) * nx + (b.getPosY() - a.getPosY()) * ny < 0) {
+            nx = -nx;
+            ny = -ny;
+        }
+        // how much of the velocity of each car is along the normal; cars drive against their
+        // rotation
+        double alongA = -(cos(a.getRotation()) * nx + sin(a.getRotation()) * ny);
+        double alongB = -(cos(b.getRotation()) * nx + sin(b.getRotation()) * ny);
+        double velA = a.getVel() * alongA, velB = b.getVel() * alongB;
+        double impact = max(0, velA - velB);
+        double shared = (velA + velB) / 2;
+        double changeA = impact > 0 ? (shared - velA) * alongA : 0;
+        double changeB = impact > 0 ? (shared - velB) * alongB : 0;
+        double push = (depth + GAP) / 2;
+        a.collideWithCar(impact, -nx * push, -ny * push, changeA);
+        b.collideWithCar(impact, nx * push, ny * push, changeB);
+    }
+
+    /**
+     * Insertion sort, which is linear for lists that are already nearly sorted.
+     */
+    private void sortByMinX() {
+        for (int a = 1; a < order.length; a++) {
+            int i = order[a];
+            int b = a - 1;
+            while (b >= 0 && minX[order[b]] > minX[i]) {
+                order[b + 1] = order[b];
+                b--;
+            }
+            order[b + 1] = i;
+        }
+    }
+
+    private void updateBox(int i, Car car) {
+        double rot = car.getRotation();
+        double lx = car.getWidth() / 2 * cos(rot), ly = car.getWidth() / 2 * sin(rot);
+        double hx = car.getHeight() / 2 * sin(rot), hy = car.getHeight() / 2 * cos(rot);
+        double x = car.getPosX(), y = car.getPosY();
+        int o = i * 8;
+        corners[o] = x - lx - hx;
+        corners[o + 1] = y - ly + hy;
+        corners[o + 2] = x - lx + hx;
+        corners[o + 3] = y - ly - hy;
+        corners[o + 4] = x + lx + hx;
+        corners[o + 5] = y + ly - hy;
+        corners[o + 6] = x + lx - hx;
+        corners[o + 7] = y + ly + hy;
+        double ex = abs(lx) + abs(hx), ey = abs(ly) + abs(hy);
+        minX[i] = x - ex;
+        maxX[i] = x + ex;
+        minY[i] = y - ey;
+        maxY[i] = y + ey;
+    }
+
+    /**
+     * Separating axis test of two oriented boxes. The boxes overlap if and only if they overlap
+     * on each of the four edge directions. If they do, the edge direction with the least overlap
+     * is the contact normal.
+     */
+    private boolean overlap(int i, int j) {
+        depth = Double.POSITIVE_INFINITY;
+        return !separatedOnEdgesOf(i, i, j) && !separatedOnEdgesOf(j, i, j);
+    }
+
+    private boolean separatedOnEdgesOf(int box, int i, int j) {
+        int o = box * 8;
+        for (int edge = 0; edge < 2; edge++) {
+            // the edges from corner 0 to 1 and from corner 1 to 2
+            double ax = corners[o + 2 * edge + 2] - corners[o + 2 * edge];
+            double ay = corners[o + 2 * edge + 3] - corners[o + 2 * edge + 1];
+            if (separatedOn(ax, ay, i, j)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean separatedOn(double ax, double ay, int i, int j) {
+        double minI = Double.POSITIVE_INFINITY, maxI = Double.NEGATIVE_INFINITY;
+        double minJ = Double.POSITIVE_INFINITY, maxJ = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < 8; c += 2) {
+            double pi = corners[i * 8 + c] * ax + corners[i * 8 + c + 1] * ay;
+            double pj = corners[j * 8 + c] * ax + corners[j * 8 + c + 1] * ay;
+            minI = min(minI, pi);
+            maxI = max(maxI, pi);
+            minJ = min(minJ, pj);
+            maxJ = max(maxJ, pj);
+        }
+        if (maxI < minJ || maxJ < minI) {
+            return true;
+        }
+        double length = hypot(ax, ay);
+        double overlap = (min(maxI, maxJ) - max(minI, minJ)) / length;
+        if (overlap < depth) {
+            depth = overlap;
+            normalX = ax / length;
+            normalY = ay / length;
+        }
+        return false;
+    }
+
+    private void ensureCapacity(int n) {
+        if (minX != null && minX.length >= n) {
+            return;
+        }
+        int capacity = max(n, minX == null ? 0 : minX.length * 2);
+        minX = minX == null ? new double[capacity] : Arrays.copyOf(minX, capacity);
+        maxX = maxX == null ? new double[capacity] : Arrays.copyOf(maxX, capacity);
+        minY = minY == null ? new double[capacity] : Arrays.copyOf(minY, capacity);
+        maxY = maxY == null ? new double[capacity] : Arrays.copyOf(maxY, capacity);
+        corners = corners == null ? new double[capacity * 8] : Arrays.copyOf(corners, capacity * 8);
+    }
+
+    /**
+     *
+     * @return How many pairs of cars were tested exactly in the last call of resolve.
+     */
+    public int getPairTests() {
+        return pairTests;
+    }
+
+    /**
+     *
+     * @return How many pairs of cars crashed in the last call of resolve.
+     */
+    public int getCollisions() {
+        return collisions;
+    }
+}
@@ -0,0 +1,88 @@
+package model;
+
+/**
+ * What a {@link Car} looked like after a step: its pose, velocity and flags. A car publishes its
+ * values whenever it changes, without allocating, and {@link Car#getState()} copies them into a
+ * new CarState. As a CarState never changes, threads other than the one driving the car can keep
+ * and read a consistent view of it.
+ *
+ * @author Juri Dispan
+ *
+ */
+public final class CarState {
+
+    private static final int FROZEN = 1, DESTROYED = 2, STARTED_LAP = 4, PASSED_END_LINE = 8;
+
+    private final double posX, posY, vel, rot, lapTime;
+    private final int flags;
+    private final long version;
+
+    CarState(double posX, double posY, double vel, double rot, double lapTime, boolean frozen,
+                    boolean destroyed, boolean startedLap, boolean passedEndLine, long version) {
+        this.posX = posX;
+        this.posY = posY;
+        this.vel = vel;
+        this.rot = rot;
+        this.lapTime = lapTime;
+        flags = (frozen ? FROZEN : 0) | (destroyed ? DESTROYED : 0)
+                        | (startedLap ? STARTED_LAP : 0) | (passedEndLine ? PASSED_END_LINE : 0);
+        this.version = version;
+    }
+
+    public double getPosX() {
+        return posX;
+    }
+
+    public double getPosY() {
+        return posY;
+    }
+
+    public double getVel() {
+        return vel;
+    }
+
+    public double getRotation() {
+        return rot;
+    }
+
+    /**
+     *
+     * @return The lap time, see {@link Car#getLapTime()}.
+     */
+    public double getLapTime() {
+        return lapTime;
+    }
+
+    /**
+     *
+     * @return true if and only if the velocity of the car is not equal to zero
+     */
+    public boolean isMoving() {
+        return vel != 0;
+    }
+
+    public boolean isFrozen() {
+        return (flags & FROZEN) != 0;
+    }
+
+    public boolean isDestroyed() {
+        return (flags & DESTROYED) != 0;
+    }
+
+    public boolean hasStartedLap() {
+        return (flags & STARTED_LAP) != 0;
+    }
+
+    public boolean hasPassedEndLine() {
+        return (flags & PASSED_END_LINE) != 0;
+    }
+
+    /**
+     *
+     * @return How many states the car has published before this one, so readers can tell whether
+     *         anything has changed since they looked last.
+     */
+    public long getVersion() {
+        return version;
+    }
+}
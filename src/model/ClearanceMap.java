@@ -0,0 +1,70 @@
+package model;
+
+import java.util.Collection;
+import java.util.stream.IntStream;
+
+/**
+ * The clearance of every point of the world for one obstacle layout: the distance to the edge of
+ * the track or to the nearest obstacle, whatever is closer. It is negative off the track and
+ * inside obstacles. The map is computed once on a grid of {@link #CELL} metres, in parallel by
+ * columns.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class ClearanceMap {
+
+    /**
+     * Size of a cell of the map in metres.
+     */
+    public static final double CELL = 0.5;
+
+    private final Collection<Obstacle> obstacles;
+    private final int width, height;
+    private final float[] map;
+
+    /**
+     * Compute the clearance map of an obstacle layout.
+     *
+     * @param fields The fields of the track.
+     * @param obstacles The obstacles on the track.
+     */
+    public ClearanceMap(TrackFields fields, Collection<Obstacle> obstacles) {
+        this.obstacles = obstacles;
+        width = (int) Math.ceil(fields.getWidth() / CELL);
+        height = (int) Math.ceil(fields.getHeight() / CELL);
+        map = new float[width * height];
+        Obstacle[] obs = obstacles.toArray(new Obstacle[0]);
+        IntStream.range(0, width).parallel().forEach(cx -> {
+            double x = (cx + 0.5) * CELL;
+            for (int cy = 0; cy < height; cy++) {
+                double y = (cy + 0.5) * CELL;
+                double c = fields.edgeDistance(x, y);
+                for (Obstacle o : obs) {
+                    c = Math.min(c, Math.hypot(x - o.getX(), y - o.getY()) - o.getRadius());
+                }
+                map[cx * height + cy] = (float) c;
+            }
+        });
+    }
+
+    /**
+     *
+     * @param x X position in metres.
+     * @param y Y position in metres.
+     * @return The clearance in metres, negative off the track or inside an obstacle.
+     */
+    public double at(double x, double y) {
+        int cx = Math.min(Math.max((int) (x / CELL), 0), width - 1);
+        int cy = Math.min(Math.max((int) (y / CELL), 0), height - 1);
+        return map[cx * height + cy];
+    }
+
+    /**
+     *
+     * @return The obstacles the map has been computed for.
+     */
+    public Collection<Obstacle> getObstacles() {
+        return obstacles;
+    }
+}
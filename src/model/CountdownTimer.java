@@ -1,6 +1,8 @@
 package model;
 
 import java.util.List;
+import events.EventBus;
+import events.GameEvent;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.text.Font;
 import view.GameView;
@@ -16,6 +18,7 @@ public class CountdownTimer implements Drawable {
     private long startTime;
     private long endTime;
     private boolean fired = false;
+    private EventBus events;
     /**
      * Position of the CountdownTimer on the canvas
      */
@@ -30,6 +33,15 @@ public class CountdownTimer implements Drawable {
         reset();
     }
 
+    /**
+     * Tell the listeners of a bus when the countdown has reached zero.
+     * 
+     * @param events The bus of the race, or null.
+     */
+    public void setEvents(EventBus events) {
+        this.events = events;
+    }
+
     /**
      * Start the countdown and add this CountdownTimer the the objects to be drawn on the canvas.
      * 
@@ -85,6 +97,9 @@ public class CountdownTimer implements Drawable {
             if (!fired) {
                 gv.unfreeze();
                 fired = true;
+                if (events != null) {
+                    events.publish(GameEvent.Type.COUNTDOWN_FINISHED);
+                }
             }
             return;
         }
@@ -0,0 +1,101 @@
+package model;
+
+import java.util.stream.IntStream;
+
+/**
+ * Exact Euclidean distance transform of a bitmap in linear time (Felzenszwalb and Huttenlocher,
+ * "Distance Transforms of Sampled Functions"). The two-dimensional transform is done as
+ * one-dimensional transforms of all columns followed by all rows, which are independent of each
+ * other and therefore computed in parallel.
+ *
+ * @author Juri Dispan
+ *
+ */
+public final class DistanceTransform {
+
+    private static final double INF = 1e20;
+
+    private DistanceTransform() {}
+
+    /**
+     * Compute the distance of every pixel to the nearest pixel that is set in the bitmap.
+     *
+     * @param bitmap The bitmap, indexed [x][y] like the track bitmap.
+     * @param set The value of the pixels the distance is measured to.
+     * @return The distances in pixels, indexed x * height + y. Pixels with the given value have
+     *         distance zero. If no pixel has the given value, all distances are huge.
+     */
+    public static float[] compute(boolean[][] bitmap, boolean set) {
+        int width = bitmap.length, height = bitmap[0].length;
+        double[] squared = new double[width * height];
+
+        // columns: distance along y
+        IntStream.range(0, width).parallel().forEach(x -> {
+            double[] f = new double[height];
+            for (int y = 0; y < height; y++) {
+                f[y] = bitmap[x][y] == set ? 0 : INF;
+            }
+            double[] d = transform(f);
+            System.arraycopy(d, 0, squared, x * height, height);
+        });
+
+        // rows: combine with the distance along x
+        float[] result = new float[width * height];
+        IntStream.range(0, height).parallel().forEach(y -> {
+            double[] f = new double[width];
+            for (int x = 0; x < width; x++) {
+                f[x] = squared[x * height + y];
+            }
+            double[] d = transform(f);
+            for (int x = 0; x < width; x++) {
+                result[x * height + y] = (float) Math.sqrt(d[x]);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * One-dimensional squared distance transform: the lower envelope of the parabolas rooted at
+     * every sample.
+     *
+     * @param f The sampled function, 0 at feature points and INF elsewhere in the first pass.
+     * @return min over q of (p - q)^2 + f(q), for every p.
+     */
+    private static double[] transform(double[] f) {
+        int n = f.length;
+        double[] d = new double[n];
+        int[] v = new int[n];
+        double[] z = new double[n + 1];
+        int k = 0;
+        v[0] = 0;
+        z[0] = -INF;
+        z[1] = INF;
+        for (int q = 1; q < n; q++) {
+            double s = intersection(f, q, v[k]);
+            while (s <= z[k]) {
+                k--;
+                s = intersection(f, q, v[k]);
+            }
+            k++;
+            v[k] = q;
+            z[k] = s;
+            z[k + 1] = INF;
+        }
+        k = 0;
+        for (int q = 0; q < n; q++) {
+            while (z[k + 1] < q) {
+                k++;
+            }
+            double dq = q - v[k];
+            d[q] = dq * dq + f[v[k]];
+        }
+        return d;
+    }
+
+    /**
+     * Where the parabolas rooted at q and p intersect.
+     */
+    private static double intersection(double[] f, int q, int p) {
+        return ((f[q] + (double) q * q) - (f[p] + (double) p * p)) / (2.0 * q - 2.0 * p);
+    }
+}
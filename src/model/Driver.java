@@ -0,0 +1,42 @@
+package model;
+
+import java.util.Collection;
+
+/**
+ * The interface implemented by everything that can drive a car: players on the keyboard and
+ * computer-controlled opponents.
+ * 
+ * @author Juri Dispan
+ *
+ */
+public interface Driver {
+    /**
+     * Bits of the inputs, for inputs that are stored or sent.
+     */
+    public static final int ACCELERATE = 1, BRAKE = 2, TURN_LEFT = 4, TURN_RIGHT = 8;
+
+    /**
+     * Decide what to do in the next tick.
+     * 
+     * @param car The car that is driven.
+     * @param obstacles Obstacles on the track.
+     */
+    public void update(Car car, Collection<Obstacle> obstacles);
+
+    public boolean accelerate();
+
+    public boolean brake();
+
+    public boolean turnLeft();
+
+    public boolean turnRight();
+
+    /**
+     * 
+     * @return The current inputs of the driver as bits.
+     */
+    public default int inputBits() {
+        return (accelerate() ? ACCELERATE : 0) | (brake() ? BRAKE : 0)
+                        | (turnLeft() ? TURN_LEFT : 0) | (turnRight() ? TURN_RIGHT : 0);
+    }
+}
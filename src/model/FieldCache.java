@@ -0,0 +1,120 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Stores data derived from the track on disk, so it only has to be computed once. Every entry is
+ * stored together with a key, usually a checksum of the data it was derived from; an entry with a
+ * different key is treated as missing.
+ *
+ * @author Juri Dispan
+ *
+ */
+public final class FieldCache {
+
+    private static final int MAGIC = 0x52474643 /* "RGFC" */;
+    private static final int HEADER_BYTES = 4 + 8 + 4;
+
+    private FieldCache() {}
+
+    /**
+     *
+     * @return The cache directory. Can be changed with the system property "rennspiel.cache".
+     */
+    public static Path directory() {
+        String dir = System.getProperty("rennspiel.cache");
+        if (dir != null) {
+            return Paths.get(dir);
+        }
+        return Paths.get(System.getProperty("user.home"), ".rennspiel", "cache");
+    }
+
+    /**
+     *
+     * @param track A track bitmap.
+     * @return A checksum of the bitmap, to be used in keys.
+     */
+    public static long checksum(boolean[][] track) {
+        CRC32 crc = new CRC32();
+        byte[] column = new byte[track[0].length];
+        for (boolean[] col : track) {
+            for (int y = 0; y < col.length; y++) {
+                column[y] = (byte) (col[y] ? 1 : 0);
+            }
+            crc.update(column);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Load a cached field.
+     *
+     * @param name Name of the field.
+     * @param key Key the field has been stored with.
+     * @param length Expected number of values.
+     * @return The field, or null if it is not in the cache.
+     */
+    public static float[] load(String name, long key, int length) {
+        Path file = directory().resolve(name + ".bin");
+        if (!Files.isReadable(file)) {
+            return null;
+        }
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (in.size() != HEADER_BYTES + 4L * length) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) in.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && in.read(buffer) >= 0) {
+                // read everything
+            }
+            buffer.flip();
+            if (buffer.getInt() != MAGIC || buffer.getLong() != key || buffer.getInt() != length) {
+                return null;
+            }
+            float[] field = new float[length];
+            buffer.asFloatBuffer().get(field);
+            return field;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Store a field. Errors are only printed, as the field can always be computed again.
+     *
+     * @param name Name of the field.
+     * @param key Key to store the field with.
+     * @param field The values.
+     */
+    public static void store(String name, long key, float[] field) {
+        Path file = directory().resolve(name + ".bin");
+        try {
+            Files.createDirectories(file.getParent());
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 4 * field.length)
+                            .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putLong(key).putInt(field.length);
+            buffer.asFloatBuffer().put(field);
+            buffer.rewind();
+            Path tmp = Files.createTempFile(file.getParent(), name, ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
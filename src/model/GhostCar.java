@@ -0,0 +1,307 @@
+package model;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import javafx.scene.canvas.GraphicsContext;
+
+/**
+ * A translucent car that replays the best lap recorded by a {@link LapRecorder}. The trace is not
+ * read into the heap; only a small window of the ghost file is memory-mapped at a time and moved
+ * forward while the lap is played back.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class GhostCar implements Drawable {
+
+    /**
+     * Ghost file layout: magic, sample count, lap time, then per sample time, x, y and rotation,
+     * all little-endian.
+     */
+    static final int MAGIC = 0x47485354 /* "GHST" */;
+    static final int HEADER_BYTES = 12;
+    static final int SAMPLE_BYTES = 16;
+
+    /**
+     * How many samples are mapped at once.
+     */
+    private static final int WINDOW_SAMPLES = 1_024;
+
+    private static final double OPACITY = 0.4;
+
+    private final double width, height;
+
+    private FileChannel channel;
+    private MappedByteBuffer window;
+    private int windowStart, windowLength;
+    private int sampleCount;
+    private float bestLapTime;
+
+    /**
+     * Index of the sample at or before the current lap time.
+     */
+    private int cursor;
+    private double posX, posY, rot;
+    private boolean visible;
+
+    /**
+     * Constructs a GhostCar with the dimensions of the given car. Nothing is shown until
+     * {@link #load(Path)} found a recorded lap.
+     *
+     * @param car The car the ghost is racing against.
+     */
+    public GhostCar(Car car) {
+        this.width = car.getWidth();
+        this.height = car.getHeight();
+    }
+
+    /**
+     * Open the given ghost file. Any previously opened file is closed.
+     *
+     * @param file The ghost file written by a LapRecorder.
+     * @return true if and only if the file contains a lap that can be replayed.
+     */
+    public boolean load(Path file) {
+        close();
+        if (!Files.isReadable(file)) {
+            return false;
+        }
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                close();
+                return false;
+            }
+            sampleCount = header.getInt();
+            bestLapTime = header.getFloat();
+            if (sampleCount < 2
+                            || channel.size() < HEADER_BYTES + (long) sampleCount * SAMPLE_BYTES) {
+                close();
+                return false;
+            }
+            mapWindow(0);
+            rewind();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            close();
+            return false;
+        }
+    }
+
+    /**
+     * Release the ghost file, so it can be replaced.
+     */
+    public void close() {
+        if (window != null) {
+            unmap(window);
+            window = null;
+        }
+        sampleCount = 0;
+        visible = false;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Move the ghost back to the start of its lap.
+     */
+    public void rewind() {
+        cursor = 0;
+        visible = false;
+    }
+
+    /**
+     * Move the ghost to where it was after the given time of its lap. The pose is interpolated
+     * between the two neighbouring samples.
+     *
+     * @param lapTime Time since the start of the lap in seconds, or a negative value if the lap
+     *        has not yet started.
+     */
+    public void update(double lapTime) {
+        if (sampleCount == 0 || lapTime < 0) {
+            visible = false;
+            return;
+        }
+        if (lapTime < time(cursor)) {
+            cursor = 0;
+        }
+        while (cursor < sampleCount - 2 && time(cursor + 1) <= lapTime) {
+            cursor++;
+        }
+        double t0 = time(cursor), t1 = time(cursor + 1);
+        double a = t1 > t0 ? (lapTime - t0) / (t1 - t0) : 1;
+        if (a > 1) {
+            // the ghost has already finished its lap and waits at the finish line
+            a = 1;
+        }
+        posX = lerp(value(cursor, 4), value(cursor + 1, 4), a);
+        posY = lerp(value(cursor, 8), value(cursor + 1, 8), a);
+        rot = lerpAngle(value(cursor, 12), value(cursor + 1, 12), a);
+        visible = true;
+    }
+
+    @Override
+    public void draw(GraphicsContext gc) {
+        if (!visible) {
+            return;
+        }
+        // same transformation as in Car.draw, but without allocating a Rotate every frame
+        double cos = Math.cos(rot), sin = Math.sin(rot);
+        double px = posX * 10, py = posY * 10;
+        gc.save();
+        gc.setGlobalAlpha(OPACITY);
+        gc.setTransform(cos, sin, -sin, cos, px - px * cos + py * sin, py - px * sin - py * cos);
+        gc.drawImage(Sprites.get("car_intact.png"), (posX - (width / 2)) * 10,
+                        (posY - (height / 2)) * 10);
+        gc.restore();
+    }
+
+    /**
+     * Make sure the sample with the given index is inside the mapped window. The window starts a
+     * little before the sample, so short jumps backwards do not need a new mapping either.
+     */
+    private void ensureMapped(int sample) {
+        if (sample < windowStart || sample >= windowStart + windowLength) {
+            mapWindow(Math.max(0, sample - WINDOW_SAMPLES / 8));
+        }
+    }
+
+    private void mapWindow(int firstSample) {
+        try {
+            MappedByteBuffer old = window;
+            windowStart = firstSample;
+            windowLength = Math.min(WINDOW_SAMPLES, sampleCount - firstSample);
+            window = channel.map(FileChannel.MapMode.READ_ONLY,
+                            HEADER_BYTES + (long) firstSample * SAMPLE_BYTES,
+                            (long) windowLength * SAMPLE_BYTES);
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            if (old != null) {
+                unmap(old);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Ghost file can not be mapped", e);
+        }
+    }
+
+    /**
+     * Unmap a buffer now instead of when it is garbage collected. Closing the channel does not
+     * unmap it, and Windows does not allow replacing a file that is still mapped. There is no
+     * public API for this, so it is tried the way Java 9 and later and the way Java 8 allow; if
+     * neither works, the buffer is unmapped by the garbage collector. The buffer must not be used
+     * afterwards.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // not Java 9 or later
+        }
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // left to the garbage collector
+        }
+    }
+
+    private float time(int sample) {
+        return value(sample, 0);
+    }
+
+    private float value(int sample, int offset) {
+        ensureMapped(sample);
+        return window.getFloat((sample - windowStart) * SAMPLE_BYTES + offset);
+    }
+
+    private static double lerp(double a, double b, double t) {
+        return a + (b - a) * t;
+    }
+
+    /**
+     * Interpolate along the shorter way between two angles.
+     */
+    private static double lerpAngle(double a, double b, double t) {
+        double d = Math.IEEEremainder(b - a, 2 * Math.PI);
+        return a + d * t;
+    }
+
+    /**
+     * Read the lap time stored in a ghost file.
+     *
+     * @param file The ghost file.
+     * @return The lap time in seconds, or infinity if there is no valid ghost file.
+     * @throws IOException If the file exists, but can not be read.
+     */
+    public static float readLapTime(Path file) throws IOException {
+        if (!Files.isReadable(file)) {
+            return Float.POSITIVE_INFINITY;
+        }
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            in.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                return Float.POSITIVE_INFINITY;
+            }
+            header.getInt();
+            return header.getFloat();
+        }
+    }
+
+    // Getters and Setters after here
+
+    public double getPosX() {
+        return posX;
+    }
+
+    public double getPosY() {
+        return posY;
+    }
+
+    public double getRotation() {
+        return rot;
+    }
+
+    /**
+     *
+     * @return true if and only if the ghost is currently drawn.
+     */
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     *
+     * @return The lap time of the replayed lap in seconds, or infinity if no lap is loaded.
+     */
+    public float getBestLapTime() {
+        return sampleCount == 0 ? Float.POSITIVE_INFINITY : bestLapTime;
+    }
+}
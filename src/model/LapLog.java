@@ -0,0 +1,63 @@
+package model;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import events.EventBus;
+import events.GameEvent;
+
+/**
+ * Keeps a log of all laps of a player as CSV: when the lap ended, on which track, whether it was
+ * finished or the car was destroyed, and the lap time. It listens to the events of the race on
+ * the dispatcher thread of the bus, so writing the file never holds up the game.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class LapLog {
+
+    private final Path file;
+    private final Car car;
+    private final String track;
+
+    /**
+     * Constructs a LapLog and subscribes it to the events of a race.
+     *
+     * @param file The log. Lines are appended to it, it is created if it does not exist yet.
+     * @param car The car of the player.
+     * @param events The bus of the race.
+     */
+    public LapLog(Path file, Car car, EventBus events) {
+        this.file = file;
+        this.car = car;
+        track = car.getDrivenTrack().getName();
+        events.subscribeAsync(GameEvent.Type.LAP_FINISHED, this::log);
+        events.subscribeAsync(GameEvent.Type.CAR_DESTROYED, this::log);
+    }
+
+    private void log(GameEvent event) {
+        if (event.getCar() != car) {
+            return;
+        }
+        String line = String.format("%s,%s,%s,%.3f%n",
+                        LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME), track,
+                        event.getType() == GameEvent.Type.LAP_FINISHED ? "finished" : "destroyed",
+                        event.getTime());
+        try {
+            if (file.toAbsolutePath().getParent() != null) {
+                Files.createDirectories(file.toAbsolutePath().getParent());
+            }
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                out.write(line);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Records the pose of the car once per tick while a lap is being driven. If the finished lap is
+ * faster than the lap already stored on disk, the trace is written to the ghost file, which is
+ * then played back by a {@link GhostCar}.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class LapRecorder {
+
+    /**
+     * About two minutes of driving at 120 fps, so the arrays practically never have to grow.
+     */
+    private static final int INITIAL_CAPACITY = 16_384;
+
+    private final Path file;
+    private float[] time, posX, posY, rot;
+    private int size;
+    private double lapTime;
+    private boolean recording;
+    /**
+     * Whether the current lap has been discarded and is not recorded any more.
+     */
+    private boolean discarded;
+
+    /**
+     * Reused for writing, so saving a lap does not create garbage.
+     */
+    private final ByteBuffer writeBuffer =
+                    ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Constructs a LapRecorder.
+     *
+     * @param file The ghost file the best lap is written to.
+     */
+    public LapRecorder(Path file) {
+        this.file = file;
+        time = new float[INITIAL_CAPACITY];
+        posX = new float[INITIAL_CAPACITY];
+        posY = new float[INITIAL_CAPACITY];
+        rot = new float[INITIAL_CAPACITY];
+        reset();
+    }
+
+    /**
+     * Discard the current lap.
+     */
+    public void reset() {
+        size = 0;
+        lapTime = 0;
+        recording = false;
+        discarded = false;
+    }
+
+    /**
+     * Stop recording the current lap, for example because it has been rewound, so it cannot
+     * become the ghost. Recording starts again with the next lap after {@link #reset()}.
+     */
+    public void discard() {
+        size = 0;
+        lapTime = 0;
+        recording = false;
+        discarded = true;
+    }
+
+    /**
+     * Record the pose of the car after a tick. Recording starts as soon as the car has crossed
+     * the start line. Must only be called for ticks in which the car was actually driven.
+     *
+     * @param car The car whose pose is recorded.
+     * @param timeDelta The time since the last tick.
+     */
+    public void record(Car car, double timeDelta) {
+        if (discarded) {
+            return;
+        }
+        if (!recording) {
+            if (!car.hasStartedLap()) {
+                return;
+            }
+            recording = true;
+        } else {
+            lapTime += timeDelta;
+        }
+        append(lapTime, car.getPosX(), car.getPosY(), car.getRotation());
+    }
+
+    /**
+     * Append a sample to the current lap.
+     *
+     * @param t Time since the start of the lap in seconds.
+     * @param x X position in metres.
+     * @param y Y position in metres.
+     * @param r Rotation in radians.
+     */
+    public void append(double t, double x, double y, double r) {
+        if (size == time.length) {
+            int capacity = size * 2;
+            time = Arrays.copyOf(time, capacity);
+            posX = Arrays.copyOf(posX, capacity);
+            posY = Arrays.copyOf(posY, capacity);
+            rot = Arrays.copyOf(rot, capacity);
+        }
+        time[size] = (float) t;
+        posX[size] = (float) x;
+        posY[size] = (float) y;
+        rot[size] = (float) r;
+        size++;
+    }
+
+    /**
+     * Finish the current lap. The lap is stored as the new ghost if there is no ghost yet or if it
+     * is faster than the stored one.
+     *
+     * @return true if and only if the lap has been stored as the new best lap.
+     * @throws IOException If the lap is faster, but cannot be stored. The old ghost is kept then.
+     */
+    public boolean finishLap() throws IOException {
+        return finishLap(null);
+    }
+
+    /**
+     * Finish the current lap like {@link #finishLap()}. A ghost file cannot be replaced while it is
+     * mapped on Windows, so the ghost that replays it lets go of it first and loads it again
+     * afterwards, the new lap or, if it could not be stored, the old one.
+     *
+     * @param ghost The ghost that replays the ghost file, or null.
+     * @return true if and only if the lap has been stored as the new best lap.
+     * @throws IOException If the lap is faster, but cannot be stored. The old ghost is kept then.
+     */
+    public boolean finishLap(GhostCar ghost) throws IOException {
+        try {
+            if (size < 2 || time[size - 1] >= GhostCar.readLapTime(file)) {
+                return false;
+            }
+            if (ghost != null) {
+                ghost.close();
+            }
+            try {
+                write();
+            } finally {
+                if (ghost != null) {
+                    ghost.load(file);
+                }
+            }
+            return true;
+        } finally {
+            reset();
+        }
+    }
+
+    /**
+     * Write the samples to a temporary file and move it over the ghost file, so a GhostCar never
+     * sees a half written trace.
+     */
+    private void write() throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeBuffer.clear();
+            writeBuffer.putInt(GhostCar.MAGIC).putInt(size).putFloat(time[size - 1]);
+            for (int i = 0; i < size; i++) {
+                if (writeBuffer.remaining() < GhostCar.SAMPLE_BYTES) {
+                    drain(out);
+                }
+                writeBuffer.putFloat(time[i]).putFloat(posX[i]).putFloat(posY[i])
+                                .putFloat(rot[i]);
+            }
+            drain(out);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    private void drain(FileChannel out) throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            out.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     *
+     * @return The time since the car crossed the start line in seconds.
+     */
+    public double getLapTime() {
+        return lapTime;
+    }
+
+    /**
+     *
+     * @return true if and only if a lap is currently being recorded.
+     */
+    public boolean isRecording() {
+        return recording;
+    }
+
+    /**
+     *
+     * @return How many samples the current lap has.
+     */
+    public int getSampleCount() {
+        return size;
+    }
+}
@@ -0,0 +1,106 @@
+package model;
+
+import java.util.Collection;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import javafx.geometry.Point2D;
+import track.Track;
+
+/**
+ * Generates the obstacle layouts of the next races on a background thread, so a reset only has to
+ * take the next layout instead of generating it on the FX thread. A few layouts are kept ready.
+ * <p>
+ * The seeds of the layouts follow from the first seed, so two games started with the same seed
+ * get the same courses in the same order.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class LayoutQueue implements AutoCloseable {
+
+    /**
+     * How many layouts are kept ready.
+     */
+    public static final int READY = 3;
+
+    private final BlockingQueue<ObstacleLayout> ready = new ArrayBlockingQueue<>(READY);
+    private final Thread producer;
+    private volatile RuntimeException failure;
+
+    /**
+     * Constructs a LayoutQueue and starts generating.
+     *
+     * @param track The track.
+     * @param seed The seed of the first layout.
+     * @param amount How many obstacles a layout has.
+     * @param minSpacing The width of the car.
+     * @param keepFree Places where no obstacle may be.
+     * @param freeRadius The minimum distance between these places and the obstacles.
+     * @param finish What is done with a layout before it is ready, for example baking its
+     *        background (see {@link ObstacleLayout#bake}), on the background thread.
+     */
+    public LayoutQueue(Track track, long seed, int amount, double minSpacing,
+                    Collection<Point2D> keepFree, double freeRadius,
+                    UnaryOperator<ObstacleLayout> finish) {
+        producer = new Thread(() -> {
+            SplittableRandom seeds = new SplittableRandom(seed);
+            try {
+                long next = seed;
+                while (true) {
+                    ready.put(finish.apply(ObstacleLayout.generate(track, next, amount,
+                                    minSpacing, keepFree, freeRadius)));
+                    next = seeds.nextLong();
+                }
+            } catch (InterruptedException e) {
+                // closed
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }, "Obstacle layouts");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    /**
+     * Take the next layout. This only waits if the layouts are taken faster than they are
+     * generated.
+     *
+     * @return The layout.
+     * @throws IllegalStateException If no more layouts are generated, because the queue has
+     *         been closed or generating has failed.
+     */
+    public ObstacleLayout next() {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                boolean alive = producer.isAlive();
+                try {
+                    ObstacleLayout layout = ready.poll(100, TimeUnit.MILLISECONDS);
+                    if (layout != null) {
+                        return layout;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                if (!alive && ready.isEmpty()) {
+                    throw new IllegalStateException("No more layouts are generated", failure);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Stop generating.
+     */
+    @Override
+    public void close() {
+        producer.interrupt();
+    }
+}
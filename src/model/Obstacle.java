@@ -2,10 +2,15 @@ package model;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.SplittableRandom;
+import diagnostics.Metrics;
+import diagnostics.ObstacleGenerationEvent;
+import javafx.geometry.Point2D;
 import javafx.scene.canvas.GraphicsContext;
-import javafx.scene.image.Image;
 import javafx.scene.transform.Rotate;
+import track.Track;
 import view.GameView;
 
 /**
@@ -21,7 +26,6 @@ public class Obstacle implements Drawable {
      */
     public static final double MAX_DIAMETER = 1.8;
     private double x, y, radius, rot;
-    private Image image;
 
     /**
      * Constructs an obstacle.
@@ -40,25 +44,15 @@ public class Obstacle implements Drawable {
 
     @Override
     public void draw(GraphicsContext gc) {
-        if (image == null) {
-            initImage();
-        }
         gc.save();
         Rotate tRot = new Rotate(rot * 180 / Math.PI, x * 10, y * 10);
         gc.setTransform(tRot.getMxx(), tRot.getMyx(), tRot.getMxy(), tRot.getMyy(), tRot.getTx(),
                         tRot.getTy());
-        gc.drawImage(image, (x - radius) * 10, (y - radius) * 10, (2 * radius) * 10,
-                        (2 * radius) * 10);
+        gc.drawImage(Sprites.get("obstacle.png"), (x - radius) * 10, (y - radius) * 10,
+                        (2 * radius) * 10, (2 * radius) * 10);
         gc.restore();
     }
 
-    /**
-     * Init image.
-     */
-    private void initImage() {
-        this.image = new Image("obstacle.png");
-    }
-
     /**
      * Distance between the centres of this and an other obstacle.
      * 
@@ -86,31 +80,96 @@ public class Obstacle implements Drawable {
      * @param the width of the car
      */
     public static Collection<Obstacle> generateObs(int amount, double minSpacing) {
+        return generateObs(amount, minSpacing, Collections.emptyList(), 0);
+    }
+
+    /**
+     * Generate the obstacles like {@link #generateObs(int, double)}, but keep some places free,
+     * for example the starting positions of cars.
+     * 
+     * @param amount How many obstacles are to be generated
+     * @param minSpacing the width of the car
+     * @param keepFree Places where no obstacle may be
+     * @param freeRadius The minimum distance between these places and the obstacles
+     */
+    public static Collection<Obstacle> generateObs(int amount, double minSpacing,
+                    Collection<Point2D> keepFree, double freeRadius) {
+        return generateObs(Car.getTrack(), amount, minSpacing, keepFree, freeRadius);
+    }
+
+    /**
+     * Generate the obstacles like {@link #generateObs(int, double, Collection, double)}, on a
+     * given track instead of the current one.
+     * 
+     * @param track The track
+     * @param amount How many obstacles are to be generated
+     * @param minSpacing the width of the car
+     * @param keepFree Places where no obstacle may be
+     * @param freeRadius The minimum distance between these places and the obstacles
+     */
+    public static Collection<Obstacle> generateObs(Track track, int amount, double minSpacing,
+                    Collection<Point2D> keepFree, double freeRadius) {
+        return generateObs(track, new SplittableRandom(), amount, minSpacing, keepFree,
+                        freeRadius);
+    }
+
+    /**
+     * Generate the obstacles like {@link #generateObs(Track, int, double, Collection, double)},
+     * with the given random numbers. The same seed gives the same obstacles on the same track.
+     * 
+     * @param track The track
+     * @param random Where the positions, sizes and rotations come from
+     * @param amount How many obstacles are to be generated
+     * @param minSpacing the width of the car
+     * @param keepFree Places where no obstacle may be
+     * @param freeRadius The minimum distance between these places and the obstacles
+     */
+    public static Collection<Obstacle> generateObs(Track track, SplittableRandom random,
+                    int amount, double minSpacing, Collection<Point2D> keepFree,
+                    double freeRadius) {
+        ObstacleGenerationEvent event = new ObstacleGenerationEvent();
+        event.begin();
+        int attempts = 0, rejected = 0, undrivable = 0;
         List<Obstacle> obstacles = new ArrayList<>(amount);
+        ReachabilityCheck reachability = ReachabilityCheck.get(track);
+        boolean[][] mask = track.getMask();
         while (amount-- > 0) {
+            attempts++;
             // Generate an obstacle thats hopefully on track
             Obstacle cObs = new Obstacle(
-                            randomBetween((GameView.WORLD_WIDTH / 2) - (GameView.TRACK_WIDTH / 2),
+                            randomBetween(random,
+                                            (GameView.WORLD_WIDTH / 2) - (GameView.TRACK_WIDTH / 2),
                                             (GameView.WORLD_WIDTH / 2)
                                                             + (GameView.TRACK_WIDTH / 2)),
-                            randomBetween((GameView.WORLD_HEIGHT / 2) - (GameView.TRACK_HEIGHT / 2),
+                            randomBetween(random,
+                                            (GameView.WORLD_HEIGHT / 2)
+                                                            - (GameView.TRACK_HEIGHT / 2),
                                             (GameView.WORLD_HEIGHT / 2)
                                                             + (GameView.TRACK_HEIGHT / 2)),
-                            randomBetween(Obstacle.MAX_DIAMETER * 0.4, Obstacle.MAX_DIAMETER),
-                            randomBetween(0, 2 * Math.PI));
+                            randomBetween(random, Obstacle.MAX_DIAMETER * 0.4,
+                                            Obstacle.MAX_DIAMETER),
+                            randomBetween(random, 0, 2 * Math.PI));
 
             // Dont add the generated obstacle if its not on track
-            if (!Car.getTrackBitMap()[(int) (cObs.getX() * 10)][(int) (cObs.getY() * 10)]) {
+            if (!mask[(int) (cObs.getX() * 10)][(int) (cObs.getY() * 10)]) {
+                amount++;
+                rejected++;
+                continue;
+            }
+
+            // Dont add generated obstacle if its in an exclusion zone of the track, like close
+            // to the start/end line or checkpoint
+            if (track.getDescriptor().isExcluded(cObs.getX(), cObs.getY(), 0)) {
                 amount++;
+                rejected++;
                 continue;
             }
 
-            // Dont add generated obstacle if its close to the start/end line or
-            // checkpoint
-            if (cObs.getX() >= GameView.WORLD_WIDTH / 2 - minSpacing - 1.5
-                            && cObs.getX() <= GameView.WORLD_WIDTH / 2 + minSpacing
-                                            + Obstacle.MAX_DIAMETER + 1.0) {
+            // Dont add generated obstacle if it is on a place that has to be kept free
+            if (keepFree.stream().anyMatch(p -> p.distance(cObs.getX(), cObs.getY())
+                            - cObs.getRadius() <= freeRadius)) {
                 amount++;
+                rejected++;
                 continue;
             }
 
@@ -118,24 +177,43 @@ public class Obstacle implements Drawable {
             if (obstacles.stream()
                             .anyMatch(alreadyIn -> cObs.spaceBetween(alreadyIn) <= minSpacing)) {
                 amount++;
+                rejected++;
+                continue;
+            }
+
+            // together with the edges of the track, obstacles can still block the way; dont add
+            // the obstacle if a lap could not be driven any more
+            if (!reachability.isDrivable(obstacles, cObs)) {
+                amount++;
+                undrivable++;
                 continue;
             }
 
             // Add obstacle if it is fine.
             obstacles.add(cObs);
         }
+        Metrics.OBSTACLE_ATTEMPTS.add(attempts);
+        Metrics.OBSTACLE_REJECTIONS.add(rejected + undrivable);
+        if (event.shouldCommit()) {
+            event.obstacles = obstacles.size();
+            event.attempts = attempts;
+            event.rejected = rejected;
+            event.undrivable = undrivable;
+            event.commit();
+        }
         return obstacles;
     }
 
     /**
      * returns a random double between a and b
      * 
+     * @param random the random numbers
      * @param a lower bound
      * @param b upper bound
      * @return random double between a and b
      */
-    private static double randomBetween(double a, double b) {
-        return Math.random() * (b - a) + a;
+    private static double randomBetween(SplittableRandom random, double a, double b) {
+        return random.nextDouble() * (b - a) + a;
     }
 
     /**
@@ -159,4 +237,11 @@ public class Obstacle implements Drawable {
         return radius;
     }
 
+    /**
+     * @return the rotation in radians
+     */
+    public double getRotation() {
+        return rot;
+    }
+
 }
@@ -0,0 +1,170 @@
+package model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.SplittableRandom;
+import javafx.geometry.Point2D;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import track.Track;
+
+/**
+ * The obstacles of a race and the seed they have been generated from. The same seed gives the
+ * same obstacles on the same track, so players can share a seed and race the same course (see
+ * {@link #toString(long)}). A layout can also carry the background of the track with the
+ * obstacles already drawn onto it, so they do not have to be drawn every frame.
+ *
+ * @author Juri Dispan
+ *
+ */
+public final class ObstacleLayout {
+
+    private final long seed;
+    private final Collection<Obstacle> obstacles;
+    /**
+     * The background with the obstacles, and the images it has been baked from.
+     */
+    private final Image background, bakedOn, bakedWith;
+
+    private ObstacleLayout(long seed, Collection<Obstacle> obstacles, Image background,
+                    Image bakedOn, Image bakedWith) {
+        this.seed = seed;
+        this.obstacles = obstacles;
+        this.background = background;
+        this.bakedOn = bakedOn;
+        this.bakedWith = bakedWith;
+    }
+
+    /**
+     * Generate the obstacles of a seed, see
+     * {@link Obstacle#generateObs(Track, SplittableRandom, int, double, Collection, double)}.
+     *
+     * @param track The track.
+     * @param seed The seed.
+     * @param amount How many obstacles are generated.
+     * @param minSpacing The width of the car.
+     * @param keepFree Places where no obstacle may be.
+     * @param freeRadius The minimum distance between these places and the obstacles.
+     * @return The layout, without a background.
+     */
+    public static ObstacleLayout generate(Track track, long seed, int amount, double minSpacing,
+                    Collection<Point2D> keepFree, double freeRadius) {
+        return new ObstacleLayout(seed,
+                        Collections.unmodifiableCollection(Obstacle.generateObs(track,
+                                        new SplittableRandom(seed), amount, minSpacing, keepFree,
+                                        freeRadius)),
+                        null, null, null);
+    }
+
+    /**
+     * Draw the obstacles onto the background of the track, like {@link Obstacle#draw} does, but
+     * pixel by pixel, so it can be done on any thread.
+     *
+     * @param track The background of the track, 10 pixels per metre.
+     * @param sprite The image of an obstacle.
+     * @return This layout with the background.
+     */
+    public ObstacleLayout bake(Image track, Image sprite) {
+        int width = (int) track.getWidth(), height = (int) track.getHeight();
+        int[] pixels = new int[width * height];
+        track.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(),
+                        pixels, 0, width);
+        int spriteWidth = (int) sprite.getWidth(), spriteHeight = (int) sprite.getHeight();
+        int[] spritePixels = new int[spriteWidth * spriteHeight];
+        sprite.getPixelReader().getPixels(0, 0, spriteWidth, spriteHeight,
+                        PixelFormat.getIntArgbInstance(), spritePixels, 0, spriteWidth);
+        for (Obstacle o : obstacles) {
+            double cx = o.getX() * 10, cy = o.getY() * 10, size = 2 * o.getRadius() * 10;
+            double cos = Math.cos(o.getRotation()), sin = Math.sin(o.getRotation());
+            // the rotated square fits into a circle through its corners
+            double reach = size / Math.sqrt(2);
+            int x0 = Math.max(0, (int) (cx - reach));
+            int x1 = Math.min(width - 1, (int) (cx + reach));
+            int y0 = Math.max(0, (int) (cy - reach));
+            int y1 = Math.min(height - 1, (int) (cy + reach));
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    // the centre of the pixel, turned back into the square of the sprite
+                    double dx = x + 0.5 - cx, dy = y + 0.5 - cy;
+                    double u = dx * cos + dy * sin + size / 2;
+                    double v = -dx * sin + dy * cos + size / 2;
+                    if (u < 0 || v < 0 || u >= size || v >= size) {
+                        continue;
+                    }
+                    int sx = Math.min(spriteWidth - 1, (int) (u / size * spriteWidth));
+                    int sy = Math.min(spriteHeight - 1, (int) (v / size * spriteHeight));
+                    pixels[y * width + x] = blend(spritePixels[sy * spriteWidth + sx],
+                                    pixels[y * width + x]);
+                }
+            }
+        }
+        WritableImage image = new WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(),
+                        pixels, 0, width);
+        return new ObstacleLayout(seed, obstacles, image, track, sprite);
+    }
+
+    /**
+     * @return The colour over the colour below, both ARGB.
+     */
+    private static int blend(int over, int below) {
+        int a = over >>> 24;
+        if (a == 255) {
+            return over;
+        }
+        int result = 0xff000000;
+        for (int shift = 0; shift < 24; shift += 8) {
+            int c = ((over >> shift & 0xff) * a + (below >> shift & 0xff) * (255 - a)) / 255;
+            result |= c << shift;
+        }
+        return result;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public Collection<Obstacle> getObstacles() {
+        return obstacles;
+    }
+
+    /**
+     *
+     * @return The background with the obstacles, or null if the layout has not been baked.
+     */
+    public Image getBackground() {
+        return background;
+    }
+
+    /**
+     *
+     * @param track The background of the track.
+     * @param sprite The image of an obstacle.
+     * @return true if and only if the layout has been baked from these images, so the obstacles
+     *         need not be drawn. Images that have been replaced since (see
+     *         {@link controller.AssetReloader}) are drawn the usual way.
+     */
+    public boolean isBakedOn(Image track, Image sprite) {
+        return background != null && bakedOn == track && bakedWith == sprite;
+    }
+
+    /**
+     *
+     * @param seed A seed.
+     * @return How the seed is shown to players, to share it.
+     */
+    public static String toString(long seed) {
+        return Long.toHexString(seed);
+    }
+
+    /**
+     *
+     * @param seed A seed, as shown by {@link #toString(long)}.
+     * @return The seed.
+     * @throws NumberFormatException If it is not a seed.
+     */
+    public static long parseSeed(String seed) {
+        return Long.parseUnsignedLong(seed, 16);
+    }
+}
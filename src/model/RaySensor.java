@@ -0,0 +1,326 @@
+package model;
+
+import java.util.Collection;
+
+/**
+ * Casts rays against the edge of the track and the obstacles and tells how far each ray gets and
+ * what it hits. The rays walk through the track bitmap cell by cell (DDA grid traversal); blocks
+ * of {@link #BLOCK} x {@link #BLOCK} pixels that are completely on the track are crossed in one
+ * step. Obstacles are sorted into a coarse grid, so a ray only tests the obstacles of the cells it
+ * passes through.
+ * <p>
+ * The results are written into arrays of the caller, so casting does not allocate. A sensor can
+ * be used from several threads at once.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class RaySensor {
+
+    /**
+     * What a ray hit.
+     */
+    public static final int NOTHING = 0, EDGE = 1, OBSTACLE = 2, WORLD_BORDER = 3;
+
+    /**
+     * Size of a pixel of the track bitmap in metres.
+     */
+    public static final double CELL = 0.1;
+
+    /**
+     * Side length of a block of pixels in pixels.
+     */
+    public static final int BLOCK = 8;
+
+    /**
+     * Side length of a cell of the obstacle grid in metres.
+     */
+    private static final double OBSTACLE_CELL = 4;
+
+    private final boolean[][] track;
+    private final int width, height;
+    private final int blocksHigh;
+    private final boolean[] fullBlocks;
+
+    private final Collection<Obstacle> obstacles;
+    private final int gridWidth, gridHeight;
+    private final int[] cellStart, cellItems;
+    private final double[] obstacleX, obstacleY, obstacleRadius;
+
+    /**
+     * Constructs a RaySensor.
+     *
+     * @param track The track bitmap, true where the track is (see {@link Car#getTrackBitMap()}).
+     * @param obstacles The obstacles on the track.
+     */
+    public RaySensor(boolean[][] track, Collection<Obstacle> obstacles) {
+        this.track = track;
+        width = track.length;
+        height = track[0].length;
+        int blocksWide = (width + BLOCK - 1) / BLOCK;
+        blocksHigh = (height + BLOCK - 1) / BLOCK;
+        fullBlocks = new boolean[blocksWide * blocksHigh];
+        for (int bx = 0; bx < blocksWide; bx++) {
+            for (int by = 0; by < blocksHigh; by++) {
+                fullBlocks[bx * blocksHigh + by] = isFull(bx, by);
+            }
+        }
+        this.obstacles = obstacles;
+        gridWidth = (int) Math.ceil(width * CELL / OBSTACLE_CELL);
+        gridHeight = (int) Math.ceil(height * CELL / OBSTACLE_CELL);
+        cellStart = new int[gridWidth * gridHeight + 1];
+        obstacleX = new double[obstacles.size()];
+        obstacleY = new double[obstacles.size()];
+        obstacleRadius = new double[obstacles.size()];
+        cellItems = sortObstacles();
+    }
+
+    /**
+     * Share the track data of another sensor.
+     */
+    private RaySensor(RaySensor other, Collection<Obstacle> obstacles) {
+        track = other.track;
+        width = other.width;
+        height = other.height;
+        blocksHigh = other.blocksHigh;
+        fullBlocks = other.fullBlocks;
+        this.obstacles = obstacles;
+        gridWidth = other.gridWidth;
+        gridHeight = other.gridHeight;
+        cellStart = new int[gridWidth * gridHeight + 1];
+        obstacleX = new double[obstacles.size()];
+        obstacleY = new double[obstacles.size()];
+        obstacleRadius = new double[obstacles.size()];
+        cellItems = sortObstacles();
+    }
+
+    /**
+     * Get a sensor for the same track with other obstacles. Only the obstacle grid is built
+     * again.
+     *
+     * @param obstacles The obstacles on the track.
+     * @return The sensor.
+     */
+    public RaySensor withObstacles(Collection<Obstacle> obstacles) {
+        return new RaySensor(this, obstacles);
+    }
+
+    private boolean isFull(int bx, int by) {
+        for (int x = bx * BLOCK; x < Math.min((bx + 1) * BLOCK, width); x++) {
+            for (int y = by * BLOCK; y < Math.min((by + 1) * BLOCK, height); y++) {
+                if (!track[x][y]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Put every obstacle into all cells of the grid its bounding box touches, as lists packed into
+     * one array: the obstacles of cell c are cellItems[cellStart[c]] to cellItems[cellStart[c +
+     * 1] - 1].
+     */
+    private int[] sortObstacles() {
+        int i = 0;
+        for (Obstacle o : obstacles) {
+            obstacleX[i] = o.getX();
+            obstacleY[i] = o.getY();
+            obstacleRadius[i] = o.getRadius();
+            i++;
+        }
+        // count, then fill
+        for (int pass = 0; pass < 2; pass++) {
+            int[] items = pass == 0 ? null : new int[cellStart[cellStart.length - 1]];
+            int[] next = pass == 0 ? null : cellStart.clone();
+            for (i = 0; i < obstacleX.length; i++) {
+                int x0 = gridX(obstacleX[i] - obstacleRadius[i]);
+                int x1 = gridX(obstacleX[i] + obstacleRadius[i]);
+                int y0 = gridY(obstacleY[i] - obstacleRadius[i]);
+                int y1 = gridY(obstacleY[i] + obstacleRadius[i]);
+                for (int gx = x0; gx <= x1; gx++) {
+                    for (int gy = y0; gy <= y1; gy++) {
+                        if (pass == 0) {
+                            cellStart[gx * gridHeight + gy + 1]++;
+                        } else {
+                            items[next[gx * gridHeight + gy]++] = i;
+                        }
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int c = 1; c < cellStart.length; c++) {
+                    cellStart[c] += cellStart[c - 1];
+                }
+            } else {
+                return items;
+            }
+        }
+        return null;
+    }
+
+    private int gridX(double x) {
+        return Math.min(Math.max((int) (x / OBSTACLE_CELL), 0), gridWidth - 1);
+    }
+
+    private int gridY(double y) {
+        return Math.min(Math.max((int) (y / OBSTACLE_CELL), 0), gridHeight - 1);
+    }
+
+    /**
+     * Cast rays from a car, relative to the direction it drives in.
+     *
+     * @param car The car.
+     * @param angles The directions of the rays relative to the driving direction, in radians.
+     * @param range How far the rays go in metres.
+     * @param distances Receives the distance each ray gets, range if it hits nothing.
+     * @param surfaces Receives what each ray hits, can be null.
+     * @param offset Where the results of the first ray go in the arrays.
+     */
+    public void cast(Car car, double[] angles, double range, double[] distances, int[] surfaces,
+                    int offset) {
+        // the car drives in direction rot + PI
+        cast(car.getPosX(), car.getPosY(), car.getRotation() + Math.PI, angles, range, distances,
+                        surfaces, offset);
+    }
+
+    /**
+     * Cast rays from a position.
+     *
+     * @param x X position in metres.
+     * @param y Y position in metres.
+     * @param heading The direction the angles are relative to, in radians.
+     * @param angles The directions of the rays relative to the heading, in radians.
+     * @param range How far the rays go in metres.
+     * @param distances Receives the distance each ray gets, range if it hits nothing.
+     * @param surfaces Receives what each ray hits, can be null.
+     * @param offset Where the results of the first ray go in the arrays.
+     */
+    public void cast(double x, double y, double heading, double[] angles, double range,
+                    double[] distances, int[] surfaces, int offset) {
+        for (int r = 0; r < angles.length; r++) {
+            double angle = heading + angles[r];
+            int hit = castRay(x, y, Math.cos(angle), Math.sin(angle), range, distances, offset + r);
+            if (surfaces != null) {
+                surfaces[offset + r] = hit;
+            }
+        }
+    }
+
+    /**
+     * Cast one ray. A ray that starts off the track or inside an obstacle hits it at distance 0.
+     *
+     * @param dx X component of the direction, a unit vector.
+     * @param dy Y component of the direction.
+     * @param distances Receives the distance at index i.
+     * @return What the ray hits.
+     */
+    private int castRay(double x, double y, double dx, double dy, double range, double[] distances,
+                    int i) {
+        double limit = obstacleHit(x, y, dx, dy, range);
+        int hit = limit < range ? OBSTACLE : NOTHING;
+        double blockSize = BLOCK * CELL;
+        double invX = dx != 0 ? 1 / dx : 0, invY = dy != 0 ? 1 / dy : 0;
+        double t = 0;
+        while (t < limit) {
+            double px = x + t * dx, py = y + t * dy;
+            if (px < 0 || py < 0 || px >= width * CELL || py >= height * CELL) {
+                distances[i] = t;
+                return WORLD_BORDER;
+            }
+            // like the car looks up the bitmap
+            int ix = (int) (px * 10), iy = (int) (py * 10);
+            if (ix >= width || iy >= height) {
+                distances[i] = t;
+                return WORLD_BORDER;
+            }
+            if (!track[ix][iy]) {
+                distances[i] = t;
+                return EDGE;
+            }
+            // cross the whole block if it is on the track, else the pixel
+            double size;
+            int cx, cy;
+            if (fullBlocks[(ix / BLOCK) * blocksHigh + iy / BLOCK]) {
+                size = blockSize;
+                cx = ix / BLOCK;
+                cy = iy / BLOCK;
+            } else {
+                size = CELL;
+                cx = ix;
+                cy = iy;
+            }
+            t = Math.min(exit(x, invX, cx, size, t), exit(y, invY, cy, size, t)) + 1e-9;
+        }
+        distances[i] = limit;
+        return hit;
+    }
+
+    /**
+     * Where a ray that is at t in a cell leaves it along one axis. A ray exactly on the lower
+     * boundary of the cell that goes downwards leaves the cell below it.
+     *
+     * @param inv 1 / the component of the direction along the axis, 0 if it is 0.
+     */
+    private static double exit(double origin, double inv, int cell, double size, double t) {
+        double e;
+        if (inv > 0) {
+            e = ((cell + 1) * size - origin) * inv;
+        } else if (inv < 0) {
+            e = (cell * size - origin) * inv;
+        } else {
+            return Double.POSITIVE_INFINITY;
+        }
+        return e > t ? e : e + size * Math.abs(inv);
+    }
+
+    /**
+     * Walk through the obstacle grid until an obstacle is hit in the current cell.
+     *
+     * @return The distance to the nearest obstacle, or range if there is none.
+     */
+    private double obstacleHit(double x, double y, double dx, double dy, double range) {
+        if (obstacleX.length == 0) {
+            return range;
+        }
+        double best = range;
+        double invX = dx != 0 ? 1 / dx : 0, invY = dy != 0 ? 1 / dy : 0;
+        double t = 0;
+        while (t < best) {
+            int gx = (int) Math.floor((x + t * dx) / OBSTACLE_CELL);
+            int gy = (int) Math.floor((y + t * dy) / OBSTACLE_CELL);
+            if (gx < 0 || gy < 0 || gx >= gridWidth || gy >= gridHeight) {
+                break;
+            }
+            int c = gx * gridHeight + gy;
+            for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+                best = Math.min(best, circleHit(x, y, dx, dy, cellItems[k]));
+            }
+            t = Math.min(exit(x, invX, gx, OBSTACLE_CELL, t), exit(y, invY, gy, OBSTACLE_CELL, t))
+                            + 1e-9;
+        }
+        return best;
+    }
+
+    private double circleHit(double x, double y, double dx, double dy, int o) {
+        double rx = x - obstacleX[o], ry = y - obstacleY[o];
+        double b = rx * dx + ry * dy;
+        double c = rx * rx + ry * ry - obstacleRadius[o] * obstacleRadius[o];
+        if (c < 0) {
+            return 0;
+        }
+        double disc = b * b - c;
+        if (b > 0 || disc < 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return -b - Math.sqrt(disc);
+    }
+
+    /**
+     *
+     * @return The obstacles the sensor has been built for.
+     */
+    public Collection<Obstacle> getObstacles() {
+        return obstacles;
+    }
+}
@@ -0,0 +1,192 @@
+package model;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import track.Track;
+import track.TrackDescriptor;
+
+/**
+ * Checks whether a lap can still be driven with an obstacle layout. The world is divided into
+ * cells of {@link #CELL} metres; a cell is free if a car centred in it keeps clear of the edge of
+ * the track and of all obstacles. A flood fill then searches a way from the start through the free
+ * cells that goes around the track to the other side of the start line. The start line itself is
+ * a wall for the search, so the way cannot take the short cut back across it.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class ReachabilityCheck {
+
+    /**
+     * Size of a cell in metres.
+     */
+    public static final double CELL = 0.5;
+
+    private static final Map<Track, ReachabilityCheck> checks = new WeakHashMap<>();
+
+    private final int width, height;
+    private final double clearance;
+    /**
+     * Free cells of the track without obstacles.
+     */
+    private final boolean[] free;
+    private final int start;
+    private final int[] goals;
+
+    /**
+     *
+     * @return The check for the current track (see {@link Car#getTrack()}).
+     */
+    public static ReachabilityCheck get() {
+        return get(Car.getTrack());
+    }
+
+    /**
+     *
+     * @param track A track.
+     * @return The check for the track. It is computed on the first call and kept as long as the
+     *         track is used.
+     */
+    public static synchronized ReachabilityCheck get(Track track) {
+        ReachabilityCheck check = checks.get(track);
+        if (check == null) {
+            Car car = new Car();
+            check = new ReachabilityCheck(track.getMask(), track.getEdgeField(),
+                            track.getDescriptor(), car.getHeight() / 2);
+            checks.put(track, check);
+        }
+        return check;
+    }
+
+    /**
+     * Constructs a ReachabilityCheck.
+     *
+     * @param track The track bitmap.
+     * @param edges The distance field of the track.
+     * @param descriptor The descriptor of the track, for the start and the start line.
+     * @param clearance How far the centre of a car has to stay away from the edge and from
+     *        obstacles, in metres.
+     */
+    public ReachabilityCheck(boolean[][] track, SignedDistanceField edges,
+                    TrackDescriptor descriptor, double clearance) {
+        this.clearance = clearance;
+        width = (int) Math.ceil(edges.getWidth() / CELL);
+        height = (int) Math.ceil(edges.getHeight() / CELL);
+        free = new boolean[width * height];
+        for (int cx = 0; cx < width; cx++) {
+            for (int cy = 0; cy < height; cy++) {
+                free[cx * height + cy] =
+                                edges.distance((cx + 0.5) * CELL, (cy + 0.5) * CELL) >= clearance;
+            }
+        }
+        // the start line is a wall
+        double[] line = descriptor.getGates().get(0);
+        double length = Math.hypot(line[2] - line[0], line[3] - line[1]);
+        for (double d = 0; d <= length; d += CELL / 4) {
+            free[cell(line[0] + (line[2] - line[0]) * d / length,
+                            line[1] + (line[3] - line[1]) * d / length)] = false;
+        }
+        start = cell(descriptor.getStartX(), descriptor.getStartY());
+        // just behind the start line in driving direction, which is rotation + PI
+        double dx = -Math.cos(descriptor.getStartRotation());
+        double dy = -Math.sin(descriptor.getStartRotation());
+        int samples = (int) (length / CELL) + 1;
+        goals = new int[samples];
+        for (int i = 0; i < samples; i++) {
+            double d = length * i / Math.max(samples - 1, 1);
+            goals[i] = cell(line[0] + (line[2] - line[0]) * d / length + dx * CELL * 1.5,
+                            line[1] + (line[3] - line[1]) * d / length + dy * CELL * 1.5);
+        }
+    }
+
+    private int cell(double x, double y) {
+        int cx = Math.min(Math.max((int) (x / CELL), 0), width - 1);
+        int cy = Math.min(Math.max((int) (y / CELL), 0), height - 1);
+        return cx * height + cy;
+    }
+
+    /**
+     * Can a lap be driven around the obstacles?
+     *
+     * @param obstacles The obstacle layout.
+     * @return true if and only if there is a way from the start around the track back to the
+     *         start line.
+     */
+    public boolean isDrivable(Collection<Obstacle> obstacles) {
+        // 0 free, 1 blocked, 2 reached
+        byte[] state = new byte[free.length];
+        for (int i = 0; i < free.length; i++) {
+            state[i] = (byte) (free[i] ? 0 : 1);
+        }
+        for (Obstacle o : obstacles) {
+            double r = o.getRadius() + clearance;
+            int x0 = (int) Math.max((o.getX() - r) / CELL, 0);
+            int x1 = (int) Math.min((o.getX() + r) / CELL, width - 1);
+            int y0 = (int) Math.max((o.getY() - r) / CELL, 0);
+            int y1 = (int) Math.min((o.getY() + r) / CELL, height - 1);
+            for (int cx = x0; cx <= x1; cx++) {
+                for (int cy = y0; cy <= y1; cy++) {
+                    if (Math.hypot((cx + 0.5) * CELL - o.getX(), (cy + 0.5) * CELL - o.getY())
+                                    < r) {
+                        state[cx * height + cy] = 1;
+                    }
+                }
+            }
+        }
+        if (state[start] != 0) {
+            return false;
+        }
+        int[] queue = new int[free.length];
+        int head = 0, tail = 0;
+        queue[tail++] = start;
+        state[start] = 2;
+        while (head < tail) {
+            int i = queue[head++];
+            int cy = i % height;
+            if (i >= height) {
+                tail = visit(state, queue, tail, i - height);
+            }
+            if (i < free.length - height) {
+                tail = visit(state, queue, tail, i + height);
+            }
+            if (cy > 0) {
+                tail = visit(state, queue, tail, i - 1);
+            }
+            if (cy < height - 1) {
+                tail = visit(state, queue, tail, i + 1);
+            }
+        }
+        for (int goal : goals) {
+            if (state[goal] == 2) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int visit(byte[] state, int[] queue, int tail, int n) {
+        if (state[n] == 0) {
+            state[n] = 2;
+            queue[tail++] = n;
+        }
+        return tail;
+    }
+
+    /**
+     * Check a list of obstacles together with one more.
+     *
+     * @param obstacles The obstacles placed so far.
+     * @param next The obstacle to add.
+     * @return true if and only if a lap can be driven around all of them.
+     */
+    public boolean isDrivable(List<Obstacle> obstacles, Obstacle next) {
+        obstacles.add(next);
+        try {
+            return isDrivable(obstacles);
+        } finally {
+            obstacles.remove(obstacles.size() - 1);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Keeps the state of a race for the last seconds, so the race can be rewound, for example to
+ * practise a corner again. After every tick the state of all cars, the time of the round timer
+ * and the obstacles are written into a ring of arrays that are allocated up front, so recording
+ * allocates nothing. The obstacles are only referenced, as they do not change while racing.
+ * Going back one tick is as cheap as recording one.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class RewindBuffer {
+
+    private final int cars;
+    private final int capacity;
+    private final double seconds;
+
+    /**
+     * For each tick: the states of the cars, one after the other (see {@link Car#saveState}), the
+     * time of the round timer, the length of the tick and the obstacles.
+     */
+    private final double[] states;
+    private final long[] timerMillis;
+    private final double[] timeDeltas;
+    private final Collection<?>[] obstacles;
+
+    /**
+     * The slot after the newest tick, how many ticks are kept and how long they took.
+     */
+    private int head, size;
+    private double kept;
+    /**
+     * The time that still has to be rewound but was shorter than the last tick.
+     */
+    private double debt;
+
+    /**
+     * Constructs an empty RewindBuffer.
+     *
+     * @param cars How many cars the race has.
+     * @param seconds How long the race can be rewound.
+     * @param ticksPerSecond The most ticks per second; faster ticks leave less time to rewind.
+     */
+    public RewindBuffer(int cars, double seconds, int ticksPerSecond) {
+        this.cars = cars;
+        this.seconds = seconds;
+        capacity = (int) Math.ceil(seconds * ticksPerSecond) + 1;
+        states = new double[capacity * cars * Car.STATE_SIZE];
+        timerMillis = new long[capacity];
+        timeDeltas = new double[capacity];
+        obstacles = new Collection<?>[capacity];
+    }
+
+    /**
+     * Keep the state after a tick. The oldest tick is forgotten once the race can be rewound
+     * far enough without it.
+     *
+     * @param cars The cars of the race, always in the same order.
+     * @param timer The round timer.
+     * @param obstacles The obstacles.
+     * @param timeDelta The length of the tick.
+     */
+    public void record(List<Car> cars, RoundTimer timer, Collection<Obstacle> obstacles,
+                    double timeDelta) {
+        if (cars.size() != this.cars) {
+            throw new IllegalArgumentException(
+                            "Expected " + this.cars + " cars, got " + cars.size());
+        }
+        if (size == capacity) {
+            forgetOldest();
+        }
+        int slot = head;
+        for (int i = 0; i < this.cars; i++) {
+            cars.get(i).saveState(states, (slot * this.cars + i) * Car.STATE_SIZE);
+        }
+        timerMillis[slot] = timer.getTimeLong();
+        timeDeltas[slot] = timeDelta;
+        this.obstacles[slot] = obstacles;
+        head = (head + 1) % capacity;
+        size++;
+        kept += timeDelta;
+        debt = 0;
+        // the time back to the oldest tick does not include the tick that led to it
+        while (size > 2 && kept - timeDeltas[oldest()]
+                        - timeDeltas[(oldest() + 1) % capacity] >= seconds) {
+            forgetOldest();
+        }
+    }
+
+    private int oldest() {
+        return (head - size + capacity) % capacity;
+    }
+
+    private void forgetOldest() {
+        int slot = oldest();
+        kept -= timeDeltas[slot];
+        obstacles[slot] = null;
+        size--;
+    }
+
+    /**
+     * Go back in the race and put the cars and the timer into the state they had then. The
+     * ticks that are gone back over are forgotten, so the race goes on from there.
+     *
+     * @param timeDelta How far to go back in seconds. Time shorter than a tick is kept for the
+     *        next call, so rewinding by the length of each frame goes back at the same speed the
+     *        race was driven.
+     * @param cars The cars of the race, in the order they have been recorded.
+     * @param timer The round timer.
+     * @return The obstacles at the time gone back to, or null if nothing is kept.
+     */
+    @SuppressWarnings("unchecked")
+    public Collection<Obstacle> rewind(double timeDelta, List<Car> cars, RoundTimer timer) {
+        if (size == 0) {
+            return null;
+        }
+        debt += timeDelta;
+        int newest = (head - 1 + capacity) % capacity;
+        // the oldest tick is kept, it is as far back as the race can go
+        while (size > 1 && debt >= timeDeltas[newest]) {
+            debt -= timeDeltas[newest];
+            kept -= timeDeltas[newest];
+            obstacles[newest] = null;
+            head = newest;
+            size--;
+            newest = (head - 1 + capacity) % capacity;
+        }
+        for (int i = 0; i < this.cars; i++) {
+            cars.get(i).restoreState(states, (newest * this.cars + i) * Car.STATE_SIZE);
+        }
+        timer.setTimeLong(timerMillis[newest]);
+        return (Collection<Obstacle>) obstacles[newest];
+    }
+
+    /**
+     * Forget all ticks, for example when the race is reset.
+     */
+    public void clear() {
+        Arrays.fill(obstacles, null);
+        head = 0;
+        size = 0;
+        kept = 0;
+        debt = 0;
+    }
+
+    /**
+     *
+     * @return How far the race can be rewound in seconds.
+     */
+    public double getSeconds() {
+        return size <= 1 ? 0 : kept - timeDeltas[oldest()];
+    }
+
+    /**
+     *
+     * @return How many ticks are kept.
+     */
+    public int getSize() {
+        return size;
+    }
+}
@@ -71,6 +71,19 @@ public class RoundTimer implements Drawable, Freezeable {
         return tbuf;
     }
 
+    /**
+     * Set the measured time, for example when the race is rewound. A running timer keeps running
+     * from there.
+     *
+     * @param millis The time in milliseconds.
+     */
+    public void setTimeLong(long millis) {
+        tbuf = millis;
+        if (running) {
+            startTime = System.currentTimeMillis();
+        }
+    }
+
     /**
      * 
      * @return The measured time in seconds.
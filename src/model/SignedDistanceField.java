@@ -0,0 +1,120 @@
+package model;
+
+/**
+ * The signed distance of every pixel of the track bitmap to the edge of the track: positive on
+ * the track, negative off it. It is computed once with the exact distance transform (see
+ * {@link DistanceTransform}) and cached on disk (see {@link FieldCache}), so the distance to the
+ * edge and the direction away from it can be looked up in constant time.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class SignedDistanceField {
+
+    /**
+     * Size of a pixel of the track bitmap in metres.
+     */
+    public static final double CELL = 0.1;
+
+    /**
+     * Change this if the way the field is computed changes, so old cache entries are ignored.
+     */
+    private static final int VERSION = 1;
+
+    private static SignedDistanceField last;
+
+    private final long checksum;
+    private final int width, height;
+    private final float[] field;
+
+    private SignedDistanceField(long checksum, int width, int height, float[] field) {
+        this.checksum = checksum;
+        this.width = width;
+        this.height = height;
+        this.field = field;
+    }
+
+    /**
+     * Get the field of a track. The field of the last track asked for is kept; other fields are
+     * loaded from the cache or computed.
+     *
+     * @param track The track bitmap, true where the track is.
+     * @return The field.
+     */
+    public static synchronized SignedDistanceField of(boolean[][] track) {
+        long checksum = FieldCache.checksum(track);
+        if (last != null && last.checksum == checksum && last.width == track.length) {
+            return last;
+        }
+        int width = track.length, height = track[0].length;
+        long key = checksum << 8 | VERSION;
+        float[] field = FieldCache.load("edge-distance", key, width * height);
+        if (field == null) {
+            // inside minus outside distance: one of them is always zero
+            field = DistanceTransform.compute(track, false);
+            float[] outside = DistanceTransform.compute(track, true);
+            for (int i = 0; i < field.length; i++) {
+                field[i] = (float) ((field[i] - outside[i]) * CELL);
+            }
+            FieldCache.store("edge-distance", key, field);
+        }
+        last = new SignedDistanceField(checksum, width, height, field);
+        return last;
+    }
+
+    private int index(int ix, int iy) {
+        ix = Math.min(Math.max(ix, 0), width - 1);
+        iy = Math.min(Math.max(iy, 0), height - 1);
+        return ix * height + iy;
+    }
+
+    /**
+     *
+     * @param x X position in metres.
+     * @param y Y position in metres.
+     * @return The distance to the edge of the track in metres, negative if the position is off
+     *         the track. Positions outside the bitmap get the value of the nearest pixel.
+     */
+    public double distance(double x, double y) {
+        return field[index((int) (x / CELL), (int) (y / CELL))];
+    }
+
+    /**
+     * Get the direction in which the distance grows fastest: away from the edge on the track, and
+     * towards the track off it. It is estimated from the neighbouring pixels.
+     *
+     * @param x X position in metres.
+     * @param y Y position in metres.
+     * @param out Receives the x and y component of the direction, as a unit vector. Both are 0
+     *        where the field is flat, e.g. in the middle of a straight.
+     */
+    public void gradient(double x, double y, double[] out) {
+        int ix = (int) (x / CELL), iy = (int) (y / CELL);
+        double gx = field[index(ix + 1, iy)] - field[index(ix - 1, iy)];
+        double gy = field[index(ix, iy + 1)] - field[index(ix, iy - 1)];
+        double length = Math.hypot(gx, gy);
+        if (length == 0) {
+            out[0] = 0;
+            out[1] = 0;
+        } else {
+            out[0] = gx / length;
+            out[1] = gy / length;
+        }
+    }
+
+    /**
+     *
+     * @return The width of the field in metres.
+     */
+    public double getWidth() {
+        return width * CELL;
+    }
+
+    /**
+     *
+     * @return The height of the field in metres.
+     */
+    public double getHeight() {
+        return height * CELL;
+    }
+}
@@ -0,0 +1,54 @@
+package model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javafx.scene.image.Image;
+
+/**
+ * The images of the things on the track, loaded once and shared, from the {@link AssetPack} if
+ * the game has one. They are looked up when drawn,
+ * so an image that is replaced (see {@link controller.AssetReloader}) is used from the next frame
+ * on.
+ *
+ * @author Juri Dispan
+ *
+ */
+public final class Sprites {
+
+    private static final Map<String, Image> images = new ConcurrentHashMap<>();
+
+    private Sprites() {}
+
+    /**
+     *
+     * @param name Resource name of the image, for example "obstacle.png".
+     * @return The image, loaded on the first call.
+     */
+    public static Image get(String name) {
+        return images.computeIfAbsent(name, Sprites::load);
+    }
+
+    private static Image load(String name) {
+        AssetPack pack = AssetPack.get();
+        if (pack != null && pack.contains(name)) {
+            try {
+                return pack.image(name);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return new Image(name);
+    }
+
+    /**
+     * Replace an image.
+     *
+     * @param name Resource name of the image.
+     * @param image The new image.
+     */
+    public static void put(String name, Image image) {
+        images.put(name, image);
+    }
+}
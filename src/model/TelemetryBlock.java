@@ -0,0 +1,179 @@
+package model;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Up to {@link #CAPACITY} ticks of telemetry, stored column by column: all times, then all x
+ * positions and so on. A block is the unit that is compressed and written by a
+ * {@link TelemetryRecorder}; as the values of a column change slowly from tick to tick, the
+ * columns compress much better than the ticks one after another would.
+ * <p>
+ * In a file, a block is stored as its number of ticks, the length of the compressed columns and
+ * the columns compressed with deflate. Each float column is split into four planes, one for each
+ * byte of the floats: the sign, exponent and high bits of the mantissa hardly change, so their
+ * planes compress to almost nothing.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class TelemetryBlock {
+
+    /**
+     * How many ticks a block holds, about eight seconds at 120 fps.
+     */
+    public static final int CAPACITY = 1024;
+
+    /**
+     * Bits of {@link #inputs}.
+     */
+    public static final byte ACCELERATE = 1, BRAKE = 2, TURN_LEFT = 4, TURN_RIGHT = 8;
+
+    /**
+     * Values of {@link #surface}.
+     */
+    public static final byte TRACK = 0, EDGE = 1, DIRT = 2;
+
+    /**
+     * Bits of {@link #flags}.
+     */
+    public static final byte STARTED_LAP = 1, PASSED_END_LINE = 2, DESTROYED = 4;
+
+    private static final int BYTES_PER_TICK = 5 * 4 + 3;
+
+    /**
+     * Seconds since the recording started.
+     */
+    public final float[] time = new float[CAPACITY];
+    public final float[] posX = new float[CAPACITY], posY = new float[CAPACITY];
+    public final float[] vel = new float[CAPACITY], rot = new float[CAPACITY];
+    public final byte[] inputs = new byte[CAPACITY], surface = new byte[CAPACITY];
+    public final byte[] flags = new byte[CAPACITY];
+    private int size;
+
+    private final ByteBuffer columns = ByteBuffer.allocate(CAPACITY * BYTES_PER_TICK);
+    private byte[] compressed = new byte[CAPACITY * BYTES_PER_TICK + 64];
+
+    /**
+     * Append a tick.
+     *
+     * @return true if and only if the block is full now.
+     */
+    boolean add(double t, Car car, byte input) {
+        time[size] = (float) t;
+        posX[size] = (float) car.getPosX();
+        posY[size] = (float) car.getPosY();
+        vel[size] = (float) car.getVel();
+        rot[size] = (float) car.getRotation();
+        inputs[size] = input;
+        double onTrack = car.getOnTrack();
+        surface[size] = onTrack >= 1 ? TRACK : onTrack <= 0 ? DIRT : EDGE;
+        flags[size] = (byte) ((car.hasStartedLap() ? STARTED_LAP : 0)
+                        | (car.hasPassedEndLine() ? PASSED_END_LINE : 0)
+                        | (car.isDestroyed() ? DESTROYED : 0));
+        return ++size == CAPACITY;
+    }
+
+    /**
+     *
+     * @return How many ticks the block holds.
+     */
+    public int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Compress the block and write it.
+     */
+    void write(DataOutputStream out, Deflater deflater) throws IOException {
+        columns.clear();
+        for (float[] column : new float[][] {time, posX, posY, vel, rot}) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                for (int i = 0; i < size; i++) {
+                    columns.put((byte) (Float.floatToRawIntBits(column[i]) >>> shift));
+                }
+            }
+        }
+        columns.put(inputs, 0, size).put(surface, 0, size).put(flags, 0, size);
+        deflater.reset();
+        deflater.setInput(columns.array(), 0, columns.position());
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        out.writeInt(size);
+        out.writeInt(length);
+        out.write(compressed, 0, length);
+    }
+
+    /**
+     * Read the next block of a file into this block.
+     *
+     * @return false at the end of the file. A block that has only been written in part, because
+     *         the game ended while it was written, also ends the file.
+     * @throws IOException If the file cannot be read or is damaged.
+     */
+    public boolean read(DataInputStream in, Inflater inflater) throws IOException {
+        int ticks, length;
+        try {
+            ticks = in.readInt();
+            length = in.readInt();
+            if (ticks < 0 || ticks > CAPACITY || length < 0) {
+                throw new IOException("Damaged telemetry block");
+            }
+            if (length > compressed.length) {
+                compressed = new byte[length];
+            }
+            in.readFully(compressed, 0, length);
+        } catch (EOFException e) {
+            return false;
+        }
+        inflater.reset();
+        inflater.setInput(compressed, 0, length);
+        try {
+            int n = 0, expected = ticks * BYTES_PER_TICK;
+            while (n < expected && !inflater.finished()) {
+                int read = inflater.inflate(columns.array(), n, expected - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != expected) {
+                throw new IOException("Damaged telemetry block");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Damaged telemetry block", e);
+        }
+        columns.clear();
+        size = ticks;
+        byte[] planes = columns.array();
+        for (float[] column : new float[][] {time, posX, posY, vel, rot}) {
+            int plane = columns.position();
+            for (int i = 0; i < size; i++) {
+                column[i] = Float.intBitsToFloat((planes[plane + i] & 0xFF) << 24
+                                | (planes[plane + size + i] & 0xFF) << 16
+                                | (planes[plane + 2 * size + i] & 0xFF) << 8
+                                | planes[plane + 3 * size + i] & 0xFF);
+            }
+            columns.position(plane + 4 * size);
+        }
+        columns.get(inputs, 0, size).get(surface, 0, size).get(flags, 0, size);
+        return true;
+    }
+}
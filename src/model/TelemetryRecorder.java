@@ -0,0 +1,183 @@
+package model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Records the state of a car and the inputs of its driver for every tick into a telemetry file,
+ * see {@link tools.TelemetryAnalyser}. Ticks are collected in {@link TelemetryBlock}s; full
+ * blocks are compressed and written by a background thread, so recording never waits for the
+ * disk. The file is only ever appended to: it starts with a header naming the track, and
+ * recordings on the same track add their blocks to the end.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class TelemetryRecorder implements AutoCloseable {
+
+    /**
+     * The first bytes of a telemetry file, "RGTL".
+     */
+    public static final int MAGIC = 0x5247544C;
+
+    /**
+     * Version of the format, files of other versions are not read.
+     */
+    public static final int VERSION = 1;
+
+    private static final TelemetryBlock END = new TelemetryBlock();
+
+    private final DataOutputStream out;
+    private final BlockingQueue<TelemetryBlock> full = new LinkedBlockingQueue<>();
+    private final Queue<TelemetryBlock> free = new ConcurrentLinkedQueue<>();
+    private final Thread writer;
+    private volatile IOException error;
+    private TelemetryBlock block = new TelemetryBlock();
+    private double time;
+
+    /**
+     * Constructs a TelemetryRecorder and starts its writer.
+     *
+     * @param file The telemetry file. It is created if it does not exist yet.
+     * @param trackName The track that is driven on.
+     * @throws IOException If the file cannot be written or belongs to another track.
+     */
+    public TelemetryRecorder(Path file, String trackName) throws IOException {
+        if (file.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try {
+            if (channel.size() == 0) {
+                out = new DataOutputStream(
+                                new BufferedOutputStream(Channels.newOutputStream(channel)));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(trackName);
+            } else {
+                String existing = readHeader(Files.newInputStream(file));
+                if (!existing.equals(trackName)) {
+                    throw new IOException(file + " has been recorded on " + existing);
+                }
+                out = new DataOutputStream(
+                                new BufferedOutputStream(Channels.newOutputStream(channel)));
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        writer = new Thread(this::write, "Telemetry writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Read the header of a telemetry file.
+     *
+     * @param in The file. It is closed if the header is broken.
+     * @return The name of the track it has been recorded on.
+     * @throws IOException If the file is not a telemetry file of this version.
+     */
+    public static String readHeader(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        try {
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                throw new IOException("Not a telemetry file of this version");
+            }
+            return data.readUTF();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Record a tick.
+     *
+     * @param car The car after the tick.
+     * @param timeDelta The length of the tick.
+     * @param accelerate Whether the driver accelerated.
+     * @param brake Whether the driver braked.
+     * @param turnLeft Whether the driver turned left.
+     * @param turnRight Whether the driver turned right.
+     */
+    public void record(Car car, double timeDelta, boolean accelerate, boolean brake,
+                    boolean turnLeft, boolean turnRight) {
+        time += timeDelta;
+        byte input = (byte) ((accelerate ? TelemetryBlock.ACCELERATE : 0)
+                        | (brake ? TelemetryBlock.BRAKE : 0)
+                        | (turnLeft ? TelemetryBlock.TURN_LEFT : 0)
+                        | (turnRight ? TelemetryBlock.TURN_RIGHT : 0));
+        if (block.add(time, car, input)) {
+            flush();
+        }
+    }
+
+    /**
+     * Hand the current block to the writer.
+     */
+    private void flush() {
+        if (block.size() == 0) {
+            return;
+        }
+        full.add(block);
+        TelemetryBlock next = free.poll();
+        block = next != null ? next : new TelemetryBlock();
+    }
+
+    private void write() {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            for (TelemetryBlock b; (b = full.take()) != END;) {
+                try {
+                    b.write(out, deflater);
+                } catch (IOException e) {
+                    // keep taking blocks, so they can be reused
+                    error = e;
+                }
+                b.clear();
+                free.add(b);
+            }
+            out.close();
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            // stopped
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Write the ticks recorded so far and stop the writer.
+     *
+     * @throws IOException If the telemetry could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        full.add(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import track.TrackDescriptor;
+
+/**
+ * Fields computed once from the track bitmap, so computer-controlled drivers can decide with a
+ * few array lookups:
+ * <ul>
+ * <li>the distance of every point to the edge of the track, negative off the track (see
+ * {@link SignedDistanceField}),</li>
+ * <li>the progress: how far a point is from the start line, measured along the track in driving
+ * direction,</li>
+ * <li>the clearance: the distance to the edge or the nearest obstacle, computed once per obstacle
+ * layout on a coarser grid (see {@link ClearanceMap}).</li>
+ * </ul>
+ * The first two are cached on disk (see {@link FieldCache}).
+ *
+ * @author Juri Dispan
+ *
+ */
+public class TrackFields {
+
+    /**
+     * Size of a cell of the track bitmap in metres.
+     */
+    public static final double CELL = 0.1;
+
+    /**
+     * Change this if the way the fields are computed changes, so old cache entries are ignored.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * How far the start line is extended beyond the ends of its gate, in metres, so the search
+     * cannot slip past it next to the edge of the track.
+     */
+    private static final double LINE_MARGIN = 1.0;
+
+    private final int width, height;
+    private final SignedDistanceField edgeDistance;
+    private final float[] progress;
+    private final float lapLength;
+
+    private volatile ClearanceMap clearance;
+
+    /**
+     *
+     * @return The fields of the current track. They are computed or loaded from the cache on the
+     *         first call. {@link Car#initTrack()} has to be called before.
+     */
+    public static TrackFields get() {
+        return Car.getTrack().getFields();
+    }
+
+    /**
+     * Compute the fields of a track, or load them from the cache. The progress starts at the start
+     * line of the descriptor, in the direction the cars start in.
+     *
+     * @param track The track bitmap, true where the track is.
+     * @param descriptor The descriptor of the track.
+     */
+    public TrackFields(boolean[][] track, TrackDescriptor descriptor) {
+        this(track, descriptor.getGates().get(0), descriptor.getStartX(),
+                        descriptor.getStartY(), descriptor.getStartRotation());
+    }
+
+    /**
+     * Compute the fields of a track, or load them from the cache.
+     *
+     * @param track The track bitmap, true where the track is.
+     * @param startLine The start and finish line, as x0, y0, x1, y1 in metres.
+     * @param startX X position of the first car in metres.
+     * @param startY Y position of the first car in metres.
+     * @param startRotation Rotation of the cars at the start in radians; they drive in direction
+     *        startRotation + PI.
+     */
+    public TrackFields(boolean[][] track, double[] startLine, double startX, double startY,
+                    double startRotation) {
+        width = track.length;
+        height = track[0].length;
+        // tracks that share a mask, but not the start, do not share the progress
+        long key = (FieldCache.checksum(track) * 31 + Arrays.hashCode(new double[] {startLine[0],
+                        startLine[1], startLine[2], startLine[3], startX, startY, startRotation}))
+                        << 8 | VERSION;
+        edgeDistance = SignedDistanceField.of(track);
+        StartLine line = new StartLine(startLine, startRotation);
+        float[] prog = FieldCache.load("progress", key, width * height);
+        if (prog == null) {
+            prog = computeProgress(track, line);
+            FieldCache.store("progress", key, prog);
+        }
+        progress = prog;
+        // from the start line around the track back to it: the progress just before the line,
+        // where the first car crosses it
+        double along = line.along(startX, startY);
+        double x = line.x0 + along * line.dx - CELL / 2 * line.nx;
+        double y = line.y0 + along * line.dy - CELL / 2 * line.ny;
+        lapLength = progress[index(x, y)] + (float) CELL;
+    }
+
+    /**
+     * The start line, and which side of it is in driving direction.
+     */
+    private static final class StartLine {
+        final double x0, y0, length;
+        /**
+         * The unit vector along the line and the unit normal in driving direction.
+         */
+        final double dx, dy, nx, ny;
+
+        StartLine(double[] gate, double startRotation) {
+            x0 = gate[0];
+            y0 = gate[1];
+            length = Math.hypot(gate[2] - gate[0], gate[3] - gate[1]);
+            dx = (gate[2] - gate[0]) / length;
+            dy = (gate[3] - gate[1]) / length;
+            // the cars drive in direction startRotation + PI
+            boolean ahead = -Math.cos(startRotation) * -dy - Math.sin(startRotation) * dx > 0;
+            nx = ahead ? -dy : dy;
+            ny = ahead ? dx : -dx;
+        }
+
+        /**
+         * @return How far a point is along the line from its first end, in metres.
+         */
+        double along(double x, double y) {
+            return (x - x0) * dx + (y - y0) * dy;
+        }
+
+        /**
+         * @return How far a point is ahead of the line in driving direction, in metres; negative
+         *         behind it.
+         */
+        double ahead(double x, double y) {
+            return (x - x0) * nx + (y - y0) * ny;
+        }
+
+        /**
+         * @return true if and only if a point is next to the line, not beyond its ends.
+         */
+        boolean beside(double x, double y) {
+            double a = along(x, y);
+            return a > -LINE_MARGIN && a < length + LINE_MARGIN;
+        }
+    }
+
+    /**
+     * Shortest distances along the track from the start line (Dijkstra on the 8-neighbourhood of
+     * the track bitmap). The two cells behind the start line are a wall for the search, so it has
+     * to go around the whole track in driving direction. Points off the track get the progress of
+     * the nearest point on the track.
+     */
+    private float[] computeProgress(boolean[][] track, StartLine line) {
+        float[] dist = new float[width * height];
+        Arrays.fill(dist, Float.POSITIVE_INFINITY);
+        boolean[] wall = new boolean[width * height];
+        IndexHeap heap = new IndexHeap(width * height);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                double cx = (x + 0.5) * CELL, cy = (y + 0.5) * CELL;
+                if (!track[x][y] || !line.beside(cx, cy)) {
+                    continue;
+                }
+                double ahead = line.ahead(cx, cy);
+                if (ahead >= 0 && ahead < CELL) {
+                    // the search starts right after the line
+                    dist[x * height + y] = 0;
+                    heap.push(x * height + y, 0);
+                } else if (ahead < 0 && ahead > -2 * CELL) {
+                    wall[x * height + y] = true;
+                }
+            }
+        }
+        while (!heap.isEmpty()) {
+            int i = heap.pop();
+            int x = i / height, y = i % height;
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    int nx = x + dx, ny = y + dy;
+                    if ((dx == 0 && dy == 0) || nx < 0 || ny < 0 || nx >= width || ny >= height
+                                    || !track[nx][ny]) {
+                        continue;
+                    }
+                    int n = nx * height + ny;
+                    // the start line is a wall
+                    if (wall[n]) {
+                        continue;
+                    }
+                    float d = dist[i] + (float) (dx != 0 && dy != 0 ? Math.sqrt(2) : 1) * 0.1f;
+                    if (d < dist[n]) {
+                        dist[n] = d;
+                        heap.push(n, d);
+                    }
+                }
+            }
+        }
+
+        // the wall itself is at the end of the lap, after the cells two cells behind it
+        for (int i = 0; i < wall.length; i++) {
+            if (wall[i]) {
+                double cx = (i / height + 0.5) * CELL - 2 * CELL * line.nx;
+                double cy = (i % height + 0.5) * CELL - 2 * CELL * line.ny;
+                int behind = index(cx, cy);
+                if (!wall[behind]) {
+                    dist[i] = dist[behind] + 2 * (float) CELL;
+                }
+            }
+        }
+
+        // off the track: breadth first search outwards from the track
+        int[] queue = new int[width * height];
+        int head = 0, tail = 0;
+        for (int i = 0; i < dist.length; i++) {
+            if (dist[i] != Float.POSITIVE_INFINITY) {
+                queue[tail++] = i;
+            }
+        }
+        while (head < tail) {
+            int i = queue[head++];
+            int x = i / height, y = i % height;
+            int[] neighbours = {x > 0 ? i - height : -1, x < width - 1 ? i + height : -1,
+                            y > 0 ? i - 1 : -1, y < height - 1 ? i + 1 : -1};
+            for (int n : neighbours) {
+                if (n >= 0 && dist[n] == Float.POSITIVE_INFINITY) {
+                    dist[n] = dist[i];
+                    queue[tail++] = n;
+                }
+            }
+        }
+        return dist;
+    }
+
+    private int index(double x, double y) {
+        int ix = Math.min(Math.max((int) (x / CELL), 0), width - 1);
+        int iy = Math.min(Math.max((int) (y / CELL), 0), height - 1);
+        return ix * height + iy;
+    }
+
+    /**
+     *
+     * @param x X position in metres.
+     * @param y Y position in metres.
+     * @return The distance to the edge of the track in metres, negative if the position is off
+     *         the track.
+     */
+    public double edgeDistance(double x, double y) {
+        return edgeDistance.distance(x, y);
+    }
+
+    /**
+     *
+     * @return The signed distance field of the track.
+     */
+    public SignedDistanceField getEdgeField() {
+        return edgeDistance;
+    }
+
+    /**
+     *
+     * @param x X position in metres.
+     * @param y Y position in metres.
+     * @return How far the position is from the start line, along the track in driving direction.
+     */
+    public double progress(double x, double y) {
+        return progress[index(x, y)];
+    }
+
+    /**
+     * The progress from one position to another. Crossing the start line is handled, so the
+     * result is small if the positions are close to each other.
+     *
+     * @return The progress in metres, negative if the second position is behind the first one.
+     */
+    public double progressBetween(double x0, double y0, double x1, double y1) {
+        double d = progress(x1, y1) - progress(x0, y0);
+        if (d > lapLength / 2) {
+            d -= lapLength;
+        } else if (d < -lapLength / 2) {
+            d += lapLength;
+        }
+        return d;
+    }
+
+    /**
+     * Get the clearance map of an obstacle layout. The map of the last layout asked for is kept,
+     * so it is only computed again when the layout changes.
+     *
+     * @param obstacles The obstacles on the track.
+     * @return The clearance map.
+     */
+    public ClearanceMap clearanceMap(Collection<Obstacle> obstacles) {
+        ClearanceMap map = clearance;
+        if (map == null || map.getObstacles() != obstacles) {
+            synchronized (this) {
+                map = clearance;
+                if (map == null || map.getObstacles() != obstacles) {
+                    map = new ClearanceMap(this, obstacles);
+                    clearance = map;
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Get the clearance of a position: the distance to the edge of the track or to the nearest
+     * obstacle, whatever is closer.
+     *
+     * @param obstacles The obstacles on the track.
+     * @param x X position in metres.
+     * @param y Y position in metres.
+     * @return The clearance in metres, negative off the track or inside an obstacle.
+     */
+    public double clearance(Collection<Obstacle> obstacles, double x, double y) {
+        return clearanceMap(obstacles).at(x, y);
+    }
+
+    /**
+     *
+     * @return The width of the track bitmap in metres.
+     */
+    public double getWidth() {
+        return width * CELL;
+    }
+
+    /**
+     *
+     * @return The height of the track bitmap in metres.
+     */
+    public double getHeight() {
+        return height * CELL;
+    }
+
+    /**
+     *
+     * @return The length of a lap along the track in metres.
+     */
+    public double getLapLength() {
+        return lapLength;
+    }
+
+    /**
+     * Binary min-heap of indices with float keys, for the Dijkstra search.
+     */
+    private static class IndexHeap {
+        private int[] items;
+        private float[] keys;
+        private int size;
+
+        IndexHeap(int capacity) {
+            items = new int[Math.max(capacity / 8, 16)];
+            keys = new float[items.length];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void push(int item, float key) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            int i = size++;
+            while (i > 0 && keys[(i - 1) / 2] > key) {
+                items[i] = items[(i - 1) / 2];
+                keys[i] = keys[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            items[i] = item;
+            keys[i] = key;
+        }
+
+        /**
+         * Remove the item with the smallest key. Items pushed again with a smaller key are
+         * returned more than once; that is harmless for Dijkstra.
+         */
+        int pop() {
+            int top = items[0];
+            int item = items[--size];
+            float key = keys[size];
+            int i = 0;
+            while (2 * i + 1 < size) {
+                int c = 2 * i + 1;
+                if (c + 1 < size && keys[c + 1] < keys[c]) {
+                    c++;
+                }
+                if (keys[c] >= key) {
+                    break;
+                }
+                items[i] = items[c];
+                keys[i] = keys[c];
+                i = c;
+            }
+            items[i] = item;
+            keys[i] = key;
+            return top;
+        }
+    }
+
+}
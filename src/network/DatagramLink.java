@@ -0,0 +1,166 @@
+package network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.PriorityQueue;
+
+/**
+ * A non-blocking UDP socket that counts the traffic and can simulate latency and packet loss for
+ * outgoing packets.
+ * 
+ * @author Juri Dispan
+ *
+ */
+class DatagramLink implements AutoCloseable {
+
+    /**
+     * A packet that is held back to simulate latency.
+     */
+    private static class Delayed implements Comparable<Delayed> {
+        final long due;
+        final long order;
+        final SocketAddress target;
+        final ByteBuffer data;
+
+        Delayed(long due, long order, SocketAddress target, ByteBuffer data) {
+            this.due = due;
+            this.order = order;
+            this.target = target;
+            this.data = data;
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            int c = Long.compare(due, o.due);
+            return c != 0 ? c : Long.compare(order, o.order);
+        }
+    }
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final NetworkConditions conditions;
+    private final PriorityQueue<Delayed> delayed = new PriorityQueue<>();
+    private long sent;
+    private long bytesSent, bytesReceived;
+
+    /**
+     * Open a link bound to the given local address.
+     * 
+     * @param local The local address, port 0 for any free port.
+     * @param conditions Simulated network conditions for outgoing packets.
+     * @throws IOException If the socket can not be opened.
+     */
+    DatagramLink(InetSocketAddress local, NetworkConditions conditions) throws IOException {
+        this.conditions = conditions;
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.bind(local);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    /**
+     * Send a packet. The packet is sent from its position to its limit.
+     * 
+     * @param packet The packet.
+     * @param target Where to send the packet to.
+     * @throws IOException If sending fails.
+     */
+    void send(ByteBuffer packet, SocketAddress target) throws IOException {
+        bytesSent += packet.remaining();
+        if (conditions.isPerfect()) {
+            channel.send(packet, target);
+            return;
+        }
+        if (conditions.dropNext()) {
+            return;
+        }
+        ByteBuffer copy = ByteBuffer.allocate(packet.remaining());
+        copy.put(packet).flip();
+        delayed.add(new Delayed(System.nanoTime() + conditions.nextDelay(), sent++, target, copy));
+        flush();
+    }
+
+    /**
+     * Send all held back packets whose delay has passed.
+     * 
+     * @throws IOException If sending fails.
+     */
+    void flush() throws IOException {
+        long now = System.nanoTime();
+        while (!delayed.isEmpty() && delayed.peek().due <= now) {
+            Delayed d = delayed.poll();
+            channel.send(d.data, d.target);
+        }
+    }
+
+    /**
+     * Receive a packet if one is available.
+     * 
+     * @param into The buffer the packet is written to. It is cleared before and flipped after.
+     * @return The sender of the packet, or null if no packet is available.
+     * @throws IOException If receiving fails.
+     */
+    SocketAddress receive(ByteBuffer into) throws IOException {
+        into.clear();
+        SocketAddress from = channel.receive(into);
+        into.flip();
+        if (from != null) {
+            bytesReceived += into.remaining();
+        }
+        return from;
+    }
+
+    /**
+     * Wait until a packet arrives, a held back packet is due or the timeout has passed.
+     * 
+     * @param timeoutMillis Maximum time to wait.
+     * @throws IOException If waiting fails.
+     */
+    void await(long timeoutMillis) throws IOException {
+        if (!delayed.isEmpty()) {
+            long untilDue = (delayed.peek().due - System.nanoTime()) / 1_000_000;
+            timeoutMillis = Math.min(timeoutMillis, untilDue);
+        }
+        if (timeoutMillis <= 0) {
+            selector.selectNow();
+        } else {
+            selector.select(timeoutMillis);
+        }
+        selector.selectedKeys().clear();
+    }
+
+    /**
+     * Make a thread blocked in {@link #await(long)} return immediately.
+     */
+    void wakeup() {
+        selector.wakeup();
+    }
+
+    /**
+     * 
+     * @return The port this link is bound to.
+     */
+    int getLocalPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    long getBytesSent() {
+        return bytesSent;
+    }
+
+    long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    @Override
+    public void close() throws IOException {
+        selector.close();
+        channel.close();
+    }
+}
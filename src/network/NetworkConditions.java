@@ -0,0 +1,70 @@
+package network;
+
+import java.util.Random;
+
+/**
+ * Simulated network conditions. Used to test the multiplayer code over localhost as if the
+ * players were connected over a real network.
+ * 
+ * @author Juri Dispan
+ *
+ */
+public class NetworkConditions {
+
+    /**
+     * A perfect network: no additional latency and no lost packets.
+     */
+    public static final NetworkConditions NONE = new NetworkConditions(0, 0, 0, 0);
+
+    private final long latencyNanos, jitterNanos;
+    private final double lossRate;
+    private final Random random;
+
+    /**
+     * Constructs NetworkConditions.
+     * 
+     * @param latencyMillis Delay added to every packet in milliseconds (one way).
+     * @param jitterMillis Maximum random delay added on top of the latency in milliseconds.
+     * @param lossRate Probability that a packet is dropped, between 0 and 1.
+     * @param seed Seed for the random number generator, so tests can be reproduced.
+     */
+    public NetworkConditions(long latencyMillis, long jitterMillis, double lossRate, long seed) {
+        this.latencyNanos = latencyMillis * 1_000_000L;
+        this.jitterNanos = jitterMillis * 1_000_000L;
+        this.lossRate = lossRate;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * 
+     * @return true if and only if packets have to be delayed or dropped.
+     */
+    public boolean isPerfect() {
+        return latencyNanos == 0 && jitterNanos == 0 && lossRate == 0;
+    }
+
+    /**
+     * 
+     * @return true if the next packet is lost.
+     */
+    boolean dropNext() {
+        return lossRate > 0 && random.nextDouble() < lossRate;
+    }
+
+    /**
+     * 
+     * @return The delay of the next packet in nanoseconds.
+     */
+    long nextDelay() {
+        if (jitterNanos == 0) {
+            return latencyNanos;
+        }
+        return latencyNanos + (long) (random.nextDouble() * jitterNanos);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d ms latency, %d ms jitter, %.0f %% loss", latencyNanos / 1_000_000,
+                        jitterNanos / 1_000_000, lossRate * 100);
+    }
+}
@@ -0,0 +1,37 @@
+package network;
+
+import model.Driver;
+
+/**
+ * Packet types of the multiplayer protocol. Every packet starts with one of these bytes.
+ * 
+ * <pre>
+ * JOIN      client to server
+ * WELCOME   server to client: car id, obstacle count, per obstacle x, y, radius, rotation
+ * INPUT     client to server: newest snapshot received, input count, per input seq, dt, bits
+ * SNAPSHOT  server to client: newest input processed, then a snapshot as written by SnapshotCodec
+ * LEAVE     client to server
+ * </pre>
+ * 
+ * @author Juri Dispan
+ *
+ */
+final class Protocol {
+
+    static final byte JOIN = 1, WELCOME = 2, INPUT = 3, SNAPSHOT = 4, LEAVE = 5;
+
+    /**
+     * Bits of an input, the same as in {@link Driver} plus a reset.
+     */
+    static final int ACCELERATE = Driver.ACCELERATE, BREAK = Driver.BRAKE,
+                    TURN_LEFT = Driver.TURN_LEFT, TURN_RIGHT = Driver.TURN_RIGHT, RESET = 16;
+
+    static final int MAX_PACKET = 1_400;
+
+    private Protocol() {}
+
+    static int inputBits(boolean acc, boolean brk, boolean left, boolean right) {
+        return (acc ? ACCELERATE : 0) | (brk ? BREAK : 0) | (left ? TURN_LEFT : 0)
+                        | (right ? TURN_RIGHT : 0);
+    }
+}
@@ -0,0 +1,323 @@
+package network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javafx.scene.canvas.GraphicsContext;
+import model.Car;
+import model.Drawable;
+import model.Obstacle;
+
+/**
+ * Connects a car to a {@link RaceServer}. The inputs of the player are applied to the local car
+ * right away (client-side prediction) and sent to the server. When the server's pose of the car
+ * arrives, the car is set to it and all inputs the server has not processed yet are applied again
+ * (server reconciliation).
+ *
+ * @author Juri Dispan
+ *
+ */
+public class RaceClient implements Drawable, AutoCloseable {
+
+    /**
+     * How many inputs are remembered for reconciliation. At 60 fps this is about two seconds.
+     */
+    private static final int INPUT_HISTORY = 128;
+
+    /**
+     * Maximum number of unacknowledged inputs repeated in every input packet.
+     */
+    private static final int MAX_INPUTS_PER_PACKET = 32;
+
+    private static final long JOIN_RETRY_MILLIS = 100;
+    private static final long KEEP_ALIVE_NANOS = 1_000_000_000L;
+
+    private final DatagramLink link;
+    private final SocketAddress server;
+    private final Car car;
+    private final long connected = System.nanoTime();
+    private int id = -1;
+    private Collection<Obstacle> obstacles = Collections.emptyList();
+
+    private final int[] inputSeq = new int[INPUT_HISTORY];
+    private final float[] inputDelta = new float[INPUT_HISTORY];
+    private final byte[] inputBits = new byte[INPUT_HISTORY];
+    private int nextInput;
+    private int lastProcessedInput = -1;
+    private boolean unsentInput;
+    private long lastSent;
+
+    private final Snapshot[] received = new Snapshot[RaceServer.HISTORY];
+    private final Snapshot decoded = new Snapshot();
+    private int latestSnapshot = -1;
+    private final Map<Integer, Car> remoteCars = new LinkedHashMap<>();
+
+    private final ByteBuffer in = ByteBuffer.allocate(Protocol.MAX_PACKET);
+    private final ByteBuffer out = ByteBuffer.allocate(Protocol.MAX_PACKET);
+
+    /**
+     * Constructs a RaceClient. Call {@link #connect(long)} before using it.
+     *
+     * @param server Address of the race server.
+     * @param car The car of the local player.
+     * @param conditions Simulated network conditions for packets sent by the client.
+     * @throws IOException If no socket can be opened.
+     */
+    public RaceClient(InetSocketAddress server, Car car, NetworkConditions conditions)
+                    throws IOException {
+        this.server = server;
+        this.car = car;
+        link = new DatagramLink(new InetSocketAddress(0), conditions);
+        for (int i = 0; i < received.length; i++) {
+            received[i] = new Snapshot();
+        }
+    }
+
+    /**
+     * Join the race. Blocks until the server answered or the timeout has passed.
+     *
+     * @param timeoutMillis How long to wait for the server.
+     * @return true if and only if the client has joined the race.
+     * @throws IOException If the socket fails.
+     */
+    public boolean connect(long timeoutMillis) throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long nextJoin = 0;
+        while (id < 0 && System.currentTimeMillis() < deadline) {
+            if (System.currentTimeMillis() >= nextJoin) {
+                out.clear();
+                out.put(Protocol.JOIN).flip();
+                link.send(out, server);
+                nextJoin = System.currentTimeMillis() + JOIN_RETRY_MILLIS;
+            }
+            link.await(10);
+            pump();
+        }
+        return id >= 0;
+    }
+
+    /**
+     * Drive the local car for one frame and tell the server about it.
+     *
+     * @param timeDelta the time passed since last frame
+     * @param acc Accelerate?
+     * @param brk Break?
+     * @param left Turn left?
+     * @param right Turn right?
+     * @throws IOException If the socket fails.
+     */
+    public void update(double timeDelta, boolean acc, boolean brk, boolean left, boolean right)
+                    throws IOException {
+        int i = addInput(timeDelta, Protocol.inputBits(acc, brk, left, right));
+        RaceServer.step(car, inputDelta[i], inputBits[i], obstacles);
+        pump();
+    }
+
+    /**
+     * Move the car back to the start. The server does the same as soon as it gets to this point
+     * of the input sequence.
+     *
+     * @throws IOException If the socket fails.
+     */
+    public void requestReset() throws IOException {
+        int i = addInput(0, Protocol.RESET);
+        RaceServer.step(car, inputDelta[i], inputBits[i], obstacles);
+        pump();
+    }
+
+    private int addInput(double timeDelta, int bits) {
+        int i = nextInput % INPUT_HISTORY;
+        inputSeq[i] = nextInput++;
+        inputDelta[i] = (float) timeDelta;
+        inputBits[i] = (byte) bits;
+        unsentInput = true;
+        return i;
+    }
+
+    /**
+     * Handle all packets that arrived and send the inputs the server has not acknowledged yet.
+     * Does not block. Should be called once per frame, also while the car is not driven.
+     *
+     * @throws IOException If the socket fails.
+     */
+    public void pump() throws IOException {
+        boolean gotSnapshot = false;
+        while (link.receive(in) != null) {
+            try {
+                gotSnapshot |= handle();
+            } catch (BufferUnderflowException e) {
+                // malformed packet, ignore it
+            }
+        }
+        if (id >= 0 && (unsentInput || gotSnapshot
+                        || System.nanoTime() - lastSent > KEEP_ALIVE_NANOS)) {
+            sendInputs();
+        }
+        link.flush();
+    }
+
+    private boolean handle() {
+        switch (in.get()) {
+            case Protocol.WELCOME:
+                if (id < 0) {
+                    id = in.getShort();
+                    int count = in.getShort();
+                    List<Obstacle> obs = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        obs.add(new Obstacle(in.getFloat(), in.getFloat(), in.getFloat(),
+                                        in.getFloat()));
+                    }
+                    obstacles = obs;
+                }
+                return false;
+            case Protocol.SNAPSHOT:
+                return id >= 0 && handleSnapshot();
+            default:
+                return false;
+        }
+    }
+
+    private boolean handleSnapshot() {
+        int processedInput = in.getInt();
+        int baseSeq = SnapshotCodec.peekBase(in);
+        Snapshot base = null;
+        if (baseSeq >= 0) {
+            base = received[baseSeq % received.length];
+            if (base.seq != baseSeq) {
+                return false;
+            }
+        }
+        if (!SnapshotCodec.decode(in, base, decoded) || decoded.seq <= latestSnapshot) {
+            return false;
+        }
+        latestSnapshot = decoded.seq;
+        received[decoded.seq % received.length].copyFrom(decoded);
+        if (processedInput > lastProcessedInput) {
+            lastProcessedInput = processedInput;
+        }
+
+        for (int i = 0; i < decoded.count; i++) {
+            int carId = decoded.ids[i];
+            if (carId == id) {
+                reconcile(i);
+            } else {
+                Car remote = remoteCars.get(carId);
+                if (remote == null) {
+                    remote = new Car();
+                    remoteCars.put(carId, remote);
+                }
+                decoded.apply(i, remote);
+            }
+        }
+        Iterator<Integer> it = remoteCars.keySet().iterator();
+        while (it.hasNext()) {
+            if (decoded.indexOf(it.next()) < 0) {
+                it.remove();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Set the car to the pose computed by the server and apply all inputs again that the server
+     * has not processed yet. The inputs have already been simulated once, so the clock of the car,
+     * which times its lap, is set back to where it was: applying them again only corrects the
+     * pose.
+     */
+    private void reconcile(int index) {
+        boolean frozen = car.isFrozen();
+        double time = car.getTime(), stepStart = car.getStepStart();
+        decoded.apply(index, car);
+        car.unfreeze();
+        int first = Math.max(lastProcessedInput + 1, nextInput - INPUT_HISTORY);
+        for (int seq = first; seq < nextInput; seq++) {
+            int i = seq % INPUT_HISTORY;
+            RaceServer.step(car, inputDelta[i], inputBits[i], obstacles);
+        }
+        car.setTime(time, stepStart);
+        if (frozen) {
+            car.freeze();
+        }
+    }
+
+    private void sendInputs() throws IOException {
+        int first = Math.max(lastProcessedInput + 1, nextInput - MAX_INPUTS_PER_PACKET);
+        out.clear();
+        out.put(Protocol.INPUT);
+        out.putInt(latestSnapshot);
+        out.put((byte) (nextInput - first));
+        for (int seq = first; seq < nextInput; seq++) {
+            int i = seq % INPUT_HISTORY;
+            out.putInt(inputSeq[i]).putFloat(inputDelta[i]).put(inputBits[i]);
+        }
+        out.flip();
+        link.send(out, server);
+        unsentInput = false;
+        lastSent = System.nanoTime();
+    }
+
+    /**
+     * Draw the cars of the other players.
+     */
+    @Override
+    public void draw(GraphicsContext gc) {
+        for (Car remote : remoteCars.values()) {
+            remote.draw(gc);
+        }
+    }
+
+    // Getters and Setters after here
+
+    /**
+     *
+     * @return The id the server assigned to this client, or -1 if it has not joined yet.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     *
+     * @return The obstacles of the race.
+     */
+    public Collection<Obstacle> getObstacles() {
+        return obstacles;
+    }
+
+    /**
+     *
+     * @return The cars of the other players, by their ids.
+     */
+    public Map<Integer, Car> getRemoteCars() {
+        return Collections.unmodifiableMap(remoteCars);
+    }
+
+    /**
+     *
+     * @return The average number of bytes per second received since the client was created.
+     */
+    public double getBandwidth() {
+        double seconds = (System.nanoTime() - connected) / 1_000_000_000.0;
+        return seconds > 0 ? link.getBytesReceived() / seconds : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (id >= 0) {
+            out.clear();
+            out.put(Protocol.LEAVE).flip();
+            link.send(out, server);
+            link.flush();
+        }
+        link.close();
+    }
+}
@@ -0,0 +1,389 @@
+package network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import model.Car;
+import model.Obstacle;
+import view.GameView;
+
+/**
+ * The authoritative server of a multiplayer race. Every client drives its own car; the server
+ * applies the inputs of the clients to its copies of the cars and sends the poses of all cars to
+ * all clients 60 times a second. The public methods may be called from any thread while the
+ * server is running.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class RaceServer implements Runnable, AutoCloseable {
+
+    public static final int DEFAULT_PORT = 4711;
+
+    private static final long TICK_NANOS = 1_000_000_000L / 60;
+    private static final long CLIENT_TIMEOUT_NANOS = 10_000_000_000L;
+    private static final long REPORT_NANOS = 10_000_000_000L;
+
+    /**
+     * Inputs with a longer time delta are shortened, so clients can not drive faster than
+     * everyone else by sending large time deltas.
+     */
+    private static final double MAX_INPUT_DELTA = 0.1;
+
+    /**
+     * How many seconds of simulated time a client may be ahead of the wall clock. Inputs arrive
+     * in bursts after lost or late packets, so a client may catch up this much; inputs beyond it
+     * are dropped, so no client can drive faster than real time.
+     */
+    private static final double MAX_TIME_BUDGET = 0.5;
+
+    /**
+     * How many sent snapshots are remembered per client as possible bases for delta compression.
+     */
+    static final int HISTORY = 32;
+
+    /**
+     * A connected player.
+     */
+    private static class Client {
+        final int id;
+        final SocketAddress address;
+        final Car car = new Car();
+        final Snapshot[] history = new Snapshot[HISTORY];
+        final long joined = System.nanoTime();
+        int lastInput = -1;
+        int ackedSnapshot = -1;
+        long lastHeard;
+        /**
+         * Seconds of simulated time the client may still use, and when it was last refilled.
+         */
+        double timeBudget = MAX_TIME_BUDGET;
+        long budgetRefilled = joined;
+        long bytesSent;
+
+        Client(int id, SocketAddress address) {
+            this.id = id;
+            this.address = address;
+            for (int i = 0; i < HISTORY; i++) {
+                history[i] = new Snapshot();
+            }
+            car.unfreeze();
+        }
+
+        Snapshot base() {
+            if (ackedSnapshot < 0) {
+                return null;
+            }
+            Snapshot base = history[ackedSnapshot % HISTORY];
+            return base.seq == ackedSnapshot ? base : null;
+        }
+    }
+
+    private final DatagramLink link;
+    private final List<Obstacle> obstacles;
+    private final Map<SocketAddress, Client> clients = new LinkedHashMap<>();
+    private final Snapshot current = new Snapshot();
+    private final ByteBuffer in = ByteBuffer.allocate(Protocol.MAX_PACKET);
+    private final ByteBuffer out = ByteBuffer.allocate(Protocol.MAX_PACKET);
+    private int seq;
+    private int nextId = 1;
+    private long nextTick, nextReport;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * Open a race server. A new obstacle layout is generated for the race.
+     *
+     * @param port The UDP port to listen on, 0 for any free port.
+     * @param conditions Simulated network conditions for packets sent by the server.
+     * @throws IOException If the port can not be opened.
+     */
+    public RaceServer(int port, NetworkConditions conditions) throws IOException {
+        link = new DatagramLink(new InetSocketAddress(port), conditions);
+        // the clients receive the obstacles as floats, so the server uses the same values
+        obstacles = new ArrayList<>();
+        for (Obstacle obs : Obstacle.generateObs(GameView.OBSTACLES_AMOUNT,
+                        new Car().getWidth())) {
+            obstacles.add(new Obstacle((float) obs.getX(), (float) obs.getY(),
+                            (float) obs.getRadius(), (float) obs.getRotation()));
+        }
+        nextTick = System.nanoTime();
+        nextReport = nextTick + REPORT_NANOS;
+    }
+
+    /**
+     * Run the server on a new daemon thread.
+     */
+    public void start() {
+        running = true;
+        thread = new Thread(this, "race-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        running = true;
+        try {
+            while (running) {
+                pump();
+                link.await(Math.max(0, (nextTick - System.nanoTime()) / 1_000_000));
+            }
+        } catch (IOException e) {
+            if (running) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Handle all packets that arrived and send snapshots if a tick is due. Does not block.
+     *
+     * @throws IOException If the socket fails.
+     */
+    public synchronized void pump() throws IOException {
+        SocketAddress from;
+        while ((from = link.receive(in)) != null) {
+            try {
+                handle(from);
+            } catch (BufferUnderflowException e) {
+                // malformed packet, ignore it
+            }
+        }
+        link.flush();
+        long now = System.nanoTime();
+        if (now >= nextTick) {
+            dropSilentClients(now);
+            broadcast();
+            nextTick = Math.max(nextTick + TICK_NANOS, now - TICK_NANOS);
+        }
+        if (now >= nextReport) {
+            if (!clients.isEmpty()) {
+                System.out.println(bandwidthReport());
+            }
+            nextReport = now + REPORT_NANOS;
+        }
+    }
+
+    private void handle(SocketAddress from) throws IOException {
+        byte type = in.get();
+        Client client = clients.get(from);
+        if (client != null) {
+            client.lastHeard = System.nanoTime();
+        }
+        switch (type) {
+            case Protocol.JOIN:
+                if (client == null) {
+                    if (clients.size() == Snapshot.MAX_CARS) {
+                        return;
+                    }
+                    client = new Client(nextId++, from);
+                    client.lastHeard = System.nanoTime();
+                    clients.put(from, client);
+                }
+                welcome(client);
+                break;
+            case Protocol.INPUT:
+                if (client != null) {
+                    applyInputs(client);
+                }
+                break;
+            case Protocol.LEAVE:
+                clients.remove(from);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void welcome(Client client) throws IOException {
+        out.clear();
+        out.put(Protocol.WELCOME);
+        out.putShort((short) client.id);
+        out.putShort((short) obstacles.size());
+        for (Obstacle obs : obstacles) {
+            out.putFloat((float) obs.getX()).putFloat((float) obs.getY())
+                            .putFloat((float) obs.getRadius()).putFloat((float) obs.getRotation());
+        }
+        out.flip();
+        send(client);
+    }
+
+    /**
+     * Apply all inputs of an input packet the server has not seen yet. A packet repeats the
+     * inputs that have not been acknowledged, so lost packets do not lose inputs. Inputs beyond
+     * the time budget of the client are dropped. The server checks the gates itself, so the laps
+     * of its cars do not depend on what the clients claim.
+     */
+    private void applyInputs(Client client) {
+        int ack = in.getInt();
+        if (ack > client.ackedSnapshot && ack <= seq) {
+            client.ackedSnapshot = ack;
+        }
+        long now = System.nanoTime();
+        client.timeBudget = Math.min(MAX_TIME_BUDGET,
+                        client.timeBudget + (now - client.budgetRefilled) / 1_000_000_000.0);
+        client.budgetRefilled = now;
+        int count = in.get() & 0xFF;
+        for (int i = 0; i < count; i++) {
+            int inputSeq = in.getInt();
+            float dt = in.getFloat();
+            int bits = in.get();
+            if (inputSeq <= client.lastInput) {
+                continue;
+            }
+            client.lastInput = inputSeq;
+            if (Math.min(dt, MAX_INPUT_DELTA) > client.timeBudget) {
+                // faster than real time, the client's prediction is corrected by the snapshots
+                continue;
+            }
+            client.timeBudget -= step(client.car, dt, bits, obstacles);
+            client.car.checkLines(null);
+        }
+    }
+
+    /**
+     * Apply a single input to a car. Used by the server and for the prediction of the client, so
+     * both simulate exactly the same way. The car is only moved if the time delta is positive
+     * and finite.
+     *
+     * @return The time the car has been moved for, in seconds.
+     */
+    static float step(Car car, float dt, int bits, Collection<Obstacle> obstacles) {
+        if ((bits & Protocol.RESET) != 0) {
+            // back to the start pose of the track and a new lap, like a reset in a local race
+            boolean frozen = car.isFrozen();
+            car.reset();
+            if (!frozen) {
+                car.unfreeze();
+            }
+        }
+        if (!(dt > 0) || !Float.isFinite(dt) || car.isDestroyed()) {
+            return 0;
+        }
+        dt = (float) Math.min(dt, MAX_INPUT_DELTA);
+        car.stepForward(dt, (bits & Protocol.ACCELERATE) != 0, (bits & Protocol.BREAK) != 0,
+                        (bits & Protocol.TURN_LEFT) != 0, (bits & Protocol.TURN_RIGHT) != 0,
+                        obstacles);
+        return dt;
+    }
+
+    private void broadcast() throws IOException {
+        current.clear(seq++);
+        for (Client client : clients.values()) {
+            current.add(client.id, client.car);
+        }
+        for (Client client : clients.values()) {
+            out.clear();
+            out.put(Protocol.SNAPSHOT);
+            out.putInt(client.lastInput);
+            SnapshotCodec.encode(current, client.base(), out);
+            out.flip();
+            send(client);
+            client.history[current.seq % HISTORY].copyFrom(current);
+        }
+    }
+
+    private void dropSilentClients(long now) {
+        Iterator<Client> it = clients.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().lastHeard > CLIENT_TIMEOUT_NANOS) {
+                it.remove();
+            }
+        }
+    }
+
+    private void send(Client client) throws IOException {
+        client.bytesSent += out.remaining();
+        link.send(out, client.address);
+    }
+
+    /**
+     *
+     * @return The port the server listens on.
+     */
+    public int getPort() {
+        return link.getLocalPort();
+    }
+
+    /**
+     *
+     * @return The obstacles of this race.
+     */
+    public Collection<Obstacle> getObstacles() {
+        return obstacles;
+    }
+
+    /**
+     *
+     * @return The ids of the connected clients.
+     */
+    public synchronized List<Integer> getClientIds() {
+        List<Integer> ids = new ArrayList<>();
+        clients.values().forEach(c -> ids.add(c.id));
+        return ids;
+    }
+
+    /**
+     *
+     * @param id Id of a client.
+     * @return The server's copy of the car of the client, or null if there is no such client.
+     */
+    public synchronized Car getCar(int id) {
+        return clients.values().stream().filter(c -> c.id == id).map(c -> c.car).findAny()
+                        .orElse(null);
+    }
+
+    /**
+     *
+     * @param id Id of a client.
+     * @return The average number of bytes per second sent to the client since it joined.
+     */
+    public synchronized double getBandwidth(int id) {
+        for (Client client : clients.values()) {
+            if (client.id == id) {
+                double seconds = (System.nanoTime() - client.joined) / 1_000_000_000.0;
+                return seconds > 0 ? client.bytesSent / seconds : 0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     *
+     * @return The bandwidth used by every client in a human readable form.
+     */
+    public synchronized String bandwidthReport() {
+        StringBuilder sb = new StringBuilder("Race server bandwidth:");
+        for (Client client : clients.values()) {
+            sb.append(String.format(" client %d: %.2f kB/s,", client.id,
+                            getBandwidth(client.id) / 1_000));
+        }
+        if (!clients.isEmpty()) {
+            sb.setLength(sb.length() - 1);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (thread != null) {
+            link.wakeup();
+            try {
+                thread.join(1_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        link.close();
+    }
+}
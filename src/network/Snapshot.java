@@ -0,0 +1,87 @@
+package network;
+
+import model.Car;
+
+/**
+ * The quantised poses of all cars at one server tick. Positions are stored in centimetres, the
+ * velocity in centimetres per second and the rotation in 1/65536 of a full turn, so the values
+ * are small integers that compress well.
+ * 
+ * @author Juri Dispan
+ *
+ */
+class Snapshot {
+
+    static final int MAX_CARS = 64;
+
+    static final int X = 0, Y = 1, VEL = 2, ROT = 3, FLAGS = 4, FIELDS = 5;
+    static final int FLAG_DESTROYED = 1;
+
+    private static final double TURN = 2 * Math.PI;
+
+    int seq = -1;
+    int count;
+    final int[] ids = new int[MAX_CARS];
+    final int[] values = new int[MAX_CARS * FIELDS];
+
+    /**
+     * Remove all cars.
+     * 
+     * @param seq The sequence number of the new snapshot.
+     */
+    void clear(int seq) {
+        this.seq = seq;
+        count = 0;
+    }
+
+    /**
+     * Add the quantised pose of a car.
+     * 
+     * @param id The id of the car.
+     * @param car The car.
+     */
+    void add(int id, Car car) {
+        int i = count++;
+        ids[i] = id;
+        int o = i * FIELDS;
+        values[o + X] = (int) Math.round(car.getPosX() * 100);
+        values[o + Y] = (int) Math.round(car.getPosY() * 100);
+        values[o + VEL] = (int) Math.round(car.getVel() * 100);
+        double turns = car.getRotation() / TURN;
+        values[o + ROT] = (int) Math.round((turns - Math.floor(turns)) * 65_536) & 0xFFFF;
+        values[o + FLAGS] = car.isDestroyed() ? FLAG_DESTROYED : 0;
+    }
+
+    /**
+     * Set a car to the pose stored at the given index.
+     * 
+     * @param i Index of the car in this snapshot.
+     * @param car The car to update.
+     */
+    void apply(int i, Car car) {
+        int o = i * FIELDS;
+        car.setState(values[o + X] / 100.0, values[o + Y] / 100.0, values[o + VEL] / 100.0,
+                        values[o + ROT] * TURN / 65_536, (values[o + FLAGS] & FLAG_DESTROYED) != 0);
+    }
+
+    /**
+     * 
+     * @param id Id of a car.
+     * @return The index of the car in this snapshot or -1 if it is not part of it.
+     */
+    int indexOf(int id) {
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    void copyFrom(Snapshot other) {
+        seq = other.seq;
+        count = other.count;
+        System.arraycopy(other.ids, 0, ids, 0, count);
+        System.arraycopy(other.values, 0, values, 0, count * FIELDS);
+    }
+}
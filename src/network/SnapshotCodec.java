@@ -0,0 +1,126 @@
+package network;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes snapshots as differences to a snapshot the receiver is known to have. Every car is
+ * written as its id, a bit mask of the fields that changed and the changes as zigzag encoded
+ * variable length integers. A car that did not move therefore only needs three bytes.
+ * 
+ * @author Juri Dispan
+ *
+ */
+final class SnapshotCodec {
+
+    private SnapshotCodec() {}
+
+    /**
+     * Encode a snapshot.
+     * 
+     * @param current The snapshot to encode.
+     * @param base A snapshot the receiver has, or null to encode the full snapshot.
+     * @param out The buffer to write to.
+     */
+    static void encode(Snapshot current, Snapshot base, ByteBuffer out) {
+        out.putInt(current.seq);
+        out.putInt(base == null ? -1 : base.seq);
+        out.put((byte) current.count);
+        for (int i = 0; i < current.count; i++) {
+            int id = current.ids[i];
+            int b = base == null ? -1 : base.indexOf(id);
+            int mask = 0;
+            for (int f = 0; f < Snapshot.FIELDS; f++) {
+                if (current.values[i * Snapshot.FIELDS + f] != baseValue(base, b, f)) {
+                    mask |= 1 << f;
+                }
+            }
+            out.putShort((short) id);
+            out.put((byte) mask);
+            for (int f = 0; f < Snapshot.FIELDS; f++) {
+                if ((mask & (1 << f)) != 0) {
+                    putVarInt(out, current.values[i * Snapshot.FIELDS + f] - baseValue(base, b, f));
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the sequence number of the base snapshot of an encoded snapshot without consuming it.
+     * 
+     * @param in The encoded snapshot.
+     * @return The sequence number of the base, or -1 if the snapshot is not delta compressed.
+     */
+    static int peekBase(ByteBuffer in) {
+        return in.getInt(in.position() + 4);
+    }
+
+    /**
+     * Decode a snapshot.
+     * 
+     * @param in The encoded snapshot.
+     * @param base The snapshot with the sequence number returned by {@link #peekBase}, or null.
+     * @param into Where the decoded snapshot is written to.
+     * @return false if the packet is malformed.
+     */
+    static boolean decode(ByteBuffer in, Snapshot base, Snapshot into) {
+        try {
+            int seq = in.getInt();
+            int baseSeq = in.getInt();
+            if ((baseSeq < 0) != (base == null) || (base != null && base.seq != baseSeq)) {
+                return false;
+            }
+            int count = in.get() & 0xFF;
+            if (count > Snapshot.MAX_CARS) {
+                return false;
+            }
+            into.clear(seq);
+            for (int i = 0; i < count; i++) {
+                int id = in.getShort();
+                int mask = in.get();
+                int b = base == null ? -1 : base.indexOf(id);
+                into.ids[i] = id;
+                for (int f = 0; f < Snapshot.FIELDS; f++) {
+                    int v = baseValue(base, b, f);
+                    if ((mask & (1 << f)) != 0) {
+                        v += getVarInt(in);
+                    }
+                    into.values[i * Snapshot.FIELDS + f] = v;
+                }
+            }
+            into.count = count;
+            return true;
+        } catch (BufferUnderflowException e) {
+            return false;
+        }
+    }
+
+    private static int baseValue(Snapshot base, int index, int field) {
+        return index < 0 ? 0 : base.values[index * Snapshot.FIELDS + field];
+    }
+
+    /**
+     * Write a zigzag encoded variable length integer, so small positive and negative values take
+     * a single byte.
+     */
+    static void putVarInt(ByteBuffer out, int value) {
+        int v = (value << 1) ^ (value >> 31);
+        while ((v & ~0x7F) != 0) {
+            out.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+    }
+
+    static int getVarInt(ByteBuffer in) {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.get();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new BufferUnderflowException();
+    }
+}
@@ -0,0 +1,185 @@
+package tools;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import javax.imageio.ImageIO;
+import model.AssetPack;
+import track.TrackDescriptor;
+
+/**
+ * Build step that packs the assets of the game into one {@link AssetPack}. Images are stored as
+ * decoded pixels, except for track masks, which are read with their PNG bytes to check whether
+ * a track has changed. Sources like the XCF files and the engine noise, which JavaFX can only
+ * play from a URL, are left out.
+ * <p>
+ * Run it with the resource directory and the pack to write, for example "res assets.pack".
+ *
+ * @author Juri Dispan
+ *
+ */
+public class AssetPacker {
+
+    private static final int ALIGN = 8;
+
+    /**
+     * An asset to pack.
+     */
+    private static final class Asset {
+        final String name;
+        final byte[] bytes;
+        final byte format;
+        final int width, height;
+
+        Asset(String name, byte[] bytes, byte format, int width, int height) {
+            this.name = name;
+            this.bytes = bytes;
+            this.format = format;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private AssetPacker() {}
+
+    /**
+     * Pack a resource directory.
+     *
+     * @param resources The resource directory.
+     * @param pack The pack to write.
+     * @return The number of packed assets.
+     * @throws IOException If a resource cannot be read or the pack cannot be written.
+     */
+    public static int pack(Path resources, Path pack) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(resources)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        // masks are read as PNG, see track.Track
+        Set<String> masks = new HashSet<>();
+        for (Path file : files) {
+            if (file.toString().endsWith(".track")) {
+                try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    masks.add(TrackDescriptor.parse(file.getFileName().toString(), reader)
+                                    .getMask());
+                }
+            }
+        }
+        List<Asset> assets = new ArrayList<>();
+        for (Path file : files) {
+            String name = resources.relativize(file).toString().replace('\\', '/');
+            if (name.endsWith(".png") && !masks.contains(name)) {
+                assets.add(decode(name, file));
+            } else if (name.endsWith(".png") || name.endsWith(".track")
+                            || name.endsWith(".list")) {
+                assets.add(new Asset(name, Files.readAllBytes(file), AssetPack.RAW, 0, 0));
+            }
+        }
+        write(assets, pack);
+        return assets.size();
+    }
+
+    /**
+     * Decode an image into premultiplied BGRA pixels.
+     */
+    private static Asset decode(String name, Path file) throws IOException {
+        BufferedImage image = ImageIO.read(file.toFile());
+        if (image == null) {
+            throw new IOException("Cannot decode " + file);
+        }
+        int width = image.getWidth(), height = image.getHeight();
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+        byte[] bgra = new byte[argb.length * 4];
+        for (int i = 0; i < argb.length; i++) {
+            int a = argb[i] >>> 24;
+            bgra[4 * i] = (byte) ((argb[i] & 0xff) * a / 255);
+            bgra[4 * i + 1] = (byte) ((argb[i] >> 8 & 0xff) * a / 255);
+            bgra[4 * i + 2] = (byte) ((argb[i] >> 16 & 0xff) * a / 255);
+            bgra[4 * i + 3] = (byte) a;
+        }
+        return new Asset(name, bgra, AssetPack.BGRA_PRE, width, height);
+    }
+
+    private static void write(List<Asset> assets, Path pack) throws IOException {
+        int indexBytes = 12;
+        for (Asset asset : assets) {
+            indexBytes += 2 + asset.name.getBytes(StandardCharsets.UTF_8).length + 8 + 4 + 4 + 1
+                            + (asset.format == AssetPack.BGRA_PRE ? 8 : 0);
+        }
+        long[] offsets = new long[assets.size()];
+        long end = 0;
+        for (int i = 0; i < assets.size(); i++) {
+            offsets[i] = end;
+            end = (end + assets.get(i).bytes.length + ALIGN - 1) / ALIGN * ALIGN;
+        }
+        ByteBuffer index = ByteBuffer.allocate(indexBytes).order(ByteOrder.LITTLE_ENDIAN);
+        index.putInt(AssetPack.MAGIC).putInt(AssetPack.VERSION).putInt(assets.size());
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < assets.size(); i++) {
+            Asset asset = assets.get(i);
+            byte[] name = asset.name.getBytes(StandardCharsets.UTF_8);
+            crc.reset();
+            crc.update(asset.bytes);
+            index.putShort((short) name.length).put(name).putLong(offsets[i])
+                            .putInt(asset.bytes.length).putInt((int) crc.getValue())
+                            .put(asset.format);
+            if (asset.format == AssetPack.BGRA_PRE) {
+                index.putInt(asset.width).putInt(asset.height);
+            }
+        }
+        index.flip();
+
+        Path dir = pack.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, "assets", ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            while (index.hasRemaining()) {
+                out.write(index);
+            }
+            for (int i = 0; i < assets.size(); i++) {
+                ByteBuffer bytes = ByteBuffer.wrap(assets.get(i).bytes);
+                long position = indexBytes + offsets[i];
+                while (bytes.hasRemaining()) {
+                    position += out.write(bytes, position);
+                }
+            }
+        }
+        Files.move(tmp, pack, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Pack the resources and check the pack.
+     *
+     * @param args The resource directory and the pack to write, "res" and "assets.pack" if
+     *        missing.
+     * @throws IOException If packing fails.
+     */
+    public static void main(String[] args) throws IOException {
+        Path resources = Paths.get(args.length > 0 ? args[0] : "res");
+        Path pack = Paths.get(args.length > 1 ? args[1] : "assets.pack");
+        long start = System.nanoTime();
+        int count = pack(resources, pack);
+        Set<String> damaged = AssetPack.open(pack).verify();
+        if (!damaged.isEmpty()) {
+            throw new IOException("Damaged after packing: " + damaged);
+        }
+        System.out.printf("Packed %d assets into %s (%d kB) in %d ms.%n", count, pack,
+                        Files.size(pack) / 1024, (System.nanoTime() - start) / 1_000_000);
+    }
+}
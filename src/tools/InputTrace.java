@@ -0,0 +1,157 @@
+package tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import model.Car;
+import model.Driver;
+import model.Obstacle;
+import model.RoundTimer;
+
+/**
+ * A sequence of inputs for a lap, together with the obstacle layout it was found for. The inputs
+ * are stored per segment of a fixed number of ticks, as bits like in {@link Driver#inputBits()}.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class InputTrace {
+
+    private static final int MAGIC = 0x52474954 /* "RGIT" */;
+
+    private final double timeDelta;
+    private final int segmentTicks;
+    private final byte[] inputs;
+    private final List<Obstacle> obstacles;
+
+    /**
+     * Constructs an InputTrace.
+     *
+     * @param timeDelta The length of a tick in seconds.
+     * @param segmentTicks How many ticks an input is held.
+     * @param inputs The inputs, one per segment.
+     * @param obstacles The obstacle layout.
+     */
+    public InputTrace(double timeDelta, int segmentTicks, byte[] inputs,
+                    Collection<Obstacle> obstacles) {
+        this.timeDelta = timeDelta;
+        this.segmentTicks = segmentTicks;
+        this.inputs = inputs;
+        this.obstacles = new ArrayList<>(obstacles);
+    }
+
+    /**
+     * Drive a car with the inputs until it finished the lap, got destroyed or the inputs are used
+     * up.
+     *
+     * @param car The car, which is reset first.
+     * @param listener Called after every tick with the car and the tick, can be null.
+     * @return The number of ticks driven.
+     */
+    public int replay(Car car, TickListener listener) {
+        car.reset();
+        car.unfreeze();
+        RoundTimer timer = new RoundTimer();
+        int tick = 0;
+        for (int s = 0; s < inputs.length; s++) {
+            int bits = inputs[s];
+            for (int t = 0; t < segmentTicks; t++) {
+                car.stepForward(timeDelta, (bits & Driver.ACCELERATE) != 0,
+                                (bits & Driver.BRAKE) != 0, (bits & Driver.TURN_LEFT) != 0,
+                                (bits & Driver.TURN_RIGHT) != 0, obstacles);
+                car.checkLines(timer);
+                tick++;
+                if (listener != null) {
+                    listener.tick(car, tick);
+                }
+                if (car.isDestroyed() || car.hasPassedEndLine()) {
+                    return tick;
+                }
+            }
+        }
+        return tick;
+    }
+
+    /**
+     * Write the trace to a file.
+     *
+     * @param file The file.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeDouble(timeDelta);
+            out.writeInt(segmentTicks);
+            out.writeInt(obstacles.size());
+            for (Obstacle o : obstacles) {
+                out.writeDouble(o.getX());
+                out.writeDouble(o.getY());
+                out.writeDouble(o.getRadius());
+                out.writeDouble(o.getRotation());
+            }
+            out.writeInt(inputs.length);
+            out.write(inputs);
+        }
+    }
+
+    /**
+     * Read a trace written by {@link #write(Path)}.
+     *
+     * @param file The file.
+     * @return The trace.
+     * @throws IOException If the file cannot be read or is not a trace.
+     */
+    public static InputTrace read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not an input trace");
+            }
+            double timeDelta = in.readDouble();
+            int segmentTicks = in.readInt();
+            int count = in.readInt();
+            List<Obstacle> obstacles = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                obstacles.add(new Obstacle(in.readDouble(), in.readDouble(), in.readDouble(),
+                                in.readDouble()));
+            }
+            byte[] inputs = new byte[in.readInt()];
+            in.readFully(inputs);
+            return new InputTrace(timeDelta, segmentTicks, inputs, obstacles);
+        }
+    }
+
+    // Getters and Setters after here
+
+    public double getTimeDelta() {
+        return timeDelta;
+    }
+
+    public int getSegmentTicks() {
+        return segmentTicks;
+    }
+
+    public byte[] getInputs() {
+        return inputs;
+    }
+
+    public List<Obstacle> getObstacles() {
+        return obstacles;
+    }
+
+    /**
+     * Called for every tick of a replay.
+     */
+    public interface TickListener {
+        void tick(Car car, int tick);
+    }
+}
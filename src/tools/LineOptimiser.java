@@ -0,0 +1,465 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import model.AIDriver;
+import model.Car;
+import model.Driver;
+import model.LapRecorder;
+import model.Obstacle;
+import model.RoundTimer;
+import model.TrackFields;
+import track.TrackRegistry;
+
+/**
+ * Searches for the fastest inputs around the track. A lap is a sequence of segments of
+ * {@link #SEGMENT_TICKS} ticks with one input each, and the search improves the best lap found so
+ * far one window of segments at a time with the cross-entropy method: every iteration, a
+ * population of laps is driven that keep the inputs of the best lap before the window, sample the
+ * inputs in the window from a probability per segment and input, and keep the inputs of the best
+ * lap after the window as long as the car stays close to where it was in the best lap. When it
+ * does not, an {@link AIDriver} drives the rest of the lap. The probabilities then move towards
+ * the inputs of the fastest laps, and a faster lap replaces the best one. As the rest of every lap
+ * is driven by a driver that reacts to where the car is, most sampled laps finish and can be
+ * compared by their lap time.
+ * <p>
+ * The laps of an iteration are driven in parallel on a ForkJoinPool. They do not share any state,
+ * and every lap samples from its own seed, so the result does not depend on the number of
+ * threads. Laps are stopped early when the car is destroyed or has fallen more than
+ * {@link #BEHIND_MARGIN} metres behind the best lap.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class LineOptimiser {
+
+    /**
+     * The length of a tick in seconds.
+     */
+    public static final double TIME_DELTA = 1 / 60.0;
+
+    /**
+     * How many ticks an input is held.
+     */
+    public static final int SEGMENT_TICKS = 4;
+
+    private static final double MAX_LAP_SECONDS = 90;
+
+    /**
+     * How many segments the inputs are sampled for (one second).
+     */
+    private static final int WINDOW = 15;
+
+    /**
+     * How many iterations are spent on a window before the next one.
+     */
+    private static final int ITERATIONS_PER_WINDOW = 3;
+
+    /**
+     * After the window, the inputs of the best lap are kept while the car is closer than this
+     * many metres to where it was in the best lap.
+     */
+    private static final double FOLLOW_DISTANCE = 0.5;
+
+    /**
+     * Laps that are further behind the best lap than this many metres are stopped.
+     */
+    private static final double BEHIND_MARGIN = 15;
+
+    /**
+     * The score of a lap that did not finish, plus the distance it still had to go.
+     */
+    private static final double NOT_FINISHED = 10_000;
+
+    /**
+     * How far the probabilities move to the inputs of the fastest laps per iteration.
+     */
+    private static final double SMOOTHING = 0.7;
+
+    /**
+     * No input is ever certain, so the search keeps trying alternatives.
+     */
+    private static final double MIN_PROBABILITY = 0.05;
+
+    /**
+     * The probability of the inputs of the best lap when a window is started.
+     */
+    private static final double START_PROBABILITY = 0.8;
+
+    /**
+     * The speed of the driver that drives the rest of the laps.
+     */
+    private static final double DRIVER_SPEED = 15;
+
+    /**
+     * How many laps a task of the pool drives at most.
+     */
+    private static final int LAPS_PER_TASK = 2;
+
+    private static final int[] BITS = {Driver.ACCELERATE, Driver.BRAKE, Driver.TURN_LEFT,
+                    Driver.TURN_RIGHT};
+
+    private final Collection<Obstacle> obstacles;
+    private final TrackFields fields;
+    private final ForkJoinPool pool;
+    private final long seed;
+    private final int population, elite, segments;
+
+    private final double[] probability;
+    private final byte[][] laps;
+    private final float[][] distances, posX, posY;
+    private final double[] scores;
+    private final Integer[] ranking;
+    private final LongAdder ticks = new LongAdder();
+
+    private byte[] best;
+    private float[] bestDistances, bestX, bestY;
+    private double bestLapTime = Double.POSITIVE_INFINITY;
+    private int bestSegments;
+    private int window, iteration;
+
+    /**
+     * Constructs a LineOptimiser. {@link Car#initTrack()} has to be called before.
+     *
+     * @param obstacles The obstacles on the track.
+     * @param population How many laps are driven per iteration.
+     * @param eliteFraction Which fraction of the laps the probabilities move towards.
+     * @param threads How many laps are driven in parallel.
+     * @param seed Seed for sampling the laps. The same seed gives the same result.
+     */
+    public LineOptimiser(Collection<Obstacle> obstacles, int population, double eliteFraction,
+                    int threads, long seed) {
+        this.obstacles = obstacles;
+        this.population = population;
+        this.elite = Math.max(2, (int) Math.round(population * eliteFraction));
+        this.seed = seed;
+        fields = TrackFields.get();
+        pool = new ForkJoinPool(threads);
+        segments = (int) Math.ceil(MAX_LAP_SECONDS / TIME_DELTA / SEGMENT_TICKS);
+        probability = new double[segments * BITS.length];
+        laps = new byte[population][segments];
+        distances = new float[population][segments];
+        posX = new float[population][segments];
+        posY = new float[population][segments];
+        scores = new double[population];
+        ranking = new Integer[population];
+
+        // start with the lap of the driver alone
+        drive(0, new Car(), new RoundTimer(), 0);
+        if (scores[0] < NOT_FINISHED) {
+            setBest(0);
+        }
+    }
+
+    /**
+     * Run iterations of the search.
+     *
+     * @param iterations How many iterations.
+     * @param listener Told about the progress after every iteration, can be null.
+     * @return The best lap found so far, or null if no lap has been finished yet.
+     */
+    public InputTrace run(int iterations, ProgressListener listener) {
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            long ticksBefore = ticks.sum();
+            iterate();
+            if (listener != null) {
+                double seconds = (System.nanoTime() - start) / 1e9;
+                int finished = 0;
+                for (double score : scores) {
+                    finished += score < NOT_FINISHED ? 1 : 0;
+                }
+                listener.iteration(iteration, bestLapTime, scores[ranking[elite - 1]], finished,
+                                (ticks.sum() - ticksBefore) / seconds);
+            }
+        }
+        return getBest();
+    }
+
+    private void iterate() {
+        if (iteration % ITERATIONS_PER_WINDOW == 0) {
+            nextWindow();
+        }
+        pool.invoke(new Laps(0, population));
+
+        for (int i = 0; i < population; i++) {
+            ranking[i] = i;
+        }
+        Arrays.sort(ranking, (a, b) -> Double.compare(scores[a], scores[b]));
+        if (scores[ranking[0]] < bestLapTime) {
+            setBest(ranking[0]);
+        }
+
+        int end = Math.min(window + WINDOW, segments);
+        for (int s = window; s < end; s++) {
+            for (int b = 0; b < BITS.length; b++) {
+                int count = 0;
+                for (int e = 0; e < elite; e++) {
+                    count += (laps[ranking[e]][s] & BITS[b]) != 0 ? 1 : 0;
+                }
+                int p = s * BITS.length + b;
+                probability[p] = SMOOTHING * count / elite + (1 - SMOOTHING) * probability[p];
+                probability[p] = Math.min(Math.max(probability[p], MIN_PROBABILITY),
+                                1 - MIN_PROBABILITY);
+            }
+        }
+        iteration++;
+    }
+
+    /**
+     * Move on to the next window and start its probabilities at the inputs of the best lap.
+     */
+    private void nextWindow() {
+        window = iteration == 0 ? 0 : window + WINDOW;
+        if (window >= bestSegments) {
+            window = 0;
+        }
+        for (int s = window; s < Math.min(window + WINDOW, segments); s++) {
+            int bits = best != null ? best[s] : 0;
+            for (int b = 0; b < BITS.length; b++) {
+                probability[s * BITS.length + b] = (bits & BITS[b]) != 0 ? START_PROBABILITY
+                                : 1 - START_PROBABILITY;
+            }
+        }
+    }
+
+    private void setBest(int lap) {
+        bestLapTime = scores[lap];
+        best = laps[lap].clone();
+        bestDistances = distances[lap].clone();
+        bestX = posX[lap].clone();
+        bestY = posY[lap].clone();
+        bestSegments = 0;
+        while (bestSegments < segments && distances[lap][bestSegments] != 0) {
+            bestSegments++;
+        }
+    }
+
+    /**
+     * Set the inputs of a lap: those of the best lap before the window, sampled in the window.
+     * The first lap is the best lap itself.
+     */
+    private int prepare(int lap) {
+        if (best == null) {
+            return 0;
+        }
+        byte[] inputs = laps[lap];
+        System.arraycopy(best, 0, inputs, 0, segments);
+        if (lap == 0) {
+            return segments;
+        }
+        SplittableRandom random = new SplittableRandom(
+                        seed ^ (iteration * 0x9E3779B97F4A7C15L + lap * 0xBF58476D1CE4E5B9L));
+        int end = Math.min(window + WINDOW, segments);
+        for (int s = window; s < end; s++) {
+            int bits = 0;
+            for (int b = 0; b < BITS.length; b++) {
+                bits |= random.nextDouble() < probability[s * BITS.length + b] ? BITS[b] : 0;
+            }
+            inputs[s] = (byte) bits;
+        }
+        return end;
+    }
+
+    /**
+     * Drive a lap and set its score: the lap time if the lap has been finished, otherwise
+     * {@link #NOT_FINISHED} plus the distance the car still had to go. Like in the game, the lap
+     * time starts when the car crosses the start line.
+     *
+     * @param driverFrom From this segment on the inputs of the best lap are followed or the car
+     *        is driven by an AIDriver; the inputs are stored in the lap.
+     */
+    private void drive(int lap, Car car, RoundTimer timer, int driverFrom) {
+        byte[] inputs = laps[lap];
+        float[] distance = distances[lap];
+        float[] bestDistance = bestDistances;
+        Driver driver = driverFrom < segments ? new AIDriver(DRIVER_SPEED, fields) : null;
+        boolean following = best != null;
+        Arrays.fill(distance, 0);
+        car.reset();
+        car.unfreeze();
+        double x = car.getPosX(), y = car.getPosY(), driven = 0;
+        int tick = 0;
+        scores[lap] = Double.NaN;
+        for (int s = 0; s < segments && Double.isNaN(scores[lap]); s++) {
+            if (s >= driverFrom) {
+                following = following && s < bestSegments
+                                && Math.hypot(car.getPosX() - bestX[s - 1],
+                                                car.getPosY() - bestY[s - 1]) < FOLLOW_DISTANCE;
+                // the driver keeps track of the car even while it is not needed
+                driver.update(car, obstacles);
+                inputs[s] = following ? best[s] : (byte) driver.inputBits();
+            }
+            int bits = inputs[s];
+            for (int t = 0; t < SEGMENT_TICKS; t++) {
+                car.stepForward(TIME_DELTA, (bits & Driver.ACCELERATE) != 0,
+                                (bits & Driver.BRAKE) != 0, (bits & Driver.TURN_LEFT) != 0,
+                                (bits & Driver.TURN_RIGHT) != 0, obstacles);
+                car.checkLines(timer);
+                tick++;
+                if (car.hasPassedEndLine()) {
+                    scores[lap] = car.getLapTime();
+                    break;
+                }
+                if (car.isDestroyed()) {
+                    break;
+                }
+            }
+            driven += fields.progressBetween(x, y, car.getPosX(), car.getPosY());
+            x = car.getPosX();
+            y = car.getPosY();
+            distance[s] = (float) Math.max(driven, Float.MIN_VALUE);
+            posX[lap][s] = (float) x;
+            posY[lap][s] = (float) y;
+            if (Double.isNaN(scores[lap]) && (car.isDestroyed()
+                            || bestDistance != null && driven < bestDistance[s] - BEHIND_MARGIN)) {
+                scores[lap] = NOT_FINISHED + fields.getLapLength() - driven;
+            }
+        }
+        if (Double.isNaN(scores[lap])) {
+            scores[lap] = NOT_FINISHED + fields.getLapLength() - driven;
+        }
+        ticks.add(tick);
+    }
+
+    /**
+     * Samples and drives a range of laps, split up until a task drives at most
+     * {@link #LAPS_PER_TASK} laps.
+     */
+    private class Laps extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from, to;
+
+        Laps(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > LAPS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Laps(from, mid), new Laps(mid, to));
+                return;
+            }
+            Car car = new Car();
+            RoundTimer timer = new RoundTimer();
+            for (int lap = from; lap < to; lap++) {
+                drive(lap, car, timer, prepare(lap));
+            }
+        }
+    }
+
+    /**
+     *
+     * @return The best lap found so far, or null if no lap has been finished yet.
+     */
+    public InputTrace getBest() {
+        if (best == null) {
+            return null;
+        }
+        return new InputTrace(TIME_DELTA, SEGMENT_TICKS, best.clone(), obstacles);
+    }
+
+    /**
+     *
+     * @return The lap time of the best lap so far in seconds, infinite if no lap has been finished
+     *         yet.
+     */
+    public double getBestLapTime() {
+        return bestLapTime;
+    }
+
+    /**
+     * Stop the threads of the search.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Told about the progress of the search.
+     */
+    public interface ProgressListener {
+        /**
+         *
+         * @param iteration The number of the iteration.
+         * @param bestLapTime The best lap time so far in seconds.
+         * @param eliteScore The score of the worst lap the probabilities moved towards: a lap
+         *        time if it is less than 10000.
+         * @param finished How many laps of the iteration have been finished.
+         * @param ticksPerSecond How many ticks were simulated per second.
+         */
+        void iteration(int iteration, double bestLapTime, double eliteScore, int finished,
+                        double ticksPerSecond);
+    }
+
+    /**
+     * Search for the fastest lap and write it as an input trace and as a ghost.
+     *
+     * @param args "--iterations=n", "--population=n", "--threads=n", "--seed=n",
+     *        "--obstacles=n" for a random layout or "--layout=file" for the layout of an input
+     *        trace, "--track=name", "--out=file" for the input trace and "--ghost=file" for the
+     *        ghost.
+     * @throws IOException If the results cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> named = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                named.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+        }
+        String track = named.getOrDefault("track", TrackRegistry.DEFAULT);
+        Path home = Paths.get(System.getProperty("user.home"), ".rennspiel");
+        Path out = Paths.get(named.getOrDefault("out",
+                        home.resolve("best_" + track + ".inputs").toString()));
+        Path ghost = Paths.get(named.getOrDefault("ghost",
+                        home.resolve("ghost_" + track + ".bin").toString()));
+
+        Car.useTrack(TrackRegistry.get(track));
+        Collection<Obstacle> obstacles = Collections.emptyList();
+        if (named.containsKey("layout")) {
+            obstacles = InputTrace.read(Paths.get(named.get("layout"))).getObstacles();
+        } else if (named.containsKey("obstacles")) {
+            Car car = new Car();
+            obstacles = Obstacle.generateObs(Integer.parseInt(named.get("obstacles")),
+                            car.getWidth(), Car.startingGrid(1), car.getWidth());
+        }
+        LineOptimiser optimiser = new LineOptimiser(obstacles,
+                        Integer.parseInt(named.getOrDefault("population", "512")), 0.05,
+                        Integer.parseInt(named.getOrDefault("threads",
+                                        "" + Runtime.getRuntime().availableProcessors())),
+                        Long.parseLong(named.getOrDefault("seed", "1")));
+        InputTrace best = optimiser.run(Integer.parseInt(named.getOrDefault("iterations", "50")),
+                        (iteration, bestLapTime, eliteScore, finished, ticksPerSecond) -> System.out
+                                        .printf("iteration %d: best lap %.3f s, elite %.3f, "
+                                                        + "%d finished, %.0f ticks/s%n",
+                                                        iteration, bestLapTime, eliteScore,
+                                                        finished, ticksPerSecond));
+        optimiser.shutdown();
+        if (best == null) {
+            System.out.println("No lap has been finished.");
+            return;
+        }
+
+        Files.createDirectories(out.toAbsolutePath().getParent());
+        best.write(out);
+        LapRecorder recorder = new LapRecorder(ghost);
+        best.replay(new Car(), (car, tick) -> recorder.record(car, TIME_DELTA));
+        recorder.finishLap();
+        System.out.printf("Best lap %.3f s written to %s, watch it with --ghost (%s).%n",
+                        optimiser.getBestLapTime(), out, ghost);
+    }
+}
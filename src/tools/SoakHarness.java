@@ -0,0 +1,383 @@
+package tools;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import model.AIDriver;
+import model.Car;
+import model.Obstacle;
+import model.RoundTimer;
+import model.TrackFields;
+import track.TrackRegistry;
+import view.GameView;
+
+/**
+ * Drives many headless sessions to find physics blow-ups, crashes and leaks before a release.
+ * Every session starts like a race, with new obstacles, and is driven by an {@link AIDriver} with
+ * a random top speed whose inputs are sometimes overridden, or by random inputs. The ticks have
+ * random lengths, including the long stalls of a busy machine, and the session is paused,
+ * resumed and reset like a player would do it. After every tick these invariants are checked:
+ * <ul>
+ * <li>the position, velocity and rotation of the car are finite, and the velocity is below
+ * {@link #MAX_SPEED},</li>
+ * <li>the car is inside the world,</li>
+ * <li>the centre of the car has not passed through an obstacle since the last tick,</li>
+ * <li>a finished lap has a positive lap time,</li>
+ * <li>no exception is thrown, e.g. by looking up the track bitmap at the edge of the world.</li>
+ * </ul>
+ * The sessions run in parallel, and the heap is measured before and after, so growing memory
+ * shows up. Each session has its own seed: the inputs, tick lengths and obstacles of a failed
+ * session can be driven again with "--first=n --sessions=1".
+ * <p>
+ * Run it with "--sessions=n", "--threads=n", "--seed=n", "--track=name" and
+ * "--max-heap-growth=megabytes". It exits with status 1 if an invariant has been broken.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class SoakHarness {
+
+    /**
+     * No car should ever be faster than this, in m/s.
+     */
+    public static final double MAX_SPEED = 150;
+
+    /**
+     * The most ticks of a session, two minutes at 60 fps.
+     */
+    private static final int MAX_TICKS = 60 * 120;
+
+    /**
+     * How many failures are kept for the report.
+     */
+    private static final int MAX_FAILURES = 100;
+
+    private final int threads;
+    private final long seed;
+
+    /**
+     * The results of a run.
+     */
+    public static final class Report {
+        public final int sessions;
+        public final long ticks, laps, destroyed, resets;
+        /**
+         * A description of every broken invariant, at most {@link SoakHarness#MAX_FAILURES}.
+         */
+        public final List<String> failures;
+        public final int failedSessions;
+        /**
+         * The used heap after a full collection, before and after the run, in bytes.
+         */
+        public final long heapBefore, heapAfter;
+        public final double seconds;
+
+        Report(int sessions, long ticks, long laps, long destroyed, long resets,
+                        List<String> failures, int failedSessions, long heapBefore,
+                        long heapAfter, double seconds) {
+            this.sessions = sessions;
+            this.ticks = ticks;
+            this.laps = laps;
+            this.destroyed = destroyed;
+            this.resets = resets;
+            this.failures = failures;
+            this.failedSessions = failedSessions;
+            this.heapBefore = heapBefore;
+            this.heapAfter = heapAfter;
+            this.seconds = seconds;
+        }
+
+        /**
+         *
+         * @return How much the used heap has grown, in bytes.
+         */
+        public long heapGrowth() {
+            return heapAfter - heapBefore;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d sessions, %d ticks (%.0f ticks/s), %d laps, %d destroyed, "
+                            + "%d resets, %d failed sessions, heap %+.1f MB", sessions, ticks,
+                            ticks / seconds, laps, destroyed, resets, failedSessions,
+                            heapGrowth() / 1e6);
+        }
+    }
+
+    /**
+     * The counts of all sessions of a run.
+     */
+    private static final class Totals {
+        final LongAdder ticks = new LongAdder(), laps = new LongAdder();
+        final LongAdder destroyed = new LongAdder(), resets = new LongAdder();
+        final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger failedSessions = new AtomicInteger();
+
+        void fail(int session, int tick, Car car, String invariant) {
+            failedSessions.incrementAndGet();
+            if (failures.size() < MAX_FAILURES) {
+                failures.add(String.format("session %d, tick %d: %s (x %.3f, y %.3f, vel %.3f,"
+                                + " rot %.3f)", session, tick, invariant, car.getPosX(),
+                                car.getPosY(), car.getVel(), car.getRotation()));
+            }
+        }
+    }
+
+    /**
+     * Constructs a SoakHarness for the current track (see {@link Car#getTrack()}).
+     *
+     * @param threads How many sessions are driven at the same time.
+     * @param seed The seed of the first session; session n uses seed + n.
+     */
+    public SoakHarness(int threads, long seed) {
+        this.threads = threads;
+        this.seed = seed;
+    }
+
+    /**
+     * Drive sessions and check the invariants.
+     *
+     * @param first The number of the first session.
+     * @param sessions How many sessions are driven.
+     * @return The report.
+     * @throws InterruptedException If interrupted while waiting for the sessions.
+     */
+    public Report run(int first, int sessions) throws InterruptedException {
+        Totals totals = new Totals();
+        // computed once before the sessions start, the drivers of all sessions only read them
+        TrackFields fields = Car.getTrack().getFields();
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "Soak session");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> running = new ArrayList<>(sessions);
+            for (int s = first; s < first + sessions; s++) {
+                int session = s;
+                running.add(pool.submit(() -> drive(session, totals, fields)));
+            }
+            for (Future<?> f : running) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return new Report(sessions, totals.ticks.sum(), totals.laps.sum(),
+                        totals.destroyed.sum(), totals.resets.sum(),
+                        new ArrayList<>(totals.failures), totals.failedSessions.get(),
+                        heapBefore, usedHeap(), seconds);
+    }
+
+    /**
+     * Drive a session until it has broken an invariant or run for {@link #MAX_TICKS} ticks.
+     */
+    private void drive(int session, Totals totals, TrackFields fields) {
+        SplittableRandom random = new SplittableRandom(seed + session);
+        Car car = new Car();
+        RoundTimer timer = new RoundTimer();
+        Collection<Obstacle> obstacles = newObstacles(car, random);
+        AIDriver driver = new AIDriver(8 + random.nextDouble() * 40, fields);
+        boolean randomInputs = random.nextInt(4) == 0;
+        boolean acc = false, brake = false, left = false, right = false;
+        int hold = 0, resetAt = resetTick(random), pauseAt = pauseTick(random);
+        long ticks = 0;
+        car.unfreeze();
+        timer.start();
+        try {
+            for (int tick = 0; tick < MAX_TICKS; tick++) {
+                if (tick == resetAt || car.isDestroyed() && random.nextInt(60) == 0
+                                || car.hasPassedEndLine()) {
+                    // like pressing R in the game
+                    car.reset();
+                    timer.reset();
+                    if (random.nextBoolean()) {
+                        obstacles = newObstacles(car, random);
+                    }
+                    car.unfreeze();
+                    timer.start();
+                    totals.resets.increment();
+                    resetAt = tick + resetTick(random);
+                }
+                if (tick == pauseAt) {
+                    car.freeze();
+                    timer.freeze();
+                    car.stepForward(timeDelta(random), true, false, true, false, obstacles);
+                    if (!car.isFrozen()) {
+                        totals.fail(session, tick, car, "paused car unfroze");
+                        return;
+                    }
+                    car.unfreeze();
+                    timer.unfreeze();
+                    pauseAt = tick + pauseTick(random);
+                }
+                if (hold-- <= 0) {
+                    hold = random.nextInt(30);
+                    acc = random.nextInt(3) > 0;
+                    brake = random.nextInt(5) == 0;
+                    left = random.nextInt(3) == 0;
+                    right = !left && random.nextInt(2) == 0;
+                }
+                boolean override = randomInputs || random.nextInt(50) == 0;
+                if (!override) {
+                    driver.update(car, obstacles);
+                }
+                double x = car.getPosX(), y = car.getPosY(), rot = car.getRotation();
+                boolean wasDestroyed = car.isDestroyed();
+                car.stepForward(timeDelta(random), override ? acc : driver.accelerate(),
+                                override ? brake : driver.brake(),
+                                override ? left : driver.turnLeft(),
+                                override ? right : driver.turnRight(), obstacles);
+                car.checkLines(timer);
+                ticks++;
+                String broken = check(car, x, y, rot, obstacles);
+                if (broken != null) {
+                    totals.fail(session, tick, car, broken);
+                    return;
+                }
+                if (car.isDestroyed() && !wasDestroyed) {
+                    totals.destroyed.increment();
+                }
+                if (car.hasPassedEndLine()) {
+                    totals.laps.increment();
+                }
+            }
+        } catch (RuntimeException e) {
+            totals.fail(session, (int) ticks, car, e.toString());
+        } finally {
+            totals.ticks.add(ticks);
+        }
+    }
+
+    /**
+     * @return The invariant the car breaks after a tick from (x, y) with the rotation rot, or
+     *         null.
+     */
+    private static String check(Car car, double x, double y, double rot,
+                    Collection<Obstacle> obstacles) {
+        if (!Double.isFinite(car.getPosX()) || !Double.isFinite(car.getPosY())
+                        || !Double.isFinite(car.getVel()) || !Double.isFinite(car.getRotation())) {
+            return "state is not finite";
+        }
+        if (Math.abs(car.getVel()) > MAX_SPEED) {
+            return "too fast";
+        }
+        if (car.getPosX() < 0 || car.getPosX() > GameView.WORLD_WIDTH || car.getPosY() < 0
+                        || car.getPosY() > GameView.WORLD_HEIGHT) {
+            return "left the world";
+        }
+        // a long tick is split into substeps, so the car may have driven a curve; it turns one
+        // way only in a tick, so the curve stays within this distance of the straight line
+        double turned = Math.min(Math.abs(car.getRotation() - rot), Math.PI / 2);
+        double bend = Math.hypot(car.getPosX() - x, car.getPosY() - y) / 2 * Math.tan(turned / 2);
+        for (Obstacle o : obstacles) {
+            if (distanceToSegment(o.getX(), o.getY(), x, y, car.getPosX(),
+                            car.getPosY()) < o.getRadius() - bend) {
+                return String.format("passed through the obstacle at (%.2f, %.2f)", o.getX(),
+                                o.getY());
+            }
+        }
+        if (car.hasPassedEndLine() && !(car.getLapTime() > 0)) {
+            return "finished a lap in " + car.getLapTime() + " s";
+        }
+        return null;
+    }
+
+    /**
+     * @return The distance between the point (px, py) and the segment from (ax, ay) to (bx, by).
+     */
+    static double distanceToSegment(double px, double py, double ax, double ay, double bx,
+                    double by) {
+        double dx = bx - ax, dy = by - ay;
+        double length2 = dx * dx + dy * dy;
+        double t = length2 == 0 ? 0
+                        : Math.min(Math.max(((px - ax) * dx + (py - ay) * dy) / length2, 0), 1);
+        return Math.hypot(ax + t * dx - px, ay + t * dy - py);
+    }
+
+    /**
+     * Mostly a frame at 30 to 240 fps, sometimes a stall of up to a second, rarely no time at all.
+     */
+    private static double timeDelta(SplittableRandom random) {
+        int kind = random.nextInt(1000);
+        if (kind < 5) {
+            return 0;
+        } else if (kind < 15) {
+            return random.nextDouble(0.25, 1);
+        } else if (kind < 100) {
+            return random.nextDouble(1 / 30.0, 0.25);
+        }
+        return random.nextDouble(1 / 240.0, 1 / 30.0);
+    }
+
+    private static int resetTick(SplittableRandom random) {
+        return 600 + random.nextInt(60 * 60);
+    }
+
+    private static int pauseTick(SplittableRandom random) {
+        return 1 + random.nextInt(60 * 60);
+    }
+
+    private static Collection<Obstacle> newObstacles(Car car, SplittableRandom random) {
+        return Obstacle.generateObs(Car.getTrack(), random.split(), GameView.OBSTACLES_AMOUNT,
+                        car.getWidth(), Car.startingGrid(1), car.getWidth());
+    }
+
+    /**
+     * @return The used heap after a full collection, in bytes.
+     */
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Run the harness, see {@link SoakHarness}.
+     *
+     * @param args The options.
+     * @throws InterruptedException If interrupted.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> named = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                named.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+        }
+        Car.useTrack(TrackRegistry.get(named.getOrDefault("track", TrackRegistry.DEFAULT)));
+        SoakHarness harness = new SoakHarness(
+                        Integer.parseInt(named.getOrDefault("threads",
+                                        "" + Runtime.getRuntime().availableProcessors())),
+                        Long.parseLong(named.getOrDefault("seed", "1")));
+        Report report = harness.run(Integer.parseInt(named.getOrDefault("first", "0")),
+                        Integer.parseInt(named.getOrDefault("sessions", "10000")));
+        System.out.println(report);
+        report.failures.forEach(System.out::println);
+        long maxGrowth = Long.parseLong(named.getOrDefault("max-heap-growth", "64")) * 1_000_000;
+        if (report.failedSessions > 0 || report.heapGrowth() > maxGrowth) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package tools;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import model.TelemetryBlock;
+import model.TelemetryRecorder;
+import model.TrackFields;
+import track.TrackRegistry;
+
+/**
+ * Analyses a telemetry file written by a {@link TelemetryRecorder}. The file is read one block at
+ * a time and only a summary of every lap is kept, so files of any length can be analysed. For
+ * every completed lap it finds:
+ * <ul>
+ * <li>the speed trace: the average speed in {@link #TRACE_BINS} stretches of equal length along
+ * the track,</li>
+ * <li>the braking points: where the driver started to brake, and how fast the car was,</li>
+ * <li>the sector times: the track is divided into sectors of equal length, and the time lost in
+ * each sector against a reference lap shows where a lap was slow.</li>
+ * </ul>
+ * How far along the track the car is comes from {@link TrackFields#progressBetween}, so cutting
+ * a corner does not count as driving further.
+ * <p>
+ * Run it with the telemetry file, "--sectors=n" for n sectors (default 10), "--reference=file"
+ * to compare against the fastest lap of another file instead of the fastest lap of this one and
+ * "--trace=file" to write the speed traces as CSV.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class TelemetryAnalyser {
+
+    /**
+     * How many stretches the speed trace has.
+     */
+    public static final int TRACE_BINS = 100;
+
+    private final TrackFields fields;
+    private final int sectors;
+
+    /**
+     * A place where the driver started to brake.
+     */
+    public static final class BrakingPoint {
+        public final double distance, speed, x, y;
+
+        BrakingPoint(double distance, double speed, double x, double y) {
+            this.distance = distance;
+            this.speed = speed;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /**
+     * The summary of a completed lap.
+     */
+    public static final class Lap {
+        /**
+         * The number of the lap in the file, counting all laps that have been started.
+         */
+        public final int number;
+        public final double lapTime;
+        public final double[] sectorTimes;
+        /**
+         * Average speed in metres per second in each stretch, NaN where there was no tick.
+         */
+        public final double[] speedTrace;
+        public final List<BrakingPoint> brakingPoints;
+
+        Lap(int number, double lapTime, double[] sectorTimes, double[] speedTrace,
+                        List<BrakingPoint> brakingPoints) {
+            this.number = number;
+            this.lapTime = lapTime;
+            this.sectorTimes = sectorTimes;
+            this.speedTrace = speedTrace;
+            this.brakingPoints = brakingPoints;
+        }
+
+        /**
+         *
+         * @param reference Another lap with the same number of sectors.
+         * @return The time lost in each sector against the reference lap; negative where this lap
+         *         was faster.
+         */
+        public double[] timeLoss(Lap reference) {
+            double[] loss = new double[sectorTimes.length];
+            for (int i = 0; i < loss.length; i++) {
+                loss[i] = sectorTimes[i] - reference.sectorTimes[i];
+            }
+            return loss;
+        }
+    }
+
+    /**
+     * The lap that is being read.
+     */
+    private final class LapInProgress {
+        final int number;
+        final double start;
+        double distance, lastX, lastY;
+        int sector;
+        final double[] sectorStarts = new double[sectors + 1];
+        final double[] speedSum = new double[TRACE_BINS];
+        final int[] ticks = new int[TRACE_BINS];
+        final List<BrakingPoint> brakingPoints = new ArrayList<>();
+        boolean braking;
+
+        LapInProgress(int number, double time, double x, double y, boolean braking) {
+            this.number = number;
+            start = time;
+            lastX = x;
+            lastY = y;
+            this.braking = braking;
+            sectorStarts[0] = time;
+        }
+
+        void add(double time, double x, double y, double speed, boolean brake) {
+            distance += fields.progressBetween(lastX, lastY, x, y);
+            lastX = x;
+            lastY = y;
+            double length = fields.getLapLength();
+            while (sector < sectors - 1 && distance >= (sector + 1) * length / sectors) {
+                sectorStarts[++sector] = time;
+            }
+            int bin = (int) (distance / length * TRACE_BINS);
+            bin = Math.min(Math.max(bin, 0), TRACE_BINS - 1);
+            speedSum[bin] += speed;
+            ticks[bin]++;
+            if (brake && !braking) {
+                brakingPoints.add(new BrakingPoint(distance, speed, x, y));
+            }
+            braking = brake;
+        }
+
+        Lap finish(double time) {
+            for (int s = sector + 1; s < sectors; s++) {
+                // sectors that have been skipped in a single tick
+                sectorStarts[s] = time;
+            }
+            sectorStarts[sectors] = time;
+            double[] sectorTimes = new double[sectors];
+            for (int s = 0; s < sectors; s++) {
+                sectorTimes[s] = sectorStarts[s + 1] - sectorStarts[s];
+            }
+            double[] trace = new double[TRACE_BINS];
+            for (int b = 0; b < TRACE_BINS; b++) {
+                trace[b] = ticks[b] > 0 ? speedSum[b] / ticks[b] : Double.NaN;
+            }
+            return new Lap(number, time - start, sectorTimes, trace, brakingPoints);
+        }
+    }
+
+    /**
+     * Constructs a TelemetryAnalyser.
+     *
+     * @param fields The fields of the track the telemetry has been recorded on.
+     * @param sectors Into how many sectors the track is divided.
+     */
+    public TelemetryAnalyser(TrackFields fields, int sectors) {
+        this.fields = fields;
+        this.sectors = sectors;
+    }
+
+    /**
+     * Read a telemetry file.
+     *
+     * @param in The file, after its header (see {@link TelemetryRecorder#readHeader}).
+     * @return The completed laps in the file. Laps that have been abandoned, because the car was
+     *         destroyed or the race was restarted, are left out.
+     * @throws IOException If the file cannot be read.
+     */
+    public List<Lap> analyse(DataInputStream in) throws IOException {
+        List<Lap> laps = new ArrayList<>();
+        TelemetryBlock block = new TelemetryBlock();
+        Inflater inflater = new Inflater();
+        LapInProgress lap = null;
+        int started = 0;
+        byte previous = 0;
+        double lastTime = Double.NEGATIVE_INFINITY;
+        try {
+            while (block.read(in, inflater)) {
+                for (int i = 0; i < block.size(); i++) {
+                    byte flags = block.flags[i];
+                    double time = block.time[i];
+                    if (time < lastTime) {
+                        // the next recording appended to the file
+                        lap = null;
+                        previous = 0;
+                    }
+                    lastTime = time;
+                    boolean brake = (block.inputs[i] & TelemetryBlock.BRAKE) != 0;
+                    double speed = Math.abs(block.vel[i]);
+                    if ((flags & TelemetryBlock.STARTED_LAP) == 0
+                                    || (flags & TelemetryBlock.DESTROYED) != 0) {
+                        lap = null;
+                    } else if ((previous & TelemetryBlock.STARTED_LAP) == 0) {
+                        lap = new LapInProgress(++started, time, block.posX[i], block.posY[i],
+                                        brake);
+                    } else if (lap != null) {
+                        lap.add(time, block.posX[i], block.posY[i], speed, brake);
+                        if ((flags & TelemetryBlock.PASSED_END_LINE) != 0) {
+                            laps.add(lap.finish(time));
+                            lap = null;
+                        }
+                    }
+                    previous = flags;
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+        return laps;
+    }
+
+    /**
+     * Read a telemetry file with its header.
+     *
+     * @param file The file.
+     * @return The completed laps in the file.
+     * @throws IOException If the file cannot be read.
+     */
+    public List<Lap> analyse(Path file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            TelemetryRecorder.readHeader(in);
+            return analyse(new DataInputStream(in));
+        }
+    }
+
+    /**
+     *
+     * @param laps Some laps.
+     * @return The fastest of them, or null if there are none.
+     */
+    public static Lap fastest(List<Lap> laps) {
+        return laps.isEmpty() ? null
+                        : Collections.min(laps, (a, b) -> Double.compare(a.lapTime, b.lapTime));
+    }
+
+    /**
+     * Print a summary of all laps of a telemetry file.
+     *
+     * @param args The file and the options, see {@link TelemetryAnalyser}.
+     * @throws IOException If a file cannot be read or written.
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        Path file = null;
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                String[] option = arg.substring(2).split("=", 2);
+                options.put(option[0], option.length > 1 ? option[1] : "");
+            } else {
+                file = Paths.get(arg);
+            }
+        }
+        if (file == null) {
+            System.err.println("Usage: TelemetryAnalyser file [--sectors=n] [--reference=file]"
+                            + " [--trace=file.csv]");
+            return;
+        }
+        String track;
+        try (InputStream in = Files.newInputStream(file)) {
+            track = TelemetryRecorder.readHeader(in);
+        }
+        TelemetryAnalyser analyser = new TelemetryAnalyser(TrackRegistry.get(track).getFields(),
+                        Integer.parseInt(options.getOrDefault("sectors", "10")));
+        List<Lap> laps = analyser.analyse(file);
+        Lap reference = options.containsKey("reference")
+                        ? fastest(analyser.analyse(Paths.get(options.get("reference"))))
+                        : fastest(laps);
+        System.out.printf("%d laps on %s%n", laps.size(), track);
+        for (Lap lap : laps) {
+            System.out.printf("Lap %d: %.3f s, %d braking points%n", lap.number, lap.lapTime,
+                            lap.brakingPoints.size());
+            StringBuilder sectorLine = new StringBuilder("  sectors:");
+            StringBuilder lossLine = new StringBuilder("  lost:   ");
+            double[] loss = reference != null ? lap.timeLoss(reference) : null;
+            for (int s = 0; s < lap.sectorTimes.length; s++) {
+                sectorLine.append(String.format(" %7.3f", lap.sectorTimes[s]));
+                if (loss != null) {
+                    lossLine.append(String.format(" %+7.3f", loss[s]));
+                }
+            }
+            System.out.println(sectorLine);
+            if (loss != null) {
+                System.out.println(lossLine);
+            }
+            for (BrakingPoint point : lap.brakingPoints) {
+                System.out.printf("  brake at %6.1f m (%.1f, %.1f) with %.1f km/h%n",
+                                point.distance, point.x, point.y, point.speed * 3.6);
+            }
+        }
+        if (options.containsKey("trace")) {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(
+                            Paths.get(options.get("trace")), StandardCharsets.UTF_8))) {
+                out.print("distance");
+                for (Lap lap : laps) {
+                    out.print(",lap" + lap.number);
+                }
+                out.println();
+                double length = analyser.fields.getLapLength();
+                for (int b = 0; b < TRACE_BINS; b++) {
+                    out.print((b + 0.5) * length / TRACE_BINS);
+                    for (Lap lap : laps) {
+                        out.print("," + lap.speedTrace[b]);
+                    }
+                    out.println();
+                }
+            }
+        }
+    }
+}
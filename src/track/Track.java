@@ -0,0 +1,296 @@
+package track;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import javax.imageio.ImageIO;
+import model.AssetPack;
+import model.FieldCache;
+import model.SignedDistanceField;
+import model.TrackFields;
+
+/**
+ * A track ready to drive on: its descriptor and the decoded track mask. Decoding the mask image
+ * is slow, so a track is compiled once into a small binary bundle in the cache directory (see
+ * {@link FieldCache}), with the mask packed into bits. Later loads read the bundle; it is compiled
+ * again when the descriptor or the mask image change.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class Track {
+
+    private static final int MAGIC = 0x52475442 /* "RGTB" */;
+
+    /**
+     * Change this if the bundle format changes, so old bundles are compiled again.
+     */
+    private static final int VERSION = 1;
+
+    private final TrackDescriptor descriptor;
+    private final boolean[][] mask;
+    private volatile SignedDistanceField edgeField;
+    private volatile TrackFields fields;
+
+    /**
+     * Constructs a Track.
+     *
+     * @param descriptor The descriptor.
+     * @param mask The track mask, true where the track is.
+     */
+    public Track(TrackDescriptor descriptor, boolean[][] mask) {
+        this.descriptor = descriptor;
+        this.mask = mask;
+    }
+
+    /**
+     * Load a track from its bundle, or compile the bundle first if it is missing or out of date.
+     *
+     * @param name The name of the track.
+     * @return The track.
+     * @throws IOException If the track does not exist or cannot be read.
+     */
+    public static Track load(String name) throws IOException {
+        return load(name, Track::readResource);
+    }
+
+    /**
+     * Load a track like {@link #load(String)}, but read the descriptor and the mask from a
+     * directory laid out like the resources, for example "res" while working on a track.
+     *
+     * @param name The name of the track.
+     * @param directory The directory.
+     * @return The track.
+     * @throws IOException If the track does not exist or cannot be read.
+     */
+    public static Track load(String name, Path directory) throws IOException {
+        return load(name, resource -> Files.readAllBytes(directory.resolve(resource.substring(1))));
+    }
+
+    private static Track load(String name, Source source) throws IOException {
+        byte[] descriptorBytes = source.read(TrackDescriptor.resource(name));
+        TrackDescriptor descriptor = TrackDescriptor.parse(name, new InputStreamReader(
+                        new ByteArrayInputStream(descriptorBytes), StandardCharsets.UTF_8));
+        byte[] maskBytes = source.read("/" + descriptor.getMask());
+        CRC32 crc = new CRC32();
+        crc.update(descriptorBytes);
+        crc.update(maskBytes);
+        long key = crc.getValue() << 8 | VERSION;
+
+        Path bundle = bundleFile(name);
+        Track track = read(bundle, key);
+        if (track == null) {
+            track = new Track(descriptor,
+                            decodeMask(ImageIO.read(new ByteArrayInputStream(maskBytes))));
+            try {
+                track.write(bundle, key);
+            } catch (IOException e) {
+                // the bundle only saves time
+                e.printStackTrace();
+            }
+        }
+        return track;
+    }
+
+    private static byte[] readResource(String resource) throws IOException {
+        InputStream in = AssetPack.resource(resource);
+        if (in == null) {
+            throw new IOException("Missing resource " + resource);
+        }
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1 << 16];
+            for (int n; (n = stream.read(buffer)) > 0;) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Where the files of a track come from.
+     */
+    private interface Source {
+        byte[] read(String resource) throws IOException;
+    }
+
+    /**
+     *
+     * @param name The name of a track.
+     * @return Where its bundle is kept.
+     */
+    static Path bundleFile(String name) {
+        return FieldCache.directory().resolve("track-" + name + ".bin");
+    }
+
+    /**
+     * Black (or any colour but white) is track.
+     */
+    static boolean[][] decodeMask(BufferedImage image) {
+        boolean[][] mask = new boolean[image.getWidth()][image.getHeight()];
+        for (int x = 0; x < image.getWidth(); x++) {
+            for (int y = 0; y < image.getHeight(); y++) {
+                mask[x][y] = image.getRGB(x, y) != -1;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Write the bundle of this track.
+     *
+     * @param file The file.
+     * @param key The key the bundle is valid for.
+     * @throws IOException If the file cannot be written.
+     */
+    void write(Path file, long key) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(key);
+            out.writeUTF(descriptor.getName());
+            out.writeUTF(descriptor.getBackground());
+            out.writeUTF(descriptor.getMask());
+            out.writeDouble(descriptor.getWorldWidth());
+            out.writeDouble(descriptor.getWorldHeight());
+            out.writeDouble(descriptor.getStartX());
+            out.writeDouble(descriptor.getStartY());
+            out.writeDouble(descriptor.getStartRotation());
+            writeList(out, descriptor.getGates());
+            writeList(out, descriptor.getExclusions());
+            // the mask column by column, 64 pixels per long
+            out.writeInt(mask.length);
+            out.writeInt(mask[0].length);
+            for (boolean[] column : mask) {
+                for (int y = 0; y < column.length; y += 64) {
+                    long bits = 0;
+                    for (int b = 0; b < 64 && y + b < column.length; b++) {
+                        if (column[y + b]) {
+                            bits |= 1L << b;
+                        }
+                    }
+                    out.writeLong(bits);
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeList(DataOutputStream out, List<double[]> list) throws IOException {
+        out.writeInt(list.size());
+        for (double[] values : list) {
+            out.writeInt(values.length);
+            for (double v : values) {
+                out.writeDouble(v);
+            }
+        }
+    }
+
+    /**
+     * Read a bundle.
+     *
+     * @param file The file.
+     * @param key The key the bundle has to have.
+     * @return The track, or null if there is no bundle or it is out of date.
+     */
+    static Track read(Path file, long key) {
+        if (!Files.isReadable(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readLong() != key) {
+                return null;
+            }
+            TrackDescriptor descriptor = new TrackDescriptor(in.readUTF(), in.readUTF(),
+                            in.readUTF(), in.readDouble(), in.readDouble(), in.readDouble(),
+                            in.readDouble(), in.readDouble(), readList(in), readList(in));
+            boolean[][] mask = new boolean[in.readInt()][in.readInt()];
+            for (boolean[] column : mask) {
+                for (int y = 0; y < column.length; y += 64) {
+                    long bits = in.readLong();
+                    for (int b = 0; b < 64 && y + b < column.length; b++) {
+                        column[y + b] = (bits & 1L << b) != 0;
+                    }
+                }
+            }
+            return new Track(descriptor, mask);
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static List<double[]> readList(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<double[]> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            double[] values = new double[in.readInt()];
+            for (int j = 0; j < values.length; j++) {
+                values[j] = in.readDouble();
+            }
+            list.add(values);
+        }
+        return list;
+    }
+
+    // Getters and Setters after here
+
+    public TrackDescriptor getDescriptor() {
+        return descriptor;
+    }
+
+    public String getName() {
+        return descriptor.getName();
+    }
+
+    /**
+     *
+     * @return The track mask, true where the track is.
+     */
+    public boolean[][] getMask() {
+        return mask;
+    }
+
+    /**
+     *
+     * @return The signed distance field of the mask. It is loaded or computed on the first call
+     *         and kept with the track.
+     */
+    public SignedDistanceField getEdgeField() {
+        SignedDistanceField field = edgeField;
+        if (field == null) {
+            field = SignedDistanceField.of(mask);
+            edgeField = field;
+        }
+        return field;
+    }
+
+    /**
+     *
+     * @return The fields for computer drivers, with the progress measured from the start line of
+     *         this track. They are loaded or computed on the first call and kept with the track.
+     */
+    public synchronized TrackFields getFields() {
+        if (fields == null) {
+            fields = new TrackFields(mask, descriptor);
+        }
+        return fields;
+    }
+}
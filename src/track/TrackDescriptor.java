@@ -0,0 +1,241 @@
+package track;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import model.AssetPack;
+import view.GameView;
+
+/**
+ * Describes a track: its images, the size of the world, where the cars start, the gates a lap
+ * has to pass in order and the places where no obstacles may be. Descriptors are properties files
+ * in the "tracks" resource folder:
+ *
+ * <pre>
+ * background = track_gravel.png
+ * mask = track_mask.png          black where the track is
+ * world.width = 130              in metres; a pixel of the mask is 0.1 m
+ * world.height = 80              the size of the world has to be the size of the game view
+ * start.x = 68.1                 centre of the car of the first player
+ * start.y = 10
+ * start.rotation = 0             in radians, 0 drives towards negative x
+ * gate.0 = 66 5 66 15            x0 y0 x1 y1; gate 0 is the start and finish line
+ * gate.1 = 66 75 66 65
+ * exclusion.0 = 59.3 0 12.7 80   x y width height
+ * </pre>
+ *
+ * The cars cross a gate along its forward normal (y0 - y1, x1 - x0): for a gate from top to
+ * bottom on the screen they drive towards negative x. Crossings the other way do not count.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class TrackDescriptor {
+
+    private final String name, background, mask;
+    private final double worldWidth, worldHeight;
+    private final double startX, startY, startRotation;
+    private final List<double[]> gates;
+    private final List<double[]> exclusions;
+
+    /**
+     * Constructs a TrackDescriptor.
+     *
+     * @param name The name of the track.
+     * @param background Resource name of the background image.
+     * @param mask Resource name of the track mask.
+     * @param worldWidth Width of the world in metres.
+     * @param worldHeight Height of the world in metres.
+     * @param startX X position of the first car in metres.
+     * @param startY Y position of the first car in metres.
+     * @param startRotation Rotation of the cars at the start in radians.
+     * @param gates The gates in the order they have to be passed, as x0, y0, x1, y1.
+     * @param exclusions Rectangles without obstacles, as x, y, width, height.
+     * @throws IllegalArgumentException If there is no gate, the cars start facing against the
+     *         forward normal of the start line, or the world does not have the size
+     *         of the game view ({@link GameView#WORLD_WIDTH} by {@link GameView#WORLD_HEIGHT}),
+     *         which the game, its obstacles and its computer drivers are laid out for.
+     */
+    public TrackDescriptor(String name, String background, String mask, double worldWidth,
+                    double worldHeight, double startX, double startY, double startRotation,
+                    List<double[]> gates, List<double[]> exclusions) {
+        if (gates.isEmpty()) {
+            throw new IllegalArgumentException("Track " + name + " has no start line");
+        }
+        double[] line = gates.get(0);
+        if ((line[1] - line[3]) * -Math.cos(startRotation)
+                        + (line[2] - line[0]) * -Math.sin(startRotation) <= 0) {
+            throw new IllegalArgumentException("Track " + name
+                            + " starts against the direction of its start line");
+        }
+        if (worldWidth != GameView.WORLD_WIDTH || worldHeight != GameView.WORLD_HEIGHT) {
+            throw new IllegalArgumentException("Track " + name + " is " + worldWidth + " x "
+                            + worldHeight + " m, but the world is " + GameView.WORLD_WIDTH
+                            + " x " + GameView.WORLD_HEIGHT + " m");
+        }
+        this.name = name;
+        this.background = background;
+        this.mask = mask;
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
+        this.startX = startX;
+        this.startY = startY;
+        this.startRotation = startRotation;
+        this.gates = Collections.unmodifiableList(new ArrayList<>(gates));
+        this.exclusions = Collections.unmodifiableList(new ArrayList<>(exclusions));
+    }
+
+    /**
+     * Load the descriptor of a track from the "tracks" resource folder.
+     *
+     * @param name The name of the track.
+     * @return The descriptor.
+     * @throws IOException If there is no such track or its descriptor is broken.
+     */
+    public static TrackDescriptor load(String name) throws IOException {
+        InputStream in = AssetPack.resource(resource(name));
+        if (in == null) {
+            throw new IOException("There is no track " + name);
+        }
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return parse(name, reader);
+        }
+    }
+
+    /**
+     *
+     * @param name The name of a track.
+     * @return The resource name of its descriptor.
+     */
+    static String resource(String name) {
+        return "/tracks/" + name + ".track";
+    }
+
+    /**
+     * Read a descriptor.
+     *
+     * @param name The name of the track.
+     * @param reader The descriptor in properties format.
+     * @return The descriptor.
+     * @throws IOException If the descriptor cannot be read or a value is missing or broken.
+     */
+    public static TrackDescriptor parse(String name, Reader reader) throws IOException {
+        Properties p = new Properties();
+        p.load(reader);
+        try {
+            return new TrackDescriptor(name, required(p, "background"), required(p, "mask"),
+                            number(p, "world.width"), number(p, "world.height"),
+                            number(p, "start.x"), number(p, "start.y"),
+                            Double.parseDouble(p.getProperty("start.rotation", "0")),
+                            numbered(p, "gate", 4), numbered(p, "exclusion", 4));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Broken descriptor of track " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static String required(Properties p, String key) {
+        String value = p.getProperty(key);
+        if (value == null) {
+            throw new IllegalArgumentException(key + " is missing");
+        }
+        return value.trim();
+    }
+
+    private static double number(Properties p, String key) {
+        return Double.parseDouble(required(p, key));
+    }
+
+    /**
+     * Read key.0, key.1, ... until one is missing, each a list of numbers.
+     */
+    private static List<double[]> numbered(Properties p, String key, int size) {
+        List<double[]> list = new ArrayList<>();
+        for (int i = 0; p.getProperty(key + "." + i) != null; i++) {
+            String[] parts = required(p, key + "." + i).split("\\s+");
+            if (parts.length != size) {
+                throw new IllegalArgumentException(key + "." + i + " needs " + size + " numbers");
+            }
+            double[] values = new double[size];
+            for (int j = 0; j < size; j++) {
+                values[j] = Double.parseDouble(parts[j]);
+            }
+            list.add(values);
+        }
+        return list;
+    }
+
+    /**
+     * Is a point in one of the exclusion zones?
+     *
+     * @param x X position in metres.
+     * @param y Y position in metres.
+     * @param margin How far the point has to be away from a zone, in metres.
+     * @return true if and only if the point is closer to an exclusion zone than the margin.
+     */
+    public boolean isExcluded(double x, double y, double margin) {
+        for (double[] zone : exclusions) {
+            if (x > zone[0] - margin && x < zone[0] + zone[2] + margin && y > zone[1] - margin
+                            && y < zone[1] + zone[3] + margin) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Getters and Setters after here
+
+    public String getName() {
+        return name;
+    }
+
+    public String getBackground() {
+        return background;
+    }
+
+    public String getMask() {
+        return mask;
+    }
+
+    public double getWorldWidth() {
+        return worldWidth;
+    }
+
+    public double getWorldHeight() {
+        return worldHeight;
+    }
+
+    public double getStartX() {
+        return startX;
+    }
+
+    public double getStartY() {
+        return startY;
+    }
+
+    public double getStartRotation() {
+        return startRotation;
+    }
+
+    /**
+     *
+     * @return The gates in the order they have to be passed, as x0, y0, x1, y1. The first one is
+     *         the start and finish line.
+     */
+    public List<double[]> getGates() {
+        return gates;
+    }
+
+    /**
+     *
+     * @return Rectangles where no obstacles may be, as x, y, width, height.
+     */
+    public List<double[]> getExclusions() {
+        return exclusions;
+    }
+}
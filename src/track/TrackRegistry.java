@@ -0,0 +1,109 @@
+package track;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import model.AssetPack;
+
+/**
+ * The tracks that come with the game, listed in the resource "tracks/tracks.list". Tracks are
+ * loaded on first use and then kept, so switching between them is cheap. Tracks with the same
+ * mask image share their derived data through the caches of {@link Track} and
+ * {@link model.SignedDistanceField}.
+ *
+ * @author Juri Dispan
+ *
+ */
+public final class TrackRegistry {
+
+    /**
+     * The track that is used unless another one is chosen.
+     */
+    public static final String DEFAULT = "track_gravel";
+
+    private static final Map<String, Track> loaded = new ConcurrentHashMap<>();
+
+    private TrackRegistry() {}
+
+    /**
+     *
+     * @return The names of all tracks.
+     */
+    public static List<String> names() {
+        List<String> names = new ArrayList<>();
+        try (InputStream in = AssetPack.resource("/tracks/tracks.list")) {
+            if (in == null) {
+                return Collections.singletonList(DEFAULT);
+            }
+            BufferedReader reader =
+                            new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            for (String line; (line = reader.readLine()) != null;) {
+                if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                    names.add(line.trim());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return names;
+    }
+
+    /**
+     * Get a track, loading it if this is the first time it is asked for.
+     *
+     * @param name The name of the track.
+     * @return The track.
+     * @throws UncheckedIOException If the track does not exist or cannot be loaded.
+     */
+    public static Track get(String name) {
+        return loaded.computeIfAbsent(name, n -> {
+            try {
+                return Track.load(n);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Load a track again from a directory laid out like the resources, and keep it instead of
+     * the track loaded before.
+     *
+     * @param name The name of the track.
+     * @param directory The directory.
+     * @return The track.
+     * @throws IOException If the track cannot be loaded; the old track is kept then.
+     */
+    public static Track reload(String name, Path directory) throws IOException {
+        Track track = Track.load(name, directory);
+        loaded.put(name, track);
+        return track;
+    }
+
+    /**
+     *
+     * @return The tracks that have been loaded so far.
+     */
+    public static Collection<Track> loaded() {
+        return Collections.unmodifiableCollection(loaded.values());
+    }
+
+    /**
+     * Forget a loaded track, so it is loaded again on the next {@link #get(String)}.
+     *
+     * @param name The name of the track.
+     */
+    public static void unload(String name) {
+        loaded.remove(name);
+    }
+}
@@ -2,8 +2,13 @@ package view;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.SplittableRandom;
 import controller.GameController;
+import events.EventBus;
+import events.GameEvent;
+import javafx.geometry.Point2D;
 import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
@@ -17,8 +22,12 @@ import model.Car;
 import model.CountdownTimer;
 import model.Drawable;
 import model.Freezeable;
+import model.GhostCar;
+import model.LayoutQueue;
 import model.Obstacle;
+import model.ObstacleLayout;
 import model.RoundTimer;
+import model.Sprites;
 
 /**
  * Contains the view a player has while actually playing the game.
@@ -32,11 +41,12 @@ public class GameView implements Freezeable {
     public static final double TRACK_WIDTH = 110, TRACK_HEIGHT = 70;
     public static final int OBSTACLES_AMOUNT = 10;
 
-    // Three Tracks available, try them out!
+    // Three Tracks available, try them out with "--track=name"!
     // track_grass, track_dirt, and track_gravel will work!!
     public static Image TRACK;
     protected boolean hasReset;
 
+    protected Stage stage;
     protected Scene scene;
 
     protected StackPane rootPane;
@@ -49,14 +59,26 @@ public class GameView implements Freezeable {
     protected Canvas canvas;
 
     protected Car car;
+    protected List<Car> cars;
+    protected List<Point2D> grid;
+    protected GhostCar ghost;
+    protected Drawable opponents;
     protected GameController contr;
     protected RoundTimer timer;
     protected CountdownTimer cntdwn;
+    protected EventBus events;
+    /**
+     * Whether the race has ended and the won or lost dialog is shown.
+     */
+    protected boolean raceOver;
 
     /**
-     * Obstacles on the track.
+     * Obstacles on the track, and the layout they come from unless they have been set from
+     * outside.
      */
     protected Collection<Obstacle> obstacles;
+    protected ObstacleLayout layout;
+    protected LayoutQueue layouts;
 
     /**
      * List of all elements that need to be drawn on the canvas (excluding the background image).
@@ -69,24 +91,59 @@ public class GameView implements Freezeable {
      * @param stage the primary stage
      */
     public GameView(Stage stage) {
+        this(stage, 1);
+    }
+
+    /**
+     * A GameView for a race of several cars. The cars start on a grid behind the start line.
+     *
+     * @param stage the primary stage
+     * @param amount how many cars take part in the race
+     */
+    public GameView(Stage stage, int amount) {
+        this(stage, amount, new SplittableRandom().nextLong());
+    }
+
+    /**
+     * A GameView for a race of several cars, whose obstacles follow from a seed, so other players
+     * can race the same courses.
+     *
+     * @param stage the primary stage
+     * @param amount how many cars take part in the race
+     * @param seed the seed of the first obstacle layout, see {@link ObstacleLayout}
+     */
+    public GameView(Stage stage, int amount, long seed) {
+        this.stage = stage;
+        grid = amount > 1 ? Car.startingGrid(amount) : Collections.emptyList();
+        cars = new ArrayList<>(amount);
         car = new Car();
+        cars.add(car);
+        for (int i = 1; i < grid.size(); i++) {
+            cars.add(new Car(grid.get(i).getX(), grid.get(i).getY()));
+        }
         timer = new RoundTimer();
         cntdwn = new CountdownTimer();
+        events = new EventBus();
+        cars.forEach(c -> c.setEvents(events));
+        cntdwn.setEvents(events);
         hasReset = false;
-        obstacles = Obstacle.generateObs(OBSTACLES_AMOUNT, car.getWidth());
         rootPane = new StackPane();
         scene = new Scene(rootPane);
         canvas = new Canvas(WORLD_WIDTH * 10, WORLD_HEIGHT * 10);
         rootPane.getChildren().add(canvas);
-        lostImage = new ImageView(new Image("game_over.png"));
-        wonImage = new ImageView(new Image("round_finished.png"));
-        pauseImage = new ImageView(new Image("pause.png"));
-        menuImage = new ImageView(new Image("menu.png"));
+        // the other dialogs may still be loading (see application.AssetLoader), their images are
+        // looked up when they are shown
+        lostImage = new ImageView();
+        wonImage = new ImageView();
+        pauseImage = new ImageView();
+        menuImage = new ImageView(Sprites.get("menu.png"));
         roundTime = new Text();
         roundTime.setFont(Font.font("Microsoft Yi Baiti", 38));
-        TRACK = new Image("track_gravel.png");
+        TRACK = Sprites.get(Car.getTrack().getDescriptor().getBackground());
+        layouts = new LayoutQueue(Car.getTrack(), seed, OBSTACLES_AMOUNT, car.getWidth(), grid,
+                        car.getWidth(), GameView::bake);
         stage.setScene(scene);
-        stage.setTitle("Rennspiel");
+        setLayout(layouts.next());
         stage.setResizable(false);
         stage.sizeToScene();
     }
@@ -95,11 +152,35 @@ public class GameView implements Freezeable {
      * Reset the game world and put it in foreground in the application.
      */
     public void toForegroundAndReset() {
-        car.reset();
+        cars.forEach(Car::reset);
         timer.reset();
-        obstacles = Obstacle.generateObs(OBSTACLES_AMOUNT, car.getWidth());
-        hasReset = true;
+        setLayout(layouts.next());
+        raceOver = false;
         rootPane.getChildren().removeAll(lostImage, wonImage, roundTime, menuImage);
+        events.publish(GameEvent.Type.RACE_RESET);
+    }
+
+    /**
+     * Draw the obstacles of a layout onto the background of the track, on the thread of the
+     * {@link LayoutQueue}. If that fails, the obstacles are drawn every frame instead.
+     */
+    private static ObstacleLayout bake(ObstacleLayout layout) {
+        try {
+            return layout.bake(TRACK, Sprites.get("obstacle.png"));
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return layout;
+        }
+    }
+
+    /**
+     * Race on the obstacles of a layout. Its seed is shown in the title of the window.
+     */
+    private void setLayout(ObstacleLayout layout) {
+        this.layout = layout;
+        obstacles = layout.getObstacles();
+        hasReset = true;
+        stage.setTitle("Rennspiel - course " + ObstacleLayout.toString(layout.getSeed()));
     }
 
     /**
@@ -121,8 +202,19 @@ public class GameView implements Freezeable {
         if (hasReset()) {
             // System.out.println("ref");
             toDraw.clear();
-            toDraw.add(getCar());
-            toDraw.addAll(getObstacles());
+            if (ghost != null) {
+                toDraw.add(ghost);
+            }
+            toDraw.addAll(cars);
+            if (opponents != null) {
+                toDraw.add(opponents);
+            }
+            // not drawn if they are already on the background
+            toDraw.add(gc -> {
+                if (!obstaclesBaked()) {
+                    obstacles.forEach(o -> o.draw(gc));
+                }
+            });
             toDraw.add(getRoundTimer());
             cntdwn.start(toDraw);
         }
@@ -138,10 +230,10 @@ public class GameView implements Freezeable {
                 return;
             }
             freeze();
-            if (!rootPane.getChildren().contains(pauseImage)
-                            && !rootPane.getChildren().contains(wonImage)
-                            && !rootPane.getChildren().contains(lostImage)) {
+            if (!raceOver && !rootPane.getChildren().contains(pauseImage)) {
+                pauseImage.setImage(Sprites.get("pause.png"));
                 rootPane.getChildren().add(pauseImage);
+                events.publish(GameEvent.Type.PAUSED);
             }
         } else {
             if (cntdwn.isRunning()) {
@@ -150,6 +242,7 @@ public class GameView implements Freezeable {
             rootPane.getChildren().remove(pauseImage);
             timer.unfreeze();
             unfreeze();
+            events.publish(GameEvent.Type.RESUMED);
         }
     }
 
@@ -157,7 +250,9 @@ public class GameView implements Freezeable {
      * This gets called when the car is destroyed. It displays the game over dialog.
      */
     public void showLostOverlay() {
+        raceOver = true;
         if (!rootPane.getChildren().contains(lostImage)) {
+            lostImage.setImage(Sprites.get("game_over.png"));
             rootPane.getChildren().add(lostImage);
         }
 
@@ -167,7 +262,9 @@ public class GameView implements Freezeable {
      * This gets called when a round has been finished successfully. It displays the won dialog.
      */
     public void showFinishOverlay() {
+        raceOver = true;
         if (!rootPane.getChildren().contains(wonImage)) {
+            wonImage.setImage(Sprites.get("round_finished.png"));
             rootPane.getChildren().add(wonImage);
             roundTime.setText(timer.toString());
 
@@ -178,14 +275,14 @@ public class GameView implements Freezeable {
 
     @Override
     public void freeze() {
-        car.freeze();
+        cars.forEach(Car::freeze);
         timer.freeze();
         contr.notInGame();
     }
 
     @Override
     public void unfreeze() {
-        car.unfreeze();
+        cars.forEach(Car::unfreeze);
         contr.inGame();
     }
 
@@ -240,6 +337,13 @@ public class GameView implements Freezeable {
         return car;
     }
 
+    /**
+     * @return all cars in the race, the first one is the car returned by getCar().
+     */
+    public List<Car> getCars() {
+        return cars;
+    }
+
     /**
      * 
      * @return The scene used.
@@ -265,8 +369,78 @@ public class GameView implements Freezeable {
         this.contr = contr;
     }
 
+    /**
+     * Set the ghost car that is drawn below the racecar.
+     * 
+     * @param ghost The ghost car, or null if no ghost should be shown.
+     */
+    public void setGhost(GhostCar ghost) {
+        this.ghost = ghost;
+        hasReset = true;
+    }
+
+    /**
+     * Set what draws the cars of the other players in a multiplayer race.
+     * 
+     * @param opponents Draws the other cars, or null in a single player game.
+     */
+    public void setOpponents(Drawable opponents) {
+        this.opponents = opponents;
+        hasReset = true;
+    }
+
+    /**
+     * Replace the obstacles on the track, for example by the ones of a multiplayer race.
+     * 
+     * @param obstacles The new obstacles.
+     */
+    public void setObstacles(Collection<Obstacle> obstacles) {
+        this.obstacles = obstacles;
+        layout = null;
+        hasReset = true;
+        stage.setTitle("Rennspiel");
+    }
+
+    /**
+     * 
+     * @return The background of the track, with the obstacles on it if they have been baked
+     *         onto it.
+     */
+    public Image getBackground() {
+        return obstaclesBaked() ? layout.getBackground() : TRACK;
+    }
+
+    private boolean obstaclesBaked() {
+        return layout != null && layout.isBakedOn(TRACK, Sprites.get("obstacle.png"));
+    }
+
+    /**
+     * 
+     * @return The layout of the obstacles, or null if the obstacles have been set from outside,
+     *         for example by a race server.
+     */
+    public ObstacleLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * 
+     * @return true if and only if the race has ended and the won or lost dialog is shown.
+     */
+    public boolean isRaceOver() {
+        return raceOver;
+    }
+
     public CountdownTimer getCountDownTimer() {
         return cntdwn;
     }
 
+    /**
+     * 
+     * @return The bus the cars, the timers and this view publish the events of the race to.
+     */
+    public EventBus getEvents() {
+        return events;
+    }
+
 }
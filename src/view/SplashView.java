@@ -0,0 +1,48 @@
+package view;
+
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+import javafx.stage.Stage;
+
+/**
+ * Shown while the game is loading. It is built from plain controls only, so it can be shown before
+ * any image has been loaded.
+ *
+ * @author Juri Dispan
+ *
+ */
+public class SplashView {
+
+    private final ProgressBar progress;
+
+    /**
+     * Constructs a SplashView and shows it on the stage.
+     *
+     * @param stage the primary stage
+     */
+    public SplashView(Stage stage) {
+        Text title = new Text("Rennspiel");
+        title.setFont(Font.font("Microsoft Yi Baiti", 38));
+        progress = new ProgressBar(0);
+        progress.setPrefWidth(GameView.WORLD_WIDTH * 4);
+        VBox box = new VBox(20, title, progress);
+        box.setAlignment(Pos.CENTER);
+        stage.setScene(new Scene(box, GameView.WORLD_WIDTH * 10, GameView.WORLD_HEIGHT * 10));
+        stage.setTitle("Rennspiel");
+        stage.setResizable(false);
+        stage.show();
+    }
+
+    /**
+     * Set how much has been loaded. Must be called on the JavaFX application thread.
+     *
+     * @param fraction How much has been loaded, from 0 to 1.
+     */
+    public void setProgress(double fraction) {
+        progress.setProgress(fraction);
+    }
+}
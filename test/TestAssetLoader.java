@@ -0,0 +1,43 @@
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import application.AssetLoader;
+import javafx.embed.swing.JFXPanel;
+import model.Car;
+
+public class TestAssetLoader {
+    List<Double> progress;
+
+    private void setup() throws IOException {
+        System.setProperty("rennspiel.cache",
+                        Files.createTempDirectory("rennspiel-cache").toString());
+        // images need the JavaFX toolkit
+        new JFXPanel();
+        progress = new CopyOnWriteArrayList<>();
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        setup();
+        try (AssetLoader loader = new AssetLoader("track_grass", progress::add, false)) {
+            loader.required().get(30, TimeUnit.SECONDS);
+            assertEquals("track_grass", Car.getTrack().getName());
+            loader.all().get(30, TimeUnit.SECONDS);
+            assertTrue(loader.getEngineNoise().isDone());
+            // not needed for the menu, but loaded in the background
+            assertSame(Car.getTrack().getFields(), loader.getTrackFields().get());
+        } finally {
+            Car.initTrack();
+        }
+        // one report per asset, the last one when everything has been loaded
+        assertTrue(progress.size() > 1);
+        for (int i = 1; i < progress.size(); i++) {
+            assertTrue(progress.get(i) > progress.get(i - 1));
+        }
+        assertEquals(1, progress.get(progress.size() - 1), 0);
+    }
+}
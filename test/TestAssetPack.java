@@ -0,0 +1,86 @@
+import static org.junit.Assert.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import javax.imageio.ImageIO;
+import org.junit.Test;
+import model.AssetPack;
+import tools.AssetPacker;
+
+public class TestAssetPack {
+    Path file;
+    AssetPack pack;
+
+    private void setup() throws IOException {
+        file = Files.createTempDirectory("rennspiel-pack").resolve("assets.pack");
+        AssetPacker.pack(Paths.get("res"), file);
+        pack = AssetPack.open(file);
+    }
+
+    @Test
+    public void testContents() throws IOException {
+        setup();
+        assertEquals(Collections.emptySet(), pack.verify());
+        assertTrue(pack.contains("/tracks/tracks.list"));
+        assertTrue(pack.contains("tracks/track_gravel.track"));
+        assertFalse(pack.names().stream().anyMatch(n -> n.endsWith(".xcf")));
+        // raw assets are stored as they are
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = pack.open("track_mask.png")) {
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer, 0, buffer.length)) > 0;) {
+                out.write(buffer, 0, n);
+            }
+        }
+        assertTrue(Arrays.equals(Files.readAllBytes(Paths.get("res", "track_mask.png")),
+                        out.toByteArray()));
+    }
+
+    @Test
+    public void testDecodedImage() throws IOException {
+        setup();
+        BufferedImage png = ImageIO.read(Paths.get("res", "obstacle.png").toFile());
+        ByteBuffer pixels = pack.slice("obstacle.png");
+        assertTrue(pixels.isReadOnly());
+        assertEquals(png.getWidth() * png.getHeight() * 4, pixels.remaining());
+        for (int y = 0; y < png.getHeight(); y++) {
+            for (int x = 0; x < png.getWidth(); x++) {
+                int argb = png.getRGB(x, y);
+                int i = (y * png.getWidth() + x) * 4;
+                assertEquals(argb >>> 24, pixels.get(i + 3) & 0xff);
+                if (argb >>> 24 == 255) {
+                    assertEquals(argb & 0xffffff, (pixels.get(i + 2) & 0xff) << 16
+                                    | (pixels.get(i + 1) & 0xff) << 8 | pixels.get(i) & 0xff);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDamage() throws IOException {
+        setup();
+        long length = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {1, 2, 3}), length - 3);
+        }
+        assertFalse(AssetPack.open(file).verify().isEmpty());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(length / 2);
+        }
+        try {
+            AssetPack.open(file);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,52 @@
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Test;
+import controller.AssetReloader;
+import model.Car;
+import track.Track;
+import track.TrackRegistry;
+
+public class TestAssetReloader {
+    Path res;
+
+    private void setup() throws IOException {
+        System.setProperty("rennspiel.cache",
+                        Files.createTempDirectory("rennspiel-cache").toString());
+        res = Files.createTempDirectory("rennspiel-res");
+        Files.createDirectory(res.resolve("tracks"));
+        Files.copy(Paths.get("res", "tracks", "track_gravel.track"),
+                        res.resolve("tracks").resolve("track_gravel.track"));
+        Files.copy(Paths.get("res", "track_mask.png"), res.resolve("track_mask.png"));
+        Car.initTrack();
+    }
+
+    @Test
+    public void testReloadTrack() throws Exception {
+        setup();
+        Track old = Car.getTrack();
+        Path file = res.resolve("tracks").resolve("track_gravel.track");
+        try (AssetReloader reloader = new AssetReloader(res)) {
+            reloader.start();
+            String descriptor = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            Files.write(file, descriptor.replace("start.x = 68.1", "start.x = 69")
+                            .getBytes(StandardCharsets.UTF_8));
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!reloader.applyPending() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            // the new track is only used once the pending swap has been applied
+            assertNotSame(old, Car.getTrack());
+            assertEquals(69, Car.getTrack().getDescriptor().getStartX(), 0);
+            assertSame(Car.getTrack(), TrackRegistry.get(TrackRegistry.DEFAULT));
+            assertEquals(69, new Car().getPosX(), 0);
+        } finally {
+            TrackRegistry.unload(TrackRegistry.DEFAULT);
+            Car.initTrack();
+        }
+        assertEquals(68.1, Car.getTrack().getDescriptor().getStartX(), 0);
+    }
+}
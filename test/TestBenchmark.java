@@ -0,0 +1,89 @@
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import diagnostics.Benchmark;
+
+public class TestBenchmark {
+    Benchmark bench;
+
+    private void setup() {
+        bench = new Benchmark(10, 100);
+        bench.startupPhase("assets", 250);
+        // warmup frames are slow and not measured
+        for (int i = 0; i < 10; i++) {
+            assertFalse(bench.frame(1_000_000_000, 0, 0));
+        }
+        // 1 to 100 ms
+        for (int i = 1; i < 100; i++) {
+            assertFalse(bench.frame(i * 1_000_000L, 500_000, 2_000_000));
+        }
+        assertFalse(bench.isDone());
+        assertTrue(bench.frame(100 * 1_000_000L, 500_000, 2_000_000));
+        assertTrue(bench.isDone());
+    }
+
+    @Test
+    public void testReport() {
+        setup();
+        Map<String, Object> report = bench.report(Collections.singletonMap("track", "test"));
+        assertEquals("test", report.get("track"));
+        assertEquals(100, report.get("frames"));
+        assertEquals(50.5, (double) report.get("frame_ms_mean"), 1e-9);
+        assertEquals(50, (double) report.get("frame_ms_p50"), 0);
+        assertEquals(99, (double) report.get("frame_ms_p99"), 0);
+        assertEquals(100, (double) report.get("frame_ms_max"), 0);
+        assertEquals(0.5, (double) report.get("draw_ms_p99"), 0);
+        assertEquals(200, (double) report.get("sim_ms_total"), 1e-9);
+        assertEquals(250L, report.get("startup_assets_ms"));
+    }
+
+    @Test
+    public void testJson() throws IOException {
+        setup();
+        Map<String, Object> report =
+                        bench.report(Collections.singletonMap("track", "a \"quoted\" name"));
+        Path file = Files.createTempFile("bench", ".json");
+        Benchmark.write(file, report);
+        Map<String, Object> read = Benchmark.read(file);
+        assertEquals(report.keySet(), read.keySet());
+        assertEquals("a \"quoted\" name", read.get("track"));
+        for (String key : Benchmark.COMPARED) {
+            if (report.containsKey(key)) {
+                assertEquals(((Number) report.get(key)).doubleValue(), (double) read.get(key),
+                                1e-9);
+            }
+        }
+        // the same run is no regression
+        assertTrue(Benchmark.compare(read, report, 0, Collections.emptyMap()).isEmpty());
+    }
+
+    @Test
+    public void testCompare() {
+        Map<String, Object> baseline = new HashMap<>(), current = new HashMap<>();
+        baseline.put("frame_ms_p99", 20.0);
+        baseline.put("sim_ms_mean", 0.2);
+        baseline.put("gc_count", 0);
+        current.put("frame_ms_p99", 25.0);
+        // tiny values do not fail on noise
+        current.put("sim_ms_mean", 0.4);
+        current.put("gc_count", 1);
+        // values missing in the baseline are not compared
+        current.put("draw_ms_p99", 100.0);
+
+        List<String> regressions = Benchmark.compare(baseline, current, 10, new HashMap<>());
+        assertEquals(1, regressions.size());
+        assertTrue(regressions.get(0).startsWith("frame_ms_p99"));
+
+        assertTrue(Benchmark.compare(baseline, current, 30, new HashMap<>()).isEmpty());
+        assertTrue(Benchmark.compare(baseline, current, 10,
+                        Collections.singletonMap("frame_ms_p99", 30.0)).isEmpty());
+        current.put("frame_ms_p99", 15.0);
+        assertTrue(Benchmark.compare(baseline, current, 0, new HashMap<>()).isEmpty());
+    }
+}
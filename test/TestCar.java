@@ -3,6 +3,7 @@ import java.util.Collections;
 import java.util.List;
 import org.junit.Test;
 import model.Car;
+import model.CarState;
 import model.Obstacle;
 import model.RoundTimer;
 
@@ -64,7 +65,7 @@ public class TestCar {
         car.unfreeze();
         RoundTimer timer = new RoundTimer();
         assertFalse(car.checkLines(timer));
-        double timeDelta = 0.2; // Calculated based on acceleration, mass and starting position of
+        double timeDelta = 0.25; // Calculated based on acceleration, mass and starting position of
                                 // the car, this is the point in time when the car crosses the
                                 // starting line
         car.stepForward(timeDelta, true, false, false, false, Collections.emptyList());
@@ -73,12 +74,68 @@ public class TestCar {
         assertFalse(car.checkLines(timer));
     }
 
+    @Test
+    public void testCheckLinesWithoutTimer() {
+        setupCar();
+        Car.initTrack();
+        car.unfreeze();
+        // computer-controlled cars time their laps without the round timer of the players
+        car.stepForward(0.25, true, false, false, false, Collections.emptyList());
+        assertTrue(car.checkLines(null));
+        assertTrue(car.hasStartedLap());
+        car.stepForward(0.5, true, false, false, false, Collections.emptyList());
+        assertEquals(0.5, car.getLapTime(), 0.25);
+    }
+
+    @Test
+    public void testReverseOverStartLine() {
+        setupCar();
+        Car.initTrack();
+        car.unfreeze();
+        RoundTimer timer = new RoundTimer();
+        // in front of the start line, rolling backwards over it
+        car.setState(63, 10, -10, 0, false);
+        car.stepForward(0.5, false, false, false, false, Collections.emptyList());
+        assertTrue(car.getPosX() > 66);
+        assertFalse(car.checkLines(timer));
+        assertFalse(car.hasStartedLap());
+        // forwards over it starts the lap
+        car.setState(car.getPosX(), 10, 10, 0, false);
+        car.stepForward(0.5, false, false, false, false, Collections.emptyList());
+        assertTrue(car.checkLines(timer));
+        assertTrue(car.hasStartedLap());
+        // back and forth over the start line neither passes a gate nor ends the lap
+        for (double vel : new double[] {-10, 10}) {
+            car.setState(car.getPosX(), 10, vel, 0, false);
+            car.stepForward(0.5, false, false, false, false, Collections.emptyList());
+            assertFalse(car.checkLines(timer));
+        }
+        assertFalse(car.hasPassedEndLine());
+    }
+
+    @Test
+    public void testGateCrossedBetweenSteps() {
+        setupCar();
+        Car.initTrack();
+        car.unfreeze();
+        RoundTimer timer = new RoundTimer();
+        // in one step the car jumps over the whole metre after the start line
+        car.stepForward(0.35, true, false, false, false, Collections.emptyList());
+        assertTrue(car.getPosX() < car.STARTING_POS_X - car.getWidth() / 2 - 1);
+        assertTrue(car.checkLines(timer));
+        assertTrue(car.hasStartedLap());
+        // the lap started within the step
+        assertTrue(car.getLapTime() > 0);
+        assertTrue(car.getLapTime() < 0.35);
+        assertFalse(car.hasPassedEndLine());
+    }
+
     @Test
     public void checkCollectionWithBoundaryHighVel() {
         setupCar();
         Car.initTrack();
         car.unfreeze();
-        car.stepForward(2, true, false, false, false, Collections.emptyList());
+        car.stepForward(3, true, false, false, false, Collections.emptyList());
         assertTrue(car.isDestroyed());
     }
 
@@ -90,10 +147,35 @@ public class TestCar {
         Obstacle inFrontOfStartLine =
                         new Obstacle(car.STARTING_POS_X - 10, car.STARTING_POS_Y, 1, 0);
         List<Obstacle> obstacles = Collections.singletonList(inFrontOfStartLine);
-        car.stepForward(0.5, true, false, false, false, obstacles);
+        car.stepForward(1, true, false, false, false, obstacles);
         assertTrue(car.isDestroyed());
     }
 
+    @Test
+    public void testLongSteps() {
+        Car.initTrack();
+        double[][] poses = new double[2][];
+        int[] steps = {120, 2};
+        for (int i = 0; i < steps.length; i++) {
+            Car car = new Car();
+            car.unfreeze();
+            for (int n = 0; n < steps[i] / 2; n++) {
+                car.stepForward(1.0 / steps[i], true, false, false, false,
+                                Collections.emptyList());
+            }
+            for (int n = 0; n < steps[i] / 2; n++) {
+                car.stepForward(1.0 / steps[i], false, false, true, false,
+                                Collections.emptyList());
+            }
+            poses[i] = new double[] {car.getPosX(), car.getPosY(), car.getVel(), car.getRotation()};
+        }
+        // half a second per step drives nearly the same as a frame per step
+        assertEquals(poses[0][0], poses[1][0], 0.3);
+        assertEquals(poses[0][1], poses[1][1], 0.3);
+        assertEquals(poses[0][2], poses[1][2], 0.2);
+        assertEquals(poses[0][3], poses[1][3], 0.01);
+    }
+
     @Test
     public void testTurnLeft() {
         setupCar();
@@ -126,4 +208,43 @@ public class TestCar {
         assertTrue(car.getVel() < 0);
     }
 
+    @Test
+    public void testState() throws InterruptedException {
+        setupCar();
+        CarState start = car.getState();
+        assertTrue(start.isFrozen());
+        car.unfreeze();
+        car.stepForward(1, true, false, false, false, Collections.emptyList());
+        CarState state = car.getState();
+        assertEquals(car.getPosX(), state.getPosX(), 0.0);
+        assertEquals(car.getVel(), state.getVel(), 0.0);
+        assertTrue(state.isMoving());
+        assertFalse(state.isFrozen());
+        assertTrue(state.getVersion() > start.getVersion());
+        // published states do not change
+        assertEquals(0, start.getVel(), 0.0);
+        assertTrue(start.isFrozen());
+
+        // another thread only ever sees complete states, in order
+        boolean[] broken = new boolean[1];
+        Thread reader = new Thread(() -> {
+            long last = -1;
+            while (!Thread.currentThread().isInterrupted()) {
+                CarState s = car.getState();
+                if (s.getVersion() < last || s.isMoving() != (s.getVel() != 0)) {
+                    broken[0] = true;
+                }
+                last = s.getVersion();
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 10_000; i++) {
+            car.stepForward(1 / 60.0, i % 100 < 50, i % 100 >= 50, false, false,
+                            Collections.emptyList());
+        }
+        reader.interrupt();
+        reader.join();
+        assertFalse(broken[0]);
+    }
+
 }
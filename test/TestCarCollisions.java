@@ -0,0 +1,112 @@
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import javafx.geometry.Point2D;
+import model.Car;
+import model.CarCollisions;
+
+public class TestCarCollisions {
+    CarCollisions collisions;
+
+    private void setup() {
+        Car.initTrack();
+        collisions = new CarCollisions();
+    }
+
+    private Car carAt(double x, double y, double vel, double rot) {
+        Car car = new Car();
+        car.setState(x, y, vel, rot, false);
+        return car;
+    }
+
+    @Test
+    public void testCrash() {
+        setup();
+        // the cars drive towards negative x, the fast one runs into the slow one
+        Car slow = carAt(60, 10, 10, 0);
+        Car fast = carAt(63, 10, 20, 0);
+        assertEquals(1, collisions.resolve(Arrays.asList(slow, fast)));
+        assertFalse(slow.isDestroyed());
+        assertFalse(fast.isDestroyed());
+        assertEquals(15, slow.getVel(), 1e-9);
+        assertEquals(15, fast.getVel(), 1e-9);
+        // pushed apart
+        assertEquals(0, collisions.resolve(Arrays.asList(slow, fast)));
+    }
+
+    @Test
+    public void testRearEnd() {
+        setup();
+        // a parked car rammed at full speed: both are wrecked, whichever is faster
+        Car parked = carAt(60, 10, 0, 0);
+        Car fast = carAt(63, 10, 25, 0);
+        assertEquals(1, collisions.resolve(Arrays.asList(parked, fast)));
+        assertTrue(parked.isDestroyed());
+        assertTrue(fast.isDestroyed());
+        assertFalse(parked.isMoving());
+        assertFalse(fast.isMoving());
+    }
+
+    @Test
+    public void testSideBySide() {
+        setup();
+        // at race speed, brushing each other
+        Car left = carAt(60, 10, 25, 0);
+        Car right = carAt(60.5, 11.9, 25, 0);
+        assertEquals(1, collisions.resolve(Arrays.asList(left, right)));
+        assertFalse(left.isDestroyed());
+        assertFalse(right.isDestroyed());
+        assertEquals(25, left.getVel(), 1e-9);
+        assertEquals(25, right.getVel(), 1e-9);
+        // pushed apart sideways only
+        assertEquals(60, left.getPosX(), 1e-9);
+        assertEquals(60.5, right.getPosX(), 1e-9);
+        assertTrue(right.getPosY() - left.getPosY() >= 2 - 1e-9);
+    }
+
+    @Test
+    public void testOrientedBoxes() {
+        setup();
+        // the bounding boxes overlap, the cars do not
+        Car a = carAt(60, 10, 0, Math.PI / 4);
+        Car b = carAt(62.5, 12.5, 0, Math.PI / 4 + Math.PI / 2);
+        assertEquals(0, collisions.resolve(Arrays.asList(a, b)));
+        assertEquals(1, collisions.getPairTests());
+        // side by side
+        assertEquals(0, collisions.resolve(
+                        Arrays.asList(carAt(60, 10, 0, 0), carAt(60, 12.1, 0, 0))));
+        assertEquals(1, collisions.resolve(
+                        Arrays.asList(carAt(60, 10, 0, 0), carAt(60, 11.9, 0, 0))));
+    }
+
+    @Test
+    public void testPairTestsGrowLinearly() {
+        setup();
+        Random random = new Random(1);
+        for (int amount : new int[] {2, 20, 200}) {
+            List<Car> cars = new ArrayList<>();
+            for (int i = 0; i < amount; i++) {
+                cars.add(carAt(3 + 5 * (i % 25), 3 + 5 * (i / 25), 0,
+                                random.nextDouble() * 2 * Math.PI));
+            }
+            assertEquals(0, collisions.resolve(cars));
+            assertTrue(collisions.getPairTests() <= 4 * amount);
+        }
+    }
+
+    @Test
+    public void testStartingGrid() {
+        setup();
+        List<Point2D> grid = Car.startingGrid(6);
+        assertEquals(6, grid.size());
+        List<Car> cars = new ArrayList<>();
+        for (Point2D p : grid) {
+            assertTrue(Car.getTrackBitMap()[(int) (p.getX() * 10)][(int) (p.getY() * 10)]);
+            cars.add(new Car(p.getX(), p.getY()));
+        }
+        assertEquals(0, collisions.resolve(cars));
+    }
+}
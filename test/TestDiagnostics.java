@@ -0,0 +1,70 @@
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import diagnostics.Diagnostics;
+import diagnostics.SimulationTickEvent;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import model.Car;
+import model.Obstacle;
+
+public class TestDiagnostics {
+    Path file;
+
+    private void setup() throws IOException {
+        System.setProperty("rennspiel.cache",
+                        Files.createTempDirectory("rennspiel-cache").toString());
+        file = Files.createTempDirectory("rennspiel-jfr").resolve("race.jfr");
+        Car.initTrack();
+    }
+
+    private List<RecordedEvent> events(String name) throws IOException {
+        return RecordingFile.readAllEvents(file).stream()
+                        .filter(e -> e.getEventType().getName().equals(name))
+                        .collect(Collectors.toList());
+    }
+
+    @Test
+    public void testDisabledByDefault() throws IOException {
+        setup();
+        assertFalse(new SimulationTickEvent().isEnabled());
+    }
+
+    @Test
+    public void testRecording() throws IOException {
+        setup();
+        Collection<Obstacle> obstacles;
+        try (Recording recording = Diagnostics.record(file)) {
+            obstacles = Obstacle.generateObs(10, 4.2);
+            Car car = new Car();
+            car.unfreeze();
+            for (int i = 0; i < 30; i++) {
+                car.stepForward(1 / 60.0, true, false, false, false, obstacles);
+            }
+            recording.stop();
+        }
+        List<RecordedEvent> ticks = events("rennspiel.SimulationTick");
+        assertEquals(30, ticks.size());
+        assertEquals(1 / 60.0, ticks.get(0).getDouble("timeDelta"), 1e-12);
+        assertTrue(ticks.get(29).getDouble("velocity") > ticks.get(0).getDouble("velocity"));
+        assertEquals(1, ticks.get(29).getDouble("onTrack"), 0);
+
+        List<RecordedEvent> checks = events("rennspiel.CollisionCheck");
+        assertEquals(30, checks.size());
+        assertEquals("NO_COLLISION", checks.get(0).getString("result"));
+        assertEquals(obstacles.size(), checks.get(0).getInt("obstaclesTested"));
+
+        List<RecordedEvent> generation = events("rennspiel.ObstacleGeneration");
+        assertEquals(1, generation.size());
+        assertEquals(10, generation.get(0).getInt("obstacles"));
+        assertEquals(10 + generation.get(0).getInt("rejected")
+                        + generation.get(0).getInt("undrivable"),
+                        generation.get(0).getInt("attempts"));
+    }
+}
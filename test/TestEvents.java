@@ -0,0 +1,106 @@
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import events.EventBus;
+import events.GameEvent;
+import model.AIDriver;
+import model.Car;
+import model.Obstacle;
+import model.RoundTimer;
+
+public class TestEvents {
+    static final double DT = 1 / 60.0;
+    EventBus events;
+    Car car;
+    List<String> seen;
+
+    private void setup() throws IOException {
+        System.setProperty("rennspiel.cache",
+                        Files.createTempDirectory("rennspiel-cache").toString());
+        Car.initTrack();
+        events = new EventBus();
+        car = new Car();
+        car.setEvents(events);
+        car.unfreeze();
+        seen = new ArrayList<>();
+    }
+
+    @Test
+    public void testTypes() throws IOException {
+        setup();
+        events.subscribe(GameEvent.Type.PAUSED, e -> seen.add("paused " + e.getSequence()));
+        EventBus.Listener resumed = e -> seen.add("resumed " + e.getSequence());
+        events.subscribe(GameEvent.Type.RESUMED, resumed);
+        events.publish(GameEvent.Type.PAUSED);
+        events.publish(GameEvent.Type.RACE_RESET);
+        events.publish(GameEvent.Type.RESUMED);
+        events.unsubscribe(resumed);
+        events.publish(GameEvent.Type.RESUMED);
+        assertEquals(2, seen.size());
+        assertEquals("paused 0", seen.get(0));
+        assertEquals("resumed 2", seen.get(1));
+    }
+
+    @Test
+    public void testLap() throws IOException {
+        setup();
+        List<Double> finished = new ArrayList<>();
+        events.subscribe(GameEvent.Type.LAP_STARTED, e -> seen.add("started"));
+        events.subscribe(GameEvent.Type.GATE_PASSED, e -> seen.add("gate " + e.getGate()));
+        events.subscribe(GameEvent.Type.LAP_FINISHED, e -> {
+            assertSame(car, e.getCar());
+            finished.add(e.getTime());
+        });
+        AIDriver driver = new AIDriver(15, Car.getTrack().getFields());
+        RoundTimer timer = new RoundTimer();
+        for (int tick = 0; tick < 60 * 120 && !car.hasPassedEndLine(); tick++) {
+            driver.update(car, Collections.emptyList());
+            car.stepForward(DT, driver.accelerate(), driver.brake(), driver.turnLeft(),
+                            driver.turnRight(), Collections.emptyList());
+            car.checkLines(timer);
+        }
+        assertTrue(car.hasPassedEndLine());
+        assertEquals("started", seen.get(0));
+        assertTrue(seen.contains("gate 1"));
+        assertEquals(1, finished.size());
+        assertEquals(car.getLapTime(), finished.get(0), DT);
+    }
+
+    @Test
+    public void testDestroyed() throws IOException {
+        setup();
+        events.subscribe(GameEvent.Type.CAR_DESTROYED, e -> seen.add("destroyed"));
+        List<Obstacle> obstacles = Collections.singletonList(
+                        new Obstacle(car.STARTING_POS_X - 10, car.STARTING_POS_Y, 1, 0));
+        car.stepForward(1, true, false, false, false, obstacles);
+        assertTrue(car.isDestroyed());
+        // only once, when the car crashes
+        car.stepForward(1, true, false, false, false, obstacles);
+        assertEquals(Collections.singletonList("destroyed"), seen);
+    }
+
+    @Test
+    public void testAsync() throws IOException {
+        setup();
+        List<Long> sequences = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+        events.subscribeAsync(GameEvent.Type.PAUSED, e -> {
+            sequences.add(e.getSequence());
+            threads.add(Thread.currentThread());
+        });
+        for (int i = 0; i < 100; i++) {
+            events.publish(GameEvent.Type.PAUSED);
+        }
+        events.close();
+        // everything published before closing has been handed on, in order
+        assertEquals(100 - events.getDropped(), sequences.size());
+        for (int i = 1; i < sequences.size(); i++) {
+            assertTrue(sequences.get(i - 1) < sequences.get(i));
+        }
+        assertFalse(threads.contains(Thread.currentThread()));
+    }
+}
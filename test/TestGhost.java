@@ -0,0 +1,105 @@
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Test;
+import model.Car;
+import model.GhostCar;
+import model.LapRecorder;
+
+public class TestGhost {
+    Path file;
+    LapRecorder recorder;
+    GhostCar ghost;
+
+    private void setup() throws IOException {
+        file = Files.createTempDirectory("ghost").resolve("ghost.bin");
+        recorder = new LapRecorder(file);
+        ghost = new GhostCar(new Car());
+    }
+
+    /**
+     * Record a lap of the given length, in which the car drives along the x axis with 1 m/s.
+     */
+    private boolean recordLap(int samples) throws IOException {
+        for (int i = 0; i < samples; i++) {
+            recorder.append(i * 0.5, i * 0.5, 10, 0);
+        }
+        return recorder.finishLap(ghost);
+    }
+
+    @Test
+    public void testNoGhostFile() throws IOException {
+        setup();
+        assertFalse(ghost.load(file));
+        ghost.update(1);
+        assertFalse(ghost.isVisible());
+    }
+
+    @Test
+    public void testInterpolation() throws IOException {
+        setup();
+        assertTrue(recordLap(5_000));
+        assertTrue(ghost.load(file));
+        assertEquals(2499.5, ghost.getBestLapTime(), 0.01);
+        ghost.update(-1);
+        assertFalse(ghost.isVisible());
+        ghost.update(0.25);
+        assertTrue(ghost.isVisible());
+        assertEquals(0.25, ghost.getPosX(), 0.001);
+        // far beyond the first mapped window
+        ghost.update(2000.75);
+        assertEquals(2000.75, ghost.getPosX(), 0.001);
+        assertEquals(10, ghost.getPosY(), 0.001);
+        // going back in time
+        ghost.update(3.1);
+        assertEquals(3.1, ghost.getPosX(), 0.001);
+        // after the end of the lap the ghost waits at the finish
+        ghost.update(10_000);
+        assertEquals(2499.5, ghost.getPosX(), 0.001);
+        ghost.close();
+    }
+
+    @Test
+    public void testOnlyFasterLapsAreStored() throws IOException {
+        setup();
+        assertTrue(recordLap(100));
+        assertFalse(recordLap(200));
+        assertEquals(49.5, GhostCar.readLapTime(file), 0.01);
+        assertTrue(recordLap(50));
+        assertEquals(24.5, GhostCar.readLapTime(file), 0.01);
+    }
+
+    @Test
+    public void testGhostIsReplacedWhileLoaded() throws IOException {
+        setup();
+        assertTrue(recordLap(3_000));
+        assertTrue(ghost.load(file));
+        ghost.update(1000.25);
+        // the ghost lets go of the mapped file while it is replaced and replays the new lap
+        assertTrue(recordLap(100));
+        assertEquals(49.5, ghost.getBestLapTime(), 0.01);
+        ghost.update(10.25);
+        assertEquals(10.25, ghost.getPosX(), 0.001);
+        ghost.close();
+    }
+
+    @Test
+    public void testFailedStoreIsReported() throws IOException {
+        setup();
+        assertTrue(recordLap(100));
+        assertTrue(ghost.load(file));
+        // the temporary file cannot be written
+        Files.createDirectory(file.resolveSibling(file.getFileName() + ".tmp"));
+        try {
+            recordLap(50);
+            fail();
+        } catch (IOException e) {
+            // reported
+        }
+        // the old ghost is kept
+        assertEquals(49.5, ghost.getBestLapTime(), 0.01);
+        assertEquals(49.5, GhostCar.readLapTime(file), 0.01);
+        ghost.close();
+    }
+}
@@ -0,0 +1,64 @@
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import org.junit.Test;
+import model.Car;
+import model.Obstacle;
+import tools.InputTrace;
+import tools.LineOptimiser;
+
+public class TestLineOptimiser {
+    Collection<Obstacle> obstacles;
+
+    private void setup() throws IOException {
+        System.setProperty("rennspiel.cache",
+                        Files.createTempDirectory("rennspiel-cache").toString());
+        Car.initTrack();
+        obstacles = Collections.singletonList(new Obstacle(30, 70, 1, 0));
+    }
+
+    private LineOptimiser optimise(long seed, int iterations) {
+        return optimise(seed, iterations, 2);
+    }
+
+    private LineOptimiser optimise(long seed, int iterations, int threads) {
+        LineOptimiser optimiser = new LineOptimiser(obstacles, 8, 0.25, threads, seed);
+        optimiser.run(iterations, null);
+        optimiser.shutdown();
+        return optimiser;
+    }
+
+    @Test
+    public void testImproves() throws IOException {
+        setup();
+        double start = optimise(1, 0).getBestLapTime();
+        assertTrue(start < 60);
+        assertTrue(optimise(1, 6).getBestLapTime() <= start);
+    }
+
+    @Test
+    public void testDeterministic() throws IOException {
+        setup();
+        assertEquals(optimise(7, 4).getBestLapTime(), optimise(7, 4).getBestLapTime(), 0);
+        // also on another number of threads
+        assertEquals(optimise(7, 4).getBestLapTime(), optimise(7, 4, 1).getBestLapTime(), 0);
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        setup();
+        LineOptimiser optimiser = optimise(1, 3);
+        Path file = Files.createTempFile("lap", ".inputs");
+        optimiser.getBest().write(file);
+        InputTrace trace = InputTrace.read(file);
+        assertEquals(obstacles.size(), trace.getObstacles().size());
+        Car car = new Car();
+        trace.replay(car, null);
+        assertTrue(car.hasPassedEndLine());
+        assertEquals(optimiser.getBestLapTime(), car.getLapTime(), 1e-9);
+        Files.delete(file);
+    }
+}
@@ -0,0 +1,70 @@
+import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import org.junit.Test;
+import diagnostics.Metrics;
+import diagnostics.MetricsServer;
+import model.Car;
+
+public class TestMetrics {
+
+    private void setup() throws IOException {
+        System.setProperty("rennspiel.cache",
+                        Files.createTempDirectory("rennspiel-cache").toString());
+        Car.initTrack();
+    }
+
+    private static String get(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("text/plain"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) > 0;) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testHistogram() {
+        Metrics.Histogram ticks = Metrics.TICK_TIME;
+        long before = ticks.count();
+        ticks.observe(3e-6);
+        ticks.observe(1);
+        assertEquals(before + 2, ticks.count());
+        String text = Metrics.scrape();
+        assertTrue(text.contains("# TYPE rennspiel_tick_seconds histogram\n"));
+        assertTrue(text.contains("rennspiel_tick_seconds_bucket{le=\"+Inf\"} "
+                        + ticks.count() + "\n"));
+        assertTrue(text.contains("rennspiel_tick_seconds_count " + ticks.count() + "\n"));
+    }
+
+    @Test
+    public void testEndpoint() throws IOException {
+        setup();
+        try (MetricsServer server = new MetricsServer(0)) {
+            assertTrue(Metrics.isEnabled());
+            long checks = Metrics.COLLISION_CHECKS.get();
+            long ticks = Metrics.TICK_TIME.count();
+            Car car = new Car();
+            car.unfreeze();
+            for (int i = 0; i < 10; i++) {
+                car.stepForward(1 / 60.0, true, false, false, false, Collections.emptyList());
+            }
+            String text = get(new URL("http://localhost:" + server.getPort() + "/metrics"));
+            assertTrue(text.contains("rennspiel_collision_checks_total " + (checks + 10) + "\n"));
+            assertTrue(text.contains("rennspiel_tick_seconds_count " + (ticks + 10) + "\n"));
+            assertTrue(text.contains("rennspiel_heap_used_bytes "));
+            assertTrue(text.contains("rennspiel_gc_collections_total{gc=\""));
+        }
+    }
+}
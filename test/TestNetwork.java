@@ -0,0 +1,169 @@
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import org.junit.Test;
+import model.Car;
+import model.RoundTimer;
+import network.NetworkConditions;
+import network.RaceClient;
+import network.RaceServer;
+
+public class TestNetwork {
+    RaceServer server;
+    RaceClient driver, watcher;
+    Car driverCar, watcherCar;
+
+    private void setup(NetworkConditions server, NetworkConditions client) throws IOException {
+        Car.initTrack();
+        this.server = new RaceServer(0, server);
+        this.server.start();
+        InetSocketAddress address = new InetSocketAddress("localhost", this.server.getPort());
+        driverCar = new Car();
+        driverCar.unfreeze();
+        watcherCar = new Car();
+        driver = new RaceClient(address, driverCar, client);
+        watcher = new RaceClient(address, watcherCar, client);
+        assertTrue(driver.connect(2_000));
+        assertTrue(watcher.connect(2_000));
+    }
+
+    private void tearDown() throws IOException {
+        driver.close();
+        watcher.close();
+        server.close();
+    }
+
+    /**
+     * Run both clients at 60 fps for the given time, the driver only accelerates.
+     */
+    private void drive(double seconds, boolean accelerate) throws Exception {
+        for (int frame = 0; frame < seconds * 60; frame++) {
+            driver.update(1 / 60.0, accelerate, false, false, false);
+            watcher.pump();
+            Thread.sleep(16);
+        }
+    }
+
+    /**
+     * Run both clients at 60 fps for the given time, the driver accelerates and turns left. The
+     * driver checks the gates after every frame, like the game does.
+     */
+    private void driveLeft(double seconds, RoundTimer timer) throws Exception {
+        for (int frame = 0; frame < seconds * 60; frame++) {
+            driver.update(1 / 60.0, true, false, frame % 2 == 0, false);
+            driverCar.checkLines(timer);
+            watcher.pump();
+            Thread.sleep(16);
+        }
+    }
+
+    private void assertSamePose(Car expected, Car actual) {
+        assertEquals(expected.getPosX(), actual.getPosX(), 0.02);
+        assertEquals(expected.getPosY(), actual.getPosY(), 0.02);
+        assertEquals(expected.getVel(), actual.getVel(), 0.02);
+    }
+
+    @Test
+    public void testJoin() throws Exception {
+        setup(NetworkConditions.NONE, NetworkConditions.NONE);
+        assertEquals(2, server.getClientIds().size());
+        assertNotEquals(driver.getId(), watcher.getId());
+        assertEquals(server.getObstacles().size(), driver.getObstacles().size());
+        drive(0.2, false);
+        assertTrue(watcher.getRemoteCars().containsKey(driver.getId()));
+        assertTrue(driver.getRemoteCars().containsKey(watcher.getId()));
+        tearDown();
+    }
+
+    @Test
+    public void testPredictionWithLatencyAndLoss() throws Exception {
+        setup(new NetworkConditions(40, 10, 0.1, 1), new NetworkConditions(40, 10, 0.1, 2));
+        drive(0.5, true);
+        assertTrue(driverCar.isMoving());
+        // the prediction runs ahead of the server
+        assertTrue(driverCar.getPosX() < server.getCar(driver.getId()).getPosX());
+        // let the car roll out, then everybody has to agree on where it is
+        drive(3, false);
+        assertSamePose(server.getCar(driver.getId()), driverCar);
+        assertSamePose(server.getCar(driver.getId()), watcher.getRemoteCars().get(driver.getId()));
+        assertTrue(server.getBandwidth(driver.getId()) > 0);
+        assertTrue(watcher.getBandwidth() > 0);
+        tearDown();
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        setup(NetworkConditions.NONE, NetworkConditions.NONE);
+        // over the start line and a bit to the left
+        driveLeft(1.5, new RoundTimer());
+        Car serverCar = server.getCar(driver.getId());
+        assertTrue(driverCar.hasStartedLap());
+        assertTrue(driverCar.getLapTime() > 0);
+        // the server checks the gates of its own copy
+        assertTrue(serverCar.hasStartedLap());
+        assertTrue(Math.abs(serverCar.getRotation()) > 0.01);
+        driver.requestReset();
+        drive(0.5, false);
+        for (Car car : new Car[] {serverCar, driverCar}) {
+            assertEquals(car.getStartX(), car.getPosX(), 0);
+            assertEquals(car.getStartY(), car.getPosY(), 0);
+            assertEquals(Car.getTrack().getDescriptor().getStartRotation(), car.getRotation(), 0);
+            assertFalse(car.hasStartedLap());
+            assertEquals(0, car.getLapTime(), 0);
+            assertFalse(car.isFrozen());
+        }
+        tearDown();
+    }
+
+    @Test
+    public void testInvalidInputs() throws Exception {
+        long start = System.nanoTime();
+        setup(NetworkConditions.NONE, NetworkConditions.NONE);
+        Car serverCar = server.getCar(driver.getId());
+        // time deltas that are not a positive number do not move the car
+        driver.update(Double.NaN, true, false, false, false);
+        driver.update(Double.POSITIVE_INFINITY, true, false, false, false);
+        driver.update(-1, true, false, false, false);
+        drive(0.2, true);
+        assertTrue(serverCar.isMoving());
+        assertTrue(Double.isFinite(serverCar.getTime()));
+        assertTrue(Double.isFinite(driverCar.getTime()));
+        // ten seconds at once: the server does not drive faster than real time
+        for (int i = 0; i < 100; i++) {
+            driver.update(0.1, false, false, false, false);
+        }
+        drive(0.2, false);
+        assertTrue(driverCar.getTime() > 10);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        assertTrue(serverCar.getTime() < seconds + 0.5 + 1e-3);
+        tearDown();
+    }
+
+    @Test
+    public void testLapTimeWithLatency() throws Exception {
+        // with 50 ms each way, several inputs are always waiting to be acknowledged
+        NetworkConditions lag = new NetworkConditions(50, 0, 0, 1);
+        setup(lag, lag);
+        RoundTimer timer = new RoundTimer();
+        Car offline = new Car();
+        offline.unfreeze();
+        for (int frame = 0; frame < 90; frame++) {
+            driver.update(1 / 60.0, true, false, false, false);
+            driverCar.checkLines(timer);
+            // a destroyed car is not stepped any more, like on the server
+            if (!offline.isDestroyed()) {
+                offline.stepForward((float) (1 / 60.0), true, false, false, false,
+                                driver.getObstacles());
+            }
+            offline.checkLines(timer);
+            watcher.pump();
+            Thread.sleep(16);
+        }
+        assertTrue(offline.hasStartedLap());
+        assertTrue(driverCar.hasStartedLap());
+        // inputs applied again after a snapshot do not add to the lap time
+        assertEquals(offline.getTime(), driverCar.getTime(), 1e-3);
+        assertEquals(offline.getLapTime(), driverCar.getLapTime(), 0.02);
+        tearDown();
+    }
+}
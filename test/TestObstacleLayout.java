@@ -0,0 +1,89 @@
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import model.Car;
+import model.LayoutQueue;
+import model.Obstacle;
+import model.ObstacleLayout;
+import track.Track;
+
+public class TestObstacleLayout {
+    Track track;
+
+    private void setup() throws IOException {
+        System.setProperty("rennspiel.cache",
+                        Files.createTempDirectory("rennspiel-cache").toString());
+        Car.initTrack();
+        track = Car.getTrack();
+    }
+
+    private ObstacleLayout generate(long seed) {
+        return ObstacleLayout.generate(track, seed, 10, 2, Collections.emptyList(), 0);
+    }
+
+    private static List<Double> values(ObstacleLayout layout) {
+        List<Double> values = new ArrayList<>();
+        for (Obstacle o : layout.getObstacles()) {
+            values.add(o.getX());
+            values.add(o.getY());
+            values.add(o.getRadius());
+            values.add(o.getRotation());
+        }
+        return values;
+    }
+
+    @Test
+    public void testSeed() throws IOException {
+        setup();
+        ObstacleLayout a = generate(42), b = generate(42), c = generate(43);
+        assertEquals(10, a.getObstacles().size());
+        assertEquals(values(a), values(b));
+        assertNotEquals(values(a), values(c));
+        assertNull(a.getBackground());
+        assertEquals(-5, ObstacleLayout.parseSeed(ObstacleLayout.toString(-5)));
+    }
+
+    @Test
+    public void testQueue() throws IOException {
+        setup();
+        List<ObstacleLayout> first = new ArrayList<>(), second = new ArrayList<>();
+        try (LayoutQueue queue = new LayoutQueue(track, 7, 10, 2, Collections.emptyList(), 0,
+                        layout -> layout)) {
+            for (int i = 0; i < 5; i++) {
+                first.add(queue.next());
+            }
+        }
+        try (LayoutQueue queue = new LayoutQueue(track, 7, 10, 2, Collections.emptyList(), 0,
+                        layout -> layout)) {
+            for (int i = 0; i < 5; i++) {
+                second.add(queue.next());
+            }
+        }
+        // the same courses in the same order, starting with the given seed
+        assertEquals(7, first.get(0).getSeed());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(first.get(i).getSeed(), second.get(i).getSeed());
+            assertEquals(values(first.get(i)), values(second.get(i)));
+            assertEquals(values(generate(first.get(i).getSeed())), values(first.get(i)));
+        }
+        assertNotEquals(first.get(0).getSeed(), first.get(1).getSeed());
+    }
+
+    @Test
+    public void testFailure() throws IOException {
+        setup();
+        try (LayoutQueue queue = new LayoutQueue(track, 7, 10, 2, Collections.emptyList(), 0,
+                        layout -> {
+                            throw new IllegalStateException("broken");
+                        })) {
+            queue.next();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("broken", e.getCause().getMessage());
+        }
+    }
+}
@@ -1,8 +1,12 @@
 import static org.junit.Assert.*;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import org.junit.Test;
 import model.Car;
 import model.Obstacle;
+import model.ReachabilityCheck;
 
 public class TestObstacles {
     Collection<Obstacle> obs;
@@ -24,4 +28,30 @@ public class TestObstacles {
             });
         });
     }
+
+    @Test
+    public void testReachability() {
+        Car.initTrack();
+        ReachabilityCheck check = ReachabilityCheck.get();
+        assertTrue(check.isDrivable(Collections.emptyList()));
+        // a row of obstacles across the top straight
+        List<Obstacle> wall = new ArrayList<>();
+        for (double y = 5; y <= 15; y += 1.5) {
+            wall.add(new Obstacle(55, y, 0.9, 0));
+        }
+        assertFalse(check.isDrivable(wall));
+        // with a gap the car fits through
+        wall.remove(3);
+        wall.remove(3);
+        assertTrue(check.isDrivable(wall));
+    }
+
+    @Test
+    public void testGeneratedLayoutsAreDrivable() {
+        Car.initTrack();
+        for (int i = 0; i < 20; i++) {
+            setup(15, new Car().getWidth());
+            assertTrue(ReachabilityCheck.get().isDrivable(obs));
+        }
+    }
 }
@@ -0,0 +1,94 @@
+import static org.junit.Assert.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import model.Car;
+import model.Obstacle;
+import model.RaySensor;
+
+public class TestRaySensor {
+    RaySensor sensor;
+    double[] distances;
+    int[] surfaces;
+
+    private void setup() {
+        Car.initTrack();
+        sensor = new RaySensor(Car.getTrackBitMap(), Collections.emptyList());
+        distances = new double[4];
+        surfaces = new int[4];
+    }
+
+    @Test
+    public void testEdge() {
+        setup();
+        // straight up from the middle of the top straight, which is about 10 m wide
+        sensor.cast(60, 10, -Math.PI / 2, new double[] {0}, 30, distances, surfaces, 1);
+        assertEquals(5, distances[1], 0.2);
+        assertEquals(RaySensor.EDGE, surfaces[1]);
+        // too short to get there
+        sensor.cast(60, 10, -Math.PI / 2, new double[] {0}, 3, distances, surfaces, 2);
+        assertEquals(3, distances[2], 0);
+        assertEquals(RaySensor.NOTHING, surfaces[2]);
+        // starting off the track
+        sensor.cast(60, 2, 0, new double[] {0}, 30, distances, surfaces, 0);
+        assertEquals(0, distances[0], 0);
+        assertEquals(RaySensor.EDGE, surfaces[0]);
+    }
+
+    @Test
+    public void testObstacle() {
+        setup();
+        List<Obstacle> obstacles = Collections.singletonList(new Obstacle(55, 10, 1, 0));
+        RaySensor withObstacle = sensor.withObstacles(obstacles);
+        // to the left and to the right
+        withObstacle.cast(60, 10, Math.PI, new double[] {0, Math.PI}, 30, distances, surfaces, 0);
+        assertEquals(4, distances[0], 1e-9);
+        assertEquals(RaySensor.OBSTACLE, surfaces[0]);
+        assertNotEquals(RaySensor.OBSTACLE, surfaces[1]);
+        // the sensor it was made from does not see it
+        sensor.cast(60, 10, Math.PI, new double[] {0}, 30, distances, surfaces, 0);
+        assertTrue(distances[0] > 20);
+    }
+
+    @Test
+    public void testSameAsMarching() {
+        setup();
+        boolean[][] track = Car.getTrackBitMap();
+        Random random = new Random(3);
+        double[] angles = new double[50];
+        double[] all = new double[angles.length];
+        for (int i = 0; i < angles.length; i++) {
+            angles[i] = random.nextDouble() * 2 * Math.PI;
+        }
+        int differ = 0;
+        for (int n = 0; n < 40; n++) {
+            double x, y;
+            do {
+                x = random.nextDouble() * 130;
+                y = random.nextDouble() * 80;
+            } while (!track[(int) (x * 10)][(int) (y * 10)]);
+            sensor.cast(x, y, 0, angles, 30, all, null, 0);
+            for (int i = 0; i < angles.length; i++) {
+                double dx = Math.cos(angles[i]), dy = Math.sin(angles[i]);
+                double d = 0;
+                while (d < 30) {
+                    double px = x + d * dx, py = y + d * dy;
+                    if (px < 0 || py < 0 || px >= 130 || py >= 80
+                                    || !track[(int) (px * 10)][(int) (py * 10)]) {
+                        break;
+                    }
+                    d += 0.001;
+                }
+                // the sensor never misses an edge, but marching can slip through the corner
+                // of a pixel
+                assertTrue(Arrays.toString(new double[] {x, y, angles[i]}), all[i] < d + 0.002);
+                if (all[i] < Math.min(d, 30) - 0.002) {
+                    differ++;
+                }
+            }
+        }
+        assertTrue(differ < 20);
+    }
+}
@@ -0,0 +1,121 @@
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import model.AIDriver;
+import model.Car;
+import model.Obstacle;
+import model.RewindBuffer;
+import model.RoundTimer;
+
+public class TestRewind {
+    static final double DT = 1 / 60.0;
+    Car car;
+    List<Car> cars;
+    AIDriver driver;
+    RoundTimer timer;
+    Collection<Obstacle> obstacles;
+
+    private void setup() throws IOException {
+        System.setProperty("rennspiel.cache",
+                        Files.createTempDirectory("rennspiel-cache").toString());
+        Car.initTrack();
+        car = new Car();
+        car.unfreeze();
+        cars = Collections.singletonList(car);
+        driver = new AIDriver(15, Car.getTrack().getFields());
+        timer = new RoundTimer();
+        obstacles = Collections.emptyList();
+    }
+
+    private void tick(RewindBuffer buffer) {
+        driver.update(car, obstacles);
+        car.stepForward(DT, driver.accelerate(), driver.brake(), driver.turnLeft(),
+                        driver.turnRight(), obstacles);
+        car.checkLines(timer);
+        buffer.record(cars, timer, obstacles, DT);
+    }
+
+    private double[] pose() {
+        return new double[] {car.getPosX(), car.getPosY(), car.getVel(), car.getRotation(),
+                        car.getLapTime(), car.hasStartedLap() ? 1 : 0};
+    }
+
+    @Test
+    public void testRewind() throws IOException {
+        setup();
+        RewindBuffer buffer = new RewindBuffer(1, 5, 60);
+        for (int i = 0; i < 600; i++) {
+            tick(buffer);
+        }
+        double[] before = pose();
+        for (int i = 0; i < 120; i++) {
+            tick(buffer);
+        }
+        double[] after = pose();
+        assertEquals(5, buffer.getSeconds(), DT / 2);
+
+        // back by two seconds, a frame at a time
+        for (int i = 0; i < 120; i++) {
+            assertSame(obstacles, buffer.rewind(DT, cars, timer));
+        }
+        assertArrayEquals(before, pose(), 0);
+        // the race goes on as if it had not been rewound
+        for (int i = 0; i < 120; i++) {
+            tick(buffer);
+        }
+        assertArrayEquals(after, pose(), 0);
+
+        // not further back than the buffer reaches
+        buffer.rewind(60, cars, timer);
+        assertEquals(0, buffer.getSeconds(), 0);
+        assertEquals(1, buffer.getSize());
+        buffer.clear();
+        assertNull(buffer.rewind(DT, cars, timer));
+    }
+
+    @Test
+    public void testLapProgress() throws IOException {
+        setup();
+        RewindBuffer buffer = new RewindBuffer(1, 120, 60);
+        tick(buffer);
+        while (!car.hasPassedEndLine()) {
+            tick(buffer);
+        }
+        double lapTime = car.getLapTime();
+        buffer.rewind(120, cars, timer);
+        assertFalse(car.hasStartedLap());
+        assertFalse(car.hasPassedEndLine());
+        // all gates have to be crossed again
+        while (!car.hasPassedEndLine()) {
+            tick(buffer);
+        }
+        assertEquals(lapTime, car.getLapTime(), 1e-9);
+    }
+
+    @Test
+    public void testNoAllocation() throws IOException {
+        setup();
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threads =
+                        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        RewindBuffer buffer = new RewindBuffer(1, 1, 60);
+        // warm up and fill the ring
+        for (int i = 0; i < 20_000; i++) {
+            buffer.record(cars, timer, obstacles, DT);
+        }
+        long id = Thread.currentThread().getId();
+        long start = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 1_000; i++) {
+            buffer.record(cars, timer, obstacles, DT);
+        }
+        // a little slack for the measurement itself
+        assertTrue(threads.getThreadAllocatedBytes(id) - start < 1_000);
+    }
+}
@@ -0,0 +1,161 @@
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.junit.Test;
+import host.RaceSession;
+import host.SessionHost;
+import model.AIDriver;
+import model.Car;
+import model.Driver;
+import model.Obstacle;
+import track.Track;
+import track.TrackDescriptor;
+import track.TrackRegistry;
+
+public class TestSessionHost {
+
+    private void setup() throws IOException {
+        System.setProperty("rennspiel.cache",
+                        Files.createTempDirectory("rennspiel-cache").toString());
+        Car.initTrack();
+    }
+
+    /**
+     * A driver that stands still.
+     */
+    private static final class Parked implements Driver {
+        @Override
+        public void update(Car car, Collection<Obstacle> obstacles) {}
+
+        @Override
+        public boolean accelerate() {
+            return false;
+        }
+
+        @Override
+        public boolean brake() {
+            return false;
+        }
+
+        @Override
+        public boolean turnLeft() {
+            return false;
+        }
+
+        @Override
+        public boolean turnRight() {
+            return false;
+        }
+    }
+
+    @Test
+    public void testSessionsOnTwoTracks() throws Exception {
+        setup();
+        Track current = Car.getTrack();
+        Track grass = TrackRegistry.get("track_grass");
+        List<CompletableFuture<RaceSession>> races = new ArrayList<>();
+        try (SessionHost host = new SessionHost(2, 30)) {
+            for (int s = 0; s < 6; s++) {
+                Track track = s % 2 == 0 ? current : grass;
+                List<Driver> drivers = Arrays.asList(new AIDriver(15, track.getFields()),
+                                new AIDriver(12, track.getFields()));
+                races.add(host.submit(new RaceSession("race " + s, track, drivers, 0, 1 / 60.0,
+                                60 * 120, false)));
+            }
+            for (int s = 0; s < races.size(); s++) {
+                RaceSession session = races.get(s).get();
+                assertEquals(RaceSession.Status.FINISHED, session.getStatus());
+                for (Car car : session.getCars()) {
+                    assertSame(session.getTrack(), car.getDrivenTrack());
+                }
+                for (double time : session.getLapTimes()) {
+                    assertTrue(time > 0);
+                }
+            }
+            assertEquals(0, host.getActiveSessions());
+            // the same race on the same track takes the same time
+            assertArrayEquals(races.get(0).get().getLapTimes(), races.get(2).get().getLapTimes(),
+                            0);
+        }
+        assertSame(current, Car.getTrack());
+    }
+
+    @Test
+    public void testSessionsWithDifferentStartLines() throws Exception {
+        setup();
+        Track oval = Car.getTrack();
+        TrackDescriptor d = oval.getDescriptor();
+        // the same mask, but the start line on the bottom straight, driving towards positive x
+        Track bottom = new Track(new TrackDescriptor("bottom", d.getBackground(), d.getMask(),
+                        d.getWorldWidth(), d.getWorldHeight(), 61.9, 70, Math.PI,
+                        Arrays.asList(new double[] {64, 75, 64, 65}, new double[] {66, 5, 66, 15}),
+                        d.getExclusions()), oval.getMask());
+        List<CompletableFuture<RaceSession>> races = new ArrayList<>();
+        try (SessionHost host = new SessionHost(2, 30)) {
+            for (int s = 0; s < 4; s++) {
+                Track track = s % 2 == 0 ? oval : bottom;
+                List<Driver> drivers = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    drivers.add(new AIDriver(12 + i, track.getFields()));
+                }
+                races.add(host.submit(new RaceSession("race " + s, track, drivers, 0, 1 / 60.0,
+                                60 * 120, false)));
+            }
+            for (CompletableFuture<RaceSession> race : races) {
+                RaceSession session = race.get();
+                TrackDescriptor descriptor = session.getTrack().getDescriptor();
+                double[] line = descriptor.getGates().get(0);
+                double backX = Math.cos(descriptor.getStartRotation());
+                double backY = Math.sin(descriptor.getStartRotation());
+                assertEquals(RaceSession.Status.FINISHED, session.getStatus());
+                for (Car car : session.getCars()) {
+                    assertSame(session.getTrack(), car.getDrivenTrack());
+                    // on the grid of its own track: behind its start line
+                    assertTrue((car.getStartX() - line[0]) * backX
+                                    + (car.getStartY() - line[1]) * backY > 0);
+                }
+                for (double time : session.getLapTimes()) {
+                    assertTrue(time > 0);
+                }
+            }
+        }
+        // the sessions on one track are not changed by the sessions on the other
+        assertArrayEquals(races.get(0).get().getLapTimes(), races.get(2).get().getLapTimes(), 0);
+        assertArrayEquals(races.get(1).get().getLapTimes(), races.get(3).get().getLapTimes(), 0);
+    }
+
+    @Test
+    public void testFairAndBudgeted() throws Exception {
+        setup();
+        RaceSession parked = new RaceSession("parked", Car.getTrack(),
+                        Collections.singletonList(new Parked()), 0, 1 / 60.0, 1_000_000, false);
+        CompletableFuture<RaceSession> waiting;
+        try (SessionHost host = new SessionHost(1, 10)) {
+            waiting = host.submit(parked);
+            // a short race is not held up by the long one on the only worker
+            RaceSession shortRace = host.submit(new RaceSession("short", Car.getTrack(),
+                            Collections.singletonList(new Parked()), 0, 1 / 60.0, 100, false))
+                            .get();
+            assertEquals(RaceSession.Status.OUT_OF_TICKS, shortRace.getStatus());
+            assertEquals(100, shortRace.getTicks());
+            assertFalse(waiting.isDone());
+            assertEquals(1, host.getActiveSessions());
+        }
+        // closing the host cancels the long race
+        try {
+            waiting.get();
+            fail();
+        } catch (ExecutionException | CancellationException e) {
+            // cancelled
+        }
+        assertTrue(parked.getTicks() < 1_000_000);
+    }
+}
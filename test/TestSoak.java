@@ -0,0 +1,26 @@
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.Test;
+import model.Car;
+import tools.SoakHarness;
+
+public class TestSoak {
+
+    private void setup() throws IOException {
+        System.setProperty("rennspiel.cache",
+                        Files.createTempDirectory("rennspiel-cache").toString());
+        Car.initTrack();
+    }
+
+    @Test
+    public void testSoak() throws IOException, InterruptedException {
+        setup();
+        SoakHarness.Report report = new SoakHarness(2, 1).run(0, 40);
+        assertEquals(report.failures.toString(), 0, report.failedSessions);
+        assertEquals(40, report.sessions);
+        assertTrue(report.ticks > 40 * 600);
+        assertTrue(report.resets > 0);
+        assertTrue(report.heapGrowth() < 64_000_000);
+    }
+}
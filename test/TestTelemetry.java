@@ -0,0 +1,96 @@
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import model.AIDriver;
+import model.Car;
+import model.RoundTimer;
+import model.TelemetryRecorder;
+import tools.TelemetryAnalyser;
+
+public class TestTelemetry {
+    static final double DT = 1 / 60.0;
+    Path file;
+
+    private void setup() throws IOException {
+        System.setProperty("rennspiel.cache",
+                        Files.createTempDirectory("rennspiel-cache").toString());
+        Car.initTrack();
+        file = Files.createTempDirectory("rennspiel-telemetry").resolve("telemetry.bin");
+    }
+
+    /**
+     * Drive a lap with the computer and record it.
+     *
+     * @return The lap time.
+     */
+    private double driveLap(TelemetryRecorder telemetry, double speed) {
+        Car car = new Car();
+        car.unfreeze();
+        AIDriver driver = new AIDriver(speed, Car.getTrack().getFields());
+        RoundTimer timer = new RoundTimer();
+        for (int tick = 0; tick < 60 * 120 && !car.hasPassedEndLine(); tick++) {
+            driver.update(car, Collections.emptyList());
+            car.stepForward(DT, driver.accelerate(), driver.brake(), driver.turnLeft(),
+                            driver.turnRight(), Collections.emptyList());
+            car.checkLines(timer);
+            telemetry.record(car, DT, driver.accelerate(), driver.brake(), driver.turnLeft(),
+                            driver.turnRight());
+        }
+        assertTrue(car.hasPassedEndLine());
+        return car.getLapTime();
+    }
+
+    @Test
+    public void testLaps() throws IOException {
+        setup();
+        double fast, slow;
+        try (TelemetryRecorder telemetry = new TelemetryRecorder(file, Car.getTrack().getName())) {
+            fast = driveLap(telemetry, 15);
+        }
+        // a second recording is appended to the file
+        try (TelemetryRecorder telemetry = new TelemetryRecorder(file, Car.getTrack().getName())) {
+            slow = driveLap(telemetry, 5);
+        }
+        assertTrue(fast < slow);
+
+        TelemetryAnalyser analyser = new TelemetryAnalyser(Car.getTrack().getFields(), 8);
+        List<TelemetryAnalyser.Lap> laps = analyser.analyse(file);
+        assertEquals(2, laps.size());
+        assertEquals(fast, laps.get(0).lapTime, 2 * DT);
+        assertEquals(slow, laps.get(1).lapTime, 2 * DT);
+        TelemetryAnalyser.Lap reference = TelemetryAnalyser.fastest(laps);
+        assertSame(laps.get(0), reference);
+
+        double sum = 0, loss = 0;
+        for (int s = 0; s < 8; s++) {
+            assertTrue(laps.get(1).sectorTimes[s] > 0);
+            sum += laps.get(1).sectorTimes[s];
+            loss += laps.get(1).timeLoss(reference)[s];
+            assertEquals(0, reference.timeLoss(reference)[s], 0);
+        }
+        assertEquals(laps.get(1).lapTime, sum, 1e-6);
+        assertEquals(laps.get(1).lapTime - reference.lapTime, loss, 1e-6);
+        assertFalse(Double.isNaN(reference.speedTrace[TelemetryAnalyser.TRACE_BINS / 2]));
+        assertFalse(reference.brakingPoints.isEmpty());
+
+        // the columns compress well
+        long ticks = Math.round((fast + slow) / DT);
+        assertTrue(Files.size(file) < ticks * 23 / 2);
+    }
+
+    @Test
+    public void testOtherTrack() throws IOException {
+        setup();
+        new TelemetryRecorder(file, "track_gravel").close();
+        try {
+            new TelemetryRecorder(file, "track_grass");
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("track_gravel"));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.Test;
+import model.Car;
+import track.Track;
+import track.TrackDescriptor;
+import track.TrackRegistry;
+
+public class TestTrack {
+    Path cache;
+
+    private void setup() throws IOException {
+        cache = Files.createTempDirectory("rennspiel-cache");
+        System.setProperty("rennspiel.cache", cache.toString());
+    }
+
+    @Test
+    public void testDescriptor() throws IOException {
+        TrackDescriptor d = TrackDescriptor.parse("test", new StringReader(
+                        "background = a.png\nmask = b.png\nworld.width = 130\nworld.height = 80\n"
+                                        + "start.x = 5\nstart.y = 2\ngate.0 = 1 0 1 4\n"
+                                        + "gate.1 = 1 6 1 10\nexclusion.0 = 0 0 2 10\n"));
+        assertEquals("a.png", d.getBackground());
+        assertEquals(0, d.getStartRotation(), 0);
+        assertEquals(2, d.getGates().size());
+        assertEquals(6, d.getGates().get(1)[1], 0);
+        assertTrue(d.isExcluded(1, 5, 0));
+        assertFalse(d.isExcluded(3, 5, 0));
+        assertTrue(d.isExcluded(3, 5, 1.5));
+        try {
+            TrackDescriptor.parse("test", new StringReader("background = a.png\n"));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("mask"));
+        }
+        // the world has the size of the game view
+        try {
+            TrackDescriptor.parse("test", new StringReader(
+                            "background = a.png\nmask = b.png\nworld.width = 20\n"
+                                            + "world.height = 10\nstart.x = 5\nstart.y = 2\n"
+                                            + "gate.0 = 1 0 1 4\n"));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("world"));
+        }
+    }
+
+    @Test
+    public void testBundle() throws IOException {
+        setup();
+        Track compiled = Track.load(TrackRegistry.DEFAULT);
+        assertTrue(Files.list(cache)
+                        .anyMatch(f -> f.getFileName().toString().startsWith("track-")));
+        Track loaded = Track.load(TrackRegistry.DEFAULT);
+        assertNotSame(compiled.getMask(), loaded.getMask());
+        for (int x = 0; x < compiled.getMask().length; x++) {
+            assertTrue(Arrays.equals(compiled.getMask()[x], loaded.getMask()[x]));
+        }
+        assertEquals(compiled.getDescriptor().getStartX(), loaded.getDescriptor().getStartX(), 0);
+        assertArrayEquals(compiled.getDescriptor().getGates().get(0),
+                        loaded.getDescriptor().getGates().get(0), 0);
+    }
+
+    @Test
+    public void testFieldsFollowDescriptor() throws IOException {
+        setup();
+        Track oval = Track.load(TrackRegistry.DEFAULT);
+        TrackDescriptor d = oval.getDescriptor();
+        // the same mask, but the start line on the bottom straight, driving towards positive x
+        Track bottom = new Track(new TrackDescriptor("bottom", d.getBackground(), d.getMask(),
+                        d.getWorldWidth(), d.getWorldHeight(), 61.9, 70, Math.PI,
+                        Arrays.asList(new double[] {64, 75, 64, 65}, new double[] {66, 5, 66, 15}),
+                        d.getExclusions()), oval.getMask());
+        assertEquals(1, oval.getFields().progress(65, 10), 0.3);
+        // not the cached progress of the oval
+        assertEquals(1, bottom.getFields().progress(65, 70), 0.3);
+        assertEquals(oval.getFields().getLapLength(), bottom.getFields().getLapLength(), 1);
+    }
+
+    @Test
+    public void testRegistry() throws IOException {
+        setup();
+        assertTrue(TrackRegistry.names().contains(TrackRegistry.DEFAULT));
+        for (String name : TrackRegistry.names()) {
+            Track track = TrackRegistry.get(name);
+            assertSame(track, TrackRegistry.get(name));
+            assertEquals(name, track.getName());
+        }
+        // the tracks share the mask, so the derived data is only computed once
+        assertSame(TrackRegistry.get("track_grass").getEdgeField(),
+                        TrackRegistry.get("track_dirt").getEdgeField());
+    }
+
+    @Test
+    public void testSwitchTrack() throws IOException {
+        setup();
+        Car.useTrack(TrackRegistry.get("track_grass"));
+        assertEquals("track_grass", Car.getTrack().getName());
+        Car car = new Car();
+        assertEquals(Car.getTrack().getDescriptor().getStartX(), car.getPosX(), 0);
+        Car.initTrack();
+        assertEquals(TrackRegistry.DEFAULT, Car.getTrack().getName());
+    }
+}
@@ -0,0 +1,146 @@
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Test;
+import model.AIDriver;
+import model.Car;
+import model.DistanceTransform;
+import model.Obstacle;
+import model.RoundTimer;
+import model.SignedDistanceField;
+import model.TrackFields;
+
+public class TestTrackFields {
+    TrackFields fields;
+
+    private void setup() throws IOException {
+        System.setProperty("rennspiel.cache",
+                        Files.createTempDirectory("rennspiel-cache").toString());
+        Car.initTrack();
+        fields = TrackFields.get();
+    }
+
+    @Test
+    public void testDistanceTransform() {
+        boolean[][] bitmap = new boolean[7][5];
+        bitmap[1][1] = true;
+        bitmap[6][4] = true;
+        float[] dist = DistanceTransform.compute(bitmap, true);
+        for (int x = 0; x < 7; x++) {
+            for (int y = 0; y < 5; y++) {
+                double expected = Math.min(Math.hypot(x - 1, y - 1), Math.hypot(x - 6, y - 4));
+                assertEquals(expected, dist[x * 5 + y], 1e-5);
+            }
+        }
+    }
+
+    @Test
+    public void testEdgeDistance() throws IOException {
+        setup();
+        // the track is about 10 m wide at the start
+        assertEquals(5, fields.edgeDistance(60, 10), 0.2);
+        assertEquals(1, fields.edgeDistance(60, 6), 0.2);
+        assertTrue(fields.edgeDistance(65, 40) < 0);
+    }
+
+    @Test
+    public void testEdgeGradient() throws IOException {
+        setup();
+        SignedDistanceField field = Car.getEdgeField();
+        double[] direction = new double[2];
+        // below the upper edge of the top straight the distance grows downwards
+        field.gradient(60, 6, direction);
+        assertEquals(0, direction[0], 0.1);
+        assertEquals(1, direction[1], 0.1);
+        // above it, off the track, too: towards the track
+        field.gradient(60, 4, direction);
+        assertEquals(1, direction[1], 0.1);
+        assertEquals(fields.edgeDistance(60, 6), field.distance(60, 6), 0);
+    }
+
+    @Test
+    public void testProgress() throws IOException {
+        setup();
+        assertTrue(fields.getLapLength() > 200);
+        // the progress grows along the track: left along the top, down, right along the bottom
+        double[][] path = {{60, 10}, {30, 10}, {10, 40}, {30, 70}, {100, 70}, {120, 40}, {70, 10}};
+        for (int i = 1; i < path.length; i++) {
+            assertTrue(fields.progress(path[i][0], path[i][1]) > fields.progress(path[i - 1][0],
+                            path[i - 1][1]));
+        }
+        // across the start line
+        assertEquals(2, fields.progressBetween(67, 10, 65, 10), 0.3);
+    }
+
+    @Test
+    public void testProgressFromOtherStartLine() throws IOException {
+        setup();
+        // the start line on the bottom straight, driving towards positive x
+        TrackFields other = new TrackFields(Car.getTrackBitMap(), new double[] {64, 75, 64, 65},
+                        61.9, 70, Math.PI);
+        assertEquals(fields.getLapLength(), other.getLapLength(), 1);
+        assertEquals(1, other.progress(65, 70), 0.3);
+        assertEquals(other.getLapLength() - 1, other.progress(63, 70), 0.3);
+        assertTrue(other.progress(120, 40) < other.progress(60, 10));
+        assertTrue(other.progress(60, 10) < other.progress(10, 40));
+        // across the start line
+        assertEquals(2, other.progressBetween(63, 70, 65, 70), 0.3);
+    }
+
+    @Test
+    public void testClearance() throws IOException {
+        setup();
+        Collection<Obstacle> obstacles = Collections.singletonList(new Obstacle(55, 10, 1, 0));
+        assertEquals(5, fields.clearance(Collections.emptyList(), 55, 10), 0.5);
+        assertTrue(fields.clearance(obstacles, 55, 10) < 0);
+        assertEquals(2, fields.clearance(obstacles, 52, 10), 0.5);
+    }
+
+    @Test
+    public void testCachedFieldsAreEqual() throws IOException {
+        setup();
+        TrackFields cached = new TrackFields(Car.getTrackBitMap(),
+                        Car.getTrack().getDescriptor());
+        for (double x = 0.05; x < 130; x += 7.3) {
+            for (double y = 0.05; y < 80; y += 3.1) {
+                assertEquals(fields.edgeDistance(x, y), cached.edgeDistance(x, y), 0);
+                assertEquals(fields.progress(x, y), cached.progress(x, y), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testAIDriverWaitsForFields() throws IOException {
+        setup();
+        Car car = new Car();
+        car.unfreeze();
+        CompletableFuture<TrackFields> pending = new CompletableFuture<>();
+        AIDriver driver = new AIDriver(12, pending);
+        driver.update(car, Collections.emptyList());
+        assertFalse(driver.accelerate());
+        pending.complete(fields);
+        driver.update(car, Collections.emptyList());
+        assertTrue(driver.accelerate());
+    }
+
+    @Test
+    public void testAIDriverFinishesLap() throws IOException {
+        setup();
+        Car car = new Car();
+        car.unfreeze();
+        AIDriver driver = new AIDriver(12, fields);
+        RoundTimer timer = new RoundTimer();
+        Collection<Obstacle> obstacles = Collections.emptyList();
+        for (int i = 0; i < 60 * 90 && !car.hasPassedEndLine(); i++) {
+            driver.update(car, obstacles);
+            car.stepForward(1 / 60.0, driver.accelerate(), driver.brake(), driver.turnLeft(),
+                            driver.turnRight(), obstacles);
+            car.checkLines(timer);
+        }
+        assertTrue(car.hasPassedEndLine());
+        assertFalse(car.isDestroyed());
+    }
+}
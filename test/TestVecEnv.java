@@ -0,0 +1,146 @@
+import static org.junit.Assert.*;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Test;
+import env.EnvServer;
+import env.VecEnv;
+import model.Car;
+import model.Driver;
+
+public class TestVecEnv {
+
+    private void setup() throws IOException {
+        System.setProperty("rennspiel.cache",
+                        Files.createTempDirectory("rennspiel-cache").toString());
+        Car.initTrack();
+    }
+
+    @Test
+    public void testObservations() throws IOException {
+        setup();
+        try (VecEnv env = new VecEnv(2, 1, 4, 100, 0)) {
+            double[] obs = env.reset();
+            assertEquals(2 * VecEnv.OBSERVATION_SIZE, obs.length);
+            // on the track, facing left along the top straight
+            assertEquals(1, obs[5], 0);
+            assertEquals(-1, obs[2], 1e-9);
+            int forward = 8 + Arrays.binarySearch(VecEnv.RAY_ANGLES, 0);
+            assertEquals(1, obs[forward], 0);
+            // to the right of the car is the edge of the track, about 5 m away
+            assertEquals(5.0 / VecEnv.RAY_RANGE, obs[8], 1.0 / VecEnv.RAY_RANGE);
+        }
+    }
+
+    @Test
+    public void testRewardsAndThreads() throws IOException {
+        setup();
+        try (VecEnv single = new VecEnv(4, 1, 4, 100, 0);
+                        VecEnv threaded = new VecEnv(4, 3, 4, 100, 0)) {
+            single.reset();
+            threaded.reset();
+            int[] actions = {Driver.ACCELERATE, Driver.BRAKE, Driver.ACCELERATE | Driver.TURN_LEFT,
+                            0};
+            double progress = 0;
+            for (int step = 0; step < 30; step++) {
+                assertArrayEquals(single.step(actions), threaded.step(actions), 0);
+                assertArrayEquals(single.getRewards(), threaded.getRewards(), 0);
+                progress += single.getRewards()[0];
+            }
+            assertTrue(progress > 5);
+        }
+    }
+
+    @Test
+    public void testEpisodeEnds() throws IOException {
+        setup();
+        try (VecEnv env = new VecEnv(1, 1, 4, 10, 0)) {
+            env.reset();
+            int[] actions = {Driver.ACCELERATE};
+            for (int step = 0; step < 9; step++) {
+                env.step(actions);
+                assertFalse(env.getDone()[0]);
+            }
+            env.step(actions);
+            assertTrue(env.getDone()[0]);
+            // already reset
+            assertEquals(0, env.getCar(0).getVel(), 0);
+        }
+    }
+
+    @Test
+    public void testStepWithoutAllocation() throws IOException {
+        setup();
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threads =
+                        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        try (VecEnv env = new VecEnv(2, 1, 4, 1_000_000, 0)) {
+            env.reset();
+            int[] actions = {Driver.ACCELERATE | Driver.TURN_LEFT, Driver.BRAKE};
+            // warm up, the cars stop at the edge of the track
+            for (int step = 0; step < 20_000; step++) {
+                env.step(actions);
+            }
+            long id = Thread.currentThread().getId();
+            long start = threads.getThreadAllocatedBytes(id);
+            for (int step = 0; step < 1_000; step++) {
+                env.step(actions);
+            }
+            // a little slack for the measurement itself
+            assertTrue(threads.getThreadAllocatedBytes(id) - start < 1_000);
+        }
+    }
+
+    @Test
+    public void testSocket() throws Exception {
+        setup();
+        Thread thread;
+        try (VecEnv env = new VecEnv(3, 1, 4, 100, 0); EnvServer server = new EnvServer(env, 0)) {
+            thread = new Thread(() -> {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    // closed
+                }
+            });
+            thread.start();
+            try (SocketChannel client = SocketChannel
+                            .open(new InetSocketAddress("localhost", server.getPort()))) {
+                ByteBuffer buffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+                request(client, buffer, new byte[] {EnvServer.INFO}, 8);
+                assertEquals(3, buffer.getInt());
+                assertEquals(VecEnv.OBSERVATION_SIZE, buffer.getInt());
+                request(client, buffer, new byte[] {EnvServer.RESET},
+                                12 * VecEnv.OBSERVATION_SIZE);
+                assertEquals(1, buffer.getFloat(5 * 4), 0);
+                request(client, buffer, new byte[] {EnvServer.STEP, 1, 1, 0},
+                                12 * VecEnv.OBSERVATION_SIZE + 15);
+                buffer.position(12 * VecEnv.OBSERVATION_SIZE);
+                assertTrue(buffer.getFloat() > 0);
+                assertTrue(buffer.getFloat() > 0);
+                assertEquals(0, buffer.getFloat(), 0);
+                request(client, buffer, new byte[] {EnvServer.QUIT}, 0);
+            }
+        }
+        // closing the server ends serve()
+        thread.join(1000);
+        assertFalse(thread.isAlive());
+    }
+
+    private void request(SocketChannel client, ByteBuffer buffer, byte[] request, int answer)
+                    throws IOException {
+        client.write(ByteBuffer.wrap(request));
+        buffer.clear().limit(answer);
+        while (buffer.hasRemaining()) {
+            assertTrue(client.read(buffer) >= 0);
+        }
+        buffer.flip();
+    }
+}